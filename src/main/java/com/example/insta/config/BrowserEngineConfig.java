@@ -0,0 +1,40 @@
+package com.example.insta.config;
+
+import com.example.insta.service.BrowserEngine;
+import com.example.insta.service.CdpBrowserEngine;
+import com.example.insta.service.ChromeDriverFactory;
+import com.example.insta.service.SeleniumBrowserEngine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Browser engine for the page scrapes (TikTok, Pexels).
+ *
+ * {@code app.browser.engine=selenium} (the default) goes through chromedriver;
+ * {@code cdp} drives Chrome over the DevTools WebSocket without it, running
+ * {@code app.browser.cdp.binary} (e.g. chrome-headless-shell). Instagram
+ * carousels, YouTube and the download step's browser fallback stay on
+ * Selenium either way.
+ */
+@Configuration
+@Slf4j
+public class BrowserEngineConfig {
+
+    @Bean
+    public BrowserEngine browserEngine(ChromeDriverFactory chromeDriverFactory,
+            @Value("${app.browser.engine:selenium}") String engine,
+            @Value("${app.browser.cdp.binary:}") String cdpBinary) {
+        switch (engine.trim().toLowerCase()) {
+            case "cdp":
+                log.info("Page scrapes drive Chrome over DevTools");
+                return new CdpBrowserEngine(chromeDriverFactory, cdpBinary);
+            case "selenium":
+                log.info("Page scrapes drive Chrome through chromedriver");
+                return new SeleniumBrowserEngine(chromeDriverFactory);
+            default:
+                throw new IllegalArgumentException("Unknown app.browser.engine: " + engine + " (selenium or cdp)");
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.insta.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executor for the blocking scrape/download work (OkHttp execute(), Selenium
+ * calls, Thread.sleep polling).
+ *
+ * With {@code spring.threads.virtual.enabled=true} (the default here) Tomcat
+ * request handling and this executor both use virtual threads, so thousands
+ * of slow requests can wait cheaply. Concurrency is then bounded explicitly
+ * where it matters — browser permits in ChromeDriverFactory, per-host HTTP
+ * permits in VideoDownloaderService, job/batch limits in their services —
+ * instead of implicitly by thread pool sizes.
+ */
+@Configuration
+@Slf4j
+public class ExecutorConfig {
+
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService mediaTaskExecutor(@Value("${spring.threads.virtual.enabled:false}") boolean virtual) {
+        if (virtual) {
+            log.info("Media tasks run on virtual threads");
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("media-", 0).factory());
+        }
+        log.info("Media tasks run on a platform thread pool");
+        return Executors.newCachedThreadPool(Thread.ofPlatform().name("media-", 0).daemon().factory());
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.insta.config;
+
+import com.example.insta.service.BrowserGovernor;
+import com.example.insta.service.ChromeDriverFactory;
+import com.example.insta.service.DownloadJobService;
+import com.example.insta.service.LaneScheduler;
+import com.example.insta.service.MediaBufferPool;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Gauges for the scarce resources, sampled at scrape time so a Prometheus
+ * graph shows saturation next to the stage timers in MediaMetrics:
+ * Chrome instances in use and waiting, lane queues, pooled buffers, and
+ * background jobs.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder browserMetrics(ChromeDriverFactory driverFactory, BrowserGovernor governor) {
+        return registry -> {
+            Gauge.builder("insta.browser.active", driverFactory, ChromeDriverFactory::getActiveCount)
+                    .description("Chrome instances currently running")
+                    .register(registry);
+            Gauge.builder("insta.browser.max", driverFactory, ChromeDriverFactory::getMaxInstances)
+                    .description("Maximum concurrent Chrome instances")
+                    .register(registry);
+            Gauge.builder("insta.browser.waiting", driverFactory, ChromeDriverFactory::getWaitingCount)
+                    .description("Requests waiting for a Chrome instance")
+                    .register(registry);
+            Gauge.builder("insta.browser.allowed", driverFactory, ChromeDriverFactory::getAllowedInstances)
+                    .description("Chrome instances currently allowed; lowered while memory is short")
+                    .register(registry);
+            Gauge.builder("insta.browser.rss", governor, BrowserGovernor::getTrackedRssBytes)
+                    .description("Resident memory of all Chrome process trees at the last sample")
+                    .baseUnit("bytes")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder laneMetrics(LaneScheduler laneScheduler) {
+        return registry -> {
+            for (LaneScheduler.Lane lane : LaneScheduler.Lane.values()) {
+                String tag = lane.name().toLowerCase();
+                Gauge.builder("insta.lane.queued", laneScheduler, s -> s.getQueueDepth(lane))
+                        .description("Tasks waiting for a lane permit")
+                        .tag("lane", tag)
+                        .register(registry);
+                Gauge.builder("insta.lane.running", laneScheduler, s -> s.getRunningCount(lane))
+                        .description("Tasks holding a lane permit")
+                        .tag("lane", tag)
+                        .register(registry);
+            }
+        };
+    }
+
+    @Bean
+    public MeterBinder bufferPoolMetrics(MediaBufferPool bufferPool) {
+        return registry -> {
+            Gauge.builder("insta.buffer.pool.idle", bufferPool, MediaBufferPool::getIdleCount)
+                    .description("Pooled direct buffers ready for reuse")
+                    .register(registry);
+            Gauge.builder("insta.buffer.pool.allocated", bufferPool, MediaBufferPool::getAllocatedCount)
+                    .description("Direct buffers allocated by the pool")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder jobMetrics(DownloadJobService jobService) {
+        return registry -> {
+            Gauge.builder("insta.jobs.queued", jobService, DownloadJobService::getQueuedCount)
+                    .description("Background jobs waiting to start")
+                    .register(registry);
+            Gauge.builder("insta.jobs.running", jobService, DownloadJobService::getActiveCount)
+                    .description("Background jobs running")
+                    .register(registry);
+        };
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.insta.controller;
+
+import com.example.insta.service.AccountSyncService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental account sync: downloads only the posts published since the
+ * previous sync of each account.
+ */
+@Controller
+@RequestMapping("/api/sync")
+public class AccountSyncController {
+
+    private static final String NDJSON = "application/x-ndjson";
+
+    private final AccountSyncService accountSyncService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public AccountSyncController(AccountSyncService accountSyncService) {
+        this.accountSyncService = accountSyncService;
+    }
+
+    /**
+     * POST /api/sync — {"accounts": ["https://www.instagram.com/natgeo/",
+     * "tiktok:natgeo"], "cookies": "...", "maxPosts": 50}.
+     * Streams NDJSON: one {"type":"post",...} line per downloaded post (same
+     * fields as /api/bulk/download), then one {"type":"summary",...} line per
+     * account with the new checkpoint. Accounts are synced one after another.
+     */
+    @PostMapping
+    @ResponseBody
+    public ResponseEntity<?> sync(@RequestBody SyncRequest request) {
+        if (request.getAccounts() == null || request.getAccounts().isEmpty()) {
+            return ResponseEntity.badRequest().body("No accounts provided");
+        }
+        List<AccountSyncService.Account> accounts = new ArrayList<>();
+        try {
+            for (String account : request.getAccounts()) {
+                accounts.add(accountSyncService.parseAccount(account));
+            }
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        int maxPosts = request.getMaxPosts() != null && request.getMaxPosts() > 0
+                ? request.getMaxPosts()
+                : accountSyncService.getDefaultMaxPosts();
+
+        StreamingResponseBody body = out -> {
+            for (AccountSyncService.Account account : accounts) {
+                Map<String, Object> summary;
+                try {
+                    summary = accountSyncService.sync(account, request.getCookies(), maxPosts, result -> {
+                        Map<String, Object> line = new LinkedHashMap<>();
+                        line.put("type", "post");
+                        line.put("account", account.getKey());
+                        line.putAll(result.toMap());
+                        try {
+                            writeLine(out, line);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause(); // client went away
+                } catch (Exception e) {
+                    summary = new LinkedHashMap<>();
+                    summary.put("account", account.getKey());
+                    summary.put("error", e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+                }
+                Map<String, Object> line = new LinkedHashMap<>();
+                line.put("type", "summary");
+                line.putAll(summary);
+                writeLine(out, line);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON))
+                .body(body);
+    }
+
+    /** GET /api/sync/checkpoints — last synced post per account. */
+    @GetMapping("/checkpoints")
+    @ResponseBody
+    public ResponseEntity<?> getCheckpoints() {
+        return ResponseEntity.ok(accountSyncService.getCheckpoints());
+    }
+
+    /**
+     * DELETE /api/sync/checkpoints?account=instagram:natgeo — forget an
+     * account's checkpoint; its next sync starts again from the newest post.
+     */
+    @DeleteMapping("/checkpoints")
+    @ResponseBody
+    public ResponseEntity<?> resetCheckpoint(@RequestParam("account") String account) {
+        try {
+            if (!accountSyncService.resetCheckpoint(accountSyncService.parseAccount(account))) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.noContent().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IOException e) {
+            return ResponseEntity.status(500).body("Failed to save checkpoints: " + e.getMessage());
+        }
+    }
+
+    private void writeLine(OutputStream out, Object record) throws IOException {
+        out.write(objectMapper.writeValueAsBytes(record));
+        out.write('\n');
+        out.flush();
+    }
+
+    public static class SyncRequest {
+        private List<String> accounts; // profile URLs or "instagram:handle" / "tiktok:handle"
+        private String cookies; // optional Instagram browser cookies
+        private Integer maxPosts; // cap on new posts per account (default app.sync.max-posts)
+
+        public List<String> getAccounts() {
+            return accounts;
+        }
+
+        public void setAccounts(List<String> accounts) {
+            this.accounts = accounts;
+        }
+
+        public String getCookies() {
+            return cookies;
+        }
+
+        public void setCookies(String cookies) {
+            this.cookies = cookies;
+        }
+
+        public Integer getMaxPosts() {
+            return maxPosts;
+        }
+
+        public void setMaxPosts(Integer maxPosts) {
+            this.maxPosts = maxPosts;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.insta.controller;
+
+import com.example.insta.service.BrowserGovernor;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.Map;
+
+/**
+ * GET /api/browsers — running Chrome sessions with their memory, CPU and
+ * age, and how many browsers the {@link BrowserGovernor} currently allows.
+ */
+@Controller
+public class BrowserController {
+
+    private final BrowserGovernor browserGovernor;
+
+    public BrowserController(BrowserGovernor browserGovernor) {
+        this.browserGovernor = browserGovernor;
+    }
+
+    @GetMapping("/api/browsers")
+    @ResponseBody
+    public Map<String, Object> getBrowsers() {
+        return browserGovernor.snapshot();
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.insta.controller;
+
+import com.example.insta.service.BulkDownloadService;
+import com.example.insta.service.MediaBufferPool;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * POST /api/bulk/download — downloads a list of post URLs in one request.
+ *
+ * Scraping and downloading are pipelined (see BulkDownloadService), and
+ * results are streamed as each post finishes:
+ * - default: NDJSON, one line per unique post
+ * ({"indexes":[0,3],"url":...,"status":"success","filename":...})
+ * - ?format=zip or "Accept: application/zip": one ZIP with an entry per
+ * downloaded post, ending with a manifest.json of all results
+ *
+ * Duplicate URLs in the list are downloaded once.
+ */
+@Controller
+public class BulkDownloadController {
+
+    private static final String NDJSON = "application/x-ndjson";
+
+    private final BulkDownloadService bulkDownloadService;
+    private final MediaBufferPool bufferPool;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public BulkDownloadController(BulkDownloadService bulkDownloadService, MediaBufferPool bufferPool) {
+        this.bulkDownloadService = bulkDownloadService;
+        this.bufferPool = bufferPool;
+    }
+
+    @PostMapping("/api/bulk/download")
+    @ResponseBody
+    public ResponseEntity<?> downloadBulk(@RequestBody BulkDownloadRequest request,
+            @RequestParam(value = "format", defaultValue = "ndjson") String format,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        List<String> urls = request.getUrls();
+        if (urls == null || urls.isEmpty()) {
+            return ResponseEntity.badRequest().body("No URLs provided");
+        }
+        if (urls.size() > bulkDownloadService.getMaxUrls()) {
+            return ResponseEntity.badRequest()
+                    .body("Too many URLs (max " + bulkDownloadService.getMaxUrls() + ")");
+        }
+
+        if ("zip".equalsIgnoreCase(format) || (accept != null && accept.contains("application/zip"))) {
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType("application/zip"))
+                    .header(HttpHeaders.CONTENT_DISPOSITION,
+                            "attachment; filename=\"bulk_" + System.currentTimeMillis() + ".zip\"")
+                    .body(zipBody(request));
+        }
+
+        StreamingResponseBody body = out -> run(request, result -> {
+            out.write(objectMapper.writeValueAsBytes(result.toMap()));
+            out.write('\n');
+            out.flush();
+        });
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON))
+                .body(body);
+    }
+
+    /** Adds each downloaded file to the ZIP as soon as it is ready. */
+    private StreamingResponseBody zipBody(BulkDownloadRequest request) {
+        return out -> {
+            List<Map<String, Object>> manifest = new ArrayList<>();
+            try (ZipOutputStream zos = new ZipOutputStream(out)) {
+                WritableByteChannel zipChannel = Channels.newChannel(zos);
+                run(request, result -> {
+                    manifest.add(result.toMap());
+                    if (!result.isSuccess()) {
+                        return;
+                    }
+                    String name = String.format("%03d_%s", result.getIndexes().get(0) + 1,
+                            result.getFile().getFileName());
+                    zos.putNextEntry(new ZipEntry(name));
+                    try (FileChannel file = FileChannel.open(result.getFile())) {
+                        bufferPool.copy(file, zipChannel);
+                    }
+                    zos.closeEntry();
+                    zos.flush();
+                });
+                zos.putNextEntry(new ZipEntry("manifest.json"));
+                zos.write(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(manifest));
+                zos.closeEntry();
+            }
+        };
+    }
+
+    private void run(BulkDownloadRequest request, BulkDownloadService.ResultHandler handler) throws IOException {
+        try {
+            bulkDownloadService.downloadAll(request.getUrls(), request.getCookies(), handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Bulk download interrupted");
+        }
+    }
+
+    public static class BulkDownloadRequest {
+        private List<String> urls; // post URLs, any supported site
+        private String cookies; // optional browser cookies, used for Instagram
+
+        public List<String> getUrls() {
+            return urls;
+        }
+
+        public void setUrls(List<String> urls) {
+            this.urls = urls;
+        }
+
+        public String getCookies() {
+            return cookies;
+        }
+
+        public void setCookies(String cookies) {
+            this.cookies = cookies;
+        }
+    }
+}
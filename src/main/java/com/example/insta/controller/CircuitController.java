@@ -0,0 +1,29 @@
+package com.example.insta.controller;
+
+import com.example.insta.service.SiteHealth;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.Map;
+
+/**
+ * GET /api/circuits — state (closed, open, half-open), consecutive failures,
+ * last failure signal and remaining open time of each {@link SiteHealth}
+ * circuit, keyed "site/strategy".
+ */
+@Controller
+public class CircuitController {
+
+    private final SiteHealth siteHealth;
+
+    public CircuitController(SiteHealth siteHealth) {
+        this.siteHealth = siteHealth;
+    }
+
+    @GetMapping("/api/circuits")
+    @ResponseBody
+    public Map<String, Object> getCircuits() {
+        return siteHealth.snapshot();
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.insta.controller;
+
+import com.example.insta.service.DownloadJob;
+import com.example.insta.service.DownloadJobService;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Asynchronous variants of the download endpoints. Submitting returns a job ID
+ * right away (HTTP 202); the client then polls the status endpoint and fetches
+ * the file from the result endpoint once the job has succeeded.
+ */
+@Controller
+@RequestMapping("/api/jobs")
+public class DownloadJobController {
+
+    private final DownloadJobService downloadJobService;
+
+    public DownloadJobController(DownloadJobService downloadJobService) {
+        this.downloadJobService = downloadJobService;
+    }
+
+    /**
+     * POST /api/jobs/video — same body as /api/video/download (videoUrl and/or
+     * directVideoUrl, cookies, userAgent, originUrl).
+     */
+    @PostMapping("/video")
+    @ResponseBody
+    public ResponseEntity<?> submitVideo(@RequestBody VideoScraperController.VideoRequest request) {
+        if ((request.getVideoUrl() == null || request.getVideoUrl().isEmpty())
+                && (request.getDirectVideoUrl() == null || request.getDirectVideoUrl().isEmpty())) {
+            return ResponseEntity.badRequest().body("No URL provided");
+        }
+        try {
+            DownloadJob job = downloadJobService.submitVideo(request.getVideoUrl(), request.getDirectVideoUrl(),
+                    request.getCookies(), request.getUserAgent(), request.getOriginUrl());
+            return ResponseEntity.accepted().body(toStatus(job));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(503).body("Too many queued jobs, try again later");
+        }
+    }
+
+    /**
+     * POST /api/jobs/instagram — same body as /api/instagram/download (postUrl,
+     * browserCookies). The result is the image, or a ZIP for carousels.
+     */
+    @PostMapping("/instagram")
+    @ResponseBody
+    public ResponseEntity<?> submitInstagram(
+            @RequestBody VideoScraperController.InstagramDownloadRequest request) {
+        if (request.getPostUrl() == null || request.getPostUrl().isBlank()) {
+            return ResponseEntity.badRequest().body("No post URL provided");
+        }
+        try {
+            DownloadJob job = downloadJobService.submitInstagramPost(request.getPostUrl(),
+                    request.getBrowserCookies());
+            return ResponseEntity.accepted().body(toStatus(job));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(503).body("Too many queued jobs, try again later");
+        }
+    }
+
+    /** GET /api/jobs/{id} — status, current stage and error (if failed). */
+    @GetMapping("/{id}")
+    @ResponseBody
+    public ResponseEntity<?> getStatus(@PathVariable String id) {
+        return downloadJobService.get(id)
+                .<ResponseEntity<?>>map(job -> ResponseEntity.ok(toStatus(job)))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /** DELETE /api/jobs/{id} — cancels a queued or running job. */
+    @DeleteMapping("/{id}")
+    @ResponseBody
+    public ResponseEntity<?> cancel(@PathVariable String id) {
+        if (downloadJobService.get(id).isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!downloadJobService.cancel(id)) {
+            return ResponseEntity.status(409).body("Job already finished");
+        }
+        return ResponseEntity.ok(toStatus(downloadJobService.get(id).get()));
+    }
+
+    /**
+     * GET /api/jobs/{id}/result — the downloaded file. 409 while the job is
+     * still running or if it failed.
+     */
+    @GetMapping("/{id}/result")
+    @ResponseBody
+    public ResponseEntity<?> getResult(@PathVariable String id) {
+        DownloadJob job = downloadJobService.get(id).orElse(null);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (job.getStatus() != DownloadJob.Status.SUCCEEDED) {
+            return ResponseEntity.status(409).body(toStatus(job));
+        }
+        Path result = job.getResult();
+        if (result == null || !Files.exists(result)) {
+            return ResponseEntity.status(410).body("Result file is no longer available");
+        }
+        String filename = result.getFileName().toString();
+        MediaType mediaType = MediaTypeFactory.getMediaType(filename).orElse(MediaType.APPLICATION_OCTET_STREAM);
+        return ResponseEntity.ok()
+                .contentType(mediaType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .body(new FileSystemResource(result));
+    }
+
+    private Map<String, Object> toStatus(DownloadJob job) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("jobId", job.getId());
+        status.put("kind", job.getKind());
+        status.put("status", job.getStatus().name());
+        status.put("stage", job.getProgress().getStage().name());
+        status.put("stageDetail", job.getProgress().getMessage());
+        status.put("sourceUrl", job.getSourceUrl());
+        status.put("createdAt", job.getCreatedAt().toString());
+        status.put("startedAt", job.getStartedAt() != null ? job.getStartedAt().toString() : null);
+        status.put("finishedAt", job.getFinishedAt() != null ? job.getFinishedAt().toString() : null);
+        status.put("error", job.getError());
+        status.put("statusUrl", "/api/jobs/" + job.getId());
+        if (job.getStatus() == DownloadJob.Status.SUCCEEDED) {
+            status.put("resultUrl", "/api/jobs/" + job.getId() + "/result");
+        }
+        return status;
+    }
+}
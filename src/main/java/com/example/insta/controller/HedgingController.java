@@ -0,0 +1,29 @@
+package com.example.insta.controller;
+
+import com.example.insta.service.HedgedScraper;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.Map;
+
+/**
+ * GET /api/hedging — per site, the current hedge delay of the
+ * {@link HedgedScraper}, how often scrapes hedged against the extra-load
+ * budget, and which strategy won.
+ */
+@Controller
+public class HedgingController {
+
+    private final HedgedScraper hedgedScraper;
+
+    public HedgingController(HedgedScraper hedgedScraper) {
+        this.hedgedScraper = hedgedScraper;
+    }
+
+    @GetMapping("/api/hedging")
+    @ResponseBody
+    public Map<String, Object> getHedging() {
+        return hedgedScraper.snapshot();
+    }
+}
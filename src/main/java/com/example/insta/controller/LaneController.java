@@ -0,0 +1,28 @@
+package com.example.insta.controller;
+
+import com.example.insta.service.LaneScheduler;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.Map;
+
+/**
+ * GET /api/lanes — per-lane concurrency, running and queued counts, and wait
+ * times (average, recent moving average, max) of the {@link LaneScheduler}.
+ */
+@Controller
+public class LaneController {
+
+    private final LaneScheduler laneScheduler;
+
+    public LaneController(LaneScheduler laneScheduler) {
+        this.laneScheduler = laneScheduler;
+    }
+
+    @GetMapping("/api/lanes")
+    @ResponseBody
+    public Map<String, Object> getLanes() {
+        return laneScheduler.snapshot();
+    }
+}
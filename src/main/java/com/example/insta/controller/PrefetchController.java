@@ -0,0 +1,29 @@
+package com.example.insta.controller;
+
+import com.example.insta.service.MediaPrefetcher;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.Map;
+
+/**
+ * GET /api/prefetch — how many background prefetches the {@link MediaPrefetcher}
+ * started, how many a download claimed (hit rate), expired unused or failed,
+ * and how much of the disk budget is in use.
+ */
+@Controller
+public class PrefetchController {
+
+    private final MediaPrefetcher mediaPrefetcher;
+
+    public PrefetchController(MediaPrefetcher mediaPrefetcher) {
+        this.mediaPrefetcher = mediaPrefetcher;
+    }
+
+    @GetMapping("/api/prefetch")
+    @ResponseBody
+    public Map<String, Object> getPrefetch() {
+        return mediaPrefetcher.snapshot();
+    }
+}
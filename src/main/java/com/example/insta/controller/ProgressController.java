@@ -0,0 +1,169 @@
+package com.example.insta.controller;
+
+import com.example.insta.service.DownloadProgress;
+import com.example.insta.service.DownloadProgressRegistry;
+import com.example.insta.service.DownloadStage;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * GET /api/progress/{id} — Server-Sent Events stream for a download.
+ *
+ * {id} is either a job ID from /api/jobs, or an ID from POST /api/progress
+ * that the client then sends as X-Progress-Id with a synchronous
+ * /api/video/download or /api/instagram/download request, so the stream can
+ * be opened before the download request is sent. Those requests also return
+ * their ID in an X-Progress-Id header. Unknown IDs get 404.
+ *
+ * Events (data is a JSON snapshot: stage, message, bytesTransferred,
+ * totalBytes, percent, bytesPerSecond, etaSeconds):
+ * - "stage"    on every stage change (CANONICALIZE, SCRAPE, RESOLVE, DOWNLOAD, FINALIZE)
+ * - "progress" at most every 250 ms while bytes are flowing
+ * - "done" / "failed" / "cancelled" once, after which the stream closes
+ *
+ * Events are written by a sender task on the media executor, never by the
+ * download thread that reports them, so a slow client cannot stall the
+ * transfer. Progress events still waiting to be sent are replaced by newer
+ * ones; stage events are all delivered, in order.
+ */
+@Controller
+public class ProgressController {
+
+    private static final long STREAM_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private final DownloadProgressRegistry progressRegistry;
+    private final ExecutorService executor;
+
+    public ProgressController(DownloadProgressRegistry progressRegistry,
+            @Qualifier("mediaTaskExecutor") ExecutorService executor) {
+        this.progressRegistry = progressRegistry;
+        this.executor = executor;
+    }
+
+    /** POST /api/progress — issues an ID to follow a synchronous download with, before sending it. */
+    @PostMapping("/api/progress")
+    @ResponseBody
+    public ResponseEntity<Map<String, String>> issueId() {
+        try {
+            return ResponseEntity.ok(Map.of("id", progressRegistry.issue().getId()));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(503).build();
+        }
+    }
+
+    @GetMapping(value = "/api/progress/{id}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public ResponseEntity<SseEmitter> streamProgress(@PathVariable String id) {
+        Optional<DownloadProgress> found = progressRegistry.get(id);
+        if (found.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        DownloadProgress progress = found.get();
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MILLIS);
+        Subscriber subscriber = new Subscriber(progress, emitter);
+
+        emitter.onCompletion(subscriber::close);
+        emitter.onTimeout(subscriber::close);
+        emitter.onError(e -> subscriber.close());
+
+        progress.addListener(subscriber);
+        // Send the current state right away so late subscribers don't wait for the next change
+        subscriber.accept(progress);
+        return ResponseEntity.ok(emitter);
+    }
+
+    private record Event(String name, Map<String, Object> data, boolean last) {
+    }
+
+    /** Queues events from the download thread and writes them to the client from the executor. */
+    private final class Subscriber implements Consumer<DownloadProgress> {
+
+        private final DownloadProgress progress;
+        private final SseEmitter emitter;
+        private final Deque<Event> pending = new ArrayDeque<>();
+        private DownloadStage lastStage;
+        private boolean sending;
+        private boolean closed;
+
+        Subscriber(DownloadProgress progress, SseEmitter emitter) {
+            this.progress = progress;
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void accept(DownloadProgress p) {
+            Map<String, Object> snapshot = p.snapshot();
+            DownloadStage stage = DownloadStage.valueOf((String) snapshot.get("stage"));
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                boolean stageChanged = lastStage != stage;
+                lastStage = stage;
+                String name = stage.isTerminal() ? stage.name().toLowerCase() : stageChanged ? "stage" : "progress";
+                if ("progress".equals(name) && !pending.isEmpty() && "progress".equals(pending.peekLast().name())) {
+                    pending.pollLast();
+                }
+                pending.addLast(new Event(name, snapshot, stage.isTerminal()));
+                if (sending) {
+                    return;
+                }
+                sending = true;
+            }
+            try {
+                executor.execute(this::send);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+                close();
+            }
+        }
+
+        private void send() {
+            while (true) {
+                Event event;
+                synchronized (this) {
+                    event = closed ? null : pending.pollFirst();
+                    if (event == null) {
+                        sending = false;
+                        return;
+                    }
+                }
+                try {
+                    emitter.send(SseEmitter.event().name(event.name()).data(event.data(), MediaType.APPLICATION_JSON));
+                    if (event.last()) {
+                        close();
+                        emitter.complete();
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    // Client went away
+                    close();
+                }
+            }
+        }
+
+        void close() {
+            synchronized (this) {
+                closed = true;
+                pending.clear();
+            }
+            progress.removeListener(this);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.insta.controller;
+
+import com.example.insta.service.SignedUrlRegistry;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.Map;
+
+/**
+ * GET /api/signed-urls — posts and media URLs the {@link SignedUrlRegistry}
+ * keeps fresh, how many were refreshed ahead of expiry or after a 403, and
+ * when the next one expires.
+ */
+@Controller
+public class SignedUrlController {
+
+    private final SignedUrlRegistry signedUrls;
+
+    public SignedUrlController(SignedUrlRegistry signedUrls) {
+        this.signedUrls = signedUrls;
+    }
+
+    @GetMapping("/api/signed-urls")
+    @ResponseBody
+    public Map<String, Object> getSignedUrls() {
+        return signedUrls.snapshot();
+    }
+}
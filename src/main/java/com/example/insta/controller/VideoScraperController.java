@@ -1,10 +1,25 @@
 package com.example.insta.controller;
 
+import com.example.insta.service.BrowserWarmup;
+import com.example.insta.service.BatchImageDownloadService;
+import com.example.insta.service.CircuitOpenException;
+import com.example.insta.service.DownloadPipelineService;
+import com.example.insta.service.DownloadProgress;
+import com.example.insta.service.DownloadProgressRegistry;
+import com.example.insta.service.DownloadStage;
+import com.example.insta.service.ImageStream;
+import com.example.insta.service.LaneScheduler;
+import com.example.insta.service.MediaMetrics;
+import com.example.insta.service.MediaPrefetcher;
 import com.example.insta.service.PexelsScraperService;
+import com.example.insta.service.ProgressChannel;
+import com.example.insta.service.SharedTransfer;
+import com.example.insta.service.SignedUrlRegistry;
 import com.example.insta.service.TikTokScraperService;
 import com.example.insta.service.InstagramScraperService;
 import com.example.insta.service.YoutubeScraperService;
 import com.example.insta.service.VideoDownloaderService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -15,15 +30,27 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
-
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -36,17 +63,44 @@ public class VideoScraperController {
     private final TikTokScraperService tiktokScraperService;
     private final InstagramScraperService instagramScraperService;
     private final YoutubeScraperService youtubeScraperService;
+    private final BatchImageDownloadService batchImageDownloadService;
+    private final DownloadPipelineService downloadPipelineService;
+    private final DownloadProgressRegistry progressRegistry;
+    private final LaneScheduler laneScheduler;
+    private final MediaMetrics metrics;
+    private final MediaPrefetcher mediaPrefetcher;
+    private final SignedUrlRegistry signedUrls;
+    private final BrowserWarmup browserWarmup;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final String NDJSON = "application/x-ndjson";
 
     public VideoScraperController(VideoDownloaderService videoDownloaderService,
             PexelsScraperService pexelsScraperService,
             TikTokScraperService tiktokScraperService,
             InstagramScraperService instagramScraperService,
-            YoutubeScraperService youtubeScraperService) {
+            YoutubeScraperService youtubeScraperService,
+            BatchImageDownloadService batchImageDownloadService,
+            DownloadPipelineService downloadPipelineService,
+            DownloadProgressRegistry progressRegistry,
+            LaneScheduler laneScheduler,
+            MediaMetrics metrics,
+            MediaPrefetcher mediaPrefetcher,
+            SignedUrlRegistry signedUrls,
+            BrowserWarmup browserWarmup) {
         this.videoDownloaderService = videoDownloaderService;
         this.pexelsScraperService = pexelsScraperService;
         this.tiktokScraperService = tiktokScraperService;
         this.instagramScraperService = instagramScraperService;
         this.youtubeScraperService = youtubeScraperService;
+        this.batchImageDownloadService = batchImageDownloadService;
+        this.downloadPipelineService = downloadPipelineService;
+        this.progressRegistry = progressRegistry;
+        this.laneScheduler = laneScheduler;
+        this.metrics = metrics;
+        this.mediaPrefetcher = mediaPrefetcher;
+        this.signedUrls = signedUrls;
+        this.browserWarmup = browserWarmup;
     }
 
     @GetMapping("/")
@@ -67,14 +121,26 @@ public class VideoScraperController {
     public ResponseEntity<?> getVideoInfo(@RequestBody VideoRequest request) {
         try {
             String url = request.getVideoUrl();
-            if (url.contains("tiktok.com")) {
-                return ResponseEntity.ok(tiktokScraperService.getScrapedInfo(url));
-            } else if (url.contains("instagram.com")) {
-                return ResponseEntity.ok(instagramScraperService.getScrapedInfo(url));
-            } else if (url.contains("youtube.com") || url.contains("youtu.be")) {
-                return ResponseEntity.ok(youtubeScraperService.getScrapedInfo(url));
-            }
-            return ResponseEntity.ok(pexelsScraperService.getScrapedInfo(url));
+            // TikTok and Instagram take a BROWSER slot themselves, only if they fall back to Chrome
+            LaneScheduler.Lane lane = downloadPipelineService.scrapeLaneFor(url);
+            PexelsScraperService.ScrapedInfo info = laneScheduler.call(lane, () -> {
+                if (url.contains("tiktok.com")) {
+                    return tiktokScraperService.getScrapedInfo(url);
+                } else if (url.contains("instagram.com")) {
+                    return instagramScraperService.getScrapedInfo(url);
+                } else if (url.contains("youtube.com") || url.contains("youtu.be")) {
+                    return youtubeScraperService.getScrapedInfo(url);
+                }
+                return pexelsScraperService.getScrapedInfo(url);
+            });
+            // Keeps the returned media URLs valid past their signature's expiry
+            signedUrls.register(url, null, info);
+            browserWarmup.recordScrape();
+            // The download request usually follows within seconds; start it in the background
+            mediaPrefetcher.prefetch(info);
+            return ResponseEntity.ok(info);
+        } catch (RejectedExecutionException e) {
+            return unavailable(e).body(e.getMessage());
         } catch (Exception e) {
             return ResponseEntity.status(500).body("Failed to scrape: " + e.getMessage());
         }
@@ -137,23 +203,20 @@ public class VideoScraperController {
      */
     @PostMapping("/api/image/download")
     @ResponseBody
-    public ResponseEntity<byte[]> downloadImageSimple(@RequestBody ImageDownloadRequest request) {
+    public ResponseEntity<StreamingResponseBody> downloadImageSimple(@RequestBody ImageDownloadRequest request) {
         try {
             if (request.getImageUrl() == null || request.getImageUrl().isBlank()) {
                 return ResponseEntity.badRequest().build();
             }
-            Object[] result = videoDownloaderService.fetchImageBytes(
-                    request.getImageUrl(), null, null, "https://www.instagram.com/");
-            String contentType = (String) result[0];
-            byte[] bytes = (byte[]) result[1];
-            String ext = contentType != null && contentType.contains("png") ? ".png"
-                    : contentType != null && contentType.contains("webp") ? ".webp" : ".jpg";
-            String filename = "instagram_image_" + System.currentTimeMillis() + ext;
+            ImageStream image = openDirect(request.getImageUrl(), null, null, "https://www.instagram.com/");
+            String filename = "instagram_image_" + System.currentTimeMillis() + image.getExtension();
             return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType != null ? contentType : "image/jpeg"))
+                    .contentType(imageMediaType(image))
                     .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
                     .header(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*")
-                    .body(bytes);
+                    .body(streamImage(MediaMetrics.siteOf(request.getImageUrl()), image));
+        } catch (RejectedExecutionException e) {
+            return unavailable(e).build();
         } catch (Exception e) {
             return ResponseEntity.status(500).build();
         }
@@ -162,21 +225,32 @@ public class VideoScraperController {
     /**
      * POST /api/instagram/download
      * Send just {"postUrl": "https://www.instagram.com/p/..."}.
-     * Scrapes the post, downloads all images, returns a ZIP file.
+     * Scrapes the post, downloads all images, streams back a ZIP file.
      * For single-image posts returns the image directly (not zipped).
+     * Optional X-Progress-Id header, an ID from POST /api/progress: follow the
+     * download at /api/progress/{id}.
      */
     @PostMapping("/api/instagram/download")
     @ResponseBody
-    public ResponseEntity<byte[]> downloadInstagramPost(@RequestBody InstagramDownloadRequest request) {
+    public ResponseEntity<StreamingResponseBody> downloadInstagramPost(
+            @RequestBody InstagramDownloadRequest request,
+            @RequestHeader(value = "X-Progress-Id", required = false) String progressId) {
+        DownloadProgress progress = progressRegistry.forDownload(progressId);
         try {
             String postUrl = request.getPostUrl();
             if (postUrl == null || postUrl.isBlank()) {
+                progress.fail("No post URL provided");
                 return ResponseEntity.badRequest().build();
             }
 
             // Step 1: Scrape the post to get all image URLs
-            PexelsScraperService.ScrapedInfo info = instagramScraperService.getScrapedInfo(
-                    postUrl, request.getBrowserCookies());
+            // The scrape takes a BROWSER slot itself, only if it falls back to Chrome
+            progress.stage(DownloadStage.QUEUED, "Waiting for the HTTP lane");
+            PexelsScraperService.ScrapedInfo info = laneScheduler.call(LaneScheduler.Lane.HTTP, () -> {
+                progress.stage(DownloadStage.SCRAPE, postUrl);
+                return instagramScraperService.getScrapedInfo(postUrl, request.getBrowserCookies());
+            });
+            signedUrls.register(postUrl, request.getBrowserCookies(), info);
             List<String> imageUrls = info.getImageUrls();
             String cookies = info.getCookies();
             String userAgent = info.getUserAgent();
@@ -185,64 +259,181 @@ public class VideoScraperController {
                 // Maybe it's a video post
                 String videoUrl = info.getVideoUrl();
                 if (videoUrl != null && !videoUrl.isEmpty()) {
+                    progress.fail("This is a video post");
                     return ResponseEntity.status(400)
                             .header("X-Error", "This is a video post. Use the video download endpoint.")
                             .build();
                 }
+                progress.fail("No images found");
                 return ResponseEntity.status(404)
                         .header("X-Error", "No images found in this post. It may be private or login-required.")
                         .build();
             }
 
-            // Step 2: Single image — return directly
+            // Step 2: Single image — stream directly
             if (imageUrls.size() == 1) {
-                Object[] result = videoDownloaderService.fetchImageBytes(
-                        imageUrls.get(0), cookies, userAgent, postUrl);
-                String contentType = (String) result[0];
-                byte[] bytes = (byte[]) result[1];
-                String ext = contentType != null && contentType.contains("png") ? ".png"
-                        : contentType != null && contentType.contains("webp") ? ".webp" : ".jpg";
+                progress.stage(DownloadStage.DOWNLOAD, "Image 1/1");
+                ImageStream image = openDirect(imageUrls.get(0), cookies, userAgent, postUrl);
+                progress.setTotalBytes(image.getContentLength());
                 return ResponseEntity.ok()
-                        .contentType(MediaType.parseMediaType(contentType != null ? contentType : "image/jpeg"))
-                        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"instagram_image" + ext + "\"")
-                        .body(bytes);
+                        .contentType(imageMediaType(image))
+                        .header(HttpHeaders.CONTENT_DISPOSITION,
+                                "attachment; filename=\"instagram_image" + image.getExtension() + "\"")
+                        .header("X-Progress-Id", progress.getId())
+                        .body(streamImage("instagram", image, progress));
             }
 
-            // Step 3: Multiple images — bundle into ZIP
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            try (ZipOutputStream zos = new ZipOutputStream(baos)) {
-                int downloaded = 0;
-                for (int i = 0; i < imageUrls.size(); i++) {
-                    try {
-                        Object[] result = videoDownloaderService.fetchImageBytes(
-                                imageUrls.get(i), cookies, userAgent, postUrl);
-                        String contentType = (String) result[0];
-                        byte[] bytes = (byte[]) result[1];
-                        String ext = contentType != null && contentType.contains("png") ? ".png"
-                                : contentType != null && contentType.contains("webp") ? ".webp" : ".jpg";
-                        ZipEntry entry = new ZipEntry("image_" + (i + 1) + ext);
-                        zos.putNextEntry(entry);
-                        zos.write(bytes);
-                        zos.closeEntry();
-                        downloaded++;
-                    } catch (Exception e) {
-                        System.err.println("Failed to fetch image " + (i + 1) + ": " + e.getMessage());
+            // Step 3: Multiple images — stream a ZIP, one entry per image as it arrives
+            StreamingResponseBody zipBody = out -> {
+                long start = System.nanoTime();
+                long bytes = 0;
+                boolean success = false;
+                try (ZipOutputStream zos = new ZipOutputStream(out)) {
+                    WritableByteChannel zipChannel = new ProgressChannel(Channels.newChannel(zos), progress);
+                    int downloaded = 0;
+                    for (int i = 0; i < imageUrls.size(); i++) {
+                        progress.stage(DownloadStage.DOWNLOAD, "Image " + (i + 1) + "/" + imageUrls.size());
+                        try (ImageStream image = openDirect(imageUrls.get(i), cookies, userAgent, postUrl)) {
+                            zos.putNextEntry(new ZipEntry("image_" + (i + 1) + image.getExtension()));
+                            bytes += image.transferTo(zipChannel);
+                            zos.closeEntry();
+                            downloaded++;
+                        } catch (Exception e) {
+                            System.err.println("Failed to fetch image " + (i + 1) + ": " + e.getMessage());
+                        }
                     }
+                    System.out.println("ZIP: downloaded " + downloaded + "/" + imageUrls.size() + " images");
+                    progress.stage(DownloadStage.FINALIZE, "Writing ZIP directory");
+                    success = true;
+                } catch (IOException | RuntimeException e) {
+                    progress.fail(e.getMessage());
+                    throw e;
+                } finally {
+                    recordResponse("instagram", start, bytes, success);
                 }
-                System.out.println("ZIP: downloaded " + downloaded + "/" + imageUrls.size() + " images");
-            }
+                progress.stage(DownloadStage.DONE, "instagram_images.zip");
+            };
 
             return ResponseEntity.ok()
                     .contentType(MediaType.parseMediaType("application/zip"))
                     .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"instagram_images.zip\"")
-                    .body(baos.toByteArray());
+                    .header("X-Progress-Id", progress.getId())
+                    .body(zipBody);
 
+        } catch (RejectedExecutionException e) {
+            progress.fail(e.getMessage());
+            return unavailable(e).header("X-Error", e.getMessage()).build();
         } catch (Exception e) {
             System.err.println("downloadInstagramPost error: " + e.getMessage());
+            progress.fail(e.getMessage());
             return ResponseEntity.status(500).build();
         }
     }
 
+    /**
+     * Opens an image in the DIRECT lane. The lane slot is held until the
+     * returned stream is closed, i.e. for the whole transfer, which ends on
+     * the thread writing the response body rather than this one.
+     */
+    private ImageStream openDirect(String imageUrl, String cookies, String userAgent, String referer)
+            throws Exception {
+        LaneScheduler.Permit permit = laneScheduler.acquire(LaneScheduler.Lane.DIRECT);
+        try {
+            return videoDownloaderService.openImage(imageUrl, cookies, userAgent, referer)
+                    .onClose(permit.detach()::close);
+        } catch (Exception e) {
+            permit.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Streams an opened image straight to the response through the pooled
+     * buffer, closing it when done, or when the request ends if the body never
+     * runs.
+     */
+    private StreamingResponseBody streamImage(String site, ImageStream image) {
+        releaseIfNeverStreamed(image, null);
+        return out -> {
+            if (!image.claim()) {
+                throw new IOException("The request ended before the image was sent");
+            }
+            long start = System.nanoTime();
+            long bytes = 0;
+            boolean success = false;
+            try (image) {
+                bytes = image.transferTo(Channels.newChannel(out));
+                success = true;
+            } finally {
+                recordResponse(site, start, bytes, success);
+            }
+        };
+    }
+
+    /**
+     * Same as {@link #streamImage(String, ImageStream)}, reporting bytes and
+     * the final stage to {@code progress}.
+     */
+    private StreamingResponseBody streamImage(String site, ImageStream image, DownloadProgress progress) {
+        releaseIfNeverStreamed(image, progress);
+        return out -> {
+            if (!image.claim()) {
+                throw new IOException("The request ended before the image was sent");
+            }
+            long start = System.nanoTime();
+            long bytes = 0;
+            boolean success = false;
+            try (image) {
+                bytes = image.transferTo(new ProgressChannel(Channels.newChannel(out), progress));
+                success = true;
+                progress.stage(DownloadStage.DONE, "Image sent");
+            } catch (IOException | RuntimeException e) {
+                progress.fail(e.getMessage());
+                throw e;
+            } finally {
+                recordResponse(site, start, bytes, success);
+            }
+        };
+    }
+
+    /**
+     * Closes {@code image} when the async request ends if its response body
+     * never started: the request timed out while the body waited for an
+     * executor thread, or failed before it was dispatched. A body that did
+     * start has claimed the image and closes it itself.
+     */
+    private static void releaseIfNeverStreamed(ImageStream image, DownloadProgress progress) {
+        if (!(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes)) {
+            return;
+        }
+        WebAsyncUtils.getAsyncManager(attributes.getRequest()).registerCallableInterceptor(image,
+                new CallableProcessingInterceptor() {
+                    @Override
+                    public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+                        if (image.claim()) {
+                            image.close();
+                            if (progress != null) {
+                                progress.fail("The request ended before the image was sent");
+                            }
+                        }
+                    }
+                });
+    }
+
+    private void recordResponse(String site, long startNanos, long bytes, boolean success) {
+        metrics.record(site, MediaMetrics.Stage.RESPONSE_STREAM, startNanos, success);
+        metrics.addBytes(site, "response", bytes);
+    }
+
+    /** Never throws: the image is already open, and nothing would close it before the body runs. */
+    private MediaType imageMediaType(ImageStream image) {
+        try {
+            return MediaType.parseMediaType(image.getContentType() != null ? image.getContentType() : "image/jpeg");
+        } catch (InvalidMediaTypeException e) {
+            return MediaType.IMAGE_JPEG;
+        }
+    }
+
     /** Request body for /api/instagram/download */
     public static class InstagramDownloadRequest {
         private String postUrl;
@@ -288,77 +479,60 @@ public class VideoScraperController {
      * For Instagram image posts, pass imageUrl in the request body instead of
      * videoUrl.
      * The same endpoint handles both video and image downloads.
+     * Optional X-Progress-Id header, an ID from POST /api/progress: follow the
+     * download at /api/progress/{id}.
      */
     @PostMapping("/api/video/download")
     @ResponseBody
-    public ResponseEntity<?> downloadVideo(@RequestBody VideoRequest request) {
+    public ResponseEntity<?> downloadVideo(@RequestBody VideoRequest request,
+            @RequestHeader(value = "X-Progress-Id", required = false) String progressId) {
+        DownloadProgress progress = progressRegistry.forDownload(progressId);
         try {
             String url = request.getVideoUrl();
 
             // --- Instagram image download (single image) — stream bytes directly ---
             if (request.getImageUrl() != null && !request.getImageUrl().isEmpty()) {
-                Object[] result = videoDownloaderService.fetchImageBytes(
+                ImageStream image = openDirect(
                         request.getImageUrl(),
                         request.getCookies(),
                         request.getUserAgent(),
                         url != null ? url : "https://www.instagram.com/");
-                String contentType = (String) result[0];
-                byte[] bytes = (byte[]) result[1];
-                String ext = contentType != null && contentType.contains("png") ? ".png"
-                        : contentType != null && contentType.contains("webp") ? ".webp" : ".jpg";
-                String filename = "instagram_image_" + System.currentTimeMillis() + ext;
+                String filename = "instagram_image_" + System.currentTimeMillis() + image.getExtension();
+                progress.stage(DownloadStage.DOWNLOAD, filename);
+                progress.setTotalBytes(image.getContentLength());
                 return ResponseEntity.ok()
-                        .contentType(MediaType.parseMediaType(contentType != null ? contentType : "image/jpeg"))
+                        .contentType(imageMediaType(image))
                         .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                        .body(bytes);
+                        .header("X-Progress-Id", progress.getId())
+                        .body(streamImage(MediaMetrics.siteOf(request.getImageUrl()), image, progress));
             }
 
             // --- Video download ---
-            // If the frontend already has the direct video URL (from a prior
-            // /api/video/info call),
-            // use it directly to avoid a second expensive scrape.
-            String directUrl = request.getDirectVideoUrl();
-
-            if (directUrl == null || directUrl.isEmpty()) {
-                // No pre-scraped URL — need to scrape now
-                if (url == null || url.isEmpty()) {
-                    return ResponseEntity.badRequest().body("No URL provided");
-                }
-                if (url.contains("tiktok.com")) {
-                    PexelsScraperService.ScrapedInfo info = tiktokScraperService.getScrapedInfo(url);
-                    directUrl = info.getVideoUrl();
-                    request.setCookies(info.getCookies());
-                    request.setUserAgent(info.getUserAgent());
-                } else if (url.contains("instagram.com")) {
-                    PexelsScraperService.ScrapedInfo info = instagramScraperService.getScrapedInfo(url,
-                            request.getCookies());
-                    directUrl = info.getVideoUrl();
-                    request.setCookies(info.getCookies());
-                    request.setUserAgent(info.getUserAgent());
-                } else if (url.contains("youtube.com") || url.contains("youtu.be")) {
-                    directUrl = youtubeScraperService.scrapeVideoUrl(url);
-                } else {
-                    directUrl = pexelsScraperService.scrapeVideoUrl(url);
-                }
-
-                // If it's still null, pass the post URL to the downloader to handle via
-                // embedded Selenium logic
-                if (directUrl == null || directUrl.isEmpty()) {
-                    directUrl = url;
-                }
+            if ((request.getDirectVideoUrl() == null || request.getDirectVideoUrl().isEmpty())
+                    && (url == null || url.isEmpty())) {
+                progress.fail("No URL provided");
+                return ResponseEntity.badRequest().body("No URL provided");
             }
 
-            if (directUrl == null || directUrl.isEmpty()) {
-                return ResponseEntity.status(500).body(
-                        "Could not find a video URL. This post may be an image post — use the image download buttons instead.");
+            // Another request is already fetching this video: stream its file as it grows
+            // (a prefetch is claimed by the pipeline instead, which lifts its throttle)
+            String directUrl = request.getDirectVideoUrl();
+            Optional<SharedTransfer> running = mediaPrefetcher.isPending(directUrl) ? Optional.empty()
+                    : videoDownloaderService.findTransfer(directUrl, request.getCookies());
+            if (running.isPresent()) {
+                return streamShared(running.get(), progress);
             }
 
-            Path downloadedPath = videoDownloaderService.downloadVideo(
-                    directUrl,
+            LaneScheduler.Lane lane = downloadPipelineService.laneFor(url, request.getDirectVideoUrl());
+            progress.stage(DownloadStage.QUEUED, "Waiting for the " + lane + " lane");
+            Path downloadedPath = laneScheduler.call(lane, () -> downloadPipelineService.downloadVideo(
+                    url,
+                    request.getDirectVideoUrl(),
                     request.getCookies(),
                     request.getUserAgent(),
-                    request.getOriginUrl() != null ? request.getOriginUrl()
-                            : (url != null && url.contains("tiktok.com") ? url : null));
+                    request.getOriginUrl(),
+                    progress));
+            progress.stage(DownloadStage.DONE, downloadedPath.getFileName().toString());
 
             Resource resource = new UrlResource(downloadedPath.toUri());
 
@@ -366,25 +540,74 @@ public class VideoScraperController {
                     .contentType(MediaType.parseMediaType("video/mp4"))
                     .header(HttpHeaders.CONTENT_DISPOSITION,
                             "attachment; filename=\"" + downloadedPath.getFileName().toString() + "\"")
+                    .header("X-Progress-Id", progress.getId())
                     .body(resource);
+        } catch (RejectedExecutionException e) {
+            progress.fail(e.getMessage());
+            return unavailable(e).body(e.getMessage());
         } catch (Exception e) {
+            progress.fail(e.getMessage());
             return ResponseEntity
                     .status(500)
                     .body("Failed to download: " + e.getMessage());
         }
     }
 
+    /**
+     * Streams the file of a running {@link SharedTransfer} to the client,
+     * reading behind the request that is downloading it.
+     */
+    private ResponseEntity<StreamingResponseBody> streamShared(SharedTransfer transfer, DownloadProgress progress)
+            throws IOException, InterruptedException {
+        String fileName = transfer.awaitFileName();
+        long length = transfer.getExpectedLength();
+        String site = MediaMetrics.siteOf(transfer.getVideoUrl());
+        progress.stage(DownloadStage.DOWNLOAD, fileName + " (shared)");
+        progress.setTotalBytes(length);
+        StreamingResponseBody body = out -> {
+            long start = System.nanoTime();
+            long bytes = 0;
+            boolean success = false;
+            try {
+                bytes = transfer.streamTo(new ProgressChannel(Channels.newChannel(out), progress));
+                success = true;
+                progress.stage(DownloadStage.DONE, fileName);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                progress.fail("Interrupted");
+                throw new IOException("Interrupted while streaming " + fileName, e);
+            } catch (IOException | RuntimeException e) {
+                progress.fail(e.getMessage());
+                throw e;
+            } finally {
+                recordResponse(site, start, bytes, success);
+            }
+        };
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("video/mp4"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
+                .header("X-Progress-Id", progress.getId());
+        if (length >= 0) {
+            response.contentLength(length);
+        }
+        return response.body(body);
+    }
+
     /**
      * POST /api/video/download/images — downloads ALL images from an Instagram
      * carousel post.
-     * Returns a JSON list of download results (filename + status).
-     * Endpoint is NEW but uses same base path pattern for consistency.
+     * Images are fetched in parallel (see BatchImageDownloadService for the
+     * concurrency and per-host limits). Returns a JSON list of download results
+     * (filename + status) in the original order.
+     * With ?stream=true or "Accept: application/x-ndjson" the results are
+     * streamed instead, one JSON object per line, as each image finishes.
      */
     @PostMapping("/api/video/download/images")
     @ResponseBody
-    public ResponseEntity<?> downloadAllImages(@RequestBody VideoRequest request) {
+    public ResponseEntity<?> downloadAllImages(@RequestBody VideoRequest request,
+            @RequestParam(value = "stream", defaultValue = "false") boolean stream,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
         try {
-            List<Map<String, String>> results = new ArrayList<>();
             List<String> imageUrls = request.getImageUrls();
 
             if (imageUrls == null || imageUrls.isEmpty()) {
@@ -393,32 +616,42 @@ public class VideoScraperController {
 
             String referer = request.getVideoUrl() != null ? request.getVideoUrl() : "https://www.instagram.com/";
 
-            for (int i = 0; i < imageUrls.size(); i++) {
-                String imgUrl = imageUrls.get(i);
-                try {
-                    Path downloadedPath = videoDownloaderService.downloadImage(
-                            imgUrl,
-                            request.getCookies(),
-                            request.getUserAgent(),
-                            referer);
-                    results.add(Map.of(
-                            "index", String.valueOf(i + 1),
-                            "status", "success",
-                            "filename", downloadedPath.getFileName().toString()));
-                } catch (Exception e) {
-                    results.add(Map.of(
-                            "index", String.valueOf(i + 1),
-                            "status", "failed",
-                            "error", e.getMessage()));
-                }
+            if (stream || (accept != null && accept.contains(NDJSON))) {
+                StreamingResponseBody body = out -> {
+                    try {
+                        batchImageDownloadService.downloadAll(imageUrls, request.getCookies(),
+                                request.getUserAgent(), referer, result -> writeNdjsonLine(out, result));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                };
+                return ResponseEntity.ok()
+                        .contentType(MediaType.parseMediaType(NDJSON))
+                        .body(body);
             }
 
+            List<Map<String, String>> results = batchImageDownloadService.downloadAll(imageUrls,
+                    request.getCookies(), request.getUserAgent(), referer, null);
             return ResponseEntity.ok(results);
         } catch (Exception e) {
             return ResponseEntity.status(500).body("Failed to download images: " + e.getMessage());
         }
     }
 
+    /** Writes one NDJSON record and flushes it so the client sees it immediately. */
+    private void writeNdjsonLine(OutputStream out, Object record) {
+        try {
+            byte[] line = objectMapper.writeValueAsBytes(record);
+            synchronized (out) {
+                out.write(line);
+                out.write('\n');
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     public static class VideoRequest {
         private String videoUrl; // original post URL
         private String directVideoUrl; // pre-scraped direct video stream URL (avoids re-scraping)
@@ -484,4 +717,13 @@ public class VideoScraperController {
             this.originUrl = originUrl;
         }
     }
+
+    /** 503 for a full lane or an open circuit; the latter says when to retry. */
+    private static ResponseEntity.BodyBuilder unavailable(RejectedExecutionException e) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(503);
+        if (e instanceof CircuitOpenException circuitOpen) {
+            response.header(HttpHeaders.RETRY_AFTER, String.valueOf(circuitOpen.getRetryAfterSeconds()));
+        }
+        return response;
+    }
 }
@@ -0,0 +1,319 @@
+package com.example.insta.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * "Download everything new from this account since last time."
+ *
+ * A sync pages through the profile grid newest first and stops at the
+ * account's checkpoint, so the browser only loads as much of the profile as
+ * there is new content. The new posts go through the bulk download pipeline.
+ * Afterwards the checkpoint moves forward past every post that downloaded,
+ * oldest first, and stops at the first failure, so a failed post is retried
+ * by the next sync instead of being skipped.
+ *
+ * A sync capped at maxPosts lists only the newest new posts, so it cannot
+ * move the checkpoint past the older ones it never saw. It records the
+ * newest posts it downloaded as a synced block next to the checkpoint
+ * instead; the next sync passes over that block and continues with the
+ * older posts below it, until the gap to the checkpoint is closed.
+ *
+ * Post IDs (Instagram media IDs decoded from the shortcode, TikTok video IDs)
+ * grow over time. Comparing them, rather than matching one exact post,
+ * keeps syncs correct when the checkpoint post is deleted.
+ */
+@Service
+@Slf4j
+public class AccountSyncService {
+
+    private static final Pattern INSTAGRAM_PROFILE = Pattern.compile("instagram\\.com/([A-Za-z0-9._]+)");
+    private static final Pattern TIKTOK_PROFILE = Pattern.compile("tiktok\\.com/@([A-Za-z0-9._-]+)");
+    private static final Pattern HANDLE = Pattern.compile("[A-Za-z0-9._-]+");
+    private static final Set<String> INSTAGRAM_RESERVED = Set.of("p", "reel", "reels", "tv", "stories",
+            "explore", "accounts");
+
+    /** An account to sync: its site, handle and profile URL. */
+    public static class Account {
+        private final String site;
+        private final String handle;
+        private final String profileUrl;
+
+        Account(String site, String handle, String profileUrl) {
+            this.site = site;
+            this.handle = handle;
+            this.profileUrl = profileUrl;
+        }
+
+        public String getSite() {
+            return site;
+        }
+
+        public String getHandle() {
+            return handle;
+        }
+
+        public String getProfileUrl() {
+            return profileUrl;
+        }
+
+        /** Checkpoint key, e.g. "instagram:natgeo". */
+        public String getKey() {
+            return site + ":" + handle;
+        }
+    }
+
+    private final InstagramScraperService instagramScraperService;
+    private final TikTokScraperService tiktokScraperService;
+    private final BulkDownloadService bulkDownloadService;
+    private final LaneScheduler laneScheduler;
+    private final SyncCheckpointStore checkpointStore;
+    private final int defaultMaxPosts;
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+    public AccountSyncService(InstagramScraperService instagramScraperService,
+            TikTokScraperService tiktokScraperService,
+            BulkDownloadService bulkDownloadService,
+            LaneScheduler laneScheduler,
+            SyncCheckpointStore checkpointStore,
+            @Value("${app.sync.max-posts:50}") int defaultMaxPosts) {
+        this.instagramScraperService = instagramScraperService;
+        this.tiktokScraperService = tiktokScraperService;
+        this.bulkDownloadService = bulkDownloadService;
+        this.laneScheduler = laneScheduler;
+        this.checkpointStore = checkpointStore;
+        this.defaultMaxPosts = defaultMaxPosts;
+    }
+
+    /**
+     * Accepts a profile URL (https://www.instagram.com/natgeo/,
+     * https://www.tiktok.com/@natgeo) or "site:handle" ("instagram:natgeo",
+     * "tiktok:natgeo").
+     */
+    public Account parseAccount(String account) {
+        if (account == null || account.isBlank()) {
+            throw new IllegalArgumentException("No account given");
+        }
+        String value = account.trim();
+        Matcher m = TIKTOK_PROFILE.matcher(value);
+        if (m.find()) {
+            return tiktok(m.group(1));
+        }
+        m = INSTAGRAM_PROFILE.matcher(value);
+        if (m.find() && !INSTAGRAM_RESERVED.contains(m.group(1))) {
+            return instagram(m.group(1));
+        }
+        int colon = value.indexOf(':');
+        if (colon > 0 && !value.contains("/")) {
+            String site = value.substring(0, colon).toLowerCase();
+            String handle = value.substring(colon + 1).replaceFirst("^@", "");
+            if (HANDLE.matcher(handle).matches()) {
+                if (site.equals("instagram")) {
+                    return instagram(handle);
+                }
+                if (site.equals("tiktok")) {
+                    return tiktok(handle);
+                }
+            }
+        }
+        throw new IllegalArgumentException("Not an Instagram or TikTok account: " + account);
+    }
+
+    private static Account instagram(String handle) {
+        return new Account("instagram", handle.toLowerCase(), "https://www.instagram.com/" + handle + "/");
+    }
+
+    private static Account tiktok(String handle) {
+        return new Account("tiktok", handle.toLowerCase(), "https://www.tiktok.com/@" + handle);
+    }
+
+    public int getDefaultMaxPosts() {
+        return defaultMaxPosts;
+    }
+
+    /**
+     * Downloads the account's posts newer than its checkpoint (at most
+     * {@code maxPosts}, newest first), reporting each to {@code handler}, then
+     * advances the checkpoint.
+     *
+     * @throws IllegalStateException if a sync of this account is already
+     *                               running
+     */
+    public Map<String, Object> sync(Account account, String cookies, int maxPosts,
+            BulkDownloadService.ResultHandler handler) throws Exception {
+        if (!running.add(account.getKey())) {
+            throw new IllegalStateException("A sync of " + account.getKey() + " is already running");
+        }
+        try {
+            return doSync(account, cookies, maxPosts, handler);
+        } finally {
+            running.remove(account.getKey());
+        }
+    }
+
+    private Map<String, Object> doSync(Account account, String cookies, int maxPosts,
+            BulkDownloadService.ResultHandler handler) throws Exception {
+        Function<String, BigInteger> idOf = account.getSite().equals("instagram")
+                ? InstagramScraperService::mediaIdOf
+                : TikTokScraperService::videoIdOf;
+        SyncCheckpointStore.Checkpoint previous = checkpointStore.get(account.getKey()).orElse(null);
+        BigInteger checkpointId = idOrNull(previous != null ? previous.getLastPostId() : null);
+        BigInteger syncedFrom = idOrNull(previous != null ? previous.getSyncedFromId() : null);
+        BigInteger syncedTo = idOrNull(previous != null ? previous.getSyncedToId() : null);
+        Predicate<String> isOld = url -> isOld(idOf.apply(url), checkpointId);
+        Predicate<String> isSynced = url -> inBlock(idOf.apply(url), syncedFrom, syncedTo);
+
+        long start = System.currentTimeMillis();
+        List<String> newPosts = laneScheduler.call(LaneScheduler.Lane.BROWSER, () -> {
+            if (account.getSite().equals("instagram")) {
+                return instagramScraperService.listProfilePosts(account.getProfileUrl(), cookies, isOld, isSynced,
+                        maxPosts);
+            }
+            return tiktokScraperService.listProfilePosts(account.getProfileUrl(), isOld, isSynced, maxPosts);
+        });
+        log.info("Sync {}: {} new post(s) since {} (listed in {} ms)", account.getKey(), newPosts.size(),
+                checkpointId, System.currentTimeMillis() - start);
+
+        Set<String> succeeded = new HashSet<>();
+        if (!newPosts.isEmpty()) {
+            bulkDownloadService.downloadAll(newPosts, cookies, result -> {
+                if (result.isSuccess()) {
+                    succeeded.add(result.getUrl());
+                }
+                handler.accept(result);
+            });
+        }
+
+        boolean truncated = newPosts.size() >= maxPosts;
+        SyncCheckpointStore.Checkpoint checkpoint = advance(previous, newPosts, succeeded, truncated, idOf,
+                System.currentTimeMillis());
+        if (!sameProgress(previous, checkpoint)) {
+            checkpointStore.put(account.getKey(), checkpoint);
+        } else {
+            checkpoint = previous;
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("account", account.getKey());
+        summary.put("newPosts", newPosts.size());
+        summary.put("downloaded", succeeded.size());
+        summary.put("failed", newPosts.size() - succeeded.size());
+        // Hitting the cap leaves older new posts; the next sync continues below syncedFrom
+        summary.put("truncated", truncated);
+        summary.put("previousCheckpoint", previous != null ? previous.getLastPostUrl() : null);
+        summary.put("checkpoint", checkpoint != null ? checkpoint.getLastPostUrl() : null);
+        summary.put("resumeBelow", checkpoint != null ? checkpoint.getSyncedFromUrl() : null);
+        return summary;
+    }
+
+    /** A run of posts ordered by ID, all downloaded or (a single listed post) not. */
+    private record Span(BigInteger lowId, String lowUrl, BigInteger highId, String highUrl, boolean synced) {
+    }
+
+    /**
+     * The checkpoint after a sync that listed {@code listed} (newest first)
+     * and downloaded {@code succeeded}.
+     *
+     * Without the cap, the listing covered everything above the checkpoint,
+     * so the checkpoint moves up through downloaded posts, oldest first,
+     * including a previous synced block, until the first failure. Above that
+     * (or anywhere, for a capped listing, which never reached the checkpoint)
+     * the topmost run of downloaded posts becomes the synced block; failed
+     * posts above it are newer than the block and listed again next time.
+     * A post may be downloaded twice this way, never skipped.
+     */
+    static SyncCheckpointStore.Checkpoint advance(SyncCheckpointStore.Checkpoint previous, List<String> listed,
+            Set<String> succeeded, boolean truncated, Function<String, BigInteger> idOf, long now) {
+        List<Span> spans = new ArrayList<>();
+        for (String url : listed) {
+            BigInteger id = idOf.apply(url);
+            if (id != null) {
+                spans.add(new Span(id, url, id, url, succeeded.contains(url)));
+            }
+        }
+        // A capped listing saw nothing below its last post; pinned posts listed out of order don't count
+        BigInteger seenDownTo = truncated && !listed.isEmpty() ? idOf.apply(listed.get(listed.size() - 1)) : null;
+        if (seenDownTo != null) {
+            spans.removeIf(span -> span.lowId().compareTo(seenDownTo) < 0);
+        }
+        BigInteger previousFrom = idOrNull(previous != null ? previous.getSyncedFromId() : null);
+        if (previousFrom != null && (seenDownTo == null || previousFrom.compareTo(seenDownTo) > 0)) {
+            spans.add(new Span(previousFrom, previous.getSyncedFromUrl(), new BigInteger(previous.getSyncedToId()),
+                    previous.getSyncedToUrl(), true));
+        }
+        spans.sort(Comparator.comparing(Span::highId));
+
+        String lastId = previous != null ? previous.getLastPostId() : null;
+        String lastUrl = previous != null ? previous.getLastPostUrl() : null;
+        int i = 0;
+        if (!truncated) {
+            for (; i < spans.size() && spans.get(i).synced(); i++) {
+                lastId = spans.get(i).highId().toString();
+                lastUrl = spans.get(i).highUrl();
+            }
+        }
+        SyncCheckpointStore.Checkpoint next = new SyncCheckpointStore.Checkpoint(lastId, lastUrl, now);
+        int top = spans.size() - 1;
+        while (top >= i && !spans.get(top).synced()) {
+            top--;
+        }
+        if (top >= i) {
+            int bottom = top;
+            while (bottom > i && spans.get(bottom - 1).synced()) {
+                bottom--;
+            }
+            next.setSyncedFromId(spans.get(bottom).lowId().toString());
+            next.setSyncedFromUrl(spans.get(bottom).lowUrl());
+            next.setSyncedToId(spans.get(top).highId().toString());
+            next.setSyncedToUrl(spans.get(top).highUrl());
+        }
+        return next;
+    }
+
+    private static boolean sameProgress(SyncCheckpointStore.Checkpoint a, SyncCheckpointStore.Checkpoint b) {
+        if (a == null) {
+            return b.getLastPostId() == null && b.getSyncedToId() == null;
+        }
+        return Objects.equals(a.getLastPostId(), b.getLastPostId())
+                && Objects.equals(a.getSyncedFromId(), b.getSyncedFromId())
+                && Objects.equals(a.getSyncedToId(), b.getSyncedToId());
+    }
+
+    private static BigInteger idOrNull(String id) {
+        return id != null ? new BigInteger(id) : null;
+    }
+
+    private static boolean inBlock(BigInteger postId, BigInteger from, BigInteger to) {
+        return postId != null && from != null && postId.compareTo(from) >= 0 && postId.compareTo(to) <= 0;
+    }
+
+    private static boolean isOld(BigInteger postId, BigInteger checkpointId) {
+        return checkpointId != null && postId != null && postId.compareTo(checkpointId) <= 0;
+    }
+
+    public Map<String, SyncCheckpointStore.Checkpoint> getCheckpoints() {
+        return checkpointStore.getAll();
+    }
+
+    /** Forgets the checkpoint, so the next sync starts from the newest post again. */
+    public boolean resetCheckpoint(Account account) throws IOException {
+        return checkpointStore.remove(account.getKey());
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.insta.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Downloads a batch of images (e.g. all slides of a carousel) in parallel.
+ *
+ * Two limits apply: {@code app.batch.concurrency} caps the number of
+ * transfers running at once across all batches, and {@code app.batch.per-host}
+ * caps how many of those may hit the same CDN host, so one large carousel on a
+ * single edge node can't take every slot. A task waits for its host permit
+ * before it takes a global one, so global slots are only held by transfers
+ * that can actually run.
+ */
+@Service
+@Slf4j
+public class BatchImageDownloadService {
+
+    private final VideoDownloaderService videoDownloaderService;
+    private final ExecutorService executor;
+    private final Semaphore globalPermits;
+    private final HostPermits hostPermits;
+
+    public BatchImageDownloadService(VideoDownloaderService videoDownloaderService,
+            @Qualifier("mediaTaskExecutor") ExecutorService executor,
+            @Value("${app.batch.concurrency:6}") int maxConcurrency,
+            @Value("${app.batch.per-host:2}") int perHostLimit) {
+        this.videoDownloaderService = videoDownloaderService;
+        this.executor = executor;
+        this.globalPermits = new Semaphore(maxConcurrency, true);
+        this.hostPermits = new HostPermits(perHostLimit);
+    }
+
+    /**
+     * Downloads every URL to the download directory.
+     *
+     * @param onResult optional callback invoked (from a worker thread) as soon
+     *                 as each image finishes, in completion order
+     * @return one result per URL, in the original order
+     */
+    public List<Map<String, String>> downloadAll(List<String> imageUrls, String cookies, String userAgent,
+            String referer, Consumer<Map<String, String>> onResult) throws InterruptedException {
+        List<Future<Map<String, String>>> futures = new ArrayList<>(imageUrls.size());
+        for (int i = 0; i < imageUrls.size(); i++) {
+            final int index = i + 1;
+            final String imageUrl = imageUrls.get(i);
+            futures.add(executor.submit(() -> {
+                Map<String, String> result = downloadOne(index, imageUrl, cookies, userAgent, referer);
+                if (onResult != null) {
+                    try {
+                        onResult.accept(result);
+                    } catch (Exception e) {
+                        log.debug("Batch result callback failed for image {}: {}", index, e.getMessage());
+                    }
+                }
+                return result;
+            }));
+        }
+
+        List<Map<String, String>> results = new ArrayList<>(futures.size());
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(failed(i + 1, e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+                }
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw e;
+        }
+        return results;
+    }
+
+    private Map<String, String> downloadOne(int index, String imageUrl, String cookies, String userAgent,
+            String referer) {
+        Semaphore hostPermit = hostPermits.forUrl(imageUrl);
+        try {
+            hostPermit.acquire();
+            try {
+                globalPermits.acquire();
+                try {
+                    Path downloadedPath = videoDownloaderService.downloadImage(imageUrl, cookies, userAgent, referer);
+                    Map<String, String> result = new LinkedHashMap<>();
+                    result.put("index", String.valueOf(index));
+                    result.put("status", "success");
+                    result.put("filename", downloadedPath.getFileName().toString());
+                    return result;
+                } finally {
+                    globalPermits.release();
+                }
+            } finally {
+                hostPermit.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failed(index, "Interrupted");
+        } catch (Exception e) {
+            return failed(index, e.getMessage());
+        }
+    }
+
+    private Map<String, String> failed(int index, String error) {
+        Map<String, String> result = new LinkedHashMap<>();
+        result.put("index", String.valueOf(index));
+        result.put("status", "failed");
+        result.put("error", error != null ? error : "Unknown error");
+        return result;
+    }
+}
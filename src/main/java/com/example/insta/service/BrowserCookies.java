@@ -0,0 +1,90 @@
+package com.example.insta.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chromium.HasCdp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Installs a user's browser cookies ("sessionid=abc; csrftoken=xyz") into a
+ * fresh Chrome session before its first navigation.
+ *
+ * WebDriver can only add a cookie for the domain of the page currently
+ * loaded, which meant loading the site's homepage and waiting for it just to
+ * set cookies, then one round-trip per cookie. CDP's Network.setCookies writes
+ * straight to the browser's cookie store, so the whole header goes in with
+ * one command and the first page load is already authenticated.
+ */
+@Slf4j
+final class BrowserCookies {
+
+    private BrowserCookies() {
+    }
+
+    /**
+     * Sets every cookie in {@code cookieHeader} for {@code domain} (e.g.
+     * ".instagram.com"). No-op for a blank header. If the driver does not speak
+     * CDP, falls back to loading {@code homepage} and adding the cookies
+     * through WebDriver.
+     *
+     * @return the number of cookies installed
+     */
+    static int install(WebDriver driver, String cookieHeader, String domain, String homepage)
+            throws InterruptedException {
+        List<Map<String, Object>> cookies = parse(cookieHeader, domain);
+        if (cookies.isEmpty()) {
+            return 0;
+        }
+        if (driver instanceof HasCdp cdp) {
+            try {
+                cdp.executeCdpCommand("Network.setCookies", Map.of("cookies", cookies));
+                return cookies.size();
+            } catch (RuntimeException e) {
+                log.warn("Network.setCookies failed, adding cookies through WebDriver: {}", e.getMessage());
+            }
+        }
+
+        // Must navigate to the domain first before setting cookies
+        driver.get(homepage);
+        Thread.sleep(2000);
+        int installed = 0;
+        for (Map<String, Object> cookie : cookies) {
+            try {
+                driver.manage().addCookie(new Cookie.Builder((String) cookie.get("name"), (String) cookie.get("value"))
+                        .domain(domain).path("/").isSecure(true).build());
+                installed++;
+            } catch (Exception e) {
+                log.debug("Could not add cookie {}: {}", cookie.get("name"), e.getMessage());
+            }
+        }
+        return installed;
+    }
+
+    /** CDP CookieParam objects for each name=value pair; pairs without a name are skipped. */
+    static List<Map<String, Object>> parse(String cookieHeader, String domain) {
+        List<Map<String, Object>> cookies = new ArrayList<>();
+        if (cookieHeader == null || cookieHeader.isBlank()) {
+            return cookies;
+        }
+        for (String pair : cookieHeader.split(";")) {
+            int eq = pair.indexOf('=');
+            String name = eq > 0 ? pair.substring(0, eq).trim() : "";
+            if (name.isEmpty()) {
+                continue;
+            }
+            Map<String, Object> cookie = new LinkedHashMap<>();
+            cookie.put("name", name);
+            cookie.put("value", pair.substring(eq + 1).trim());
+            cookie.put("domain", domain);
+            cookie.put("path", "/");
+            cookie.put("secure", true);
+            cookies.add(cookie);
+        }
+        return cookies;
+    }
+}
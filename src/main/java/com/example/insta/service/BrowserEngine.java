@@ -0,0 +1,32 @@
+package com.example.insta.service;
+
+import java.util.List;
+
+/**
+ * How a scraper gets a browser for one page.
+ *
+ * {@link SeleniumBrowserEngine} goes through chromedriver like the rest of
+ * the app; {@link CdpBrowserEngine} talks to Chrome over the DevTools
+ * WebSocket directly, without the chromedriver process and its HTTP hop per
+ * command. {@code app.browser.engine} picks one (BrowserEngineConfig). Both
+ * launch through ChromeDriverFactory, so they share its browser permits and
+ * BrowserGovernor's supervision.
+ */
+public interface BrowserEngine {
+
+    /** selenium or cdp */
+    String name();
+
+    /**
+     * Waits for a browser permit and starts a browser on about:blank. The
+     * page must be closed.
+     *
+     * @param arguments      Chrome switches, with or without the leading "--"
+     * @param performanceLog record the network log the download step reads
+     *                       from a handed-off driver (Selenium only; DevTools
+     *                       pages are never handed off)
+     * @throws IllegalStateException if no permit becomes available in time or
+     *                               the browser fails to start
+     */
+    BrowserPage open(String site, List<String> arguments, boolean performanceLog);
+}
@@ -0,0 +1,445 @@
+package com.example.insta.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Keeps Chrome from taking the box down.
+ *
+ * Every driver ChromeDriverFactory launches is tracked by its chromedriver
+ * PID, and the Chrome processes under it. A sampler reads RSS and CPU for
+ * each process tree from /proc. It does four things:
+ * - kills sessions over their memory or age budget, or over their CPU
+ *   budget for several samples in a row (a page stuck in a script loop);
+ * - kills Chrome/chromedriver processes that no session owns (launches that
+ *   failed halfway, or trees whose quit() failed or was interrupted);
+ * - lowers the number of browsers allowed at once when the container runs
+ *   low on memory, and raises it again when memory frees up;
+ * - kills whatever is left of a session after quit().
+ *
+ * On machines without /proc (e.g. Windows dev boxes) sampling is skipped.
+ * While any session's chromedriver could not be identified, orphans are not
+ * reaped either, since that session's processes would look like orphans.
+ * Process-tree cleanup still works there through ProcessHandle. RSS is summed
+ * per process, so memory shared between Chrome processes is counted more
+ * than once; treat the numbers as an upper bound.
+ */
+@Component
+@Slf4j
+public class BrowserGovernor {
+
+    /** Untracked processes younger than this may be a launch that is still registering. */
+    private static final long ORPHAN_GRACE_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    /** Assumed size of one more browser before any session has been sampled. */
+    private static final long DEFAULT_BROWSER_BYTES = 512L * 1024 * 1024;
+    /** USER_HZ, the unit of utime/stime in /proc/PID/stat; 100 on all mainstream Linux builds. */
+    private static final long CLOCK_TICKS_PER_SECOND = 100;
+    private static final Path PROC = Path.of("/proc");
+
+    /**
+     * One launched browser: chromedriver and the Chrome processes below it,
+     * or just Chrome for the DevTools engine (then driverPid is Chrome's).
+     */
+    static final class Session {
+        final String site;
+        final long driverPid; // -1 if it could not be found
+        final long startedAt = System.currentTimeMillis();
+        volatile long rssBytes;
+        volatile double cpuPercent;
+        volatile String killedFor;
+        private int cpuSamplesOver;
+        private long lastCpuTicks = -1;
+        private long lastSampleNanos;
+
+        Session(String site, long driverPid) {
+            this.site = site;
+            this.driverPid = driverPid;
+        }
+    }
+
+    private final MediaMetrics metrics;
+    private final int maxInstances;
+    private final long maxSessionRssBytes;
+    private final long maxSessionMillis;
+    private final double maxSessionCpuPercent;
+    private final int cpuSamples;
+    private final long minFreeBytes;
+    private final boolean procAvailable = Files.isDirectory(PROC.resolve("self"));
+    private final Map<Object, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger allowedInstances;
+    private volatile IntConsumer allowedListener = n -> {
+    };
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("browser-governor").daemon().factory());
+
+    public BrowserGovernor(MediaMetrics metrics,
+            @Value("${app.browser.max-instances:3}") int maxInstances,
+            @Value("${app.browser.governor.max-session-rss-mb:1536}") long maxSessionRssMb,
+            @Value("${app.browser.governor.max-session-seconds:900}") long maxSessionSeconds,
+            @Value("${app.browser.governor.max-session-cpu-percent:200}") double maxSessionCpuPercent,
+            @Value("${app.browser.governor.cpu-samples:6}") int cpuSamples,
+            @Value("${app.browser.governor.min-free-mb:512}") long minFreeMb,
+            @Value("${app.browser.governor.sample-seconds:5}") long sampleSeconds) {
+        this.metrics = metrics;
+        this.maxInstances = maxInstances;
+        this.maxSessionRssBytes = maxSessionRssMb * 1024 * 1024;
+        this.maxSessionMillis = TimeUnit.SECONDS.toMillis(maxSessionSeconds);
+        this.maxSessionCpuPercent = maxSessionCpuPercent;
+        this.cpuSamples = Math.max(1, cpuSamples);
+        this.minFreeBytes = minFreeMb * 1024 * 1024;
+        this.allowedInstances = new AtomicInteger(maxInstances);
+        sampler.scheduleWithFixedDelay(this::sampleSafely, sampleSeconds, sampleSeconds, TimeUnit.SECONDS);
+    }
+
+    /** Called with the new limit whenever the number of allowed browsers changes. */
+    void onAllowedInstancesChanged(IntConsumer listener) {
+        this.allowedListener = listener;
+    }
+
+    /** Registers a freshly launched driver. */
+    void track(WebDriver driver, String site) {
+        sessions.put(driver, new Session(site, driverPid(driver)));
+    }
+
+    /** Registers a browser launched without chromedriver; its process tree starts at Chrome itself. */
+    void track(ChromeDriverFactory.DevToolsBrowser browser, String site) {
+        sessions.put(browser, new Session(site, browser.process().pid()));
+    }
+
+    /**
+     * Forgets a driver (or DevTools browser) after quit(), killing any of its
+     * processes that are still alive (quit() failed, timed out or was
+     * interrupted).
+     */
+    void release(Object browser) {
+        Session session = sessions.remove(browser);
+        if (session == null || session.driverPid < 0) {
+            return;
+        }
+        List<ProcessHandle> leftovers = tree(session.driverPid);
+        if (!leftovers.isEmpty()) {
+            log.warn("{} process(es) of {} browser (chromedriver pid {}) outlived quit(); killing them",
+                    leftovers.size(), session.site, session.driverPid);
+            kill(leftovers, "quit_failed");
+        }
+    }
+
+    public int getAllowedInstances() {
+        return allowedInstances.get();
+    }
+
+    /** Summed RSS of all tracked browser process trees at the last sample. */
+    public long getTrackedRssBytes() {
+        return sessions.values().stream().mapToLong(s -> s.rssBytes).sum();
+    }
+
+    /** Allowed/maximum browsers, free memory, and per-session RSS, CPU and age at the last sample. */
+    public Map<String, Object> snapshot() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Session session : sessions.values()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("site", session.site);
+            entry.put("driverPid", session.driverPid);
+            entry.put("ageSeconds", (now - session.startedAt) / 1000);
+            entry.put("rssMb", session.rssBytes / (1024 * 1024));
+            entry.put("cpuPercent", Math.round(session.cpuPercent * 10) / 10.0);
+            entry.put("killedFor", session.killedFor);
+            list.add(entry);
+        }
+        long free = availableMemoryBytes();
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("maxInstances", maxInstances);
+        snapshot.put("allowedInstances", allowedInstances.get());
+        snapshot.put("availableMemoryMb", free >= 0 ? free / (1024 * 1024) : null);
+        snapshot.put("sessions", list);
+        return snapshot;
+    }
+
+    private void sampleSafely() {
+        try {
+            sample();
+        } catch (Exception e) {
+            log.warn("Browser governor sample failed: {}", e.getMessage());
+        }
+    }
+
+    void sample() {
+        long now = System.currentTimeMillis();
+        Set<Long> owned = new HashSet<>();
+        boolean unknownPids = false;
+        for (Session session : sessions.values()) {
+            if (session.driverPid < 0) {
+                unknownPids = true;
+                continue;
+            }
+            List<ProcessHandle> tree = tree(session.driverPid);
+            tree.forEach(p -> owned.add(p.pid()));
+            if (procAvailable) {
+                measure(session, tree);
+            }
+            if (session.killedFor != null || tree.isEmpty()) {
+                continue;
+            }
+            if (session.rssBytes > maxSessionRssBytes) {
+                killSession(session, tree, "memory",
+                        "using " + session.rssBytes / (1024 * 1024) + " MB");
+            } else if (now - session.startedAt > maxSessionMillis) {
+                killSession(session, tree, "age",
+                        "running for " + (now - session.startedAt) / 1000 + " s");
+            } else if (overCpuBudget(session)) {
+                killSession(session, tree, "cpu",
+                        "over " + Math.round(maxSessionCpuPercent) + "% for " + cpuSamples + " samples");
+            }
+        }
+        if (unknownPids) {
+            // A live session's processes could not be identified (no command lines on Windows, or another
+            // user's processes), so they would look like orphans
+            log.debug("Skipping the orphan sweep: a browser session has no known chromedriver pid");
+        } else {
+            reapOrphans(owned, now);
+        }
+        adjustAllowedInstances();
+    }
+
+    /**
+     * Whether the session has been over {@code max-session-cpu-percent} for
+     * {@code cpu-samples} samples in a row; a page load's burst is not.
+     * A budget of 0 turns the check off.
+     */
+    private boolean overCpuBudget(Session session) {
+        if (maxSessionCpuPercent <= 0) {
+            return false;
+        }
+        session.cpuSamplesOver = session.cpuPercent > maxSessionCpuPercent ? session.cpuSamplesOver + 1 : 0;
+        return session.cpuSamplesOver >= cpuSamples;
+    }
+
+    private void killSession(Session session, List<ProcessHandle> tree, String reason, String detail) {
+        session.killedFor = reason;
+        log.warn("Killing {} browser (chromedriver pid {}): {} at {}% CPU, over its {} budget", session.site,
+                session.driverPid, detail, Math.round(session.cpuPercent), reason);
+        kill(tree, reason);
+    }
+
+    /** Chrome/chromedriver processes under this JVM that no session owns. */
+    private void reapOrphans(Set<Long> owned, long now) {
+        List<ProcessHandle> orphans = new ArrayList<>();
+        ProcessHandle.current().descendants()
+                .filter(p -> !owned.contains(p.pid()))
+                .filter(BrowserGovernor::isBrowserProcess)
+                .filter(p -> p.info().startInstant()
+                        .map(start -> now - start.toEpochMilli() > ORPHAN_GRACE_MILLIS)
+                        .orElse(false))
+                .forEach(orphans::add);
+        if (!orphans.isEmpty()) {
+            log.warn("Killing {} orphaned Chrome/chromedriver process(es)", orphans.size());
+            kill(orphans, "orphan");
+        }
+    }
+
+    /**
+     * One browser fewer while free memory is under {@code min-free-mb}, one
+     * more once there is room for another browser on top of that.
+     */
+    private void adjustAllowedInstances() {
+        long free = availableMemoryBytes();
+        if (free < 0) {
+            return;
+        }
+        long perBrowser = (long) sessions.values().stream()
+                .mapToLong(s -> s.rssBytes)
+                .filter(rss -> rss > 0)
+                .average()
+                .orElse(DEFAULT_BROWSER_BYTES);
+        int current = allowedInstances.get();
+        int next = current;
+        if (free < minFreeBytes && current > 1) {
+            next = current - 1;
+        } else if (free > minFreeBytes + perBrowser && current < maxInstances) {
+            next = current + 1;
+        }
+        if (next != current && allowedInstances.compareAndSet(current, next)) {
+            log.info("Allowed browsers {} -> {} ({} MB free)", current, next, free / (1024 * 1024));
+            allowedListener.accept(next);
+        }
+    }
+
+    private void measure(Session session, List<ProcessHandle> tree) {
+        long rss = 0;
+        long ticks = 0;
+        for (ProcessHandle p : tree) {
+            rss += rssBytes(p.pid());
+            ticks += cpuTicks(p.pid());
+        }
+        long nowNanos = System.nanoTime();
+        if (session.lastCpuTicks >= 0 && nowNanos > session.lastSampleNanos) {
+            double cpuSeconds = (double) (ticks - session.lastCpuTicks) / CLOCK_TICKS_PER_SECOND;
+            session.cpuPercent = Math.max(0, 100.0 * cpuSeconds / ((nowNanos - session.lastSampleNanos) / 1e9));
+        }
+        session.lastCpuTicks = ticks;
+        session.lastSampleNanos = nowNanos;
+        session.rssBytes = rss;
+    }
+
+    private void kill(List<ProcessHandle> processes, String reason) {
+        // Chrome first: once chromedriver dies its children are re-parented and harder to find
+        for (int i = processes.size() - 1; i >= 0; i--) {
+            processes.get(i).destroyForcibly();
+        }
+        metrics.browserKilled(reason, processes.size());
+    }
+
+    /** The process and all its descendants, root first; empty if it is gone. */
+    private static List<ProcessHandle> tree(long pid) {
+        List<ProcessHandle> tree = new ArrayList<>();
+        ProcessHandle.of(pid).filter(ProcessHandle::isAlive).ifPresent(root -> {
+            tree.add(root);
+            root.descendants().forEach(tree::add);
+        });
+        return tree;
+    }
+
+    private static boolean isBrowserProcess(ProcessHandle p) {
+        return p.info().command()
+                .map(c -> {
+                    String name = Path.of(c).getFileName().toString().toLowerCase();
+                    return name.contains("chrome") || name.contains("chromium");
+                })
+                .orElse(false);
+    }
+
+    /**
+     * Finds the chromedriver child of this JVM listening on the driver's
+     * port (chromedriver is started with --port=N).
+     */
+    private static long driverPid(WebDriver driver) {
+        try {
+            if (driver instanceof RemoteWebDriver remote
+                    && remote.getCommandExecutor() instanceof HttpCommandExecutor executor) {
+                String portArg = "--port=" + executor.getAddressOfRemoteServer().getPort();
+                return ProcessHandle.current().children()
+                        .filter(p -> p.info().arguments()
+                                .map(args -> List.of(args).contains(portArg))
+                                .orElse(false))
+                        .mapToLong(ProcessHandle::pid)
+                        .findFirst()
+                        .orElse(-1);
+            }
+        } catch (RuntimeException e) {
+            log.debug("Could not find chromedriver pid: {}", e.getMessage());
+        }
+        return -1;
+    }
+
+    /** VmRSS from /proc/PID/status, 0 if unavailable. */
+    private static long rssBytes(long pid) {
+        try {
+            for (String line : Files.readAllLines(PROC.resolve(pid + "/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // process exited between listing and reading
+        }
+        return 0;
+    }
+
+    /** utime + stime from /proc/PID/stat, 0 if unavailable. */
+    private static long cpuTicks(long pid) {
+        try {
+            String stat = Files.readString(PROC.resolve(pid + "/stat"));
+            // The command name may contain spaces; fields after it start with the state
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            return Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Memory still available to this container: the cgroup (v2, then v1)
+     * limit minus usage not counting reclaimable page cache, else the host's
+     * MemAvailable. -1 if none of these can be read.
+     */
+    static long availableMemoryBytes() {
+        try {
+            Path v2 = Path.of("/sys/fs/cgroup/memory.max");
+            if (Files.exists(v2)) {
+                String max = Files.readString(v2).trim();
+                if (!max.equals("max")) {
+                    long usage = Long.parseLong(Files.readString(Path.of("/sys/fs/cgroup/memory.current")).trim());
+                    return Long.parseLong(max) - usage + statValue(Path.of("/sys/fs/cgroup/memory.stat"),
+                            "inactive_file");
+                }
+            }
+            Path v1 = Path.of("/sys/fs/cgroup/memory/memory.limit_in_bytes");
+            if (Files.exists(v1)) {
+                long limit = Long.parseLong(Files.readString(v1).trim());
+                if (limit < (1L << 60)) { // "unlimited" is reported as a huge number
+                    long usage = Long.parseLong(
+                            Files.readString(Path.of("/sys/fs/cgroup/memory/memory.usage_in_bytes")).trim());
+                    return limit - usage + statValue(Path.of("/sys/fs/cgroup/memory/memory.stat"),
+                            "total_inactive_file");
+                }
+            }
+            Path meminfo = PROC.resolve("meminfo");
+            if (Files.exists(meminfo)) {
+                for (String line : Files.readAllLines(meminfo)) {
+                    if (line.startsWith("MemAvailable:")) {
+                        return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Could not read available memory: {}", e.getMessage());
+        }
+        return -1;
+    }
+
+    private static long statValue(Path stat, String key) throws IOException {
+        if (!Files.exists(stat)) {
+            return 0;
+        }
+        for (String line : Files.readAllLines(stat)) {
+            if (line.startsWith(key + " ")) {
+                return Long.parseLong(line.substring(key.length() + 1).trim());
+            }
+        }
+        return 0;
+    }
+
+    /** Kills every tracked browser on shutdown so none outlive the JVM. */
+    @PreDestroy
+    public void shutdown() {
+        sampler.shutdownNow();
+        for (Session session : sessions.values()) {
+            if (session.driverPid >= 0) {
+                tree(session.driverPid).forEach(ProcessHandle::destroyForcibly);
+            }
+        }
+        sessions.clear();
+    }
+}
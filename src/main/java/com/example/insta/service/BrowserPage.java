@@ -0,0 +1,42 @@
+package com.example.insta.service;
+
+import org.openqa.selenium.WebDriver;
+
+import java.time.Duration;
+
+/**
+ * One browser tab opened by a {@link BrowserEngine}. Failures are unchecked
+ * (IllegalStateException, or Selenium's WebDriverException), like WebDriver's
+ * own; a load that runs past its timeout carries a TimeoutException cause.
+ */
+public interface BrowserPage extends AutoCloseable {
+
+    /** Loads {@code url} and waits for its load event. */
+    void navigate(String url, Duration timeout);
+
+    /** The current DOM serialized as HTML. */
+    String html();
+
+    String currentUrl();
+
+    String title();
+
+    /** The page's cookies as a Cookie header ("name=value; ..."). */
+    String cookieHeader();
+
+    /** Evaluates a JavaScript expression in the page and returns its JSON value (String, Number, List, Map...). */
+    Object evaluate(String expression);
+
+    /**
+     * Takes the WebDriver behind this page, so the scrape can hand it to
+     * BrowserSessions; close() then leaves it running. Null for engines
+     * without one.
+     */
+    default WebDriver detach() {
+        return null;
+    }
+
+    /** Quits the browser and returns its permit. Safe to call more than once. */
+    @Override
+    void close();
+}
@@ -0,0 +1,177 @@
+package com.example.insta.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.openqa.selenium.WebDriver;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands the result of a scrape over to the download that follows it, so a
+ * video download does not launch a second Chrome to reload the same post.
+ *
+ * When the download will need a browser anyway (no media URL was found, or
+ * the URL is one only a browser session can fetch), the scrape's live
+ * browser is leased here for {@code app.browser.session.lease-seconds},
+ * still on the post page, and {@link #take} gives it to the download.
+ * Otherwise the browser is quit right away and only the resolved media
+ * (URLs, cookies, user agent) is kept for
+ * {@code app.browser.session.resolved-seconds}, which lets the download
+ * skip the browser entirely.
+ *
+ * Both are keyed by the post URL without its query string, so
+ * /api/video/info followed by /api/video/download for the same post finds
+ * the session as well. Only anonymous scrapes are shared. A lease holds a
+ * browser permit, so none is kept while another caller is waiting for a
+ * browser.
+ */
+@Component
+@Slf4j
+public class BrowserSessions {
+
+    private record Lease(WebDriver driver, long expiresAt) {
+    }
+
+    private record Resolved(PexelsScraperService.ScrapedInfo info, long expiresAt) {
+    }
+
+    private final ChromeDriverFactory chromeDriverFactory;
+    private final long leaseMillis;
+    private final long resolvedMillis;
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final Map<String, Resolved> resolved = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("browser-session-reaper").daemon().factory());
+
+    public BrowserSessions(ChromeDriverFactory chromeDriverFactory,
+            @Value("${app.browser.session.lease-seconds:30}") long leaseSeconds,
+            @Value("${app.browser.session.resolved-seconds:300}") long resolvedSeconds) {
+        this.chromeDriverFactory = chromeDriverFactory;
+        this.leaseMillis = TimeUnit.SECONDS.toMillis(leaseSeconds);
+        this.resolvedMillis = TimeUnit.SECONDS.toMillis(resolvedSeconds);
+        reaper.scheduleWithFixedDelay(this::evictExpired, 5, 5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Called by a scraper once it is done with {@code driver}: leases the
+     * browser if the download will need one, otherwise quits it, and
+     * remembers the resolved media. Takes ownership of the driver either way.
+     * Nothing is shared for a scrape made with the user's own cookies
+     * ({@code userCookies}), since its session belongs to that user.
+     */
+    public void handOff(String postUrl, String userCookies, WebDriver driver,
+            PexelsScraperService.ScrapedInfo info) {
+        String key = keyOf(postUrl);
+        if (key == null || (userCookies != null && !userCookies.isBlank())) {
+            chromeDriverFactory.quit(driver);
+            return;
+        }
+        boolean hasVideo = info.getVideoUrl() != null && !info.getVideoUrl().isEmpty();
+        boolean hasImages = info.getImageUrls() != null && !info.getImageUrls().isEmpty();
+        boolean imagePost = "image".equals(info.getMediaType()) || "carousel".equals(info.getMediaType());
+        // Without a video URL the download falls back to loading the post in a browser
+        boolean needsBrowser = hasVideo ? VideoDownloaderService.isSeleniumTarget(info.getVideoUrl()) : !imagePost;
+
+        if ((hasVideo || hasImages) && resolvedMillis > 0) {
+            resolved.put(key, new Resolved(info, System.currentTimeMillis() + resolvedMillis));
+        }
+        if (driver == null || !needsBrowser || leaseMillis <= 0 || chromeDriverFactory.getWaitingCount() > 0) {
+            chromeDriverFactory.quit(driver);
+            return;
+        }
+        Lease previous = leases.put(key, new Lease(driver, System.currentTimeMillis() + leaseMillis));
+        if (previous != null) {
+            chromeDriverFactory.quit(previous.driver());
+        }
+        log.info("Keeping the browser for {} for the download step", key);
+    }
+
+    /**
+     * The leased browser for {@code postUrl}, still on the post page, or null.
+     * The caller owns it from here and must hand it to
+     * {@link ChromeDriverFactory#quit}.
+     */
+    public WebDriver take(String postUrl) {
+        String key = keyOf(postUrl);
+        Lease lease = key != null ? leases.remove(key) : null;
+        if (lease == null) {
+            return null;
+        }
+        if (lease.expiresAt() < System.currentTimeMillis()) {
+            chromeDriverFactory.quit(lease.driver());
+            return null;
+        }
+        return lease.driver();
+    }
+
+    /**
+     * Media resolved by a recent scrape of {@code postUrl}, or null. Always
+     * null when the caller brings its own cookies.
+     */
+    public PexelsScraperService.ScrapedInfo resolved(String postUrl, String userCookies) {
+        String key = keyOf(postUrl);
+        if (key == null || (userCookies != null && !userCookies.isBlank())) {
+            return null;
+        }
+        Resolved entry = resolved.get(key);
+        if (entry == null || entry.expiresAt() < System.currentTimeMillis()) {
+            return null;
+        }
+        return entry.info();
+    }
+
+    public int getLeasedCount() {
+        return leases.size();
+    }
+
+    void evictExpired() {
+        long now = System.currentTimeMillis();
+        resolved.values().removeIf(entry -> entry.expiresAt() < now);
+        leases.forEach((key, lease) -> {
+            // Give the browser back early if someone is queued for one
+            if ((lease.expiresAt() < now || chromeDriverFactory.getWaitingCount() > 0) && leases.remove(key, lease)) {
+                chromeDriverFactory.quit(lease.driver());
+            }
+        });
+    }
+
+    /** scheme://host/path of a post URL, lower-cased host, without query, fragment or trailing slash. */
+    static String keyOf(String url) {
+        if (url == null || url.isBlank()) {
+            return null;
+        }
+        String key = url.trim();
+        int cut = key.length();
+        for (char c : new char[] { '?', '#' }) {
+            int at = key.indexOf(c);
+            if (at != -1 && at < cut) {
+                cut = at;
+            }
+        }
+        key = key.substring(0, cut);
+        while (key.endsWith("/")) {
+            key = key.substring(0, key.length() - 1);
+        }
+        int hostStart = key.indexOf("://") + 3;
+        int hostEnd = key.indexOf('/', hostStart);
+        if (hostStart < 3) {
+            return key;
+        }
+        hostEnd = hostEnd == -1 ? key.length() : hostEnd;
+        return key.substring(0, hostEnd).toLowerCase(Locale.ROOT) + key.substring(hostEnd);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reaper.shutdownNow();
+        leases.values().forEach(lease -> chromeDriverFactory.quit(lease.driver()));
+        leases.clear();
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.insta.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import org.jsoup.Jsoup;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.health.contributor.Health;
+import org.springframework.boot.health.contributor.HealthIndicator;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pays the first scrape's one-off costs at startup instead: resolving
+ * chromedriver, loading the Jsoup/OkHttp/Jackson classes the scrapers use,
+ * and a first launch through the configured BrowserEngine, which pulls the
+ * browser binary and its libraries into the page cache.
+ *
+ * Runs in the background once the application is ready, when
+ * {@code app.browser.warmup.enabled} is set (the faststart profile sets it).
+ * As the "browserWarmup" health indicator it reports OUT_OF_SERVICE until
+ * the warm-up is done, so a readiness probe that includes it keeps traffic
+ * away until then. A failed warm-up still reports UP: the first scrape pays
+ * the cost instead, as it does without warm-up.
+ *
+ * Time from JVM start to the first successful scrape is recorded once as
+ * insta.startup.first_scrape and shown in the indicator's details.
+ */
+@Component
+@Slf4j
+public class BrowserWarmup implements HealthIndicator {
+
+    private static final List<String> WARMUP_ARGUMENTS =
+            List.of("--headless=new", "--no-sandbox", "--disable-dev-shm-usage");
+
+    private final ChromeDriverFactory chromeDriverFactory;
+    private final BrowserEngine browserEngine;
+    private final MediaMetrics metrics;
+    private final boolean enabled;
+    private final AtomicBoolean firstScrapeRecorded = new AtomicBoolean();
+    private volatile boolean warm;
+    private volatile String error;
+    private volatile long warmupMillis = -1;
+    private volatile long readyAfterMillis = -1;
+    private volatile long firstScrapeAfterMillis = -1;
+
+    public BrowserWarmup(ChromeDriverFactory chromeDriverFactory, BrowserEngine browserEngine, MediaMetrics metrics,
+            @Value("${app.browser.warmup.enabled:false}") boolean enabled) {
+        this.chromeDriverFactory = chromeDriverFactory;
+        this.browserEngine = browserEngine;
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.warm = !enabled;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (!enabled) {
+            return;
+        }
+        Thread.ofPlatform().name("browser-warmup").daemon().start(this::warmUp);
+    }
+
+    void warmUp() {
+        long start = System.nanoTime();
+        try {
+            chromeDriverFactory.resolveDriver();
+            preloadClasses();
+            try (BrowserPage page = browserEngine.open("warmup", WARMUP_ARGUMENTS, false)) {
+                page.navigate("about:blank", Duration.ofSeconds(30));
+            }
+        } catch (RuntimeException e) {
+            error = e.getMessage();
+            log.warn("Browser warm-up failed; the first scrape will pay for it: {}", e.getMessage());
+        } finally {
+            warmupMillis = (System.nanoTime() - start) / 1_000_000;
+            readyAfterMillis = uptimeMillis();
+            warm = true;
+            log.info("Browser warm-up finished in {} ms, {} ms after JVM start", warmupMillis, readyAfterMillis);
+        }
+    }
+
+    /** Records the time from JVM start to the first successful scrape; later calls are no-ops. */
+    public void recordScrape() {
+        if (!firstScrapeRecorded.compareAndSet(false, true)) {
+            return;
+        }
+        firstScrapeAfterMillis = uptimeMillis();
+        metrics.firstScrape(firstScrapeAfterMillis);
+        log.info("First successful scrape {} ms after JVM start", firstScrapeAfterMillis);
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    @Override
+    public Health health() {
+        Map<String, Object> details = new LinkedHashMap<>();
+        details.put("enabled", enabled);
+        details.put("warmupMillis", warmupMillis);
+        details.put("readyAfterMillis", readyAfterMillis);
+        details.put("firstScrapeAfterMillis", firstScrapeAfterMillis);
+        if (error != null) {
+            details.put("error", error);
+        }
+        return (warm ? Health.up() : Health.outOfService()).withDetails(details).build();
+    }
+
+    /** Touches the parsing and HTTP classes every scrape loads on first use. */
+    private static void preloadClasses() {
+        Jsoup.parse("<html><head><meta property=\"og:video\" content=\"x\"></head></html>")
+                .select("meta[property=og:video]").attr("content");
+        new Request.Builder().url(HttpUrl.get("https://www.instagram.com/")).build();
+        try {
+            new ObjectMapper().readTree("{\"video_url\":\"x\"}");
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long uptimeMillis() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+}
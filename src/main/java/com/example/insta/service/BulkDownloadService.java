@@ -0,0 +1,210 @@
+package com.example.insta.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Downloads many posts in one call as a two-stage pipeline: scrape, then
+ * download.
+ *
+ * Each unique post runs as one task on the shared media executor. The task
+ * takes a scrape-stage slot ({@code app.bulk.scrape-workers}) while its page
+ * is scraped, releases it, then takes a download-stage slot
+ * ({@code app.bulk.download-workers}) for the transfer. A finished scrape
+ * frees its slot straight away, so downloads of earlier posts overlap with
+ * scrapes of later ones. Inside a stage the work also goes through the
+ * matching {@link LaneScheduler} lane, so bulk traffic shares the browser and
+ * CDN limits with everything else.
+ *
+ * URLs that canonicalize to the same post are fetched once and reported once,
+ * with every index they appeared at.
+ */
+@Service
+@Slf4j
+public class BulkDownloadService {
+
+    /** Receives each finished post on the calling thread, in completion order. */
+    @FunctionalInterface
+    public interface ResultHandler {
+        void accept(Result result) throws IOException;
+    }
+
+    /** Outcome for one unique post of the batch. */
+    public static class Result {
+        private final List<Integer> indexes;
+        private final String url;
+        private final Path file;
+        private final String error;
+        private final long scrapeMillis;
+        private final long downloadMillis;
+
+        Result(List<Integer> indexes, String url, Path file, String error, long scrapeMillis,
+                long downloadMillis) {
+            this.indexes = indexes;
+            this.url = url;
+            this.file = file;
+            this.error = error;
+            this.scrapeMillis = scrapeMillis;
+            this.downloadMillis = downloadMillis;
+        }
+
+        public List<Integer> getIndexes() {
+            return indexes;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /** Downloaded file, or null if the post failed. */
+        public Path getFile() {
+            return file;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return file != null;
+        }
+
+        /** JSON-friendly form used for NDJSON lines and the ZIP manifest. */
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("indexes", indexes);
+            map.put("url", url);
+            map.put("status", isSuccess() ? "success" : "failed");
+            if (isSuccess()) {
+                map.put("filename", file.getFileName().toString());
+            } else {
+                map.put("error", error);
+            }
+            map.put("scrapeMillis", scrapeMillis);
+            map.put("downloadMillis", downloadMillis);
+            return map;
+        }
+    }
+
+    private final DownloadPipelineService downloadPipelineService;
+    private final LaneScheduler laneScheduler;
+    private final ExecutorService executor;
+    private final Semaphore scrapeWorkers;
+    private final Semaphore downloadWorkers;
+    private final int maxUrls;
+
+    public BulkDownloadService(DownloadPipelineService downloadPipelineService,
+            LaneScheduler laneScheduler,
+            @Qualifier("mediaTaskExecutor") ExecutorService executor,
+            @Value("${app.bulk.scrape-workers:3}") int scrapeWorkers,
+            @Value("${app.bulk.download-workers:6}") int downloadWorkers,
+            @Value("${app.bulk.max-urls:100}") int maxUrls) {
+        this.downloadPipelineService = downloadPipelineService;
+        this.laneScheduler = laneScheduler;
+        this.executor = executor;
+        this.scrapeWorkers = new Semaphore(scrapeWorkers, true);
+        this.downloadWorkers = new Semaphore(downloadWorkers, true);
+        this.maxUrls = maxUrls;
+    }
+
+    public int getMaxUrls() {
+        return maxUrls;
+    }
+
+    /**
+     * Groups the URLs by canonical post URL, keeping first-seen order. Blank
+     * entries are dropped.
+     *
+     * @return canonical URL → 0-based indexes in the request
+     */
+    public Map<String, List<Integer>> coalesce(List<String> postUrls) {
+        Map<String, List<Integer>> unique = new LinkedHashMap<>();
+        for (int i = 0; i < postUrls.size(); i++) {
+            String canonical = downloadPipelineService.canonicalize(postUrls.get(i));
+            if (canonical != null && !canonical.isEmpty()) {
+                unique.computeIfAbsent(canonical, k -> new ArrayList<>()).add(i);
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * Runs the whole batch and blocks until every post has been reported to
+     * {@code handler}. If the handler throws (client went away), the
+     * remaining posts are cancelled and the exception is rethrown.
+     */
+    public void downloadAll(List<String> postUrls, String cookies, ResultHandler handler)
+            throws IOException, InterruptedException {
+        Map<String, List<Integer>> unique = coalesce(postUrls);
+        log.info("Bulk download: {} URL(s), {} unique", postUrls.size(), unique.size());
+
+        BlockingQueue<Result> finished = new LinkedBlockingQueue<>();
+        List<Future<?>> tasks = new ArrayList<>(unique.size());
+        for (Map.Entry<String, List<Integer>> entry : unique.entrySet()) {
+            tasks.add(executor.submit(() -> finished.add(process(entry.getKey(), entry.getValue(), cookies))));
+        }
+
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                handler.accept(finished.take());
+            }
+        } finally {
+            for (Future<?> task : tasks) {
+                task.cancel(true);
+            }
+        }
+    }
+
+    private Result process(String postUrl, List<Integer> indexes, String cookies) {
+        DownloadProgress progress = new DownloadProgress();
+        long scrapeMillis = 0;
+        long downloadMillis = 0;
+        try {
+            long start = System.currentTimeMillis();
+            DownloadPipelineService.ResolvedMedia media;
+            scrapeWorkers.acquire();
+            try {
+                media = laneScheduler.call(downloadPipelineService.laneFor(postUrl, null),
+                        () -> downloadPipelineService.resolve(postUrl, cookies, progress));
+            } finally {
+                scrapeWorkers.release();
+            }
+            scrapeMillis = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            Path file;
+            downloadWorkers.acquire();
+            try {
+                LaneScheduler.Lane lane = media.isImagePost()
+                        ? LaneScheduler.Lane.DIRECT
+                        : downloadPipelineService.laneFor(postUrl, media.getVideoUrl());
+                file = laneScheduler.call(lane, () -> downloadPipelineService.download(media, progress));
+            } finally {
+                downloadWorkers.release();
+            }
+            downloadMillis = System.currentTimeMillis() - start;
+            return new Result(indexes, postUrl, file, null, scrapeMillis, downloadMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(indexes, postUrl, null, "Cancelled", scrapeMillis, downloadMillis);
+        } catch (Exception e) {
+            log.warn("Bulk download of {} failed: {}", postUrl, e.getMessage());
+            String error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            return new Result(indexes, postUrl, null, error, scrapeMillis, downloadMillis);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.insta.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+/**
+ * {@link BrowserEngine} that drives Chrome over the DevTools WebSocket, with
+ * no chromedriver: one process less per browser, and each command is a
+ * WebSocket message instead of an HTTP request to chromedriver that is then
+ * relayed over DevTools anyway.
+ *
+ * Runs {@code app.browser.cdp.binary}; when unset, the first of
+ * chrome-headless-shell, google-chrome, chromium and chromium-browser found
+ * on the PATH. chrome-headless-shell (the old headless mode, shipped by
+ * Chrome for Testing) starts faster and uses less memory than full Chrome,
+ * but some sites tell it apart more easily.
+ */
+@Slf4j
+public class CdpBrowserEngine implements BrowserEngine {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final List<String> BINARIES =
+            List.of("chrome-headless-shell", "google-chrome", "chromium", "chromium-browser");
+    private static final Duration COMMAND_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(2);
+
+    private final ChromeDriverFactory chromeDriverFactory;
+    private final String binary;
+    private final OkHttpClient client = new OkHttpClient.Builder()
+            .readTimeout(Duration.ZERO)
+            .build();
+
+    public CdpBrowserEngine(ChromeDriverFactory chromeDriverFactory, String binary) {
+        this.chromeDriverFactory = chromeDriverFactory;
+        this.binary = binary == null || binary.isBlank() ? findBinary() : binary;
+        log.info("DevTools browser engine runs {}", this.binary);
+    }
+
+    @Override
+    public String name() {
+        return "cdp";
+    }
+
+    @Override
+    public BrowserPage open(String site, List<String> arguments, boolean performanceLog) {
+        ChromeDriverFactory.DevToolsBrowser browser = chromeDriverFactory.launchDevTools(site, binary, arguments);
+        CdpConnection connection = null;
+        try {
+            connection = CdpConnection.connect(client, browser.webSocketUrl());
+            String targetId = pageTarget(connection);
+            String sessionId = connection.send(null, "Target.attachToTarget",
+                    Map.of("targetId", targetId, "flatten", true), COMMAND_TIMEOUT).path("sessionId").asText();
+            connection.send(sessionId, "Page.enable", Map.of(), COMMAND_TIMEOUT);
+            return new Page(browser, connection, sessionId);
+        } catch (RuntimeException e) {
+            if (connection != null) {
+                connection.close();
+            }
+            chromeDriverFactory.quit(browser);
+            throw e;
+        }
+    }
+
+    /** The tab Chrome opened on about:blank at launch, or a new one. */
+    private static String pageTarget(CdpConnection connection) {
+        JsonNode targets = connection.send(null, "Target.getTargets", Map.of(), COMMAND_TIMEOUT).path("targetInfos");
+        for (JsonNode target : targets) {
+            if ("page".equals(target.path("type").asText())) {
+                return target.path("targetId").asText();
+            }
+        }
+        return connection.send(null, "Target.createTarget", Map.of("url", "about:blank"), COMMAND_TIMEOUT)
+                .path("targetId").asText();
+    }
+
+    private static String findBinary() {
+        String path = System.getenv("PATH");
+        if (path != null) {
+            for (String name : BINARIES) {
+                for (String dir : path.split(File.pathSeparator)) {
+                    Path candidate = Path.of(dir, name);
+                    if (Files.isExecutable(candidate)) {
+                        return candidate.toString();
+                    }
+                }
+            }
+        }
+        throw new IllegalStateException("No Chrome binary found on the PATH; set app.browser.cdp.binary");
+    }
+
+    private final class Page implements BrowserPage {
+        private final ChromeDriverFactory.DevToolsBrowser browser;
+        private final CdpConnection connection;
+        private final String sessionId;
+
+        Page(ChromeDriverFactory.DevToolsBrowser browser, CdpConnection connection, String sessionId) {
+            this.browser = browser;
+            this.connection = connection;
+            this.sessionId = sessionId;
+        }
+
+        @Override
+        public void navigate(String url, Duration timeout) {
+            CompletableFuture<JsonNode> loaded = connection.nextEvent(sessionId, "Page.loadEventFired");
+            JsonNode result = connection.send(sessionId, "Page.navigate", Map.of("url", url), timeout);
+            if (result.hasNonNull("errorText")) {
+                loaded.cancel(false);
+                throw new IllegalStateException("Navigation to " + url + " failed: "
+                        + result.get("errorText").asText());
+            }
+            CdpConnection.await(loaded, "Page load of " + url, timeout);
+        }
+
+        @Override
+        public String html() {
+            Object html = evaluate("document.documentElement ? document.documentElement.outerHTML : ''");
+            return html != null ? html.toString() : "";
+        }
+
+        @Override
+        public String currentUrl() {
+            return String.valueOf(evaluate("location.href"));
+        }
+
+        @Override
+        public String title() {
+            return String.valueOf(evaluate("document.title"));
+        }
+
+        @Override
+        public String cookieHeader() {
+            JsonNode cookies = connection.send(sessionId, "Network.getCookies", Map.of(), COMMAND_TIMEOUT)
+                    .path("cookies");
+            return StreamSupport.stream(cookies.spliterator(), false)
+                    .map(c -> c.path("name").asText() + "=" + c.path("value").asText())
+                    .collect(Collectors.joining("; "));
+        }
+
+        @Override
+        public Object evaluate(String expression) {
+            JsonNode result = connection.send(sessionId, "Runtime.evaluate",
+                    Map.of("expression", expression, "returnByValue", true, "awaitPromise", true),
+                    COMMAND_TIMEOUT);
+            JsonNode exception = result.get("exceptionDetails");
+            if (exception != null) {
+                throw new IllegalStateException("Script failed: "
+                        + exception.path("exception").path("description").asText(exception.path("text").asText()));
+            }
+            JsonNode value = result.path("result").path("value");
+            return value.isMissingNode() ? null : OBJECT_MAPPER.convertValue(value, Object.class);
+        }
+
+        @Override
+        public void close() {
+            try {
+                connection.send(null, "Browser.close", Map.of(), CLOSE_TIMEOUT);
+            } catch (RuntimeException e) {
+                // Chrome may close the socket before answering; quit() kills it otherwise
+                log.debug("Browser.close: {}", e.getMessage());
+            } finally {
+                connection.close();
+                chromeDriverFactory.quit(browser);
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.insta.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * A Chrome DevTools protocol connection: commands are JSON messages with an
+ * id, answered by a message with the same id; everything else is an event.
+ * Commands for a tab carry the sessionId from Target.attachToTarget
+ * (flatten mode), so one browser WebSocket serves all of its tabs.
+ */
+@Slf4j
+final class CdpConnection implements AutoCloseable {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private record EventWaiter(String sessionId, String method, CompletableFuture<JsonNode> future) {
+    }
+
+    private final Predicate<String> transport;
+    private final AtomicInteger ids = new AtomicInteger();
+    private final Map<Integer, CompletableFuture<JsonNode>> pending = new ConcurrentHashMap<>();
+    private final Queue<EventWaiter> waiters = new ConcurrentLinkedQueue<>();
+    private volatile String closedReason;
+    private WebSocket webSocket;
+
+    /** @param transport sends one text message, false if the connection is gone */
+    CdpConnection(Predicate<String> transport) {
+        this.transport = transport;
+    }
+
+    static CdpConnection connect(OkHttpClient client, String webSocketUrl) {
+        WebSocket[] socket = new WebSocket[1];
+        // Nothing is sent before the socket is assigned below
+        CdpConnection connection = new CdpConnection(text -> socket[0].send(text));
+        CompletableFuture<Void> opened = new CompletableFuture<>();
+        socket[0] = client.newWebSocket(new Request.Builder().url(webSocketUrl).build(),
+                new WebSocketListener() {
+                    @Override
+                    public void onOpen(WebSocket webSocket, Response response) {
+                        opened.complete(null);
+                    }
+
+                    @Override
+                    public void onMessage(WebSocket webSocket, String text) {
+                        connection.onMessage(text);
+                    }
+
+                    @Override
+                    public void onClosing(WebSocket webSocket, int code, String reason) {
+                        connection.onClosed("closed by Chrome (" + code + ")");
+                        webSocket.close(1000, null);
+                    }
+
+                    @Override
+                    public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+                        opened.completeExceptionally(t);
+                        connection.onClosed(t.getMessage());
+                    }
+                });
+        connection.webSocket = socket[0];
+        try {
+            opened.get(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            socket[0].cancel();
+            throw new IllegalStateException("Interrupted while connecting to DevTools", e);
+        } catch (ExecutionException | TimeoutException e) {
+            socket[0].cancel();
+            throw new IllegalStateException("Could not connect to DevTools at " + webSocketUrl, e);
+        }
+        return connection;
+    }
+
+    /**
+     * Sends a command and waits for its result.
+     *
+     * @param sessionId the tab's session, or null for a browser command
+     * @throws IllegalStateException if Chrome answers with an error, the
+     *                               connection closes, or no answer arrives
+     *                               within {@code timeout} (TimeoutException cause)
+     */
+    JsonNode send(String sessionId, String method, Map<String, ?> params, Duration timeout) {
+        int id = ids.incrementAndGet();
+        ObjectNode message = OBJECT_MAPPER.createObjectNode();
+        message.put("id", id);
+        message.put("method", method);
+        message.set("params", OBJECT_MAPPER.valueToTree(params));
+        if (sessionId != null) {
+            message.put("sessionId", sessionId);
+        }
+        CompletableFuture<JsonNode> answer = new CompletableFuture<>();
+        pending.put(id, answer);
+        try {
+            if (closedReason != null || !transport.test(message.toString())) {
+                throw new IllegalStateException("DevTools connection is closed: " + closedReason);
+            }
+            JsonNode response = await(answer, method, timeout);
+            JsonNode error = response.get("error");
+            if (error != null) {
+                throw new IllegalStateException(method + " failed: " + error.path("message").asText());
+            }
+            return response.path("result");
+        } finally {
+            pending.remove(id);
+        }
+    }
+
+    /**
+     * Future for the next {@code method} event of the session. Register it
+     * before sending the command that triggers the event.
+     */
+    CompletableFuture<JsonNode> nextEvent(String sessionId, String method) {
+        CompletableFuture<JsonNode> future = new CompletableFuture<>();
+        waiters.add(new EventWaiter(sessionId, method, future));
+        // Dropped once completed or abandoned, so a timed-out wait does not linger
+        future.whenComplete((params, error) -> waiters.removeIf(w -> w.future() == future));
+        return future;
+    }
+
+    static JsonNode await(CompletableFuture<JsonNode> future, String what, Duration timeout) {
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + what, e);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new IllegalStateException(what + " timed out after " + timeout.toSeconds() + " s", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(what + " failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    void onMessage(String text) {
+        JsonNode message;
+        try {
+            message = OBJECT_MAPPER.readTree(text);
+        } catch (IOException e) {
+            log.debug("Ignoring unreadable DevTools message: {}", e.getMessage());
+            return;
+        }
+        if (message.has("id")) {
+            CompletableFuture<JsonNode> answer = pending.get(message.get("id").asInt());
+            if (answer != null) {
+                answer.complete(message);
+            }
+            return;
+        }
+        String method = message.path("method").asText();
+        String sessionId = message.hasNonNull("sessionId") ? message.get("sessionId").asText() : null;
+        for (EventWaiter waiter : waiters) {
+            if (waiter.method().equals(method) && Objects.equals(waiter.sessionId(), sessionId)) {
+                waiter.future().complete(message.path("params"));
+            }
+        }
+    }
+
+    void onClosed(String reason) {
+        closedReason = reason != null ? reason : "closed";
+        IllegalStateException closed = new IllegalStateException("DevTools connection closed: " + closedReason);
+        pending.values().forEach(answer -> answer.completeExceptionally(closed));
+        waiters.forEach(waiter -> waiter.future().completeExceptionally(closed));
+    }
+
+    @Override
+    public void close() {
+        if (webSocket != null) {
+            webSocket.close(1000, null);
+        }
+        onClosed("closed");
+    }
+}
@@ -0,0 +1,317 @@
+package com.example.insta.service;
+
+import io.github.bonigarcia.wdm.WebDriverManager;
+import lombok.extern.slf4j.Slf4j;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Single place where Chrome gets launched.
+ *
+ * Chrome is the scarce resource in this app (hundreds of MB per instance),
+ * so launches are bounded by {@code app.browser.max-instances} permits no
+ * matter how many request threads are waiting. A caller that can't get a
+ * permit within {@code app.browser.acquire-timeout-seconds} fails instead of
+ * oversubscribing the box. Every driver returned by {@link #create} must be
+ * handed back to {@link #quit}. The same permits cover browsers started by
+ * {@link #launchDevTools} for the chromedriver-less engine. BrowserGovernor watches the launched
+ * processes and can lower the number of permits while memory is short.
+ *
+ * chromedriver is resolved by WebDriverManager (which may download it) unless
+ * {@code app.browser.driver-path} points at a local binary, as needed on
+ * offline machines. Either way it is resolved once, by the first launch or
+ * by {@link #resolveDriver} at startup, and pinned for every later launch.
+ */
+@Component
+@Slf4j
+public class ChromeDriverFactory {
+
+    private final MediaMetrics metrics;
+    private final BrowserGovernor governor;
+    private final ResizableSemaphore permits;
+    private int limit; // current permit count, guarded by this
+    private final int maxInstances;
+    private final long acquireTimeoutSeconds;
+    private final String driverPath;
+    private volatile boolean driverResolved;
+    private final Set<WebDriver> active = ConcurrentHashMap.newKeySet();
+    private final Set<DevToolsBrowser> activeDevTools = ConcurrentHashMap.newKeySet();
+
+    private static final long DEVTOOLS_START_TIMEOUT_SECONDS = 30;
+    private static final long DEVTOOLS_EXIT_GRACE_SECONDS = 5;
+
+    /** A Chrome started by {@link #launchDevTools}: its process, throwaway profile and browser WebSocket URL. */
+    public record DevToolsBrowser(Process process, Path userDataDir, String webSocketUrl) {
+    }
+
+    public ChromeDriverFactory(MediaMetrics metrics,
+            BrowserGovernor governor,
+            @Value("${app.browser.max-instances:3}") int maxInstances,
+            @Value("${app.browser.acquire-timeout-seconds:120}") long acquireTimeoutSeconds,
+            @Value("${app.browser.driver-path:}") String driverPath) {
+        this.metrics = metrics;
+        this.governor = governor;
+        this.maxInstances = maxInstances;
+        this.acquireTimeoutSeconds = acquireTimeoutSeconds;
+        this.driverPath = driverPath;
+        this.permits = new ResizableSemaphore(maxInstances);
+        this.limit = maxInstances;
+        governor.onAllowedInstancesChanged(this::resize);
+        if (!driverPath.isBlank()) {
+            System.setProperty("webdriver.chrome.driver", driverPath);
+            log.info("Using chromedriver at {}", driverPath);
+            driverResolved = true;
+        }
+    }
+
+    /**
+     * Resolves chromedriver through WebDriverManager, which checks the
+     * installed Chrome and may download a matching driver, and pins the
+     * result so later launches skip that. No-op once resolved.
+     */
+    public void resolveDriver() {
+        if (driverResolved) {
+            return;
+        }
+        synchronized (this) {
+            if (!driverResolved) {
+                WebDriverManager.chromedriver().setup();
+                log.info("Resolved chromedriver at {}", System.getProperty("webdriver.chrome.driver"));
+                driverResolved = true;
+            }
+        }
+    }
+
+    /**
+     * Waits for a browser permit, then launches Chrome with the given options.
+     *
+     * @param site the scraper's site, for the driver-setup / launch timers
+     * @throws IllegalStateException if no permit becomes available in time or
+     *                               the calling thread is interrupted
+     */
+    public WebDriver create(String site, ChromeOptions options) {
+        acquirePermit();
+        try {
+            if (!driverResolved) {
+                metrics.time(site, MediaMetrics.Stage.DRIVER_SETUP, this::resolveDriver);
+            }
+            long launchStart = System.nanoTime();
+            WebDriver driver;
+            try {
+                driver = new ChromeDriver(options);
+            } catch (RuntimeException e) {
+                metrics.record(site, MediaMetrics.Stage.CHROME_LAUNCH, launchStart, false);
+                throw e;
+            }
+            metrics.record(site, MediaMetrics.Stage.CHROME_LAUNCH, launchStart, true);
+            active.add(driver);
+            governor.track(driver, site);
+            return driver;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for a browser permit, then starts Chrome (or chrome-headless-shell)
+     * with remote debugging on a free port and no chromedriver, for
+     * {@link CdpBrowserEngine}. Returns once Chrome has written the DevTools
+     * endpoint into its profile directory.
+     *
+     * @param binary     the Chrome executable
+     * @param arguments  command-line switches, with or without the leading "--"
+     * @throws IllegalStateException if no permit becomes available in time, or
+     *                               Chrome fails to start or to open DevTools
+     */
+    public DevToolsBrowser launchDevTools(String site, String binary, List<String> arguments) {
+        acquirePermit();
+        long launchStart = System.nanoTime();
+        Path userDataDir = null;
+        Process process = null;
+        try {
+            userDataDir = Files.createTempDirectory("insta-cdp");
+            List<String> command = new ArrayList<>();
+            command.add(binary);
+            command.add("--remote-debugging-port=0");
+            command.add("--user-data-dir=" + userDataDir);
+            command.add("--no-first-run");
+            command.add("--no-default-browser-check");
+            for (String argument : arguments) {
+                command.add(argument.startsWith("--") ? argument : "--" + argument);
+            }
+            command.add("about:blank");
+            process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            DevToolsBrowser browser = new DevToolsBrowser(process, userDataDir, awaitDevTools(process, userDataDir));
+            metrics.record(site, MediaMetrics.Stage.CHROME_LAUNCH, launchStart, true);
+            activeDevTools.add(browser);
+            governor.track(browser, site);
+            return browser;
+        } catch (IOException | RuntimeException e) {
+            metrics.record(site, MediaMetrics.Stage.CHROME_LAUNCH, launchStart, false);
+            if (process != null) {
+                process.descendants().forEach(ProcessHandle::destroyForcibly);
+                process.destroyForcibly();
+            }
+            deleteProfile(userDataDir);
+            permits.release();
+            if (e instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException("Could not start " + binary + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stops a DevTools browser and returns its permit. Safe to call more than
+     * once. Callers should send Browser.close first so Chrome exits cleanly.
+     */
+    public void quit(DevToolsBrowser browser) {
+        if (browser == null || !activeDevTools.remove(browser)) {
+            return;
+        }
+        try {
+            Process process = browser.process();
+            if (!process.waitFor(DEVTOOLS_EXIT_GRACE_SECONDS, TimeUnit.SECONDS)) {
+                process.destroy();
+                if (!process.waitFor(DEVTOOLS_EXIT_GRACE_SECONDS, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            browser.process().destroyForcibly();
+        } finally {
+            // Kills whatever the exit left behind
+            governor.release(browser);
+            deleteProfile(browser.userDataDir());
+            permits.release();
+        }
+    }
+
+    /** Reads port and browser path from the DevToolsActivePort file Chrome writes once it listens. */
+    private static String awaitDevTools(Process process, Path userDataDir) throws IOException {
+        Path portFile = userDataDir.resolve("DevToolsActivePort");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DEVTOOLS_START_TIMEOUT_SECONDS);
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Chrome exited with code " + process.exitValue()
+                        + " before opening DevTools");
+            }
+            if (Files.exists(portFile)) {
+                List<String> lines = Files.readAllLines(portFile);
+                // Written in two lines; the second may not be there yet
+                if (lines.size() >= 2 && !lines.get(1).isBlank()) {
+                    return "ws://127.0.0.1:" + lines.get(0).trim() + lines.get(1).trim();
+                }
+            }
+            try {
+                Thread.sleep(25);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for Chrome to open DevTools", e);
+            }
+        }
+        throw new IllegalStateException("Chrome did not open DevTools within "
+                + DEVTOOLS_START_TIMEOUT_SECONDS + " s");
+    }
+
+    private static void deleteProfile(Path userDataDir) {
+        if (userDataDir == null) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(userDataDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            log.debug("Could not delete Chrome profile {}: {}", userDataDir, e.getMessage());
+        }
+    }
+
+    private void acquirePermit() {
+        try {
+            if (!permits.tryAcquire(acquireTimeoutSeconds, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("All " + getAllowedInstances()
+                        + " browser instances are busy. Please try again shortly.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a browser instance", e);
+        }
+    }
+
+    /** Quits the driver and returns its permit. Safe to call more than once. */
+    public void quit(WebDriver driver) {
+        if (driver == null || !active.remove(driver)) {
+            return;
+        }
+        try {
+            driver.quit();
+        } catch (Exception e) {
+            log.warn("driver.quit() failed: {}", e.getMessage());
+        } finally {
+            governor.release(driver);
+            permits.release();
+        }
+    }
+
+    /**
+     * Changes how many browsers may run at once. Shrinking does not touch
+     * running browsers; new launches wait until enough have quit.
+     */
+    private synchronized void resize(int newLimit) {
+        int target = Math.max(1, Math.min(maxInstances, newLimit));
+        if (target > limit) {
+            permits.release(target - limit);
+        } else if (target < limit) {
+            permits.reduce(limit - target);
+        }
+        limit = target;
+    }
+
+    public int getActiveCount() {
+        return active.size() + activeDevTools.size();
+    }
+
+    public int getMaxInstances() {
+        return maxInstances;
+    }
+
+    /** Browsers currently allowed at once; below the maximum while memory is short. */
+    public synchronized int getAllowedInstances() {
+        return limit;
+    }
+
+    /** Number of callers currently blocked waiting for a browser. */
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    /** Fair semaphore whose permit count can shrink while permits are held. */
+    private static final class ResizableSemaphore extends Semaphore {
+        ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        void reduce(int reduction) {
+            reducePermits(reduction);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.insta.service;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A site's circuit is open: it recently throttled us, walled us behind a
+ * login or captcha, or kept failing extraction, so the request is refused
+ * before paying for a browser or connection. A {@link RejectedExecutionException},
+ * so the endpoints answer it with 503 like a full lane.
+ */
+public class CircuitOpenException extends RejectedExecutionException {
+
+    private final long retryAfterSeconds;
+
+    public CircuitOpenException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
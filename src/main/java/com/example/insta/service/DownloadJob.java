@@ -0,0 +1,129 @@
+package com.example.insta.service;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.Future;
+
+/**
+ * A download submitted through the job API. State transitions are
+ * synchronized so a late success/failure from the worker can never overwrite
+ * a cancellation.
+ */
+public class DownloadJob {
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED;
+
+        public boolean isFinished() {
+            return this == SUCCEEDED || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    private final String id;
+    private final String kind;
+    private final String sourceUrl;
+    private final Instant createdAt = Instant.now();
+    private final DownloadProgress progress;
+
+    private Status status = Status.QUEUED;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private Path result;
+    private String error;
+    private Future<?> future;
+
+    public DownloadJob(String id, String kind, String sourceUrl, DownloadProgress progress) {
+        this.id = id;
+        this.kind = kind;
+        this.sourceUrl = sourceUrl;
+        this.progress = progress;
+    }
+
+    synchronized boolean markRunning() {
+        if (status != Status.QUEUED) {
+            return false;
+        }
+        status = Status.RUNNING;
+        startedAt = Instant.now();
+        return true;
+    }
+
+    synchronized void succeed(Path result) {
+        if (status.isFinished()) {
+            return;
+        }
+        this.result = result;
+        finish(Status.SUCCEEDED);
+        progress.stage(DownloadStage.DONE, result.getFileName().toString());
+    }
+
+    synchronized void fail(String error) {
+        if (status.isFinished()) {
+            return;
+        }
+        this.error = error;
+        finish(Status.FAILED);
+        progress.fail(error);
+    }
+
+    synchronized boolean cancel() {
+        if (status.isFinished()) {
+            return false;
+        }
+        finish(Status.CANCELLED);
+        progress.cancel();
+        if (future != null) {
+            future.cancel(true);
+        }
+        return true;
+    }
+
+    private void finish(Status status) {
+        this.status = status;
+        this.finishedAt = Instant.now();
+    }
+
+    synchronized void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public String getSourceUrl() {
+        return sourceUrl;
+    }
+
+    public DownloadProgress getProgress() {
+        return progress;
+    }
+
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public synchronized Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public synchronized Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public synchronized Path getResult() {
+        return result;
+    }
+
+    public synchronized String getError() {
+        return error;
+    }
+}
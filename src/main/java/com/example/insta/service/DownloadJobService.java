@@ -0,0 +1,178 @@
+package com.example.insta.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs downloads in the background so the request thread can return a job ID
+ * immediately instead of blocking for the whole scrape + download.
+ *
+ * Each job runs in the {@link LaneScheduler} lane that matches its work, so
+ * a job with a direct URL is not stuck behind browser scrapes. Up to
+ * {@code app.jobs.queue-capacity} jobs may be waiting for a lane; beyond that
+ * submission is rejected rather than letting work pile up. Waiting jobs park
+ * on the lane's semaphore on the shared media executor, which is cheap when
+ * that executor uses virtual threads.
+ *
+ * Finished jobs are kept for {@code app.jobs.ttl-minutes} so clients can fetch
+ * the result, then forgotten (the downloaded file itself stays in the
+ * download directory, as with the synchronous endpoints).
+ */
+@Service
+@Slf4j
+public class DownloadJobService {
+
+    /** The work a job performs; returns the downloaded file. */
+    @FunctionalInterface
+    public interface JobTask {
+        Path run(DownloadProgress progress) throws Exception;
+    }
+
+    private final DownloadPipelineService downloadPipelineService;
+    private final DownloadProgressRegistry progressRegistry;
+    private final LaneScheduler laneScheduler;
+    private final Map<String, DownloadJob> jobs = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final int queueCapacity;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("download-job-reaper").daemon().factory());
+    private final Duration ttl;
+
+    public DownloadJobService(DownloadPipelineService downloadPipelineService,
+            DownloadProgressRegistry progressRegistry,
+            LaneScheduler laneScheduler,
+            @Qualifier("mediaTaskExecutor") ExecutorService executor,
+            @Value("${app.jobs.queue-capacity:100}") int queueCapacity,
+            @Value("${app.jobs.ttl-minutes:30}") long ttlMinutes) {
+        this.downloadPipelineService = downloadPipelineService;
+        this.progressRegistry = progressRegistry;
+        this.laneScheduler = laneScheduler;
+        this.ttl = Duration.ofMinutes(ttlMinutes);
+        this.executor = executor;
+        this.queueCapacity = queueCapacity;
+        this.reaper.scheduleWithFixedDelay(this::evictExpired, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public DownloadJob submitVideo(String postUrl, String directUrl, String cookies, String userAgent,
+            String originUrl) {
+        String source = directUrl != null && !directUrl.isEmpty() ? directUrl : postUrl;
+        return submit("video", source, downloadPipelineService.laneFor(postUrl, directUrl),
+                progress -> downloadPipelineService.downloadVideo(
+                postUrl, directUrl, cookies, userAgent, originUrl, progress));
+    }
+
+    public DownloadJob submitInstagramPost(String postUrl, String browserCookies) {
+        return submit("instagram", postUrl, LaneScheduler.Lane.HTTP,
+                progress -> downloadPipelineService.downloadInstagramPost(postUrl, browserCookies, progress));
+    }
+
+    /**
+     * Queues a job.
+     *
+     * @throws RejectedExecutionException if the job queue is full
+     */
+    public DownloadJob submit(String kind, String sourceUrl, LaneScheduler.Lane lane, JobTask task) {
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            throw new RejectedExecutionException("Job queue is full");
+        }
+        DownloadProgress progress = progressRegistry.forDownload(null);
+        DownloadJob job = new DownloadJob(progress.getId(), kind, sourceUrl, progress);
+        job.getProgress().stage(DownloadStage.QUEUED, "Waiting for the " + lane + " lane");
+        jobs.put(job.getId(), job);
+        try {
+            job.setFuture(executor.submit(() -> run(job, lane, task)));
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            jobs.remove(job.getId());
+            throw e;
+        }
+        log.info("Job {} queued ({}, {} lane): {}", job.getId(), kind, lane, sourceUrl);
+        return job;
+    }
+
+    private void run(DownloadJob job, LaneScheduler.Lane lane, JobTask task) {
+        LaneScheduler.Permit permit;
+        try {
+            permit = laneScheduler.acquire(lane);
+        } catch (InterruptedException e) {
+            queued.decrementAndGet();
+            job.cancel();
+            return;
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            job.fail(e.getMessage());
+            return;
+        }
+        queued.decrementAndGet();
+        running.incrementAndGet();
+        try {
+            if (!job.markRunning()) {
+                return; // cancelled while queued
+            }
+            Path result = task.run(job.getProgress());
+            job.succeed(result);
+            log.info("Job {} finished: {}", job.getId(), result);
+        } catch (InterruptedException e) {
+            job.cancel();
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            job.fail(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            log.warn("Job {} failed: {}", job.getId(), e.getMessage());
+        } finally {
+            running.decrementAndGet();
+            permit.close();
+        }
+    }
+
+    public Optional<DownloadJob> get(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    /** @return false if the job is unknown or already finished */
+    public boolean cancel(String id) {
+        DownloadJob job = jobs.get(id);
+        if (job == null || !job.cancel()) {
+            return false;
+        }
+        log.info("Job {} cancelled", id);
+        return true;
+    }
+
+    void evictExpired() {
+        Instant cutoff = Instant.now().minus(ttl);
+        jobs.values().removeIf(job -> job.getStatus().isFinished()
+                && job.getFinishedAt() != null && job.getFinishedAt().isBefore(cutoff));
+    }
+
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    public int getActiveCount() {
+        return running.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reaper.shutdownNow();
+    }
+}
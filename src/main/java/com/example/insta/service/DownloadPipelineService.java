@@ -0,0 +1,420 @@
+package com.example.insta.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * The scrape-then-download flow shared by the synchronous endpoints and the
+ * background job workers. Every step reports its stage to the given
+ * {@link DownloadProgress}.
+ */
+@Service
+@Slf4j
+public class DownloadPipelineService {
+
+    private final VideoDownloaderService videoDownloaderService;
+    private final PexelsScraperService pexelsScraperService;
+    private final TikTokScraperService tiktokScraperService;
+    private final InstagramScraperService instagramScraperService;
+    private final YoutubeScraperService youtubeScraperService;
+    private final MediaMetrics metrics;
+    private final BrowserSessions browserSessions;
+    private final MediaPrefetcher mediaPrefetcher;
+    private final SignedUrlRegistry signedUrls;
+    private final BrowserWarmup browserWarmup;
+
+    @Value("${app.download.dir}")
+    private String downloadDir;
+
+    public DownloadPipelineService(VideoDownloaderService videoDownloaderService,
+            PexelsScraperService pexelsScraperService,
+            TikTokScraperService tiktokScraperService,
+            InstagramScraperService instagramScraperService,
+            YoutubeScraperService youtubeScraperService,
+            MediaMetrics metrics,
+            BrowserSessions browserSessions,
+            MediaPrefetcher mediaPrefetcher,
+            SignedUrlRegistry signedUrls,
+            BrowserWarmup browserWarmup) {
+        this.videoDownloaderService = videoDownloaderService;
+        this.pexelsScraperService = pexelsScraperService;
+        this.tiktokScraperService = tiktokScraperService;
+        this.instagramScraperService = instagramScraperService;
+        this.youtubeScraperService = youtubeScraperService;
+        this.metrics = metrics;
+        this.browserSessions = browserSessions;
+        this.mediaPrefetcher = mediaPrefetcher;
+        this.signedUrls = signedUrls;
+        this.browserWarmup = browserWarmup;
+    }
+
+    /**
+     * A scraped post: where its media lives and the session needed to fetch it.
+     */
+    public static class ResolvedMedia {
+        private final String postUrl;
+        private final String videoUrl;
+        private final List<String> imageUrls;
+        private final String cookies;
+        private final String userAgent;
+        private final String audioUrl;
+
+        ResolvedMedia(String postUrl, String videoUrl, List<String> imageUrls, String cookies, String userAgent) {
+            this(postUrl, videoUrl, null, imageUrls, cookies, userAgent);
+        }
+
+        ResolvedMedia(String postUrl, String videoUrl, String audioUrl, List<String> imageUrls, String cookies,
+                String userAgent) {
+            this.postUrl = postUrl;
+            this.videoUrl = videoUrl;
+            this.audioUrl = audioUrl;
+            this.imageUrls = imageUrls != null ? imageUrls : List.of();
+            this.cookies = cookies;
+            this.userAgent = userAgent;
+        }
+
+        public String getPostUrl() {
+            return postUrl;
+        }
+
+        public String getVideoUrl() {
+            return videoUrl;
+        }
+
+        /** Separate audio stream to mux with the video (YouTube adaptive formats), or null. */
+        public String getAudioUrl() {
+            return audioUrl;
+        }
+
+        public List<String> getImageUrls() {
+            return imageUrls;
+        }
+
+        public String getCookies() {
+            return cookies;
+        }
+
+        public String getUserAgent() {
+            return userAgent;
+        }
+
+        /** True for image/carousel posts: no video, at least one image. */
+        public boolean isImagePost() {
+            return (videoUrl == null || videoUrl.isEmpty()) && !imageUrls.isEmpty();
+        }
+    }
+
+    /**
+     * Resolves (if needed) and downloads a video to the download directory.
+     *
+     * @param postUrl   original post URL, used for scraping when no direct URL
+     *                  is known
+     * @param directUrl pre-scraped direct video URL from /api/video/info, may
+     *                  be null
+     */
+    public Path downloadVideo(String postUrl, String directUrl, String cookies, String userAgent,
+            String originUrl, DownloadProgress progress) throws Exception {
+        String site = MediaMetrics.siteOf(postUrl != null && !postUrl.isEmpty() ? postUrl : directUrl);
+        return counted(site, "video",
+                () -> doDownloadVideo(postUrl, directUrl, cookies, userAgent, originUrl, progress));
+    }
+
+    private Path doDownloadVideo(String postUrl, String directUrl, String cookies, String userAgent,
+            String originUrl, DownloadProgress progress) throws Exception {
+        progress.stage(DownloadStage.CANONICALIZE, postUrl);
+        postUrl = canonicalize(postUrl);
+
+        // If the caller already has the direct video URL (from a prior
+        // /api/video/info call), use it directly to avoid a second expensive scrape.
+        if (directUrl == null || directUrl.isEmpty()) {
+            // No pre-scraped URL — need to scrape now
+            if (postUrl == null || postUrl.isEmpty()) {
+                throw new IllegalArgumentException("No URL provided");
+            }
+            ResolvedMedia media = scrape(postUrl, cookies, userAgent, progress);
+            if (media.getAudioUrl() != null) {
+                return downloadAdaptive(media, progress);
+            }
+            directUrl = media.getVideoUrl();
+            cookies = media.getCookies();
+            userAgent = media.getUserAgent();
+
+            // If it's still null, pass the post URL to the downloader to handle via
+            // embedded Selenium logic
+            if (directUrl == null || directUrl.isEmpty()) {
+                directUrl = postUrl;
+            }
+        }
+
+        return downloadVideoFile(postUrl, directUrl, cookies, userAgent, originUrl, progress);
+    }
+
+    /**
+     * Scrape step on its own: canonicalizes the post URL and extracts its media
+     * URLs without downloading anything. Pair with
+     * {@link #download(ResolvedMedia, DownloadProgress)} to run the two steps
+     * in separate stages.
+     */
+    public ResolvedMedia resolve(String postUrl, String cookies, DownloadProgress progress) throws Exception {
+        progress.stage(DownloadStage.CANONICALIZE, postUrl);
+        postUrl = canonicalize(postUrl);
+        if (postUrl == null || postUrl.isEmpty()) {
+            throw new IllegalArgumentException("No URL provided");
+        }
+        return scrape(postUrl, cookies, null, progress);
+    }
+
+    /**
+     * Download step for a {@link #resolve resolved} post: the video, or for
+     * image posts the image / a ZIP of the carousel.
+     */
+    public Path download(ResolvedMedia media, DownloadProgress progress) throws Exception {
+        return counted(MediaMetrics.siteOf(media.getPostUrl()), media.isImagePost() ? "images" : "video",
+                () -> doDownload(media, progress));
+    }
+
+    private Path doDownload(ResolvedMedia media, DownloadProgress progress) throws Exception {
+        if (media.isImagePost()) {
+            progress.stage(DownloadStage.RESOLVE, media.getImageUrls().size() + " image(s)");
+            Path outputPath = saveImages(media.getPostUrl(), media.getImageUrls(), media.getCookies(),
+                    media.getUserAgent(), progress);
+            progress.stage(DownloadStage.DONE, outputPath.getFileName().toString());
+            return outputPath;
+        }
+        if (media.getAudioUrl() != null) {
+            return downloadAdaptive(media, progress);
+        }
+        String directUrl = media.getVideoUrl() != null && !media.getVideoUrl().isEmpty()
+                ? media.getVideoUrl()
+                : media.getPostUrl();
+        return downloadVideoFile(media.getPostUrl(), directUrl, media.getCookies(), media.getUserAgent(), null,
+                progress);
+    }
+
+    private ResolvedMedia scrape(String postUrl, String cookies, String userAgent, DownloadProgress progress)
+            throws Exception {
+        progress.stage(DownloadStage.SCRAPE, postUrl);
+        // A post scraped moments ago (e.g. by /api/video/info) needs no browser
+        PexelsScraperService.ScrapedInfo recent = browserSessions.resolved(postUrl, cookies);
+        if (recent != null) {
+            return new ResolvedMedia(postUrl, recent.getVideoUrl(), recent.getImageUrls(), recent.getCookies(),
+                    recent.getUserAgent());
+        }
+        ResolvedMedia media = scrapeUpstream(postUrl, cookies, userAgent);
+        browserWarmup.recordScrape();
+        return media;
+    }
+
+    private ResolvedMedia scrapeUpstream(String postUrl, String cookies, String userAgent) throws Exception {
+        if (postUrl.contains("tiktok.com")) {
+            PexelsScraperService.ScrapedInfo info = tiktokScraperService.getScrapedInfo(postUrl);
+            signedUrls.register(postUrl, null, info);
+            return new ResolvedMedia(postUrl, info.getVideoUrl(), null, info.getCookies(), info.getUserAgent());
+        } else if (postUrl.contains("instagram.com")) {
+            PexelsScraperService.ScrapedInfo info = instagramScraperService.getScrapedInfo(postUrl, cookies);
+            signedUrls.register(postUrl, cookies, info);
+            return new ResolvedMedia(postUrl, info.getVideoUrl(), info.getImageUrls(), info.getCookies(),
+                    info.getUserAgent());
+        } else if (postUrl.contains("youtube.com") || postUrl.contains("youtu.be")) {
+            YoutubeScraperService.Streams streams = youtubeScraperService.scrapeStreams(postUrl);
+            return new ResolvedMedia(postUrl, streams.getVideoUrl(), streams.getAudioUrl(), null,
+                    streams.getCookies(), streams.getUserAgent());
+        }
+        return new ResolvedMedia(postUrl, pexelsScraperService.scrapeVideoUrl(postUrl), null, cookies, userAgent);
+    }
+
+    private Path downloadVideoFile(String postUrl, String directUrl, String cookies, String userAgent,
+            String originUrl, DownloadProgress progress) throws Exception {
+        progress.stage(DownloadStage.RESOLVE, directUrl);
+        Path prefetched = mediaPrefetcher.claim(directUrl, progress);
+        if (prefetched != null) {
+            progress.stage(DownloadStage.DONE, prefetched.getFileName().toString());
+            return prefetched;
+        }
+        Path downloadedPath = videoDownloaderService.downloadVideo(
+                directUrl,
+                cookies,
+                userAgent,
+                originUrl != null ? originUrl
+                        : (postUrl != null && postUrl.contains("tiktok.com") ? postUrl : null),
+                progress);
+        progress.stage(DownloadStage.DONE, downloadedPath.getFileName().toString());
+        return downloadedPath;
+    }
+
+    /** Downloads both adaptive streams of a resolved YouTube video and muxes them. */
+    private Path downloadAdaptive(ResolvedMedia media, DownloadProgress progress) throws Exception {
+        progress.stage(DownloadStage.RESOLVE, media.getVideoUrl());
+        Path downloadedPath = videoDownloaderService.downloadAdaptive(media.getVideoUrl(), media.getAudioUrl(),
+                media.getCookies(), media.getUserAgent(), progress);
+        progress.stage(DownloadStage.DONE, downloadedPath.getFileName().toString());
+        return downloadedPath;
+    }
+
+    /**
+     * Scrapes an Instagram post and saves its images to the download directory:
+     * the image itself for single-image posts, a ZIP for carousels.
+     */
+    public Path downloadInstagramPost(String postUrl, String browserCookies, DownloadProgress progress)
+            throws Exception {
+        return counted("instagram", "images", () -> doDownloadInstagramPost(postUrl, browserCookies, progress));
+    }
+
+    private Path doDownloadInstagramPost(String postUrl, String browserCookies, DownloadProgress progress)
+            throws Exception {
+        if (postUrl == null || postUrl.isBlank()) {
+            throw new IllegalArgumentException("No post URL provided");
+        }
+
+        progress.stage(DownloadStage.CANONICALIZE, postUrl);
+        postUrl = canonicalize(postUrl);
+        progress.stage(DownloadStage.SCRAPE, postUrl);
+        PexelsScraperService.ScrapedInfo info = instagramScraperService.getScrapedInfo(postUrl, browserCookies);
+        signedUrls.register(postUrl, browserCookies, info);
+        List<String> imageUrls = info.getImageUrls();
+        if (imageUrls == null || imageUrls.isEmpty()) {
+            if (info.getVideoUrl() != null && !info.getVideoUrl().isEmpty()) {
+                throw new IllegalStateException("This is a video post. Use the video download endpoint.");
+            }
+            throw new IllegalStateException("No images found in this post. It may be private or login-required.");
+        }
+
+        progress.stage(DownloadStage.RESOLVE, imageUrls.size() + " image(s)");
+        Path outputPath = saveImages(postUrl, imageUrls, info.getCookies(), info.getUserAgent(), progress);
+        progress.stage(DownloadStage.DONE, outputPath.getFileName().toString());
+        return outputPath;
+    }
+
+    /**
+     * Saves the image itself for a single URL, or a ZIP with one entry per
+     * image otherwise. Images that fail are skipped.
+     */
+    private Path saveImages(String postUrl, List<String> imageUrls, String cookies, String userAgent,
+            DownloadProgress progress) throws Exception {
+        Path outputDirectory = Paths.get(downloadDir);
+        if (!Files.exists(outputDirectory)) {
+            Files.createDirectories(outputDirectory);
+        }
+
+        Path outputPath;
+        if (imageUrls.size() == 1) {
+            try (ImageStream image = videoDownloaderService.openImage(
+                    imageUrls.get(0), cookies, userAgent, postUrl)) {
+                outputPath = outputDirectory.resolve(
+                        "instagram_image_" + System.currentTimeMillis() + image.getExtension());
+                progress.setTotalBytes(image.getContentLength());
+                progress.stage(DownloadStage.DOWNLOAD, "image 1/1");
+                try (FileChannel file = FileChannel.open(outputPath, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    image.transferTo(new ProgressChannel(file, progress));
+                } catch (IOException e) {
+                    Files.deleteIfExists(outputPath);
+                    throw e;
+                }
+            }
+        } else {
+            outputPath = outputDirectory.resolve("instagram_images_" + System.currentTimeMillis() + ".zip");
+            int downloaded = 0;
+            try (OutputStream out = Files.newOutputStream(outputPath);
+                    ZipOutputStream zos = new ZipOutputStream(out)) {
+                WritableByteChannel zipChannel = new ProgressChannel(Channels.newChannel(zos), progress);
+                for (int i = 0; i < imageUrls.size(); i++) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedException("Cancelled while downloading carousel");
+                    }
+                    progress.stage(DownloadStage.DOWNLOAD, "image " + (i + 1) + "/" + imageUrls.size());
+                    try (ImageStream image = videoDownloaderService.openImage(
+                            imageUrls.get(i), cookies, userAgent, postUrl)) {
+                        zos.putNextEntry(new ZipEntry("image_" + (i + 1) + image.getExtension()));
+                        image.transferTo(zipChannel);
+                        zos.closeEntry();
+                        downloaded++;
+                    } catch (Exception e) {
+                        log.warn("Failed to fetch image {}: {}", i + 1, e.getMessage());
+                    }
+                }
+                progress.stage(DownloadStage.FINALIZE, outputPath.getFileName().toString());
+            }
+            log.info("ZIP: downloaded {}/{} images to {}", downloaded, imageUrls.size(), outputPath);
+        }
+        return outputPath;
+    }
+
+    /** Counts the outcome of a download in insta.downloads. */
+    private Path counted(String site, String operation, Callable<Path> download) throws Exception {
+        try {
+            Path path = download.call();
+            metrics.success(site, operation);
+            return path;
+        } catch (Exception e) {
+            metrics.failure(site, operation, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Picks the scheduler lane for a video download: DIRECT when the media URL
+     * is already known, BROWSER when that URL is a Selenium-only download,
+     * otherwise the lane its post is scraped in ({@link #scrapeLaneFor}).
+     */
+    public LaneScheduler.Lane laneFor(String postUrl, String directUrl) {
+        if (directUrl != null && !directUrl.isEmpty()) {
+            return VideoDownloaderService.isSeleniumTarget(directUrl)
+                    ? LaneScheduler.Lane.BROWSER
+                    : LaneScheduler.Lane.DIRECT;
+        }
+        return scrapeLaneFor(canonicalize(postUrl));
+    }
+
+    /**
+     * Picks the scheduler lane for scraping a post: BROWSER for YouTube and
+     * Pexels, whose scrapers always render the page in Chrome, HTTP for
+     * everything else. TikTok and Instagram scrapes are hedged and take a
+     * BROWSER slot only when they start Chrome, as does a Selenium download
+     * that follows them.
+     */
+    public LaneScheduler.Lane scrapeLaneFor(String postUrl) {
+        if (postUrl != null && (postUrl.contains("youtube.com") || postUrl.contains("youtu.be")
+                || postUrl.contains("pexels.com"))) {
+            return LaneScheduler.Lane.BROWSER;
+        }
+        return LaneScheduler.Lane.HTTP;
+    }
+
+    /**
+     * Normalizes a user-supplied post URL: trims it, adds a missing scheme and
+     * drops share-tracking query strings (?igsh=, ?is_from_webapp=...) from
+     * Instagram and TikTok links, which don't need a query to identify a post.
+     */
+    String canonicalize(String url) {
+        if (url == null) {
+            return null;
+        }
+        String canonical = url.trim();
+        if (canonical.isEmpty()) {
+            return canonical;
+        }
+        if (!canonical.startsWith("http")) {
+            canonical = "https://" + canonical;
+        }
+        if ((canonical.contains("instagram.com/") || canonical.contains("tiktok.com/")) && canonical.contains("?")) {
+            canonical = canonical.substring(0, canonical.indexOf('?'));
+        }
+        return canonical;
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.insta.service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Mutable, thread-safe view of how far a download has got. The pipeline
+ * updates it from the worker thread; status endpoints and SSE subscribers
+ * read it.
+ *
+ * Byte counts come from {@link ProgressChannel}, which wraps the sink the
+ * download is written to. Listeners are called on every stage change and at
+ * most every {@value #BYTE_EVENT_INTERVAL_MILLIS} ms while bytes are flowing.
+ */
+public class DownloadProgress {
+
+    static final long BYTE_EVENT_INTERVAL_MILLIS = 250;
+
+    private final String id;
+    private final long createdAt = System.currentTimeMillis();
+    private final AtomicLong bytesTransferred = new AtomicLong();
+    private final List<Consumer<DownloadProgress>> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile DownloadStage stage = DownloadStage.QUEUED;
+    private volatile String message;
+    private volatile long totalBytes = -1;
+    private volatile long transferStartedAt;
+    private volatile long lastEventAt;
+    private volatile long finishedAt;
+
+    public DownloadProgress() {
+        this(null);
+    }
+
+    public DownloadProgress(String id) {
+        this.id = id;
+    }
+
+    public void stage(DownloadStage stage, String message) {
+        if (this.stage.isTerminal()) {
+            return;
+        }
+        this.stage = stage;
+        this.message = message;
+        if (stage == DownloadStage.DOWNLOAD && transferStartedAt == 0) {
+            transferStartedAt = System.currentTimeMillis();
+        }
+        if (stage.isTerminal()) {
+            finishedAt = System.currentTimeMillis();
+        }
+        notifyListeners();
+    }
+
+    public void fail(String error) {
+        stage(DownloadStage.FAILED, error);
+    }
+
+    public void cancel() {
+        stage(DownloadStage.CANCELLED, "Cancelled");
+    }
+
+    /** Expected size of the transfer, or -1 if unknown. */
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    public void addBytes(long count) {
+        bytesTransferred.addAndGet(count);
+        maybeNotify();
+    }
+
+    /** For transfers we can only observe from outside (e.g. Chrome writing a file). */
+    public void setBytesTransferred(long count) {
+        bytesTransferred.set(count);
+        maybeNotify();
+    }
+
+    private void maybeNotify() {
+        long now = System.currentTimeMillis();
+        if (now - lastEventAt >= BYTE_EVENT_INTERVAL_MILLIS) {
+            lastEventAt = now;
+            notifyListeners();
+        }
+    }
+
+    private void notifyListeners() {
+        for (Consumer<DownloadProgress> listener : listeners) {
+            listener.accept(this);
+        }
+    }
+
+    public void addListener(Consumer<DownloadProgress> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<DownloadProgress> listener) {
+        listeners.remove(listener);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public DownloadStage getStage() {
+        return stage;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /** When the progress reached a terminal stage, or 0 if it hasn't. */
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    /** Average transfer rate since the download stage began, in bytes/s. */
+    public long getBytesPerSecond() {
+        long started = transferStartedAt;
+        if (started == 0) {
+            return 0;
+        }
+        long end = finishedAt != 0 ? finishedAt : System.currentTimeMillis();
+        long elapsed = Math.max(1, end - started);
+        return bytesTransferred.get() * 1000 / elapsed;
+    }
+
+    /** Estimated seconds until the transfer completes, or -1 if unknown. */
+    public long getEtaSeconds() {
+        long total = totalBytes;
+        long rate = getBytesPerSecond();
+        if (total <= 0 || rate <= 0 || stage.isTerminal()) {
+            return -1;
+        }
+        return Math.max(0, (total - bytesTransferred.get()) / rate);
+    }
+
+    /** JSON-friendly snapshot for status endpoints and SSE events. */
+    public Map<String, Object> snapshot() {
+        long bytes = bytesTransferred.get();
+        long total = totalBytes;
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("id", id);
+        snapshot.put("stage", stage.name());
+        snapshot.put("message", message);
+        snapshot.put("bytesTransferred", bytes);
+        snapshot.put("totalBytes", total);
+        snapshot.put("percent", total > 0 ? Math.min(100.0, bytes * 100.0 / total) : null);
+        snapshot.put("bytesPerSecond", getBytesPerSecond());
+        snapshot.put("etaSeconds", getEtaSeconds());
+        return snapshot;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.insta.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up the {@link DownloadProgress} of a running request or job by ID so
+ * the SSE endpoint can stream it.
+ *
+ * IDs are random and only ever issued here: for a job when it is created,
+ * for a synchronous download when it starts, or ahead of one (POST
+ * /api/progress) so the client can subscribe first and then send the ID as
+ * X-Progress-Id. Lookups never create entries, so only whoever was given an
+ * ID can follow that download, and at most {@code app.progress.max-entries}
+ * are tracked at once. Entries are dropped a few minutes after they finish,
+ * or after half an hour if nothing ever reported to them.
+ */
+@Component
+public class DownloadProgressRegistry {
+
+    private static final long FINISHED_RETENTION_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long IDLE_RETENTION_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private final int maxEntries;
+    private final Map<String, DownloadProgress> entries = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("progress-reaper").daemon().factory());
+
+    public DownloadProgressRegistry(@Value("${app.progress.max-entries:10000}") int maxEntries) {
+        this.maxEntries = maxEntries;
+        reaper.scheduleWithFixedDelay(this::evictExpired, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Tracks a new progress under a fresh random ID.
+     *
+     * @throws RejectedExecutionException if {@code app.progress.max-entries}
+     *                                    are already tracked
+     */
+    public DownloadProgress issue() {
+        if (entries.size() >= maxEntries) {
+            evictExpired();
+            if (entries.size() >= maxEntries) {
+                throw new RejectedExecutionException("Too many downloads are being tracked");
+            }
+        }
+        DownloadProgress progress = new DownloadProgress(UUID.randomUUID().toString());
+        entries.put(progress.getId(), progress);
+        return progress;
+    }
+
+    /**
+     * The progress issued as {@code id} for the download about to report to
+     * it; a new one if the client sent no ID or one never issued here. When
+     * too many are tracked the download still gets a progress to report to,
+     * it just cannot be followed.
+     */
+    public DownloadProgress forDownload(String id) {
+        DownloadProgress issued = id != null ? entries.get(id) : null;
+        if (issued != null) {
+            return issued;
+        }
+        try {
+            return issue();
+        } catch (RejectedExecutionException e) {
+            return new DownloadProgress(UUID.randomUUID().toString());
+        }
+    }
+
+    public Optional<DownloadProgress> get(String id) {
+        return Optional.ofNullable(entries.get(id));
+    }
+
+    void evictExpired() {
+        long now = System.currentTimeMillis();
+        entries.values().removeIf(p -> p.getFinishedAt() != 0
+                ? now - p.getFinishedAt() > FINISHED_RETENTION_MILLIS
+                : now - p.getCreatedAt() > IDLE_RETENTION_MILLIS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reaper.shutdownNow();
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.insta.service;
+
+/**
+ * Stages a download goes through, reported via {@link DownloadProgress}.
+ * DONE, FAILED and CANCELLED are terminal.
+ */
+public enum DownloadStage {
+    QUEUED,
+    CANONICALIZE,
+    SCRAPE,
+    RESOLVE,
+    DOWNLOAD,
+    FINALIZE,
+    DONE,
+    FAILED,
+    CANCELLED;
+
+    public boolean isTerminal() {
+        return this == DONE || this == FAILED || this == CANCELLED;
+    }
+}
@@ -0,0 +1,378 @@
+package com.example.insta.service;
+
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Races a cheap browserless scrape (one HTTP GET of the post page, parsed
+ * like the browser's HTML) against the Selenium scrape, so tail latency is
+ * not set by whichever strategy we happen to try first.
+ *
+ * The HTTP strategy starts first. If it has no result after the site's
+ * hedge delay, the browser strategy is launched alongside it; the first
+ * result with media wins and the other is cancelled. If the HTTP strategy
+ * fails or finds nothing before that, the browser starts right away.
+ *
+ * The hedge delay is the (1 - {@code app.hedge.extra-load}) quantile of the
+ * site's recent HTTP latencies, so roughly that share of scrapes hedge. Each
+ * scrape also earns {@code extra-load} of a hedge credit and each hedge
+ * spends a whole one, which keeps the extra browser load within budget while
+ * the latency window catches up with a shift. An HTTP scrape cancelled
+ * because the browser won counts with the time it had run, a lower bound.
+ *
+ * Callers run a scrape in the HTTP lane; only the browser strategy takes a
+ * BROWSER lane slot, when it starts.
+ */
+@Component
+@Slf4j
+public class HedgedScraper {
+
+    /** A page fetched without a browser, with the cookies the site set on the way. */
+    public record Page(String html, String finalUrl, String cookies, String userAgent) {
+    }
+
+    private enum Strategy {
+        HTTP, BROWSER
+    }
+
+    private record Attempt(Strategy strategy, PexelsScraperService.ScrapedInfo info, Exception error) {
+
+        boolean hasMedia() {
+            return info != null && ((info.getVideoUrl() != null && !info.getVideoUrl().isEmpty())
+                    || (info.getImageUrls() != null && !info.getImageUrls().isEmpty()));
+        }
+    }
+
+    static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 "
+            + "(KHTML, like Gecko) Chrome/121.0.0.0 Safari/537.36";
+
+    private static final int MIN_SAMPLES = 10;
+    private static final double MAX_CREDIT = 3;
+
+    private final SiteHealth siteHealth;
+    private final MediaMetrics metrics;
+    private final LaneScheduler laneScheduler;
+    private final ExecutorService executor;
+    private final boolean enabled;
+    private final double extraLoad;
+    private final long initialDelayMillis;
+    private final long minDelayMillis;
+    private final int window;
+    private final LongSupplier nanoClock;
+    private final Map<String, SiteStats> sites = new ConcurrentHashMap<>();
+
+    private final OkHttpClient client = new OkHttpClient.Builder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .readTimeout(Duration.ofSeconds(15))
+            .followRedirects(true)
+            .build();
+
+    @Autowired
+    public HedgedScraper(SiteHealth siteHealth, MediaMetrics metrics, LaneScheduler laneScheduler,
+            @Qualifier("mediaTaskExecutor") ExecutorService executor,
+            @Value("${app.hedge.enabled:true}") boolean enabled,
+            @Value("${app.hedge.extra-load:0.1}") double extraLoad,
+            @Value("${app.hedge.initial-delay-ms:2000}") long initialDelayMillis,
+            @Value("${app.hedge.min-delay-ms:250}") long minDelayMillis,
+            @Value("${app.hedge.window:100}") int window) {
+        this(siteHealth, metrics, laneScheduler, executor, enabled, extraLoad, initialDelayMillis, minDelayMillis,
+                window, System::nanoTime);
+    }
+
+    /** {@code nanoClock} times the HTTP strategy for the hedge delay; tests pass one they control. */
+    HedgedScraper(SiteHealth siteHealth, MediaMetrics metrics, LaneScheduler laneScheduler, ExecutorService executor,
+            boolean enabled, double extraLoad, long initialDelayMillis, long minDelayMillis, int window,
+            LongSupplier nanoClock) {
+        this.siteHealth = siteHealth;
+        this.metrics = metrics;
+        this.laneScheduler = laneScheduler;
+        this.executor = executor;
+        this.enabled = enabled;
+        this.extraLoad = Math.min(1, Math.max(0, extraLoad));
+        this.initialDelayMillis = initialDelayMillis;
+        this.minDelayMillis = minDelayMillis;
+        this.window = Math.max(MIN_SAMPLES, window);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Scrapes with {@code http} first, hedging with {@code browser} as
+     * described above. {@code http} returns null when the page did not yield
+     * media it can vouch for (the browser then takes over). Returns the
+     * winner's info; if neither found media, the browser's info, which the
+     * callers treat as "no media found".
+     */
+    public PexelsScraperService.ScrapedInfo scrape(String site, Callable<PexelsScraperService.ScrapedInfo> http,
+            Callable<PexelsScraperService.ScrapedInfo> browser) throws IOException {
+        if (!enabled) {
+            return browserOnly(browser);
+        }
+        // Decided here: the attempt itself runs on an executor thread, which holds no slots
+        Callable<PexelsScraperService.ScrapedInfo> inLane = inBrowserLane(browser);
+        SiteStats stats = sites.computeIfAbsent(site, key -> new SiteStats(window));
+        stats.scrapes.increment();
+        long delayMillis = stats.hedgeDelayMillis();
+        boolean mayHedge = stats.earnCredit();
+
+        ExecutorCompletionService<Attempt> race = new ExecutorCompletionService<>(executor);
+        long start = nanoClock.getAsLong();
+        Future<Attempt> httpTask = race.submit(() -> attempt(Strategy.HTTP, http));
+        Future<Attempt> browserTask = null;
+        boolean hedged = false;
+        int running = 1;
+        Attempt browserAttempt = null;
+        try {
+            Future<Attempt> done = race.poll(delayMillis, TimeUnit.MILLISECONDS);
+            if (done == null && mayHedge && stats.spendCredit()) {
+                log.info("{}: no HTTP result after {} ms, hedging with the browser", site, delayMillis);
+                browserTask = race.submit(() -> attempt(Strategy.BROWSER, inLane));
+                hedged = true;
+                running++;
+            }
+            while (running > 0) {
+                Attempt attempt = (done != null ? done : race.take()).get();
+                done = null;
+                running--;
+                if (attempt.strategy() == Strategy.HTTP) {
+                    stats.recordLatency(TimeUnit.NANOSECONDS.toMillis(nanoClock.getAsLong() - start));
+                } else {
+                    browserAttempt = attempt;
+                }
+                if (attempt.hasMedia()) {
+                    stats.won(attempt.strategy(), hedged);
+                    metrics.hedge(site, attempt.strategy().name().toLowerCase(), hedged);
+                    return attempt.info();
+                }
+                if (attempt.strategy() == Strategy.HTTP && browserTask == null) {
+                    // Nothing from the cheap path: fall back to the browser without waiting for the delay
+                    browserTask = race.submit(() -> attempt(Strategy.BROWSER, inLane));
+                    running++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Scrape interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            if (httpTask.cancel(true)) {
+                // Lost to the browser: it would have taken at least this long, and leaving it out
+                // would bias the delay towards the fast requests
+                stats.recordLatency(TimeUnit.NANOSECONDS.toMillis(nanoClock.getAsLong() - start));
+            }
+            if (browserTask != null) {
+                browserTask.cancel(true);
+            }
+        }
+
+        stats.won(null, hedged);
+        metrics.hedge(site, "none", hedged);
+        if (browserAttempt.error() instanceof IOException e) {
+            throw e;
+        }
+        if (browserAttempt.error() instanceof RuntimeException e) {
+            throw e;
+        }
+        if (browserAttempt.error() != null) {
+            throw new IOException(browserAttempt.error().getMessage(), browserAttempt.error());
+        }
+        return browserAttempt.info();
+    }
+
+    /** Runs only the browser strategy (e.g. a logged-in scrape), in the BROWSER lane. */
+    public PexelsScraperService.ScrapedInfo browserOnly(Callable<PexelsScraperService.ScrapedInfo> browser)
+            throws IOException {
+        try {
+            return inBrowserLane(browser).call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /** {@code browser} taking a BROWSER lane slot, unless the calling thread already holds one. */
+    private Callable<PexelsScraperService.ScrapedInfo> inBrowserLane(
+            Callable<PexelsScraperService.ScrapedInfo> browser) {
+        return laneScheduler.holdsSlot(LaneScheduler.Lane.BROWSER)
+                ? browser
+                : () -> laneScheduler.call(LaneScheduler.Lane.BROWSER, browser);
+    }
+
+    private static Attempt attempt(Strategy strategy, Callable<PexelsScraperService.ScrapedInfo> scrape) {
+        try {
+            return new Attempt(strategy, scrape.call(), null);
+        } catch (Exception e) {
+            if (strategy == Strategy.HTTP) {
+                log.debug("HTTP scrape failed: {}", e.getMessage());
+            }
+            return new Attempt(strategy, null, e);
+        }
+    }
+
+    /**
+     * GETs {@code url} the way a browser's first request would, for the HTTP
+     * strategy. Goes through the site's "http" circuit; a 429 opens it.
+     */
+    public Page fetchPage(String site, String url) throws IOException {
+        long probe = siteHealth.acquire(site, "http");
+        Request request = new Request.Builder()
+                .url(url)
+                .header("User-Agent", USER_AGENT)
+                .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8")
+                .header("Accept-Language", "en-US,en;q=0.9")
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            if (response.code() == 429) {
+                siteHealth.recordFailure(site, "http", SiteHealth.Signal.THROTTLED,
+                        SiteHealth.retryAfterSeconds(response.header("Retry-After")));
+                throw new IOException("HTTP 429 from " + site);
+            }
+            if (!response.isSuccessful() || response.body() == null) {
+                throw new IOException("HTTP " + response.code() + " from " + site);
+            }
+            return new Page(response.body().string(), response.request().url().toString(),
+                    cookiesOf(response), USER_AGENT);
+        } catch (IOException | RuntimeException e) {
+            // The caller only judges pages that loaded; a half-open probe that did not must let another through
+            siteHealth.release(site, "http", probe);
+            throw e;
+        }
+    }
+
+    /** Cookie header built from every Set-Cookie along the redirect chain, later values winning. */
+    static String cookiesOf(Response response) {
+        Map<String, String> cookies = new LinkedHashMap<>();
+        Response[] chain = new Response[16];
+        int length = 0;
+        for (Response r = response; r != null && length < chain.length; r = r.priorResponse()) {
+            chain[length++] = r;
+        }
+        for (int i = length - 1; i >= 0; i--) {
+            for (String header : chain[i].headers("Set-Cookie")) {
+                int semi = header.indexOf(';');
+                String pair = semi == -1 ? header : header.substring(0, semi);
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    cookies.put(pair.substring(0, eq).trim(), pair.substring(eq + 1).trim());
+                }
+            }
+        }
+        StringBuilder header = new StringBuilder();
+        cookies.forEach((name, value) -> {
+            if (header.length() > 0) {
+                header.append("; ");
+            }
+            header.append(name).append('=').append(value);
+        });
+        return header.toString();
+    }
+
+    /** Hedge delay, hedge rate and wins per site, for GET /api/hedging. */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new TreeMap<>();
+        sites.forEach((site, stats) -> result.put(site, stats.snapshot()));
+        return result;
+    }
+
+    /** Recent HTTP latencies, hedge credit and outcome counts of one site. */
+    private final class SiteStats {
+
+        private final long[] latencies;
+        private int samples;
+        private int next;
+        private double credit = 1;
+        private final LongAdder scrapes = new LongAdder();
+        private final LongAdder hedges = new LongAdder();
+        private final LongAdder httpWins = new LongAdder();
+        private final LongAdder browserWins = new LongAdder();
+        private final LongAdder hedgedHttpWins = new LongAdder();
+        private final LongAdder noMedia = new LongAdder();
+
+        SiteStats(int window) {
+            this.latencies = new long[window];
+        }
+
+        synchronized void recordLatency(long millis) {
+            latencies[next] = millis;
+            next = (next + 1) % latencies.length;
+            samples = Math.min(samples + 1, latencies.length);
+        }
+
+        /** The (1 - extraLoad) quantile of recent HTTP latencies, or the initial delay until enough are known. */
+        synchronized long hedgeDelayMillis() {
+            if (samples < MIN_SAMPLES) {
+                return initialDelayMillis;
+            }
+            long[] sorted = Arrays.copyOf(latencies, samples);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil((1 - extraLoad) * samples) - 1;
+            return Math.max(minDelayMillis, sorted[Math.max(0, Math.min(samples - 1, index))]);
+        }
+
+        /** Adds this scrape's share of the hedge budget; whether a whole hedge is affordable. */
+        synchronized boolean earnCredit() {
+            credit = Math.min(MAX_CREDIT, credit + extraLoad);
+            return credit >= 1;
+        }
+
+        synchronized boolean spendCredit() {
+            if (credit < 1) {
+                return false;
+            }
+            credit -= 1;
+            hedges.increment();
+            return true;
+        }
+
+        void won(Strategy strategy, boolean hedged) {
+            if (strategy == null) {
+                noMedia.increment();
+            } else if (strategy == Strategy.BROWSER) {
+                browserWins.increment();
+            } else if (hedged) {
+                hedgedHttpWins.increment();
+            } else {
+                httpWins.increment();
+            }
+        }
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            long scrapeCount = scrapes.sum();
+            entry.put("hedgeDelayMs", hedgeDelayMillis());
+            entry.put("scrapes", scrapeCount);
+            entry.put("hedges", hedges.sum());
+            entry.put("hedgeRate", scrapeCount > 0 ? (double) hedges.sum() / scrapeCount : 0.0);
+            entry.put("extraLoadBudget", extraLoad);
+            entry.put("httpWins", httpWins.sum());
+            entry.put("hedgedHttpWins", hedgedHttpWins.sum());
+            entry.put("browserWins", browserWins.sum());
+            entry.put("noMedia", noMedia.sum());
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.insta.service;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * One fair semaphore per host, created on first use. Used to cap how many
+ * requests hit the same CDN host at once.
+ */
+public class HostPermits {
+
+    private final int perHostLimit;
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+    public HostPermits(int perHostLimit) {
+        this.perHostLimit = perHostLimit;
+    }
+
+    public Semaphore forUrl(String url) {
+        return permits.computeIfAbsent(hostOf(url), h -> new Semaphore(perHostLimit, true));
+    }
+
+    public static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? host : "";
+        } catch (Exception e) {
+            return "";
+        }
+    }
+}
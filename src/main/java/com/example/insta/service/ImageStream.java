@@ -0,0 +1,121 @@
+package com.example.insta.service;
+
+import okhttp3.Response;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An open image download whose body has not been consumed yet.
+ *
+ * Returned by {@link VideoDownloaderService#openImage}. The first chunk of the
+ * body is already buffered and its signature checked (so error pages fail
+ * before any header is sent to the client); the rest is streamed with
+ * {@link #transferTo(WritableByteChannel)} through a pooled direct buffer.
+ * Always close it, even if {@code transferTo} is never called.
+ *
+ * When the transfer and the cleanup of a failed request may both close it,
+ * each first {@link #claim()}s it, so the pooled buffer is never released
+ * while the transfer still writes through it.
+ */
+public class ImageStream implements Closeable {
+
+    private final Response response;
+    private final MediaBufferPool bufferPool;
+    private final ByteBuffer buffer;
+    private final String contentType;
+    private final String extension;
+    private final long contentLength;
+    private final Semaphore hostPermit;
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    private Runnable onClose;
+    private boolean eof;
+    private boolean closed;
+
+    ImageStream(Response response, MediaBufferPool bufferPool, ByteBuffer buffer, String contentType,
+            String extension, boolean eof, Semaphore hostPermit) {
+        this.response = response;
+        this.bufferPool = bufferPool;
+        this.buffer = buffer;
+        this.contentType = contentType;
+        this.extension = extension;
+        this.contentLength = response.body() != null ? response.body().contentLength() : -1;
+        this.eof = eof;
+        this.hostPermit = hostPermit;
+    }
+
+    /**
+     * Runs {@code action} when the stream is closed, after the connection and
+     * buffer are released. Used to hold a scheduler lane slot for the whole
+     * transfer.
+     */
+    public ImageStream onClose(Runnable action) {
+        this.onClose = action;
+        return this;
+    }
+
+    /** True for the first caller only, who then transfers or closes the stream. */
+    public boolean claim() {
+        return claimed.compareAndSet(false, true);
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /** Content-Length reported by the CDN, or -1 if unknown (chunked / compressed). */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /** File extension matching the image signature, including the dot. */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Writes the whole image to {@code out}. Can only be called once.
+     *
+     * @return number of bytes written
+     * @throws InvalidMediaException if the CDN sent fewer bytes than its Content-Length
+     */
+    public long transferTo(WritableByteChannel out) throws IOException {
+        long total = 0;
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            total += out.write(buffer);
+        }
+        buffer.clear();
+        if (!eof) {
+            ReadableByteChannel in = response.body().source();
+            total += MediaBufferPool.copy(in, out, buffer);
+            eof = true;
+        }
+        MediaValidator.checkLength(total, contentLength, "image");
+        return total;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            response.close();
+        } finally {
+            bufferPool.release(buffer);
+            if (hostPermit != null) {
+                hostPermit.release();
+            }
+            if (onClose != null) {
+                onClose.run();
+            }
+        }
+    }
+}
@@ -1,26 +1,52 @@
 package com.example.insta.service;
 
-import io.github.bonigarcia.wdm.WebDriverManager;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.openqa.selenium.*;
-import org.openqa.selenium.chrome.ChromeDriver;
 import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.logging.LogType;
+import org.openqa.selenium.logging.LoggingPreferences;
 import org.openqa.selenium.support.ui.ExpectedConditions;
 import org.openqa.selenium.support.ui.WebDriverWait;
 import org.springframework.stereotype.Service;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.math.BigInteger;
 import java.time.Duration;
 import java.util.*;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 public class InstagramScraperService {
 
+    private static final Pattern POST_LINK = Pattern.compile("/(?:p|reel|tv)/([A-Za-z0-9_-]+)");
+    private static final String SHORTCODE_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+
+    private static final String SITE = "instagram";
+
+    private final ChromeDriverFactory chromeDriverFactory;
+    private final MediaMetrics metrics;
+    private final BrowserSessions browserSessions;
+    private final SiteHealth siteHealth;
+    private final HedgedScraper hedgedScraper;
+
+    public InstagramScraperService(ChromeDriverFactory chromeDriverFactory, MediaMetrics metrics,
+            BrowserSessions browserSessions, SiteHealth siteHealth, HedgedScraper hedgedScraper) {
+        this.chromeDriverFactory = chromeDriverFactory;
+        this.metrics = metrics;
+        this.browserSessions = browserSessions;
+        this.siteHealth = siteHealth;
+        this.hedgedScraper = hedgedScraper;
+    }
+
     public static class ExtractionResult {
         public String html;
         public String cookies;
@@ -29,21 +55,17 @@ public class InstagramScraperService {
         public String videoUrl;
         public List<String> imageUrls = new ArrayList<>();
         public String mediaType;
+        /** The browser, still on the post; whoever receives the result must quit or hand it off. */
+        public WebDriver driver;
+        /** Set when Instagram redirected to login or served a challenge instead of the post. */
+        public SiteHealth.Signal blocked;
     }
 
     private ExtractionResult getPageContentWithSelenium(String url) {
         return getPageContentWithSelenium(url, null);
     }
 
-    /**
-     * @param browserCookies Optional cookie string from the user's browser (e.g.
-     *                       "sessionid=abc; csrftoken=xyz").
-     *                       When provided, cookies are injected before loading the
-     *                       post so Instagram
-     *                       sees the request as coming from a logged-in user.
-     */
-    private ExtractionResult getPageContentWithSelenium(String url, String browserCookies) {
-        WebDriverManager.chromedriver().setup();
+    private ChromeOptions browserOptions() {
         ChromeOptions options = new ChromeOptions();
 
         String headlessEnv = System.getenv("HEADLESS");
@@ -60,53 +82,123 @@ public class InstagramScraperService {
         options.addArguments("--window-size=1920,1080");
         options.addArguments(
                 "user-agent=Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/121.0.0.0 Safari/537.36");
+        return options;
+    }
+
+    /**
+     * Injects the user's browser cookies (e.g. "sessionid=abc; csrftoken=xyz")
+     * so Instagram sees a logged-in session. No-op when none are given.
+     */
+    private void injectCookies(WebDriver driver, String browserCookies) throws InterruptedException {
+        int installed = BrowserCookies.install(driver, browserCookies, ".instagram.com", "https://www.instagram.com/");
+        if (installed > 0) {
+            log.info("Instagram: Injected {} browser cookies for authenticated access", installed);
+        }
+    }
+
+    /**
+     * Lists a profile's posts newest first by scrolling its grid, stopping at
+     * the first post {@code isOld} accepts (the sync checkpoint) or after
+     * {@code maxPosts}. Pinned posts at the top of the grid, and posts
+     * {@code isSynced} accepts, are skipped rather than treated as the stopping
+     * point.
+     *
+     * @return canonical post URLs (https://www.instagram.com/p/SHORTCODE/)
+     */
+    public List<String> listProfilePosts(String profileUrl, String browserCookies, Predicate<String> isOld,
+            Predicate<String> isSynced, int maxPosts) throws IOException {
+        WebDriver driver = chromeDriverFactory.create(SITE, browserOptions());
+        try {
+            driver.manage().timeouts().pageLoadTimeout(Duration.ofSeconds(45));
+            injectCookies(driver, browserCookies);
+            metrics.time(SITE, MediaMetrics.Stage.PAGE_LOAD, () -> driver.get(profileUrl));
+            Thread.sleep(5000);
+            if (driver.getCurrentUrl().contains("login")) {
+                throw new IOException("Instagram redirected to login page. Pass browser cookies.");
+            }
+            return ProfileFeedPager.collect(driver, "a[href*='/p/'], a[href*='/reel/']",
+                    InstagramScraperService::canonicalPostUrl, isOld, isSynced, ProfileFeedPager.PINNED_SLOTS,
+                    maxPosts);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while listing " + profileUrl, e);
+        } finally {
+            chromeDriverFactory.quit(driver);
+        }
+    }
+
+    /** https://www.instagram.com/p/SHORTCODE/ for any post/reel link, or null. */
+    public static String canonicalPostUrl(String href) {
+        String shortcode = shortcodeOf(href);
+        return shortcode != null ? "https://www.instagram.com/p/" + shortcode + "/" : null;
+    }
+
+    static String shortcodeOf(String url) {
+        if (url == null) {
+            return null;
+        }
+        Matcher m = POST_LINK.matcher(url);
+        return m.find() ? m.group(1) : null;
+    }
+
+    /**
+     * Media ID encoded in a post URL's shortcode (base64 with - and _). Media
+     * IDs grow over time, so they order posts by publication.
+     */
+    public static BigInteger mediaIdOf(String url) {
+        String shortcode = shortcodeOf(url);
+        if (shortcode == null) {
+            return null;
+        }
+        BigInteger id = BigInteger.ZERO;
+        for (char c : shortcode.toCharArray()) {
+            int digit = SHORTCODE_ALPHABET.indexOf(c);
+            if (digit < 0) {
+                return null;
+            }
+            id = id.shiftLeft(6).add(BigInteger.valueOf(digit));
+        }
+        return id;
+    }
 
-        WebDriver driver = new ChromeDriver(options);
+    /**
+     * @param browserCookies Optional cookie string from the user's browser (e.g.
+     *                       "sessionid=abc; csrftoken=xyz").
+     *                       When provided, cookies are injected before loading the
+     *                       post so Instagram
+     *                       sees the request as coming from a logged-in user.
+     */
+    private ExtractionResult getPageContentWithSelenium(String url, String browserCookies) {
+        ChromeOptions options = browserOptions();
+        // Same network log as the download step, which may take this browser over
+        LoggingPreferences logPrefs = new LoggingPreferences();
+        logPrefs.enable(LogType.PERFORMANCE, Level.ALL);
+        options.setCapability("goog:loggingPrefs", logPrefs);
+        WebDriver driver = chromeDriverFactory.create(SITE, options);
+        boolean handedOver = false;
         try {
             driver.manage().timeouts().pageLoadTimeout(Duration.ofSeconds(45));
 
             // If browser cookies are provided, inject them so Instagram sees us as logged
             // in
-            if (browserCookies != null && !browserCookies.isBlank()) {
-                log.info("Instagram: Injecting browser cookies for authenticated access");
-                // Must navigate to the domain first before setting cookies
-                driver.get("https://www.instagram.com/");
-                Thread.sleep(2000);
-                // Parse and inject each cookie
-                for (String cookiePair : browserCookies.split(";")) {
-                    cookiePair = cookiePair.trim();
-                    int eq = cookiePair.indexOf('=');
-                    if (eq > 0) {
-                        String name = cookiePair.substring(0, eq).trim();
-                        String value = cookiePair.substring(eq + 1).trim();
-                        try {
-                            Cookie cookie = new Cookie.Builder(name, value)
-                                    .domain(".instagram.com")
-                                    .path("/")
-                                    .isSecure(true)
-                                    .build();
-                            driver.manage().addCookie(cookie);
-                        } catch (Exception ce) {
-                            log.debug("Could not add cookie {}: {}", name, ce.getMessage());
-                        }
-                    }
-                }
-                log.info("Instagram: Cookies injected, navigating to post URL");
-            }
+            injectCookies(driver, browserCookies);
 
-            driver.get(url);
+            metrics.time(SITE, MediaMetrics.Stage.PAGE_LOAD, () -> driver.get(url));
 
             // Wait for page to fully hydrate
             Thread.sleep(5000);
 
+            ExtractionResult result = new ExtractionResult();
             try {
-                if (driver.getCurrentUrl().contains("login")) {
+                result.blocked = SiteHealth.classifyPage(driver.getCurrentUrl(), driver.getTitle(), null);
+                if (result.blocked == SiteHealth.Signal.LOGIN_WALL) {
                     log.warn("Instagram redirected to login page. Scraping might fail.");
+                } else if (result.blocked != null) {
+                    log.warn("Instagram served a {} page. Scraping might fail.", result.blocked);
                 }
             } catch (Exception ignored) {
             }
 
-            ExtractionResult result = new ExtractionResult();
             result.currentUrl = driver.getCurrentUrl();
 
             Set<Cookie> seleniumCookies = driver.manage().getCookies();
@@ -120,6 +212,7 @@ public class InstagramScraperService {
             // -------------------------------------------------------
             // Step 1: Check for video (og:video meta or <video> tag)
             // -------------------------------------------------------
+            long stepStart = System.nanoTime();
             try {
                 Object videoMeta = js.executeScript(
                         "var v = document.querySelector('video');" +
@@ -140,12 +233,15 @@ public class InstagramScraperService {
             } catch (Exception e) {
                 log.debug("Video extraction failed: {}", e.getMessage());
             }
+            metrics.recordExtraction(SITE, "dom_video", stepStart, result.videoUrl != null);
 
             // -------------------------------------------------------
             // Step 2: Collect ALL carousel images by clicking "Next"
             // -------------------------------------------------------
             if (result.videoUrl == null) {
+                stepStart = System.nanoTime();
                 result.imageUrls = collectAllCarouselImages(driver, js);
+                metrics.recordExtraction(SITE, "carousel", stepStart, !result.imageUrls.isEmpty());
                 log.info("Instagram: Collected {} image(s) via carousel navigation", result.imageUrls.size());
             }
 
@@ -153,6 +249,8 @@ public class InstagramScraperService {
             // Step 3: Fallback — scan JSON script tags for display_url
             // -------------------------------------------------------
             if (result.videoUrl == null) {
+                stepStart = System.nanoTime();
+                int before = result.imageUrls.size();
                 try {
                     Object jsonResult = js.executeScript(
                             "var scripts = document.querySelectorAll('script[type=\"application/json\"]');" +
@@ -169,12 +267,15 @@ public class InstagramScraperService {
                 } catch (Exception e) {
                     log.debug("JSON script extraction failed: {}", e.getMessage());
                 }
+                metrics.recordExtraction(SITE, "json_script", stepStart, result.imageUrls.size() > before);
             }
 
             // -------------------------------------------------------
             // Step 4: Fallback — scan all inline scripts
             // -------------------------------------------------------
             if (result.videoUrl == null) {
+                stepStart = System.nanoTime();
+                int before = result.imageUrls.size();
                 try {
                     Object scriptData = js.executeScript(
                             "var scripts = document.getElementsByTagName('script');" +
@@ -198,19 +299,11 @@ public class InstagramScraperService {
 
                         // Ultimate fallback: broad search for any .mp4 URL in the scripts
                         if (result.videoUrl == null) {
-                            java.util.regex.Matcher m = java.util.regex.Pattern
-                                    .compile("[\"'](https?[^\"']+\\.mp4[^\"']*)[\"']")
-                                    .matcher(combined);
-                            while (m.find()) {
-                                String potentialUrl = m.group(1).replace("\\u0026", "&").replace("\\/", "/")
-                                        .replace("\\\\", "");
-                                if (potentialUrl.startsWith("http") && !potentialUrl.contains("sample")
-                                        && !potentialUrl.contains("dummy")) {
-                                    result.videoUrl = potentialUrl;
-                                    result.mediaType = "video";
-                                    log.info("Instagram: Found video URL via broad .mp4 search");
-                                    break;
-                                }
+                            String mp4Url = findMp4Url(combined);
+                            if (mp4Url != null) {
+                                result.videoUrl = mp4Url;
+                                result.mediaType = "video";
+                                log.info("Instagram: Found video URL via broad .mp4 search");
                             }
                         }
 
@@ -220,6 +313,8 @@ public class InstagramScraperService {
                 } catch (Exception e) {
                     log.debug("Script fallback extraction failed: {}", e.getMessage());
                 }
+                metrics.recordExtraction(SITE, "inline_script", stepStart,
+                        result.videoUrl != null || result.imageUrls.size() > before);
             }
 
             // Deduplicate
@@ -243,13 +338,23 @@ public class InstagramScraperService {
             }
 
             result.html = driver.getPageSource();
+            result.driver = driver;
+            handedOver = true;
             return result;
 
         } catch (Exception e) {
             log.error("Instagram Selenium error: {}", e.getMessage());
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            if (!Thread.currentThread().isInterrupted()) {
+                siteHealth.recordFailure(SITE, browserStrategy(browserCookies), SiteHealth.Signal.EXTRACTION_FAILED);
+            }
             return null;
         } finally {
-            driver.quit();
+            if (!handedOver) {
+                chromeDriverFactory.quit(driver);
+            }
         }
     }
 
@@ -363,15 +468,100 @@ public class InstagramScraperService {
      *                       "sessionid=abc; csrftoken=xyz")
      */
     public PexelsScraperService.ScrapedInfo getScrapedInfo(String instaUrl, String browserCookies) throws IOException {
-        ExtractionResult result = getPageContentWithSelenium(instaUrl, browserCookies);
+        if (browserCookies != null && !browserCookies.isBlank()) {
+            // Logged-in scrapes need the user's session, which only the browser carries
+            return hedgedScraper.browserOnly(() -> scrapeWithBrowser(instaUrl, browserCookies));
+        }
+        return hedgedScraper.scrape(SITE, () -> scrapeWithHttp(instaUrl), () -> scrapeWithBrowser(instaUrl, null));
+    }
+
+    /**
+     * The post's video as found in the HTML served without a browser
+     * (og:video, then video_url or an .mp4 in the inline scripts), or null.
+     * Image posts and carousels also return null: only the browser collects
+     * their full-size images.
+     */
+    private PexelsScraperService.ScrapedInfo scrapeWithHttp(String instaUrl) throws IOException {
+        HedgedScraper.Page page = hedgedScraper.fetchPage(SITE, instaUrl);
+        Document doc = Jsoup.parse(page.html());
+        SiteHealth.Signal blocked = SiteHealth.classifyPage(page.finalUrl(), doc.title(), null);
+        if (blocked != null) {
+            siteHealth.recordFailure(SITE, "http", blocked);
+            return null;
+        }
+
+        long stepStart = System.nanoTime();
         PexelsScraperService.ScrapedInfo info = new PexelsScraperService.ScrapedInfo();
         info.setOriginUrl(instaUrl);
+        info.setCookies(page.cookies());
+        info.setUserAgent(page.userAgent());
+        readOpenGraph(doc, info);
+        if (info.getVideoUrl() == null) {
+            String scripts = doc.select("script").stream()
+                    .map(Element::data)
+                    .filter(t -> t.contains("video_url") || t.contains(".mp4"))
+                    .collect(Collectors.joining());
+            String vUrl = extractJsonStringValue(scripts, "video_url");
+            info.setVideoUrl(vUrl != null ? vUrl : findMp4Url(scripts));
+        }
+        boolean found = info.getVideoUrl() != null && info.getVideoUrl().startsWith("http");
+        metrics.recordExtraction(SITE, "http_page", stepStart, found);
 
-        if (result == null || result.html == null) {
-            log.error("Failed to load Instagram page.");
+        if (!found && info.getThumbnailUrl() == null) {
+            // No Open Graph tags: not the post page
+            siteHealth.recordFailure(SITE, "http", SiteHealth.Signal.EXTRACTION_FAILED);
+            return null;
+        }
+        siteHealth.recordSuccess(SITE, "http");
+        if (!found) {
+            return null;
+        }
+        info.setMediaType("video");
+        browserSessions.handOff(instaUrl, null, null, info);
+        return info;
+    }
+
+    private PexelsScraperService.ScrapedInfo scrapeWithBrowser(String instaUrl, String browserCookies)
+            throws IOException {
+        String strategy = browserStrategy(browserCookies);
+        // Fails fast while Instagram is walling us off, before a browser is launched
+        long probe = siteHealth.acquire(SITE, strategy);
+        try {
+            ExtractionResult result = getPageContentWithSelenium(instaUrl, browserCookies);
+            PexelsScraperService.ScrapedInfo info = new PexelsScraperService.ScrapedInfo();
+            info.setOriginUrl(instaUrl);
+
+            if (result == null || result.html == null) {
+                log.error("Failed to load Instagram page.");
+                return info;
+            }
+
+            try {
+                extractInfo(result, info);
+            } finally {
+                // Keeps the browser for the download step if it will need one
+                browserSessions.handOff(instaUrl, browserCookies, result.driver, info);
+            }
+            if (result.blocked != null) {
+                siteHealth.recordFailure(SITE, strategy, result.blocked);
+            } else if (info.getVideoUrl() != null || !info.getImageUrls().isEmpty()) {
+                siteHealth.recordSuccess(SITE, strategy);
+            } else {
+                siteHealth.recordFailure(SITE, strategy, SiteHealth.Signal.EXTRACTION_FAILED);
+            }
             return info;
+        } finally {
+            // Cancelled by the hedge, or no browser was free: not a verdict on Instagram
+            siteHealth.release(SITE, strategy, probe);
         }
+    }
+
+    /** Logged-in scrapes get their own circuit: a login wall for anonymous visitors says nothing about them. */
+    static String browserStrategy(String browserCookies) {
+        return browserCookies == null || browserCookies.isBlank() ? "browser" : "browser-cookies";
+    }
 
+    private void extractInfo(ExtractionResult result, PexelsScraperService.ScrapedInfo info) {
         info.setCookies(result.cookies);
         info.setUserAgent(result.userAgent);
         info.setMediaType(result.mediaType);
@@ -382,27 +572,7 @@ public class InstagramScraperService {
             info.setImageUrls(result.imageUrls);
 
         // Parse HTML for metadata
-        Document doc = Jsoup.parse(result.html);
-        info.setTitle(doc.title());
-
-        Element ogImage = doc.selectFirst("meta[property='og:image']");
-        Element ogDesc = doc.selectFirst("meta[property='og:description']");
-        Element ogTitle = doc.selectFirst("meta[property='og:title']");
-
-        if (ogImage != null)
-            info.setThumbnailUrl(ogImage.attr("content"));
-        if (ogDesc != null)
-            info.setDescription(ogDesc.attr("content"));
-        if (ogTitle != null)
-            info.setAuthorName(ogTitle.attr("content"));
-
-        if (info.getVideoUrl() == null) {
-            Element ogVideo = doc.selectFirst("meta[property='og:video']");
-            if (ogVideo != null) {
-                info.setVideoUrl(ogVideo.attr("content"));
-                info.setMediaType("video");
-            }
-        }
+        readOpenGraph(Jsoup.parse(result.html), info);
 
         // If it's an image post but no high-res images were found in the gallery,
         // fallback to og:image
@@ -423,12 +593,37 @@ public class InstagramScraperService {
         } else {
             log.error("Instagram Scraper: No media found. currentUrl={}", result.currentUrl);
         }
+    }
 
-        return info;
+    /**
+     * Fills title, thumbnail, description and author from the page's Open
+     * Graph tags, and the video URL from og:video if none was found yet.
+     */
+    public static void readOpenGraph(Document doc, PexelsScraperService.ScrapedInfo info) {
+        info.setTitle(doc.title());
+
+        Element ogImage = doc.selectFirst("meta[property='og:image']");
+        Element ogDesc = doc.selectFirst("meta[property='og:description']");
+        Element ogTitle = doc.selectFirst("meta[property='og:title']");
+
+        if (ogImage != null)
+            info.setThumbnailUrl(ogImage.attr("content"));
+        if (ogDesc != null)
+            info.setDescription(ogDesc.attr("content"));
+        if (ogTitle != null)
+            info.setAuthorName(ogTitle.attr("content"));
+
+        if (info.getVideoUrl() == null) {
+            Element ogVideo = doc.selectFirst("meta[property='og:video']");
+            if (ogVideo != null) {
+                info.setVideoUrl(ogVideo.attr("content"));
+                info.setMediaType("video");
+            }
+        }
     }
 
     /** Extracts all display_url values from a JSON string blob. */
-    private List<String> extractDisplayUrls(String data) {
+    public static List<String> extractDisplayUrls(String data) {
         List<String> urls = new ArrayList<>();
         java.util.regex.Matcher m = java.util.regex.Pattern.compile("\"display_url\"\\s*:\\s*\"([^\"]+)\"")
                 .matcher(data);
@@ -441,7 +636,7 @@ public class InstagramScraperService {
     }
 
     /** Extracts a single string value for a given JSON key. */
-    private String extractJsonStringValue(String data, String key) {
+    public static String extractJsonStringValue(String data, String key) {
         java.util.regex.Matcher m = java.util.regex.Pattern.compile("\"" + key + "\"\\s*:\\s*\"([^\"]+)\"")
                 .matcher(data);
         if (m.find()) {
@@ -449,4 +644,20 @@ public class InstagramScraperService {
         }
         return null;
     }
+
+    /** Broad fallback: the first .mp4 URL quoted anywhere in the page's scripts. */
+    public static String findMp4Url(String scripts) {
+        java.util.regex.Matcher m = java.util.regex.Pattern
+                .compile("[\"'](https?[^\"']+\\.mp4[^\"']*)[\"']")
+                .matcher(scripts);
+        while (m.find()) {
+            String potentialUrl = m.group(1).replace("\\u0026", "&").replace("\\/", "/")
+                    .replace("\\\\", "");
+            if (potentialUrl.startsWith("http") && !potentialUrl.contains("sample")
+                    && !potentialUrl.contains("dummy")) {
+                return potentialUrl;
+            }
+        }
+        return null;
+    }
 }
@@ -0,0 +1,14 @@
+package com.example.insta.service;
+
+import java.io.IOException;
+
+/**
+ * The bytes coming back are not the media that was asked for: an error page
+ * instead of a video, a truncated transfer, or a broken MP4 box structure.
+ */
+public class InvalidMediaException extends IOException {
+
+    public InvalidMediaException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.insta.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admits scrape/download work into one of three lanes, each with its own
+ * concurrency limit and wait queue, so a one-GET CDN fetch never queues
+ * behind multi-minute Selenium scrapes:
+ *
+ * - DIRECT: the media URL is already known (directVideoUrl, CDN imageUrl)
+ * - HTTP: the URL is fetched with OkHttp, no browser needed
+ * - BROWSER: the page has to be rendered in Chrome (scrapers, Selenium
+ * downloads)
+ *
+ * Callers park on the lane's fair semaphore (cheap on virtual threads). When
+ * {@code queue-capacity} callers are already waiting, or a caller waits longer
+ * than {@code app.lanes.acquire-timeout-seconds}, admission fails with
+ * {@link RejectedExecutionException}. Queue depth and wait times per lane are
+ * exposed through {@link #snapshot()}.
+ */
+@Component
+@Slf4j
+public class LaneScheduler {
+
+    public enum Lane {
+        DIRECT, HTTP, BROWSER
+    }
+
+    /**
+     * A held lane slot. Closing it (more than once is fine, from any thread)
+     * frees the slot. Until then the acquiring thread holds it, see
+     * {@link #holdsSlot}, unless the permit was {@link #detach() detached}.
+     */
+    public static final class Permit implements AutoCloseable {
+
+        private final LaneState state;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile Thread holder = Thread.currentThread();
+
+        private Permit(LaneState state) {
+            this.state = state;
+            state.open.add(this);
+        }
+
+        public Lane getLane() {
+            return state.lane;
+        }
+
+        /**
+         * Hands the slot over to work that finishes on another thread (e.g. a
+         * response body): the acquiring thread, which may go on to serve other
+         * requests, no longer counts as holding it.
+         */
+        public Permit detach() {
+            holder = null;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                holder = null;
+                state.open.remove(this);
+                state.running.decrementAndGet();
+                state.completed.increment();
+                state.permits.release();
+            }
+        }
+    }
+
+    private final Map<Lane, LaneState> lanes = new EnumMap<>(Lane.class);
+    private final long acquireTimeoutSeconds;
+
+    public LaneScheduler(
+            @Value("${app.lanes.direct.concurrency:16}") int directConcurrency,
+            @Value("${app.lanes.direct.queue-capacity:200}") int directQueueCapacity,
+            @Value("${app.lanes.http.concurrency:8}") int httpConcurrency,
+            @Value("${app.lanes.http.queue-capacity:100}") int httpQueueCapacity,
+            @Value("${app.lanes.browser.concurrency:${app.browser.max-instances:3}}") int browserConcurrency,
+            @Value("${app.lanes.browser.queue-capacity:50}") int browserQueueCapacity,
+            @Value("${app.lanes.acquire-timeout-seconds:300}") long acquireTimeoutSeconds) {
+        lanes.put(Lane.DIRECT, new LaneState(Lane.DIRECT, directConcurrency, directQueueCapacity));
+        lanes.put(Lane.HTTP, new LaneState(Lane.HTTP, httpConcurrency, httpQueueCapacity));
+        lanes.put(Lane.BROWSER, new LaneState(Lane.BROWSER, browserConcurrency, browserQueueCapacity));
+        this.acquireTimeoutSeconds = acquireTimeoutSeconds;
+    }
+
+    /**
+     * Waits for a slot in {@code lane}. The caller must close the permit.
+     *
+     * @throws RejectedExecutionException if the lane's queue is full or the
+     *                                    wait timed out
+     */
+    public Permit acquire(Lane lane) throws InterruptedException {
+        LaneState state = lanes.get(lane);
+        long start = System.nanoTime();
+        // Timed tryAcquire (unlike tryAcquire()) respects fairness, so this never jumps the queue
+        if (!state.permits.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+            if (state.waiting.incrementAndGet() > state.queueCapacity) {
+                state.waiting.decrementAndGet();
+                state.rejected.increment();
+                throw new RejectedExecutionException(lane + " lane queue is full");
+            }
+            boolean acquired;
+            try {
+                acquired = state.permits.tryAcquire(acquireTimeoutSeconds, TimeUnit.SECONDS);
+            } finally {
+                state.waiting.decrementAndGet();
+            }
+            if (!acquired) {
+                state.rejected.increment();
+                throw new RejectedExecutionException("Timed out waiting for the " + lane + " lane");
+            }
+        }
+        long waitedNanos = System.nanoTime() - start;
+        state.recordWait(waitedNanos);
+        state.running.incrementAndGet();
+        if (waitedNanos > TimeUnit.SECONDS.toNanos(1)) {
+            log.debug("{} lane admitted after {} ms", lane, TimeUnit.NANOSECONDS.toMillis(waitedNanos));
+        }
+        return new Permit(state);
+    }
+
+    /** Runs {@code task} on the calling thread once a slot in {@code lane} is free. */
+    public <T> T call(Lane lane, Callable<T> task) throws Exception {
+        try (Permit permit = acquire(lane)) {
+            return task.call();
+        }
+    }
+
+    /**
+     * Like {@link #call}, but runs {@code task} straight away if the calling
+     * thread already holds a slot in {@code lane}: nested work in the same
+     * lane would otherwise wait for a second slot, possibly on itself.
+     */
+    public <T> T callReentrant(Lane lane, Callable<T> task) throws Exception {
+        return holdsSlot(lane) ? task.call() : call(lane, task);
+    }
+
+    /**
+     * Whether the calling thread holds a slot in {@code lane}, so nested work
+     * can run in it instead of queueing for a second one: it acquired an open
+     * permit that has not been detached.
+     */
+    public boolean holdsSlot(Lane lane) {
+        Thread current = Thread.currentThread();
+        for (Permit permit : lanes.get(lane).open) {
+            if (permit.holder == current) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Callers currently waiting for a slot in {@code lane}. */
+    public int getQueueDepth(Lane lane) {
+        return lanes.get(lane).waiting.get();
+    }
+
+    public int getRunningCount(Lane lane) {
+        return lanes.get(lane).running.get();
+    }
+
+    /** Mean wait before admission since startup, in milliseconds. */
+    public double getAverageWaitMillis(Lane lane) {
+        return lanes.get(lane).averageWaitMillis();
+    }
+
+    /** Per-lane limits, queue depth and wait times, for the /api/lanes endpoint. */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (LaneState state : lanes.values()) {
+            result.put(state.lane.name(), state.snapshot());
+        }
+        return result;
+    }
+
+    private static final class LaneState {
+
+        /** Weight of the newest sample in the recent-wait moving average. */
+        private static final double RECENT_WEIGHT = 0.2;
+
+        private final Lane lane;
+        private final int concurrency;
+        private final int queueCapacity;
+        private final Semaphore permits;
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        /** Permits not yet closed, at most {@code concurrency} of them. */
+        private final Set<Permit> open = ConcurrentHashMap.newKeySet();
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder totalWaitNanos = new LongAdder();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private double recentWaitNanos;
+
+        LaneState(Lane lane, int concurrency, int queueCapacity) {
+            this.lane = lane;
+            this.concurrency = concurrency;
+            this.queueCapacity = queueCapacity;
+            this.permits = new Semaphore(concurrency, true);
+        }
+
+        void recordWait(long nanos) {
+            admitted.increment();
+            totalWaitNanos.add(nanos);
+            maxWaitNanos.accumulateAndGet(nanos, Math::max);
+            synchronized (this) {
+                recentWaitNanos += RECENT_WEIGHT * (nanos - recentWaitNanos);
+            }
+        }
+
+        double averageWaitMillis() {
+            long count = admitted.sum();
+            return count == 0 ? 0 : totalWaitNanos.sum() / 1e6 / count;
+        }
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("concurrency", concurrency);
+            map.put("running", running.get());
+            map.put("queued", waiting.get());
+            map.put("queueCapacity", queueCapacity);
+            map.put("admitted", admitted.sum());
+            map.put("completed", completed.sum());
+            map.put("rejected", rejected.sum());
+            map.put("avgWaitMillis", Math.round(averageWaitMillis()));
+            synchronized (this) {
+                map.put("recentWaitMillis", Math.round(recentWaitNanos / 1e6));
+            }
+            map.put("maxWaitMillis", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+            return map;
+        }
+    }
+}
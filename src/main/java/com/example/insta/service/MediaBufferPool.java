@@ -0,0 +1,99 @@
+package com.example.insta.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of reusable off-heap buffers used to move media bytes from the CDN
+ * socket to the client (or to a ZIP entry) without materializing the whole
+ * file as a byte[] on the heap.
+ *
+ * Buffers are allocated lazily up to {@code app.buffer.pool-size}. When the
+ * pool is exhausted the caller gets a short-lived heap buffer instead of
+ * blocking, so a burst of downloads degrades to the old behaviour rather than
+ * stalling.
+ */
+@Component
+@Slf4j
+public class MediaBufferPool {
+
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final BlockingQueue<ByteBuffer> idle;
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    public MediaBufferPool(@Value("${app.buffer.size:65536}") int bufferSize,
+            @Value("${app.buffer.pool-size:64}") int maxBuffers) {
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+        this.idle = new ArrayBlockingQueue<>(maxBuffers);
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = idle.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        if (allocated.incrementAndGet() <= maxBuffers) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        allocated.decrementAndGet();
+        log.debug("Buffer pool exhausted ({} buffers), using a heap buffer", maxBuffers);
+        return ByteBuffer.allocate(bufferSize);
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) {
+            return;
+        }
+        buffer.clear();
+        idle.offer(buffer);
+    }
+
+    /**
+     * Copies everything from {@code in} to {@code out} through a pooled buffer.
+     *
+     * @return number of bytes copied
+     */
+    public long copy(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        ByteBuffer buffer = acquire();
+        try {
+            return copy(in, out, buffer);
+        } finally {
+            release(buffer);
+        }
+    }
+
+    static long copy(ReadableByteChannel in, WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        long total = 0;
+        while (in.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                total += out.write(buffer);
+            }
+            buffer.clear();
+        }
+        return total;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getAllocatedCount() {
+        return allocated.get();
+    }
+}
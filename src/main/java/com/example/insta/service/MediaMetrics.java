@@ -0,0 +1,249 @@
+package com.example.insta.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Timers and counters for the scrape/download path, exported through
+ * Actuator (/actuator/prometheus).
+ *
+ * - insta.stage.duration{site, stage, strategy, outcome}: time spent in each
+ * {@link Stage}. Extraction is tagged with the strategy that ran.
+ * - insta.downloads{site, operation, outcome, reason}: finished downloads.
+ * - insta.bytes{site, sink}: bytes written to disk or to a response.
+ * - insta.browser.killed{reason}: Chrome/chromedriver processes killed by
+ * BrowserGovernor.
+ * - insta.startup.first_scrape: time from JVM start to the first successful
+ * scrape (see BrowserWarmup).
+ *
+ * Tags stay low-cardinality: {@link #siteOf} buckets hosts into a handful of
+ * sites, and {@link #reasonOf} buckets failures by kind. Gauges for the
+ * browser pool, lanes, buffers and jobs are registered in MetricsConfig.
+ */
+@Component
+public class MediaMetrics {
+
+    public enum Stage {
+        /** WebDriverManager resolving/downloading chromedriver. */
+        DRIVER_SETUP,
+        /** Starting the Chrome process. */
+        CHROME_LAUNCH,
+        /** driver.get() until the page's load event. */
+        PAGE_LOAD,
+        /** Pulling media URLs out of a loaded page, per strategy. */
+        EXTRACTION,
+        /** CDN request until response headers (plus the validation prefix for images). */
+        CDN_FETCH,
+        /** Copying a CDN body to the download directory. */
+        DISK_WRITE,
+        /** Moving the moov box of a downloaded MP4 ahead of its media data. */
+        FASTSTART,
+        /** Muxing downloaded adaptive video and audio streams into one MP4. */
+        MUX,
+        /** Copying media to the HTTP response. */
+        RESPONSE_STREAM;
+
+        String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final MeterRegistry registry;
+
+    public MediaMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /** Records {@code stage} as having started at {@code startNanos} (System.nanoTime()). */
+    public void record(String site, Stage stage, long startNanos, boolean success) {
+        record(site, stage, "none", startNanos, success);
+    }
+
+    /** Records one extraction strategy; {@code found} is whether it produced a media URL. */
+    public void recordExtraction(String site, String strategy, long startNanos, boolean found) {
+        record(site, Stage.EXTRACTION, strategy, startNanos, found);
+    }
+
+    private void record(String site, Stage stage, String strategy, long startNanos, boolean success) {
+        Timer.builder("insta.stage.duration")
+                .description("Time spent per scrape/download stage")
+                .tag("site", site)
+                .tag("stage", stage.tag())
+                .tag("strategy", strategy)
+                .tag("outcome", success ? "success" : "failure")
+                .register(registry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Runs {@code action} (e.g. a page load) as {@code stage}, recording a failure if it throws. */
+    public void time(String site, Stage stage, Runnable action) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            action.run();
+            success = true;
+        } finally {
+            record(site, stage, start, success);
+        }
+    }
+
+    public void success(String site, String operation) {
+        downloads(site, operation, "success", "none").increment();
+    }
+
+    public void failure(String site, String operation, Throwable error) {
+        downloads(site, operation, "failure", reasonOf(error)).increment();
+    }
+
+    private Counter downloads(String site, String operation, String outcome, String reason) {
+        return Counter.builder("insta.downloads")
+                .description("Finished downloads by outcome and failure reason")
+                .tag("site", site)
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .tag("reason", reason)
+                .register(registry);
+    }
+
+    /** @param sink "disk" or "response" */
+    public void addBytes(String site, String sink, long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        Counter.builder("insta.bytes")
+                .description("Media bytes transferred")
+                .baseUnit("bytes")
+                .tag("site", site)
+                .tag("sink", sink)
+                .register(registry)
+                .increment(bytes);
+    }
+
+    /** @param outcome started, hit, wasted (expired unclaimed), failed or skipped (over budget) */
+    public void prefetch(String site, String outcome) {
+        Counter.builder("insta.prefetch")
+                .description("Background downloads started after /api/video/info, by outcome")
+                .tag("site", site)
+                .tag("outcome", outcome)
+                .register(registry)
+                .increment();
+    }
+
+    /** @param outcome proactive (before expiry), reactive (after a 403) or failed */
+    public void signedUrlRefresh(String site, String outcome) {
+        Counter.builder("insta.signed_url.refresh")
+                .description("Re-scrapes of posts whose signed media URLs expire")
+                .tag("site", site)
+                .tag("outcome", outcome)
+                .register(registry)
+                .increment();
+    }
+
+    /** @param state open, half_open or closed */
+    public void circuitTransition(String site, String strategy, String state) {
+        Counter.builder("insta.circuit.transitions")
+                .description("Per-site circuit breaker state changes")
+                .tag("site", site)
+                .tag("strategy", strategy)
+                .tag("state", state)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * @param winner http, browser or none (neither found media)
+     * @param hedged whether the browser was started while the HTTP scrape was still running
+     */
+    public void hedge(String site, String winner, boolean hedged) {
+        Counter.builder("insta.hedge")
+                .description("Hedged scrapes by winning strategy")
+                .tag("site", site)
+                .tag("winner", winner)
+                .tag("hedged", String.valueOf(hedged))
+                .register(registry)
+                .increment();
+    }
+
+    /** Time from JVM start to the first successful scrape; recorded once per process. */
+    public void firstScrape(long millisSinceStart) {
+        Timer.builder("insta.startup.first_scrape")
+                .description("Time from JVM start to the first successful scrape")
+                .register(registry)
+                .record(millisSinceStart, TimeUnit.MILLISECONDS);
+    }
+
+    /** @param reason memory, age, orphan or quit_failed */
+    public void browserKilled(String reason, int processes) {
+        Counter.builder("insta.browser.killed")
+                .description("Chrome/chromedriver processes killed by the browser governor")
+                .tag("reason", reason)
+                .register(registry)
+                .increment(processes);
+    }
+
+    /** Buckets a post or CDN URL into instagram, tiktok, youtube, pexels or other. */
+    public static String siteOf(String url) {
+        if (url == null) {
+            return "other";
+        }
+        String host = HostPermits.hostOf(url);
+        if (host.contains("instagram") || host.contains("fbcdn")) {
+            return "instagram";
+        }
+        if (host.contains("tiktok") || host.contains("bytecdn") || host.contains("byteoversea")) {
+            return "tiktok";
+        }
+        if (host.contains("youtube") || host.contains("youtu.be") || host.contains("googlevideo")
+                || host.contains("ytimg")) {
+            return "youtube";
+        }
+        if (host.contains("pexels")) {
+            return "pexels";
+        }
+        return "other";
+    }
+
+    /** Failure kind for the reason tag: timeout, cancelled, rejected, browser_busy, http, bad_request, io or error. */
+    static String reasonOf(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof SocketTimeoutException || t instanceof TimeoutException
+                    || t instanceof org.openqa.selenium.TimeoutException) {
+                return "timeout";
+            }
+            if (t instanceof InterruptedException || t instanceof InterruptedIOException
+                    || t instanceof CancellationException) {
+                return "cancelled";
+            }
+            if (t instanceof RejectedExecutionException) {
+                return "rejected";
+            }
+            if (t instanceof InvalidMediaException) {
+                return "invalid_media";
+            }
+        }
+        String message = error.getMessage() != null ? error.getMessage() : "";
+        if (message.contains("browser instances are busy")) {
+            return "browser_busy";
+        }
+        if (message.contains("HTTP")) {
+            return "http";
+        }
+        if (error instanceof IllegalArgumentException) {
+            return "bad_request";
+        }
+        if (error instanceof IOException) {
+            return "io";
+        }
+        return "error";
+    }
+}
@@ -0,0 +1,324 @@
+package com.example.insta.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Starts downloading a video as soon as /api/video/info has resolved its
+ * URL, betting that the client's /api/video/download with that
+ * directVideoUrl follows a few seconds later. The download call then
+ * {@link #claim claims} the finished file, or joins the transfer still in
+ * progress, instead of starting its own.
+ *
+ * Prefetches are low priority. At most {@code app.prefetch.max-concurrent}
+ * run at once, none start while user downloads are queued for the DIRECT
+ * lane, and together they are held to {@code app.prefetch.bytes-per-second}
+ * until claimed. Their files may use at most {@code app.prefetch.max-disk-mb}.
+ * A prefetch nobody claims within {@code app.prefetch.ttl-seconds} is
+ * cancelled and its file deleted. Only plain CDN URLs are prefetched, not
+ * pages that need a browser or HLS/DASH manifests.
+ *
+ * Outcomes are counted in insta.prefetch and summarized, with the hit rate,
+ * by GET /api/prefetch.
+ */
+@Component
+@Slf4j
+public class MediaPrefetcher {
+
+    private final VideoDownloaderService videoDownloaderService;
+    private final LaneScheduler laneScheduler;
+    private final MediaMetrics metrics;
+    private final ExecutorService executor;
+    private final boolean enabled;
+    private final long bytesPerSecond;
+    private final long maxDiskBytes;
+    private final long ttlMillis;
+    private final Semaphore slots;
+
+    private final Map<String, Prefetch> entries = new ConcurrentHashMap<>();
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder wasted = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private long nextSlotNanos;
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("prefetch-reaper").daemon().factory());
+
+    public MediaPrefetcher(VideoDownloaderService videoDownloaderService, LaneScheduler laneScheduler,
+            MediaMetrics metrics, @Qualifier("mediaTaskExecutor") ExecutorService executor,
+            @Value("${app.prefetch.enabled:false}") boolean enabled,
+            @Value("${app.prefetch.max-concurrent:2}") int maxConcurrent,
+            @Value("${app.prefetch.bytes-per-second:4194304}") long bytesPerSecond,
+            @Value("${app.prefetch.max-disk-mb:512}") long maxDiskMb,
+            @Value("${app.prefetch.ttl-seconds:120}") long ttlSeconds) {
+        this.videoDownloaderService = videoDownloaderService;
+        this.laneScheduler = laneScheduler;
+        this.metrics = metrics;
+        this.executor = executor;
+        this.enabled = enabled;
+        this.bytesPerSecond = bytesPerSecond;
+        this.maxDiskBytes = maxDiskMb * 1024 * 1024;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.slots = new Semaphore(Math.max(1, maxConcurrent));
+        reaper.scheduleWithFixedDelay(this::evictExpired, 5, 5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Starts a background download of the video {@code info} resolved, if
+     * prefetching is on, the URL qualifies and the budgets allow it.
+     */
+    public void prefetch(PexelsScraperService.ScrapedInfo info) {
+        String url = info.getVideoUrl();
+        if (!enabled || url == null || !url.startsWith("http") || VideoDownloaderService.isSeleniumTarget(url)
+                || StreamManifest.isManifestUrl(url) || entries.containsKey(url)) {
+            return;
+        }
+        String site = MediaMetrics.siteOf(url);
+        if (laneScheduler.getQueueDepth(LaneScheduler.Lane.DIRECT) > 0 || diskBytes.get() >= maxDiskBytes
+                || !slots.tryAcquire()) {
+            skipped.increment();
+            metrics.prefetch(site, "skipped");
+            return;
+        }
+        String origin = info.getOriginUrl();
+        // Same Referer the download endpoint would send
+        String referer = origin != null && origin.contains("tiktok.com") ? origin : null;
+        Prefetch prefetch = new Prefetch(url, site, System.currentTimeMillis() + ttlMillis);
+        FutureTask<Path> task = new FutureTask<>(
+                () -> run(prefetch, info.getCookies(), info.getUserAgent(), referer));
+        prefetch.task = task;
+        if (entries.putIfAbsent(url, prefetch) != null) {
+            slots.release();
+            return;
+        }
+        started.increment();
+        metrics.prefetch(site, "started");
+        executor.execute(task);
+    }
+
+    private Path run(Prefetch prefetch, String cookies, String userAgent, String referer) throws Exception {
+        try {
+            Path path = videoDownloaderService.downloadVideo(prefetch.url, cookies, userAgent, referer, prefetch);
+            if (!prefetch.finish(path)) {
+                Files.deleteIfExists(path);
+                throw new InterruptedIOException("Prefetch cancelled");
+            }
+            return path;
+        } catch (Exception e) {
+            if (!prefetch.cancelled) {
+                failed.increment();
+                metrics.prefetch(prefetch.site, "failed");
+                log.debug("Prefetch of {} failed: {}", prefetch.url, e.getMessage());
+            }
+            entries.remove(prefetch.url, prefetch);
+            prefetch.releaseDisk();
+            throw e;
+        } finally {
+            slots.release();
+        }
+    }
+
+    /**
+     * The prefetched file for {@code url}, waiting for the transfer if it is
+     * still running, or null if there is none or it failed. From here the
+     * transfer runs at full speed and reports to {@code progress}.
+     */
+    public Path claim(String url, DownloadProgress progress) throws InterruptedException {
+        Prefetch prefetch = url != null ? entries.remove(url) : null;
+        if (prefetch == null) {
+            return null;
+        }
+        prefetch.handTo(progress);
+        try {
+            Path path = prefetch.task.get();
+            if (!Files.exists(path)) {
+                return null;
+            }
+            hits.increment();
+            metrics.prefetch(prefetch.site, "hit");
+            return path;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /** Whether an unclaimed prefetch exists for {@code url}. */
+    public boolean isPending(String url) {
+        return url != null && entries.containsKey(url);
+    }
+
+    void evictExpired() {
+        long now = System.currentTimeMillis();
+        entries.forEach((url, prefetch) -> {
+            if (prefetch.expiresAt < now && entries.remove(url, prefetch)) {
+                wasted.increment();
+                metrics.prefetch(prefetch.site, "wasted");
+                discard(prefetch);
+            }
+        });
+    }
+
+    /** Deletes a finished prefetch's file; a running one stops at its next write and deletes its own. */
+    private void discard(Prefetch prefetch) {
+        Path path = prefetch.markCancelled();
+        if (path != null) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (Exception e) {
+                log.warn("Could not delete unclaimed prefetch {}: {}", path, e.getMessage());
+            }
+        }
+        prefetch.releaseDisk();
+    }
+
+    /** Blocks long enough to keep all unclaimed prefetches together under the bandwidth budget. */
+    private void throttle(long bytes) {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long cost = bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(now, nextSlotNanos);
+            nextSlotNanos = start + cost;
+            waitNanos = start - now;
+        }
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new InterruptedIOException("Prefetch cancelled"));
+            }
+        }
+    }
+
+    /** Starts, hits, unclaimed and failed prefetches, hit rate and budget use, for GET /api/prefetch. */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        long startedCount = started.sum();
+        result.put("enabled", enabled);
+        result.put("started", startedCount);
+        result.put("hits", hits.sum());
+        result.put("wasted", wasted.sum());
+        result.put("failed", failed.sum());
+        result.put("skipped", skipped.sum());
+        result.put("hitRate", startedCount > 0 ? (double) hits.sum() / startedCount : 0.0);
+        result.put("pending", entries.size());
+        result.put("diskBytes", diskBytes.get());
+        result.put("maxDiskBytes", maxDiskBytes);
+        result.put("bytesPerSecond", bytesPerSecond);
+        return result;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reaper.shutdownNow();
+        entries.values().forEach(this::discard);
+        entries.clear();
+    }
+
+    /**
+     * One prefetch, doubling as the progress sink of its download: every
+     * write is counted against the disk budget and throttled until the
+     * download is claimed, after which it is forwarded to the claimer.
+     */
+    private final class Prefetch extends DownloadProgress {
+
+        private final String url;
+        private final String site;
+        private final long expiresAt;
+        private long accountedBytes;
+        private volatile Future<Path> task;
+        private Path finished;
+        private volatile DownloadProgress claimer;
+        private volatile boolean cancelled;
+
+        Prefetch(String url, String site, long expiresAt) {
+            this.url = url;
+            this.site = site;
+            this.expiresAt = expiresAt;
+        }
+
+        @Override
+        public void addBytes(long count) {
+            if (cancelled) {
+                throw new UncheckedIOException(new InterruptedIOException("Prefetch cancelled"));
+            }
+            super.addBytes(count);
+            DownloadProgress target;
+            synchronized (this) {
+                target = claimer;
+                if (target == null) {
+                    accountedBytes += count;
+                    if (diskBytes.addAndGet(count) > maxDiskBytes) {
+                        throw new UncheckedIOException(new InterruptedIOException("Prefetch disk budget exceeded"));
+                    }
+                }
+            }
+            if (target != null) {
+                target.addBytes(count);
+            } else {
+                throttle(count);
+            }
+        }
+
+        @Override
+        public void setTotalBytes(long totalBytes) {
+            super.setTotalBytes(totalBytes);
+            DownloadProgress target = claimer;
+            if (target != null) {
+                target.setTotalBytes(totalBytes);
+            }
+        }
+
+        synchronized void handTo(DownloadProgress progress) {
+            releaseDisk();
+            claimer = progress;
+            progress.setTotalBytes(getTotalBytes());
+            progress.setBytesTransferred(getBytesTransferred());
+            progress.stage(DownloadStage.DOWNLOAD, "Prefetched " + getBytesTransferred() + " bytes");
+        }
+
+        /** Records the finished file; false if the prefetch was cancelled meanwhile. */
+        synchronized boolean finish(Path path) {
+            finished = path;
+            return !cancelled;
+        }
+
+        /** Cancels the prefetch, returning its file if it had already finished. */
+        synchronized Path markCancelled() {
+            cancelled = true;
+            return finished;
+        }
+
+        synchronized void releaseDisk() {
+            diskBytes.addAndGet(-accountedBytes);
+            accountedBytes = 0;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.insta.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cheap checks that a transfer really is the media that was asked for.
+ *
+ * Before anything is written, the first {@value #SNIFF_BYTES} bytes (one
+ * packet) are matched against the file signatures, so an HTML error page or
+ * a JSON "URL expired" body is rejected in milliseconds instead of after the
+ * whole transfer. Afterwards the byte count is checked against
+ * Content-Length, and MP4 files have their top-level box chain walked (only
+ * the 8-16 byte box headers are read) to catch truncated or corrupt files.
+ */
+final class MediaValidator {
+
+    enum Kind {
+        MP4, WEBM, JPEG, PNG, WEBP, GIF, AVIF
+    }
+
+    /** A top-level MP4 box; {@code size} includes the header. */
+    record Mp4Box(String type, long offset, long size) {
+    }
+
+    static final Set<Kind> VIDEO = EnumSet.of(Kind.MP4, Kind.WEBM);
+    static final Set<Kind> IMAGE = EnumSet.of(Kind.JPEG, Kind.PNG, Kind.WEBP, Kind.GIF, Kind.AVIF);
+
+    /** Enough leading bytes to tell every supported format apart. */
+    static final int SNIFF_BYTES = 12;
+
+    private MediaValidator() {
+    }
+
+    /** Media kind of the leading bytes, or null if they match no known signature. */
+    static Kind sniff(byte[] head, int length) {
+        if (length >= 12 && ascii(head, 4, "ftyp")) {
+            return ascii(head, 8, "avif") || ascii(head, 8, "avis") ? Kind.AVIF : Kind.MP4;
+        }
+        // QuickTime-style files may start with another top-level box
+        if (length >= 8 && (ascii(head, 4, "moov") || ascii(head, 4, "mdat") || ascii(head, 4, "free")
+                || ascii(head, 4, "wide") || ascii(head, 4, "skip"))) {
+            return Kind.MP4;
+        }
+        if (length >= 4 && (head[0] & 0xFF) == 0x1A && (head[1] & 0xFF) == 0x45 && (head[2] & 0xFF) == 0xDF
+                && (head[3] & 0xFF) == 0xA3) {
+            return Kind.WEBM;
+        }
+        if (length >= 3 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xD8 && (head[2] & 0xFF) == 0xFF) {
+            return Kind.JPEG;
+        }
+        if (length >= 8 && (head[0] & 0xFF) == 0x89 && ascii(head, 1, "PNG") && head[4] == 0x0D && head[5] == 0x0A
+                && head[6] == 0x1A && head[7] == 0x0A) {
+            return Kind.PNG;
+        }
+        if (length >= 12 && ascii(head, 0, "RIFF") && ascii(head, 8, "WEBP")) {
+            return Kind.WEBP;
+        }
+        if (length >= 6 && (ascii(head, 0, "GIF87a") || ascii(head, 0, "GIF89a"))) {
+            return Kind.GIF;
+        }
+        return null;
+    }
+
+    /**
+     * Checks the leading bytes against the {@code expected} kinds.
+     *
+     * @param what        "video" or "image", for the error message
+     * @param contentType the response Content-Type, for the error message
+     * @throws InvalidMediaException if the bytes are something else
+     */
+    static Kind require(byte[] head, int length, Set<Kind> expected, String what, String contentType)
+            throws InvalidMediaException {
+        Kind kind = sniff(head, length);
+        if (kind == null || !expected.contains(kind)) {
+            throw new InvalidMediaException("Expected " + what + " but got " + describe(kind, head, length)
+                    + (contentType != null ? " (Content-Type " + contentType + ")" : "")
+                    + ". The URL may have expired or access was denied.");
+        }
+        return kind;
+    }
+
+    /** Fails if a transfer with a known Content-Length stopped short (or ran over). */
+    static void checkLength(long transferred, long contentLength, String what) throws InvalidMediaException {
+        if (contentLength >= 0 && transferred != contentLength) {
+            throw new InvalidMediaException(
+                    "Truncated " + what + ": got " + transferred + " of " + contentLength + " bytes");
+        }
+    }
+
+    /** Sniffs a downloaded file and, for MP4, checks its box structure. */
+    static Kind checkFile(Path file, Set<Kind> expected, String what) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(SNIFF_BYTES);
+            while (head.hasRemaining() && channel.read(head) != -1) {
+                // read the signature
+            }
+            Kind kind = require(head.array(), head.position(), expected, what, null);
+            if (kind == Kind.MP4) {
+                checkMp4Boxes(channel);
+            }
+            return kind;
+        }
+    }
+
+    /**
+     * Walks the top-level boxes: each header must be readable, every box
+     * must end inside the file, the last one exactly at its end, and a file
+     * must contain both moov and mdat.
+     *
+     * @return the boxes in file order
+     */
+    static List<Mp4Box> checkMp4Boxes(FileChannel channel) throws IOException {
+        List<Mp4Box> boxes = new ArrayList<>();
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long position = 0;
+        boolean moov = false;
+        boolean mdat = false;
+        while (position < size) {
+            if (size - position < 8) {
+                throw new InvalidMediaException("Corrupt MP4: " + (size - position) + " stray bytes at the end");
+            }
+            header.clear().limit(8);
+            readFully(channel, header, position);
+            long boxSize = header.getInt(0) & 0xFFFFFFFFL;
+            String type = new String(header.array(), 4, 4, StandardCharsets.ISO_8859_1);
+            if (!type.chars().allMatch(c -> c >= 0x20 && c < 0x7F)) {
+                throw new InvalidMediaException("Corrupt MP4: unreadable box header at byte " + position);
+            }
+            int headerSize = 8;
+            if (boxSize == 1) { // 64-bit size follows the type
+                if (size - position < 16) {
+                    throw new InvalidMediaException("Truncated MP4: '" + type + "' box header cut off");
+                }
+                header.clear().limit(16);
+                readFully(channel, header, position);
+                boxSize = header.getLong(8);
+                headerSize = 16;
+            } else if (boxSize == 0) { // box runs to the end of the file
+                boxSize = size - position;
+            }
+            if (boxSize < headerSize) {
+                throw new InvalidMediaException(
+                        "Corrupt MP4: '" + type + "' box at byte " + position + " has size " + boxSize);
+            }
+            if (boxSize > size - position) {
+                throw new InvalidMediaException("Truncated MP4: '" + type + "' box at byte " + position + " needs "
+                        + boxSize + " bytes but the file ends after " + (size - position));
+            }
+            moov |= type.equals("moov");
+            mdat |= type.equals("mdat");
+            boxes.add(new Mp4Box(type, position, boxSize));
+            position += boxSize;
+        }
+        if (!moov || !mdat) {
+            throw new InvalidMediaException("Corrupt MP4: no " + (moov ? "mdat" : "moov") + " box");
+        }
+        return boxes;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new InvalidMediaException("Truncated MP4: unexpected end of file");
+            }
+        }
+    }
+
+    private static String describe(Kind kind, byte[] head, int length) {
+        if (kind != null) {
+            return kind + " data";
+        }
+        if (length == 0) {
+            return "an empty body";
+        }
+        String text = new String(head, 0, length, StandardCharsets.ISO_8859_1).stripLeading();
+        if (text.startsWith("<")) {
+            return "an HTML/XML page";
+        }
+        if (text.startsWith("{") || text.startsWith("[")) {
+            return "a JSON body";
+        }
+        StringBuilder hex = new StringBuilder("unknown bytes");
+        for (int i = 0; i < Math.min(length, 8); i++) {
+            hex.append(String.format(" %02X", head[i]));
+        }
+        return hex.toString();
+    }
+
+    private static boolean ascii(byte[] bytes, int offset, String expected) {
+        for (int i = 0; i < expected.length(); i++) {
+            if (bytes[offset + i] != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
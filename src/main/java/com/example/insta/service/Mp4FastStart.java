@@ -0,0 +1,214 @@
+package com.example.insta.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves the moov box of an MP4 ahead of its media data ("faststart"), so a
+ * client streaming the file can start playback after the first few hundred
+ * KB instead of after the whole file.
+ *
+ * Only the moov box is held in memory (it is the index, typically well under
+ * 1% of the file); the media boxes are copied with
+ * {@link FileChannel#transferTo} straight from the page cache. Moving moov
+ * shifts every byte of media data, so each stco/co64 chunk offset table in it
+ * is rewritten to the new positions.
+ */
+public final class Mp4FastStart {
+
+    /** Refuse to load a moov larger than this; real ones are a few MB even for long videos. */
+    private static final int MAX_MOOV_BYTES = 64 * 1024 * 1024;
+
+    /** Where a byte of the original file ends up in the rewritten one. */
+    @FunctionalInterface
+    interface OffsetMap {
+        long relocate(long offset) throws InvalidMediaException;
+    }
+
+    private Mp4FastStart() {
+    }
+
+    /**
+     * Rewrites {@code file} in place (through a temporary sibling file) if its
+     * moov box comes after the media data.
+     *
+     * @return true if the file was rewritten, false if it was not an MP4 or
+     *         already had moov first
+     */
+    public static boolean apply(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".faststart");
+        try {
+            if (!rewrite(file, temp)) {
+                return false;
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Writes a faststart copy of {@code source} to {@code target}. Nothing is
+     * written when it returns false.
+     *
+     * @return false if {@code source} is not an MP4 or already has moov before mdat
+     * @throws IOException if the file is corrupt or a 32-bit stco offset would overflow
+     */
+    public static boolean rewrite(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(MediaValidator.SNIFF_BYTES);
+            while (head.hasRemaining() && in.read(head, head.position()) != -1) {
+                // read the signature
+            }
+            if (MediaValidator.sniff(head.array(), head.position()) != MediaValidator.Kind.MP4) {
+                return false;
+            }
+
+            List<MediaValidator.Mp4Box> boxes = MediaValidator.checkMp4Boxes(in);
+            int moovIndex = indexOf(boxes, "moov");
+            int mdatIndex = indexOf(boxes, "mdat");
+            if (moovIndex < mdatIndex) {
+                return false;
+            }
+            MediaValidator.Mp4Box moov = boxes.get(moovIndex);
+            if (moov.size() > MAX_MOOV_BYTES) {
+                throw new IOException("moov box of " + moov.size() + " bytes is too large to move");
+            }
+
+            // New order: everything up to the first mdat, then moov, then the rest
+            List<MediaValidator.Mp4Box> order = new ArrayList<>(boxes);
+            order.remove(moovIndex);
+            order.add(mdatIndex, moov);
+            long[] newOffsets = new long[boxes.size()];
+            long position = 0;
+            for (MediaValidator.Mp4Box box : order) {
+                newOffsets[boxes.indexOf(box)] = position;
+                position += box.size();
+            }
+
+            ByteBuffer moovBytes = ByteBuffer.allocate((int) moov.size());
+            while (moovBytes.hasRemaining()) {
+                if (in.read(moovBytes, moov.offset() + moovBytes.position()) == -1) {
+                    throw new InvalidMediaException("Truncated MP4: moov box cut off");
+                }
+            }
+            int moovHeader = (moovBytes.getInt(0) == 1) ? 16 : 8;
+            patchChunkOffsets(moovBytes, moovHeader, moovBytes.capacity(), boxMap(boxes, newOffsets));
+
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (MediaValidator.Mp4Box box : order) {
+                    if (box == moov) {
+                        moovBytes.clear();
+                        while (moovBytes.hasRemaining()) {
+                            out.write(moovBytes);
+                        }
+                    } else {
+                        copy(in, box.offset(), box.size(), out);
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Recurses through the containers on the path to the sample tables
+     * (trak/mdia/minf/stbl) and maps every chunk offset to its new position.
+     */
+    static void patchChunkOffsets(ByteBuffer moov, int start, int end, OffsetMap map) throws IOException {
+        int position = start;
+        while (position + 8 <= end) {
+            long size = moov.getInt(position) & 0xFFFFFFFFL;
+            String type = new String(moov.array(), position + 4, 4, StandardCharsets.ISO_8859_1);
+            int header = 8;
+            if (size == 1) {
+                size = moov.getLong(position + 8);
+                header = 16;
+            } else if (size == 0) {
+                size = end - position;
+            }
+            if (size < header || size > end - position) {
+                throw new InvalidMediaException("Corrupt MP4: bad '" + type + "' box inside moov");
+            }
+            int boxEnd = position + (int) size;
+            switch (type) {
+                case "trak", "mdia", "minf", "stbl" ->
+                    patchChunkOffsets(moov, position + header, boxEnd, map);
+                case "stco", "co64" -> {
+                    boolean wide = type.equals("co64");
+                    int table = position + header + 8; // after version/flags and entry_count
+                    long count = moov.getInt(position + header + 4) & 0xFFFFFFFFL;
+                    if (table + count * (wide ? 8 : 4) > boxEnd) {
+                        throw new InvalidMediaException("Corrupt MP4: " + type + " entry count " + count
+                                + " does not fit its box");
+                    }
+                    for (int i = 0; i < count; i++) {
+                        if (wide) {
+                            int at = table + i * 8;
+                            moov.putLong(at, map.relocate(moov.getLong(at)));
+                        } else {
+                            int at = table + i * 4;
+                            long moved = map.relocate(moov.getInt(at) & 0xFFFFFFFFL);
+                            if (moved > 0xFFFFFFFFL) {
+                                throw new IOException("Chunk offset " + moved + " no longer fits stco");
+                            }
+                            moov.putInt(at, (int) moved);
+                        }
+                    }
+                }
+                case "cmov" -> throw new IOException("Compressed moov boxes are not supported");
+                default -> {
+                }
+            }
+            position = boxEnd;
+        }
+    }
+
+    /**
+     * Relocates offsets through the top-level box containing them: box i moves
+     * to {@code newOffsets[i]}. Offsets inside moov, or inside a box that is
+     * not copied ({@code newOffsets[i] < 0}), are rejected.
+     */
+    static OffsetMap boxMap(List<MediaValidator.Mp4Box> boxes, long[] newOffsets) {
+        return offset -> {
+            for (int i = 0; i < boxes.size(); i++) {
+                MediaValidator.Mp4Box box = boxes.get(i);
+                if (offset >= box.offset() && offset < box.offset() + box.size() && !box.type().equals("moov")
+                        && newOffsets[i] >= 0) {
+                    return newOffsets[i] + (offset - box.offset());
+                }
+            }
+            throw new InvalidMediaException("Corrupt MP4: chunk offset " + offset + " is outside the media data");
+        };
+    }
+
+    private static int indexOf(List<MediaValidator.Mp4Box> boxes, String type) {
+        for (int i = 0; i < boxes.size(); i++) {
+            if (boxes.get(i).type().equals(type)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static void copy(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long n = in.transferTo(position, end - position, out);
+            if (n <= 0) {
+                throw new InvalidMediaException("Truncated MP4: unexpected end of file");
+            }
+            position += n;
+        }
+    }
+}
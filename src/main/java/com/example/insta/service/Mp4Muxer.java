@@ -0,0 +1,444 @@
+package com.example.insta.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Combines a video-only and an audio-only MP4 (YouTube's adaptive streams)
+ * into one MP4 with both tracks, without ffmpeg.
+ *
+ * The output gets the video file's ftyp and a new moov: the video's mvhd,
+ * the video track as track 1 and the audio track as track 2. Media data is
+ * never decoded or held in memory. It is copied box by box with
+ * {@link FileChannel#transferTo}:
+ * <ul>
+ * <li>Fragmented inputs (DASH: moof+mdat pairs) give a fragmented output.
+ * Fragments of both tracks are interleaved by decode time (tfdt). Each moof
+ * is rewritten with its new track ID and sequence number; trun data offsets
+ * are relative to the moof, so the fragments are otherwise copied
+ * verbatim.</li>
+ * <li>Regular inputs give a regular output, moov first, followed by the
+ * video's media data and then the audio's. The stco/co64 tables of each track
+ * are moved to the new positions.</li>
+ * </ul>
+ */
+public final class Mp4Muxer {
+
+    /** Largest moov or moof loaded into memory. */
+    private static final int MAX_INDEX_BYTES = 64 * 1024 * 1024;
+
+    private static final int VIDEO_TRACK = 1;
+    private static final int AUDIO_TRACK = 2;
+
+    private Mp4Muxer() {
+    }
+
+    /**
+     * Writes {@code target} with the video track of {@code video} and the
+     * audio track of {@code audio}.
+     *
+     * @throws InvalidMediaException if an input is not an MP4 with the
+     *                               expected track, or one input is fragmented
+     *                               and the other is not
+     */
+    public static void mux(Path video, Path audio, Path target) throws IOException {
+        try (FileChannel videoIn = FileChannel.open(video, StandardOpenOption.READ);
+                FileChannel audioIn = FileChannel.open(audio, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            Input v = Input.read(videoIn, "vide", VIDEO_TRACK);
+            Input a = Input.read(audioIn, "soun", AUDIO_TRACK);
+            if (v.fragmented != a.fragmented) {
+                throw new InvalidMediaException("Cannot mux a fragmented MP4 with a regular one");
+            }
+            a.rescaleTrackDuration(v.movieTimescale);
+
+            // moov: mvhd, video trak, audio trak, and for fragmented files mvex with both trex
+            int mvexSize = v.fragmented ? 8 + v.trex.size + a.trex.size : 0;
+            ByteBuffer moov = ByteBuffer.allocate(8 + v.mvhd.size + v.trak.size + a.trak.size + mvexSize);
+            moov.putInt(moov.capacity()).put(ascii("moov"));
+            int mvhdAt = moov.position();
+            moov.put(v.moov.array(), v.mvhd.offset, v.mvhd.size);
+            int videoTrakAt = moov.position();
+            moov.put(v.moov.array(), v.trak.offset, v.trak.size);
+            int audioTrakAt = moov.position();
+            moov.put(a.moov.array(), a.trak.offset, a.trak.size);
+            if (v.fragmented) {
+                moov.putInt(mvexSize).put(ascii("mvex"));
+                moov.put(v.moov.array(), v.trex.offset, v.trex.size);
+                moov.put(a.moov.array(), a.trex.offset, a.trex.size);
+            }
+            Box mvhd = new Box("mvhd", mvhdAt, v.mvhd.size, v.mvhd.header);
+            moov.putInt(mvhd.end() - 4, AUDIO_TRACK + 1); // next_track_ID
+            if (a.trackDuration > v.trackDuration) {
+                putDuration(moov, mvhd, a.trackDuration);
+            }
+
+            if (v.fragmented) {
+                write(out, ByteBuffer.wrap(v.ftypBytes));
+                write(out, moov.clear());
+                interleaveFragments(v, a, out);
+            } else {
+                long position = v.ftyp.size() + moov.capacity();
+                long[] videoOffsets = layout(v, position);
+                position += v.mediaBytes;
+                long[] audioOffsets = layout(a, position);
+                Mp4FastStart.patchChunkOffsets(moov, videoTrakAt, videoTrakAt + v.trak.size,
+                        Mp4FastStart.boxMap(v.boxes, videoOffsets));
+                Mp4FastStart.patchChunkOffsets(moov, audioTrakAt, audioTrakAt + a.trak.size,
+                        Mp4FastStart.boxMap(a.boxes, audioOffsets));
+                write(out, ByteBuffer.wrap(v.ftypBytes));
+                write(out, moov.clear());
+                copyMedia(v, out);
+                copyMedia(a, out);
+            }
+        }
+    }
+
+    /** Gives each media box of a regular input its output offset, -1 for ftyp/moov. */
+    private static long[] layout(Input in, long position) {
+        long[] offsets = new long[in.boxes.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            MediaValidator.Mp4Box box = in.boxes.get(i);
+            if (isMedia(box)) {
+                offsets[i] = position;
+                position += box.size();
+            } else {
+                offsets[i] = -1;
+            }
+        }
+        return offsets;
+    }
+
+    private static void copyMedia(Input in, FileChannel out) throws IOException {
+        for (MediaValidator.Mp4Box box : in.boxes) {
+            if (isMedia(box)) {
+                Mp4FastStart.copy(in.channel, box.offset(), box.size(), out);
+            }
+        }
+    }
+
+    private static boolean isMedia(MediaValidator.Mp4Box box) {
+        return !box.type().equals("ftyp") && !box.type().equals("moov");
+    }
+
+    /** Merges the two fragment lists by start time, renumbering moofs as they are written. */
+    private static void interleaveFragments(Input v, Input a, FileChannel out) throws IOException {
+        List<Fragment> videoFragments = v.fragments();
+        List<Fragment> audioFragments = a.fragments();
+        int vi = 0;
+        int ai = 0;
+        int sequence = 1;
+        while (vi < videoFragments.size() || ai < audioFragments.size()) {
+            boolean takeVideo = ai >= audioFragments.size() || (vi < videoFragments.size()
+                    && videoFragments.get(vi).startSeconds <= audioFragments.get(ai).startSeconds);
+            Fragment fragment = takeVideo ? videoFragments.get(vi++) : audioFragments.get(ai++);
+            Input in = takeVideo ? v : a;
+
+            ByteBuffer moof = in.readBox(fragment.moof);
+            long shift = out.position() - fragment.moof.offset();
+            for (Box box : children(moof, 8, moof.capacity())) {
+                if (box.type.equals("mfhd")) {
+                    moof.putInt(box.content() + 4, sequence++);
+                } else if (box.type.equals("traf")) {
+                    Box tfhd = child(moof, box, "tfhd");
+                    if (tfhd == null) {
+                        throw new InvalidMediaException("Corrupt MP4: traf without tfhd");
+                    }
+                    moof.putInt(tfhd.content() + 4, in.trackId);
+                    if ((moof.getInt(tfhd.content()) & 0x000001) != 0) { // base-data-offset-present
+                        moof.putLong(tfhd.content() + 8, moof.getLong(tfhd.content() + 8) + shift);
+                    }
+                }
+            }
+            write(out, moof.clear());
+            long dataStart = fragment.moof.offset() + fragment.moof.size();
+            Mp4FastStart.copy(in.channel, dataStart, fragment.end - dataStart, out);
+        }
+    }
+
+    /** A moof and the mdat boxes directly after it. */
+    private record Fragment(MediaValidator.Mp4Box moof, long end, double startSeconds) {
+    }
+
+    /** A box inside an in-memory moov or moof. */
+    private record Box(String type, int offset, int size, int header) {
+        int content() {
+            return offset + header;
+        }
+
+        int end() {
+            return offset + size;
+        }
+    }
+
+    /** One input file: its top-level boxes, its moov in memory, and the track being kept. */
+    private static final class Input {
+        final FileChannel channel;
+        final List<MediaValidator.Mp4Box> boxes;
+        final MediaValidator.Mp4Box ftyp;
+        final byte[] ftypBytes;
+        final ByteBuffer moov;
+        final Box mvhd;
+        final Box trak;
+        final Box trex;
+        final int trackId;
+        final boolean fragmented;
+        final long movieTimescale;
+        final long mediaTimescale;
+        final long mediaBytes;
+        long trackDuration;
+
+        private Input(FileChannel channel, List<MediaValidator.Mp4Box> boxes, MediaValidator.Mp4Box ftyp,
+                byte[] ftypBytes, ByteBuffer moov, Box mvhd, Box trak, Box trex, int trackId, boolean fragmented,
+                long movieTimescale, long mediaTimescale, long mediaBytes, long trackDuration) {
+            this.channel = channel;
+            this.boxes = boxes;
+            this.ftyp = ftyp;
+            this.ftypBytes = ftypBytes;
+            this.moov = moov;
+            this.mvhd = mvhd;
+            this.trak = trak;
+            this.trex = trex;
+            this.trackId = trackId;
+            this.fragmented = fragmented;
+            this.movieTimescale = movieTimescale;
+            this.mediaTimescale = mediaTimescale;
+            this.mediaBytes = mediaBytes;
+            this.trackDuration = trackDuration;
+        }
+
+        /**
+         * Reads the index of {@code channel}, picks its first track with the
+         * given handler ("vide"/"soun") and renumbers it to {@code trackId}.
+         */
+        static Input read(FileChannel channel, String handler, int trackId) throws IOException {
+            List<MediaValidator.Mp4Box> boxes = MediaValidator.checkMp4Boxes(channel);
+            MediaValidator.Mp4Box ftyp = null;
+            MediaValidator.Mp4Box moovBox = null;
+            boolean fragmented = false;
+            long mediaBytes = 0;
+            for (MediaValidator.Mp4Box box : boxes) {
+                switch (box.type()) {
+                    case "ftyp" -> ftyp = box;
+                    case "moov" -> moovBox = box;
+                    case "moof" -> fragmented = true;
+                    default -> {
+                    }
+                }
+                if (isMedia(box)) {
+                    mediaBytes += box.size();
+                }
+            }
+            if (ftyp == null) {
+                throw new InvalidMediaException("Corrupt MP4: no ftyp box");
+            }
+            byte[] ftypBytes = Mp4Muxer.readBox(channel, ftyp).array();
+            ByteBuffer moov = Mp4Muxer.readBox(channel, moovBox);
+            int moovHeader = moov.getInt(0) == 1 ? 16 : 8;
+
+            Box mvhd = null;
+            Box trak = null;
+            Box trex = null;
+            Box moovRoot = new Box("moov", 0, moov.capacity(), moovHeader);
+            for (Box box : children(moov, moovRoot)) {
+                if (box.type.equals("mvhd")) {
+                    mvhd = box;
+                } else if (box.type.equals("trak") && trak == null) {
+                    Box hdlr = path(moov, box, "mdia", "hdlr");
+                    if (hdlr != null && handler.equals(new String(moov.array(), hdlr.content() + 8, 4,
+                            StandardCharsets.ISO_8859_1))) {
+                        trak = box;
+                    }
+                }
+            }
+            if (mvhd == null || trak == null) {
+                throw new InvalidMediaException("Expected a " + ("vide".equals(handler) ? "video" : "audio")
+                        + " track in the MP4 but found none");
+            }
+            Box tkhd = child(moov, trak, "tkhd");
+            Box mdhd = path(moov, trak, "mdia", "mdhd");
+            if (tkhd == null || mdhd == null) {
+                throw new InvalidMediaException("Corrupt MP4: track without tkhd/mdhd");
+            }
+            boolean tkhdV1 = moov.get(tkhd.content()) == 1;
+            int trackIdAt = tkhd.content() + (tkhdV1 ? 20 : 12);
+            int oldTrackId = moov.getInt(trackIdAt);
+            moov.putInt(trackIdAt, trackId);
+            if (fragmented) {
+                Box mvex = child(moov, moovRoot, "mvex");
+                if (mvex != null) {
+                    for (Box box : children(moov, mvex)) {
+                        if (box.type.equals("trex") && moov.getInt(box.content() + 4) == oldTrackId) {
+                            trex = box;
+                        }
+                    }
+                }
+                if (trex == null) {
+                    throw new InvalidMediaException("Corrupt MP4: fragmented file without trex for its track");
+                }
+                moov.putInt(trex.content() + 4, trackId);
+            }
+            return new Input(channel, boxes, ftyp, ftypBytes, moov, mvhd, trak, trex, trackId, fragmented,
+                    timescale(moov, mvhd), timescale(moov, mdhd), mediaBytes,
+                    tkhdV1 ? moov.getLong(tkhd.content() + 28) : moov.getInt(tkhd.content() + 20) & 0xFFFFFFFFL);
+        }
+
+        /**
+         * Converts the tkhd duration and edit list segment durations, which
+         * are in this file's movie timescale, to the output's.
+         */
+        void rescaleTrackDuration(long outputTimescale) throws InvalidMediaException {
+            if (outputTimescale == movieTimescale) {
+                return;
+            }
+            Box tkhd = child(moov, trak, "tkhd");
+            boolean v1 = moov.get(tkhd.content()) == 1;
+            trackDuration = trackDuration * outputTimescale / movieTimescale;
+            if (v1) {
+                moov.putLong(tkhd.content() + 28, trackDuration);
+            } else {
+                moov.putInt(tkhd.content() + 20, (int) trackDuration);
+            }
+            Box elst = path(moov, trak, "edts", "elst");
+            if (elst != null) {
+                boolean elstV1 = moov.get(elst.content()) == 1;
+                long count = moov.getInt(elst.content() + 4) & 0xFFFFFFFFL;
+                int entry = elst.content() + 8;
+                for (int i = 0; i < count && entry + (elstV1 ? 20 : 12) <= elst.end(); i++) {
+                    if (elstV1) {
+                        moov.putLong(entry, moov.getLong(entry) * outputTimescale / movieTimescale);
+                        entry += 20;
+                    } else {
+                        long duration = moov.getInt(entry) & 0xFFFFFFFFL;
+                        moov.putInt(entry, (int) (duration * outputTimescale / movieTimescale));
+                        entry += 12;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Each moof with the mdat boxes right after it, timed by its tfdt.
+         * Fragments without a tfdt are timed by their index, so the two
+         * tracks alternate.
+         */
+        List<Fragment> fragments() throws IOException {
+            List<Fragment> fragments = new ArrayList<>();
+            for (int i = 0; i < boxes.size(); i++) {
+                MediaValidator.Mp4Box moof = boxes.get(i);
+                if (!moof.type().equals("moof")) {
+                    continue;
+                }
+                long end = moof.offset() + moof.size();
+                while (i + 1 < boxes.size() && boxes.get(i + 1).type().equals("mdat")) {
+                    MediaValidator.Mp4Box mdat = boxes.get(++i);
+                    end = mdat.offset() + mdat.size();
+                }
+                ByteBuffer bytes = readBox(moof);
+                double start = fragments.size();
+                Box root = new Box("moof", 0, bytes.capacity(), 8);
+                Box tfdt = path(bytes, root, "traf", "tfdt");
+                if (tfdt != null) {
+                    long decodeTime = bytes.get(tfdt.content()) == 1 ? bytes.getLong(tfdt.content() + 4)
+                            : bytes.getInt(tfdt.content() + 4) & 0xFFFFFFFFL;
+                    start = (double) decodeTime / mediaTimescale;
+                }
+                fragments.add(new Fragment(moof, end, start));
+            }
+            return fragments;
+        }
+
+        ByteBuffer readBox(MediaValidator.Mp4Box box) throws IOException {
+            return Mp4Muxer.readBox(channel, box);
+        }
+    }
+
+    private static ByteBuffer readBox(FileChannel channel, MediaValidator.Mp4Box box) throws IOException {
+        if (box.size() > MAX_INDEX_BYTES) {
+            throw new IOException("'" + box.type() + "' box of " + box.size() + " bytes is too large to load");
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) box.size());
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, box.offset() + bytes.position()) == -1) {
+                throw new InvalidMediaException("Truncated MP4: '" + box.type() + "' box cut off");
+            }
+        }
+        return bytes;
+    }
+
+    private static long timescale(ByteBuffer buffer, Box fullBox) {
+        boolean v1 = buffer.get(fullBox.content()) == 1;
+        return buffer.getInt(fullBox.content() + (v1 ? 20 : 12)) & 0xFFFFFFFFL;
+    }
+
+    private static void putDuration(ByteBuffer buffer, Box fullBox, long duration) {
+        if (buffer.get(fullBox.content()) == 1) {
+            buffer.putLong(fullBox.content() + 24, duration);
+        } else {
+            buffer.putInt(fullBox.content() + 16, (int) Math.min(duration, 0xFFFFFFFFL));
+        }
+    }
+
+    private static List<Box> children(ByteBuffer buffer, Box parent) throws InvalidMediaException {
+        return children(buffer, parent.content(), parent.end());
+    }
+
+    private static List<Box> children(ByteBuffer buffer, int start, int end) throws InvalidMediaException {
+        List<Box> boxes = new ArrayList<>();
+        int position = start;
+        while (position + 8 <= end) {
+            long size = buffer.getInt(position) & 0xFFFFFFFFL;
+            String type = new String(buffer.array(), position + 4, 4, StandardCharsets.ISO_8859_1);
+            int header = 8;
+            if (size == 1) {
+                size = buffer.getLong(position + 8);
+                header = 16;
+            } else if (size == 0) {
+                size = end - position;
+            }
+            if (size < header || size > end - position) {
+                throw new InvalidMediaException("Corrupt MP4: bad '" + type + "' box");
+            }
+            boxes.add(new Box(type, position, (int) size, header));
+            position += (int) size;
+        }
+        return boxes;
+    }
+
+    private static Box child(ByteBuffer buffer, Box parent, String type) throws InvalidMediaException {
+        for (Box box : children(buffer, parent)) {
+            if (box.type.equals(type)) {
+                return box;
+            }
+        }
+        return null;
+    }
+
+    private static Box path(ByteBuffer buffer, Box parent, String... types) throws InvalidMediaException {
+        Box box = parent;
+        for (String type : types) {
+            box = child(buffer, box, type);
+            if (box == null) {
+                return null;
+            }
+        }
+        return box;
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
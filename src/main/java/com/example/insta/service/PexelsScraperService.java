@@ -1,14 +1,8 @@
 package com.example.insta.service;
 
-import io.github.bonigarcia.wdm.WebDriverManager;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.openqa.selenium.Cookie;
-import org.openqa.selenium.JavascriptExecutor;
-import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.chrome.ChromeOptions;
 import org.springframework.stereotype.Service;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -17,13 +11,20 @@ import java.io.IOException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 @Service
 public class PexelsScraperService {
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String SITE = "pexels";
+
+    private final BrowserEngine browserEngine;
+    private final MediaMetrics metrics;
+
+    public PexelsScraperService(BrowserEngine browserEngine, MediaMetrics metrics) {
+        this.browserEngine = browserEngine;
+        this.metrics = metrics;
+    }
 
     public static class ExtractionResult {
         public String html;
@@ -32,41 +33,30 @@ public class PexelsScraperService {
     }
 
     private ExtractionResult getPageContentWithSelenium(String url) {
-        WebDriverManager.chromedriver().setup();
-        ChromeOptions options = new ChromeOptions();
-        options.addArguments("--headless=new");
-        options.addArguments("--disable-blink-features=AutomationControlled");
-        options.addArguments("--disable-extensions");
-        options.addArguments("--no-sandbox");
-        options.addArguments("--disable-dev-shm-usage");
-        options.addArguments(
+        List<String> arguments = List.of(
+                "--headless=new",
+                "--disable-blink-features=AutomationControlled",
+                "--disable-extensions",
+                "--no-sandbox",
+                "--disable-dev-shm-usage",
                 "user-agent=Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/121.0.0.0 Safari/537.36");
 
-        WebDriver driver = new ChromeDriver(options);
-        try {
-            driver.manage().timeouts().pageLoadTimeout(Duration.ofSeconds(30));
-            driver.get(url);
+        BrowserPage page = browserEngine.open(SITE, arguments, false);
+        try (page) {
+            metrics.time(SITE, MediaMetrics.Stage.PAGE_LOAD, () -> page.navigate(url, Duration.ofSeconds(30)));
             Thread.sleep(2000);
 
             ExtractionResult result = new ExtractionResult();
-            result.html = driver.getPageSource();
+            result.html = page.html();
 
-            Set<Cookie> seleniumCookies = driver.manage().getCookies();
-            result.cookies = seleniumCookies.stream()
-                    .map(c -> c.getName() + "=" + c.getValue())
-                    .collect(Collectors.joining("; "));
+            result.cookies = page.cookieHeader();
 
-            JavascriptExecutor js = (JavascriptExecutor) driver;
-            result.userAgent = (String) js.executeScript("return navigator.userAgent;");
+            result.userAgent = (String) page.evaluate("navigator.userAgent");
 
             return result;
         } catch (Exception e) {
-            System.err.println("Selenium error: " + e.getMessage());
+            System.err.println(browserEngine.name() + " error: " + e.getMessage());
             return null;
-        } finally {
-            if (driver != null) {
-                driver.quit();
-            }
         }
     }
 
@@ -79,19 +69,13 @@ public class PexelsScraperService {
         if (result == null || result.html == null)
             throw new IOException("Failed to load Pexels page with Selenium.");
 
+        long stepStart = System.nanoTime();
         Document doc = Jsoup.parse(result.html);
 
-        for (Element script : doc.select("script[type=application/ld+json]")) {
-            String jsonContent = script.data();
-            try {
-                JsonNode root = objectMapper.readTree(jsonContent);
-                if (root.has("@type") && root.get("@type").asText().equals("VideoObject")) {
-                    if (root.has("contentUrl")) {
-                        return root.get("contentUrl").asText();
-                    }
-                }
-            } catch (Exception e) {
-            }
+        String contentUrl = findContentUrl(doc);
+        metrics.recordExtraction(SITE, "json_ld", stepStart, contentUrl != null);
+        if (contentUrl != null) {
+            return contentUrl;
         }
         throw new IOException("Could not find video content URL in the page source.");
     }
@@ -101,6 +85,7 @@ public class PexelsScraperService {
         if (result == null || result.html == null)
             throw new IOException("Failed to load Pexels page with Selenium.");
 
+        long stepStart = System.nanoTime();
         Document doc = Jsoup.parse(result.html);
         ScrapedInfo info = new ScrapedInfo();
         info.setTitle(doc.title());
@@ -108,10 +93,34 @@ public class PexelsScraperService {
         info.setUserAgent(result.userAgent);
         info.setOriginUrl(pexelsUrl);
 
+        readVideoObject(doc, info);
+        metrics.recordExtraction(SITE, "json_ld", stepStart, info.getVideoUrl() != null);
+        return info;
+    }
+
+    /** contentUrl of the first JSON-LD VideoObject on the page, or null. */
+    public static String findContentUrl(Document doc) {
         for (Element script : doc.select("script[type=application/ld+json]")) {
             String jsonContent = script.data();
             try {
-                JsonNode root = objectMapper.readTree(jsonContent);
+                JsonNode root = OBJECT_MAPPER.readTree(jsonContent);
+                if (root.has("@type") && root.get("@type").asText().equals("VideoObject")) {
+                    if (root.has("contentUrl")) {
+                        return root.get("contentUrl").asText();
+                    }
+                }
+            } catch (Exception e) {
+            }
+        }
+        return null;
+    }
+
+    /** Fills video URL, thumbnail, description and author from the page's JSON-LD VideoObject. */
+    public static void readVideoObject(Document doc, ScrapedInfo info) {
+        for (Element script : doc.select("script[type=application/ld+json]")) {
+            String jsonContent = script.data();
+            try {
+                JsonNode root = OBJECT_MAPPER.readTree(jsonContent);
                 if (root.has("@type") && root.get("@type").asText().equals("VideoObject")) {
                     if (root.has("contentUrl"))
                         info.setVideoUrl(root.get("contentUrl").asText());
@@ -126,7 +135,6 @@ public class PexelsScraperService {
             } catch (Exception e) {
             }
         }
-        return info;
     }
 
     public static class ScrapedInfo {
@@ -0,0 +1,82 @@
+package com.example.insta.service;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Pages through an infinitely scrolling profile grid in an open browser,
+ * collecting post links newest first until it reaches an already-synced
+ * post. Only as many pages are loaded as there is new content. Posts synced
+ * by an earlier capped sync are passed over on the way down.
+ */
+final class ProfileFeedPager {
+
+    /** Pinned posts shown before the newest ones; old posts here are skipped, not a stop signal. */
+    static final int PINNED_SLOTS = 3;
+
+    private static final int MAX_IDLE_SCROLLS = 3;
+    private static final long SCROLL_PAUSE_MILLIS = 2000;
+
+    private ProfileFeedPager() {
+    }
+
+    /**
+     * @param linkSelector CSS selector for post links in the grid
+     * @param canonical    maps a link to its canonical post URL, or null to
+     *                     ignore it
+     * @param isOld        true for posts at or before the checkpoint
+     * @param isSynced     true for newer posts that are already synced;
+     *                     skipped rather than treated as the stopping point
+     * @param pinnedSlots  how many leading posts may be old pinned posts
+     * @param maxPosts     cap on the number of new posts returned
+     */
+    static List<String> collect(WebDriver driver, String linkSelector, Function<String, String> canonical,
+            Predicate<String> isOld, Predicate<String> isSynced, int pinnedSlots, int maxPosts)
+            throws InterruptedException {
+        JavascriptExecutor js = (JavascriptExecutor) driver;
+        Set<String> seen = new HashSet<>();
+        List<String> newPosts = new ArrayList<>();
+        int position = 0;
+        int idleScrolls = 0;
+
+        while (newPosts.size() < maxPosts && idleScrolls < MAX_IDLE_SCROLLS) {
+            Object links = js.executeScript(
+                    "return Array.from(document.querySelectorAll(arguments[0])).map(a => a.href);", linkSelector);
+            boolean grew = false;
+            if (links instanceof List<?> hrefs) {
+                for (Object href : hrefs) {
+                    String url = href != null ? canonical.apply(href.toString()) : null;
+                    if (url == null || !seen.add(url)) {
+                        continue;
+                    }
+                    grew = true;
+                    position++;
+                    if (isSynced.test(url)) {
+                        continue;
+                    }
+                    if (isOld.test(url)) {
+                        if (position <= pinnedSlots) {
+                            continue;
+                        }
+                        return newPosts; // reached the checkpoint
+                    }
+                    newPosts.add(url);
+                    if (newPosts.size() >= maxPosts) {
+                        return newPosts;
+                    }
+                }
+            }
+            idleScrolls = grew ? 0 : idleScrolls + 1;
+            js.executeScript("window.scrollTo(0, document.body.scrollHeight);");
+            Thread.sleep(SCROLL_PAUSE_MILLIS);
+        }
+        return newPosts;
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.insta.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Byte-counting sink: forwards writes to the real destination (file, ZIP
+ * entry, HTTP response) and reports each write to a {@link DownloadProgress}.
+ * Closing it does not close the delegate.
+ */
+public class ProgressChannel implements WritableByteChannel {
+
+    private final WritableByteChannel delegate;
+    private final DownloadProgress progress;
+
+    public ProgressChannel(WritableByteChannel delegate, DownloadProgress progress) {
+        this.delegate = delegate;
+        this.progress = progress;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = delegate.write(src);
+        if (written > 0) {
+            progress.addBytes(written);
+        }
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return delegate.isOpen();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.insta.service;
+
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.Buffer;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Fetches the segments of a {@link StreamManifest.Track} in parallel and
+ * writes them to one file in playback order.
+ *
+ * Up to {@code window} segments are in flight at once. The file is written
+ * strictly in order: segment i is appended as soon as it and everything
+ * before it have arrived, and its slot in the window is refilled with
+ * segment i + window. Memory is therefore bounded by the window, and a slow
+ * segment only stalls the writer, not the fetches behind it. A failed
+ * segment is retried on its own with exponential backoff.
+ */
+final class SegmentedDownloader {
+
+    private static final long RETRY_BACKOFF_MILLIS = 250;
+    private static final byte TS_SYNC_BYTE = 0x47;
+
+    /** Takes a per-host permit for a segment request; the caller releases it. */
+    @FunctionalInterface
+    interface Permits {
+        Semaphore acquire(String url) throws InterruptedException;
+    }
+
+    private final OkHttpClient client;
+    private final ExecutorService executor;
+    private final MediaBufferPool bufferPool;
+    private final MediaMetrics metrics;
+    private final Permits permits;
+    private final int window;
+    private final int retries;
+
+    SegmentedDownloader(OkHttpClient client, ExecutorService executor, MediaBufferPool bufferPool,
+            MediaMetrics metrics, Permits permits, int window, int retries) {
+        this.client = client;
+        this.executor = executor;
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+        this.permits = permits;
+        this.window = Math.max(1, window);
+        this.retries = Math.max(0, retries);
+    }
+
+    /**
+     * Downloads every segment of {@code track} into {@code target}; the file
+     * is deleted if any segment fails for good.
+     *
+     * @return the number of bytes written
+     */
+    long download(String site, StreamManifest.Track track, Path target, Headers headers, DownloadProgress progress)
+            throws Exception {
+        List<StreamManifest.Segment> segments = track.segments();
+        Deque<Future<Buffer>> inFlight = new ArrayDeque<>();
+        int next = 0;
+        long written = 0;
+        boolean complete = false;
+        long writeStart = System.nanoTime();
+        try (FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            WritableByteChannel out = new ProgressChannel(file, progress);
+            for (int i = 0; i < segments.size(); i++) {
+                while (next < segments.size() && next < i + window) {
+                    StreamManifest.Segment segment = segments.get(next);
+                    int index = next++;
+                    inFlight.add(executor.submit(() -> fetch(site, segment, index, headers)));
+                }
+                Buffer body = await(inFlight.removeFirst());
+                if (i == 0) {
+                    checkFirstSegment(body, track);
+                }
+                written += bufferPool.copy(body, out);
+            }
+            complete = true;
+        } finally {
+            for (Future<Buffer> pending : inFlight) {
+                pending.cancel(true);
+            }
+            metrics.record(site, MediaMetrics.Stage.DISK_WRITE, writeStart, complete);
+            if (!complete) {
+                Files.deleteIfExists(target);
+            }
+        }
+        metrics.addBytes(site, "disk", written);
+        return written;
+    }
+
+    /** One segment, retried up to {@code retries} times on I/O errors, 408, 429 and 5xx. */
+    private Buffer fetch(String site, StreamManifest.Segment segment, int index, Headers headers) throws Exception {
+        Request.Builder builder = new Request.Builder().url(segment.url()).headers(headers);
+        if (segment.length() >= 0) {
+            builder.header("Range", "bytes=" + segment.offset() + "-" + (segment.offset() + segment.length() - 1));
+        }
+        Request request = builder.build();
+        for (int attempt = 0;; attempt++) {
+            IOException failure;
+            boolean retryable = true;
+            Semaphore permit = permits.acquire(segment.url());
+            long fetchStart = System.nanoTime();
+            try (Response response = client.newCall(request).execute()) {
+                metrics.record(site, MediaMetrics.Stage.CDN_FETCH, fetchStart, response.isSuccessful());
+                if (response.isSuccessful() && response.body() != null) {
+                    if (segment.length() >= 0 && response.code() != 206) {
+                        throw new InvalidMediaException("Segment " + index + ": range request answered with "
+                                + response.code());
+                    }
+                    Buffer body = new Buffer();
+                    response.body().source().readAll(body);
+                    MediaValidator.checkLength(body.size(), response.body().contentLength(), "segment " + index);
+                    return body;
+                }
+                int code = response.code();
+                failure = new IOException("Segment " + index + " failed with HTTP " + code + " " + response.message());
+                retryable = code == 408 || code == 429 || code >= 500;
+            } catch (InvalidMediaException e) {
+                throw e;
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                permit.release();
+            }
+            if (!retryable || attempt >= retries) {
+                throw failure;
+            }
+            Thread.sleep(RETRY_BACKOFF_MILLIS << attempt);
+        }
+    }
+
+    /** Rejects an error page before anything else is written. */
+    private static void checkFirstSegment(Buffer body, StreamManifest.Track track) throws IOException {
+        byte[] head = body.peek().readByteArray(Math.min(MediaValidator.SNIFF_BYTES, body.size()));
+        if (track.fragmentedMp4()) {
+            MediaValidator.require(head, head.length, EnumSet.of(MediaValidator.Kind.MP4), "an MP4 segment", null);
+        } else if (head.length == 0 || head[0] != TS_SYNC_BYTE) {
+            throw new InvalidMediaException(
+                    "Expected an MPEG-TS segment. The URL may have expired or access was denied.");
+        }
+    }
+
+    private static Buffer await(Future<Buffer> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+}
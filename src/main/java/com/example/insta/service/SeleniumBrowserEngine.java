@@ -0,0 +1,95 @@
+package com.example.insta.service;
+
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.logging.LogType;
+import org.openqa.selenium.logging.LoggingPreferences;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/** {@link BrowserEngine} over chromedriver (the default). */
+public class SeleniumBrowserEngine implements BrowserEngine {
+
+    private final ChromeDriverFactory chromeDriverFactory;
+
+    public SeleniumBrowserEngine(ChromeDriverFactory chromeDriverFactory) {
+        this.chromeDriverFactory = chromeDriverFactory;
+    }
+
+    @Override
+    public String name() {
+        return "selenium";
+    }
+
+    @Override
+    public BrowserPage open(String site, List<String> arguments, boolean performanceLog) {
+        ChromeOptions options = new ChromeOptions();
+        options.addArguments(arguments);
+        if (performanceLog) {
+            LoggingPreferences logPrefs = new LoggingPreferences();
+            logPrefs.enable(LogType.PERFORMANCE, Level.ALL);
+            options.setCapability("goog:loggingPrefs", logPrefs);
+        }
+        return new Page(chromeDriverFactory.create(site, options));
+    }
+
+    private final class Page implements BrowserPage {
+        private final WebDriver driver;
+        private boolean detached;
+
+        Page(WebDriver driver) {
+            this.driver = driver;
+        }
+
+        @Override
+        public void navigate(String url, Duration timeout) {
+            driver.manage().timeouts().pageLoadTimeout(timeout);
+            driver.get(url);
+        }
+
+        @Override
+        public String html() {
+            return driver.getPageSource();
+        }
+
+        @Override
+        public String currentUrl() {
+            return driver.getCurrentUrl();
+        }
+
+        @Override
+        public String title() {
+            return driver.getTitle();
+        }
+
+        @Override
+        public String cookieHeader() {
+            return driver.manage().getCookies().stream()
+                    .map((Cookie c) -> c.getName() + "=" + c.getValue())
+                    .collect(Collectors.joining("; "));
+        }
+
+        @Override
+        public Object evaluate(String expression) {
+            return ((JavascriptExecutor) driver).executeScript("return " + expression + ";");
+        }
+
+        @Override
+        public WebDriver detach() {
+            detached = true;
+            return driver;
+        }
+
+        @Override
+        public void close() {
+            if (!detached) {
+                chromeDriverFactory.quit(driver);
+            }
+        }
+    }
+}
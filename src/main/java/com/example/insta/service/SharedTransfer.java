@@ -0,0 +1,238 @@
+package com.example.insta.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One upstream video transfer that any number of requests for the same
+ * media can share, so the CDN is read once however many clients ask.
+ *
+ * The request that starts the transfer writes the file through
+ * {@link #tee}; every write advances the committed length and wakes the
+ * readers. Other requests either {@link #await} the finished file or
+ * {@link #streamTo stream} the growing file to their client, reading behind
+ * the writer and parking until more bytes land. A lock and condition are
+ * used rather than monitors so parked readers do not pin virtual-thread
+ * carriers.
+ */
+public class SharedTransfer {
+
+    private static final long MAX_TRANSFER_CHUNK = 1024 * 1024;
+
+    private final String videoUrl;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final List<DownloadProgress> followers = new CopyOnWriteArrayList<>();
+
+    private Path file;
+    private long expectedLength = -1;
+    private long committed;
+    private boolean bytesComplete;
+    private boolean finished;
+    private Path result;
+    private Throwable failure;
+
+    SharedTransfer(String videoUrl) {
+        this.videoUrl = videoUrl;
+    }
+
+    public String getVideoUrl() {
+        return videoUrl;
+    }
+
+    /** Called once the file exists: readers may open it from here on. */
+    void begin(Path file, long expectedLength) {
+        lock.lock();
+        try {
+            this.file = file;
+            this.expectedLength = expectedLength;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (DownloadProgress follower : followers) {
+            follower.setTotalBytes(expectedLength);
+        }
+    }
+
+    /** Wraps the writer's sink so every byte written is published to the readers. */
+    WritableByteChannel tee(WritableByteChannel sink) {
+        return new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                int written = sink.write(src);
+                if (written > 0) {
+                    advance(written);
+                }
+                return written;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return sink.isOpen();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private void advance(long count) {
+        long total;
+        lock.lock();
+        try {
+            committed += count;
+            total = committed;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (DownloadProgress follower : followers) {
+            follower.setBytesTransferred(total);
+        }
+    }
+
+    /** All bytes are written and checked; the file may be rewritten (faststart) from here on. */
+    void bytesComplete() {
+        lock.lock();
+        try {
+            bytesComplete = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void finish(Path result) {
+        lock.lock();
+        try {
+            this.result = result;
+            finished = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void fail(Throwable failure) {
+        lock.lock();
+        try {
+            this.failure = failure;
+            finished = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the transfer to finish and returns its file, reporting the
+     * bytes as they land to {@code progress}.
+     */
+    Path await(DownloadProgress progress) throws IOException, InterruptedException {
+        followers.add(progress);
+        lock.lock();
+        try {
+            progress.setTotalBytes(expectedLength);
+            progress.setBytesTransferred(committed);
+            while (!finished) {
+                changed.await();
+            }
+            if (failure instanceof UrlExpiredException) {
+                // Lets the joiner re-resolve the URL like the request that started the transfer
+                throw new UrlExpiredException("Shared download failed: " + failure.getMessage());
+            }
+            if (failure != null) {
+                throw new IOException("Shared download failed: " + failure.getMessage(), failure);
+            }
+            return result;
+        } finally {
+            lock.unlock();
+            followers.remove(progress);
+        }
+    }
+
+    /** File name of the download, waiting until the upstream response has arrived. */
+    public String awaitFileName() throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            while (file == null && !finished) {
+                changed.await();
+            }
+            checkFailure();
+            return (file != null ? file : result).getFileName().toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Final size if the CDN announced it, else -1. Only meaningful after {@link #awaitFileName}. */
+    public long getExpectedLength() {
+        lock.lock();
+        try {
+            return expectedLength;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies the file to {@code out} while it is still being written,
+     * blocking whenever the reader catches up with the writer.
+     *
+     * @return the number of bytes copied
+     * @throws IOException if the upstream transfer fails meanwhile
+     */
+    public long streamTo(WritableByteChannel out) throws IOException, InterruptedException {
+        FileChannel channel;
+        boolean follow;
+        lock.lock();
+        try {
+            while (file == null && !finished) {
+                changed.await();
+            }
+            checkFailure();
+            // Opened under the lock: while the bytes are incomplete nothing can replace the
+            // file, so the channel sees the same inode the writer appends to
+            follow = !bytesComplete;
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        } finally {
+            lock.unlock();
+        }
+        try (channel) {
+            long position = 0;
+            while (true) {
+                long limit;
+                lock.lock();
+                try {
+                    while (follow && position >= committed && !bytesComplete && failure == null) {
+                        changed.await();
+                    }
+                    checkFailure();
+                    limit = follow ? committed : channel.size();
+                } finally {
+                    lock.unlock();
+                }
+                if (position >= limit) {
+                    return position;
+                }
+                position += channel.transferTo(position, Math.min(limit - position, MAX_TRANSFER_CHUNK), out);
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Shared download failed: " + failure.getMessage(), failure);
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.example.insta.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the signed CDN URLs we hand out (cdninstagram/fbcdn, TikTok) usable
+ * after they expire.
+ *
+ * Every media URL a scrape returns is remembered together with its post and
+ * the expiry parsed out of it ({@code oe=}, {@code expire=},
+ * {@code x-expires=}). Posts whose URLs are within
+ * {@code app.signed-urls.refresh-ahead-seconds} of expiring are re-scraped
+ * in the background, in the BROWSER lane when it is idle, and the fresh URLs
+ * replace the old ones. A download given any URL of the post, old or new,
+ * is switched to the current one by {@link #current}, and a URL the CDN
+ * still rejects is re-resolved once on the spot by {@link #reresolve}.
+ *
+ * Posts are followed for {@code app.signed-urls.track-seconds} after their
+ * URLs were last handed out or used. Only anonymous scrapes are kept: a
+ * scrape made with the user's own cookies cannot be repeated without them.
+ */
+@Component
+@Slf4j
+public class SignedUrlRegistry {
+
+    /** A usable URL for a media item and the session (cookies, user agent) it is valid with. */
+    public record Resolved(String url, String cookies, String userAgent) {
+    }
+
+    private record Slot(Post post, int index) {
+    }
+
+    private static final Pattern INSTAGRAM_EXPIRY = Pattern.compile("[?&]oe=([0-9A-Fa-f]{6,10})(?:&|$)");
+    private static final Pattern EXPIRY = Pattern.compile("[?&/](?:x-)?expires?[=/](\\d{9,11})(?:[&/]|$)");
+    private static final long EXPIRED_GRACE_MILLIS = 5_000;
+    private static final long RETRY_MILLIS = 60_000;
+
+    private final TikTokScraperService tiktokScraperService;
+    private final InstagramScraperService instagramScraperService;
+    private final LaneScheduler laneScheduler;
+    private final MediaMetrics metrics;
+    private final ExecutorService executor;
+    private final boolean enabled;
+    private final long refreshAheadMillis;
+    private final long trackMillis;
+    private final Semaphore refreshSlots;
+
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    private final Map<String, Post> posts = new ConcurrentHashMap<>();
+    private final LongAdder proactive = new LongAdder();
+    private final LongAdder reactive = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("signed-url-refresher").daemon().factory());
+
+    public SignedUrlRegistry(TikTokScraperService tiktokScraperService,
+            InstagramScraperService instagramScraperService, LaneScheduler laneScheduler, MediaMetrics metrics,
+            @Qualifier("mediaTaskExecutor") ExecutorService executor,
+            @Value("${app.signed-urls.enabled:true}") boolean enabled,
+            @Value("${app.signed-urls.refresh-ahead-seconds:600}") long refreshAheadSeconds,
+            @Value("${app.signed-urls.track-seconds:3600}") long trackSeconds,
+            @Value("${app.signed-urls.max-concurrent-refreshes:1}") int maxConcurrentRefreshes) {
+        this.tiktokScraperService = tiktokScraperService;
+        this.instagramScraperService = instagramScraperService;
+        this.laneScheduler = laneScheduler;
+        this.metrics = metrics;
+        this.executor = executor;
+        this.enabled = enabled;
+        this.refreshAheadMillis = TimeUnit.SECONDS.toMillis(refreshAheadSeconds);
+        this.trackMillis = TimeUnit.SECONDS.toMillis(trackSeconds);
+        this.refreshSlots = new Semaphore(Math.max(1, maxConcurrentRefreshes));
+        reaper.scheduleWithFixedDelay(this::refreshExpiring, 15, 15, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Remembers the media URLs a scrape of {@code postUrl} produced. Ignored
+     * for scrapes made with the user's cookies and for sites we cannot
+     * re-scrape.
+     */
+    public void register(String postUrl, String userCookies, PexelsScraperService.ScrapedInfo info) {
+        String key = BrowserSessions.keyOf(postUrl);
+        if (!enabled || key == null || info == null || (userCookies != null && !userCookies.isBlank())
+                || !(postUrl.contains("tiktok.com") || postUrl.contains("instagram.com"))) {
+            return;
+        }
+        List<String> urls = urlsOf(info);
+        if (urls.stream().allMatch(url -> url == null)) {
+            return;
+        }
+        Post post = posts.computeIfAbsent(key, k -> new Post(postUrl));
+        post.update(urls, info.getCookies(), info.getUserAgent());
+        // Only handing URLs out or using them keeps a post tracked; our own refreshes do not
+        post.touch();
+        map(post, urls);
+    }
+
+    /**
+     * The current URL and session for a media URL we handed out, possibly
+     * newer than {@code url}; null if the URL is unknown. If even the newest
+     * URL has expired, re-resolves it first.
+     */
+    public Resolved current(String url) {
+        Slot slot = url != null ? slots.get(url) : null;
+        if (slot == null) {
+            return null;
+        }
+        slot.post().touch();
+        long expiresAt = slot.post().expiresAt();
+        if (expiresAt > 0 && expiresAt - EXPIRED_GRACE_MILLIS <= System.currentTimeMillis()) {
+            Resolved renewed = reresolve(url);
+            if (renewed != null) {
+                return renewed;
+            }
+        }
+        return slot.post().resolved(slot.index());
+    }
+
+    /**
+     * Re-scrapes the post behind {@code url} now, after the CDN rejected it,
+     * and returns the new URL for the same media item, or null if the URL is
+     * unknown or the post could not be re-scraped. Concurrent callers for
+     * the same post share one scrape; after a failed one, the post is not
+     * re-scraped again for a minute.
+     */
+    public Resolved reresolve(String url) {
+        Slot slot = url != null ? slots.get(url) : null;
+        if (slot == null || slot.post().backingOff(System.currentTimeMillis())) {
+            return null;
+        }
+        try {
+            refresh(slot.post(), false).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+        return slot.post().resolved(slot.index());
+    }
+
+    /** Starts background refreshes of posts about to expire and forgets posts no longer in use. */
+    void refreshExpiring() {
+        long now = System.currentTimeMillis();
+        posts.forEach((key, post) -> {
+            if (post.lastUsed() < now - trackMillis) {
+                if (posts.remove(key, post)) {
+                    slots.values().removeIf(slot -> slot.post() == post);
+                }
+                return;
+            }
+            long expiresAt = post.expiresAt();
+            if (expiresAt <= 0 || expiresAt - now > refreshAheadMillis || !post.dueForAttempt(now)
+                    || laneScheduler.getQueueDepth(LaneScheduler.Lane.BROWSER) > 0 || !refreshSlots.tryAcquire()) {
+                return;
+            }
+            refresh(post, true).whenComplete((ignored, error) -> refreshSlots.release());
+        });
+    }
+
+    /** Runs (or joins) a re-scrape of {@code post}, in the background or on the calling thread. */
+    private CompletableFuture<Void> refresh(Post post, boolean background) {
+        CompletableFuture<Void> task = new CompletableFuture<>();
+        CompletableFuture<Void> running = post.startRefresh(task);
+        if (running != null) {
+            return running;
+        }
+        Runnable scrape = () -> {
+            String site = MediaMetrics.siteOf(post.postUrl);
+            try {
+                Callable<PexelsScraperService.ScrapedInfo> rescrape = () -> post.postUrl.contains("tiktok.com")
+                        ? tiktokScraperService.getScrapedInfo(post.postUrl)
+                        : instagramScraperService.getScrapedInfo(post.postUrl, null);
+                // The scrapers take a BROWSER slot themselves if they need Chrome. A Selenium download
+                // re-resolving on 403 already holds one and must not then wait for an HTTP slot: lanes are
+                // always taken HTTP first, BROWSER second
+                PexelsScraperService.ScrapedInfo info = laneScheduler.holdsSlot(LaneScheduler.Lane.BROWSER)
+                        ? rescrape.call()
+                        : laneScheduler.call(LaneScheduler.Lane.HTTP, rescrape);
+                List<String> urls = urlsOf(info);
+                if (urls.stream().allMatch(url -> url == null)) {
+                    throw new IOException("No media on re-scrape of " + post.postUrl);
+                }
+                post.update(urls, info.getCookies(), info.getUserAgent());
+                map(post, urls);
+                (background ? proactive : reactive).increment();
+                metrics.signedUrlRefresh(site, background ? "proactive" : "reactive");
+                log.info("Refreshed signed URLs of {} ({})", post.postUrl, background ? "before expiry" : "on 403");
+                task.complete(null);
+            } catch (Exception e) {
+                failed.increment();
+                metrics.signedUrlRefresh(site, "failed");
+                log.warn("Could not refresh signed URLs of {}: {}", post.postUrl, e.getMessage());
+                task.completeExceptionally(e);
+            } finally {
+                post.endRefresh(task);
+            }
+        };
+        if (background) {
+            executor.execute(scrape);
+        } else {
+            scrape.run();
+        }
+        return task;
+    }
+
+    private void map(Post post, List<String> urls) {
+        for (int i = 0; i < urls.size(); i++) {
+            if (urls.get(i) != null) {
+                slots.put(urls.get(i), new Slot(post, i));
+            }
+        }
+    }
+
+    /** The video URL first, then the images, each keeping its position across re-scrapes. */
+    private static List<String> urlsOf(PexelsScraperService.ScrapedInfo info) {
+        List<String> urls = new ArrayList<>();
+        String video = info.getVideoUrl();
+        urls.add(video != null && video.startsWith("http") ? video : null);
+        if (info.getImageUrls() != null) {
+            urls.addAll(info.getImageUrls());
+        }
+        return urls;
+    }
+
+    /**
+     * When a signed URL expires, in epoch millis, or 0 if it carries no
+     * expiry: {@code oe=} (hex seconds, Instagram/Facebook CDN),
+     * {@code expire=} (googlevideo) and {@code x-expires=} (TikTok), in the
+     * query or as a path segment.
+     */
+    public static long expiresAt(String url) {
+        if (url == null) {
+            return 0;
+        }
+        Matcher hex = INSTAGRAM_EXPIRY.matcher(url);
+        if (hex.find()) {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(hex.group(1), 16));
+        }
+        Matcher decimal = EXPIRY.matcher(url.toLowerCase(Locale.ROOT));
+        if (decimal.find()) {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(decimal.group(1)));
+        }
+        return 0;
+    }
+
+    /** Tracked posts and URLs, refresh counts and the next expiry, for GET /api/signed-urls. */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        long nextExpiry = posts.values().stream().mapToLong(Post::expiresAt).filter(at -> at > 0).min().orElse(0);
+        result.put("enabled", enabled);
+        result.put("posts", posts.size());
+        result.put("urls", slots.size());
+        result.put("proactiveRefreshes", proactive.sum());
+        result.put("reactiveRefreshes", reactive.sum());
+        result.put("failedRefreshes", failed.sum());
+        result.put("nextExpirySeconds", nextExpiry > 0 ? Math.max(0, (nextExpiry - now) / 1000) : null);
+        result.put("refreshAheadSeconds", TimeUnit.MILLISECONDS.toSeconds(refreshAheadMillis));
+        return result;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reaper.shutdownNow();
+    }
+
+    /** One scraped post: its current media URLs, their session and earliest expiry. */
+    private static final class Post {
+
+        private final String postUrl;
+        private List<String> urls = List.of();
+        private String cookies;
+        private String userAgent;
+        private long expiresAt;
+        private long lastUsed;
+        private long nextAttempt;
+        private CompletableFuture<Void> refreshing;
+
+        Post(String postUrl) {
+            this.postUrl = postUrl;
+        }
+
+        synchronized void update(List<String> urls, String cookies, String userAgent) {
+            this.urls = urls;
+            this.cookies = cookies;
+            this.userAgent = userAgent;
+            long earliest = 0;
+            for (String url : urls) {
+                long at = SignedUrlRegistry.expiresAt(url);
+                if (at > 0 && (earliest == 0 || at < earliest)) {
+                    earliest = at;
+                }
+            }
+            this.expiresAt = earliest;
+        }
+
+        synchronized Resolved resolved(int index) {
+            String url = index < urls.size() ? urls.get(index) : null;
+            return url != null ? new Resolved(url, cookies, userAgent) : null;
+        }
+
+        synchronized void touch() {
+            lastUsed = System.currentTimeMillis();
+        }
+
+        synchronized long lastUsed() {
+            return lastUsed;
+        }
+
+        synchronized long expiresAt() {
+            return expiresAt;
+        }
+
+        /** Whether a background refresh may start: none running and the last failure was a while ago. */
+        synchronized boolean dueForAttempt(long now) {
+            return refreshing == null && now >= nextAttempt;
+        }
+
+        /** Whether the last refresh failed recently and none is running to join. */
+        synchronized boolean backingOff(long now) {
+            return refreshing == null && now < nextAttempt;
+        }
+
+        /** Registers {@code task} as the running refresh, or returns the one already running. */
+        synchronized CompletableFuture<Void> startRefresh(CompletableFuture<Void> task) {
+            if (refreshing != null) {
+                return refreshing;
+            }
+            refreshing = task;
+            return null;
+        }
+
+        synchronized void endRefresh(CompletableFuture<Void> task) {
+            if (refreshing == task) {
+                refreshing = null;
+            }
+            if (task.isCompletedExceptionally()) {
+                nextAttempt = System.currentTimeMillis() + RETRY_MILLIS;
+            }
+        }
+    }
+}
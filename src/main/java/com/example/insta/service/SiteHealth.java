@@ -0,0 +1,263 @@
+package com.example.insta.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breakers per site and strategy ("instagram/browser",
+ * "tiktok/cdn", ...), so an upstream that is throttling us is not hit by
+ * every request, each paying for a Chrome launch and the page waits before
+ * failing.
+ *
+ * A 429, a login redirect or a captcha page opens the circuit at once;
+ * extraction failures open it after {@code app.health.failure-threshold} in
+ * a row. While open, {@link #acquire} fails fast with
+ * {@link CircuitOpenException}. After the open period one request is let
+ * through as a probe (half-open): success closes the circuit, failure opens
+ * it again for twice as long, up to {@code app.health.max-open-seconds}
+ * (starting from {@code app.health.open-seconds}). A probe that ends without
+ * a verdict (cancelled, or failed for reasons that say nothing about the
+ * site) hands its token from {@link #acquire} back to {@link #release} so the
+ * next request probes instead.
+ * A 429's Retry-After is honored when it asks for longer.
+ */
+@Component
+@Slf4j
+public class SiteHealth {
+
+    public enum Signal {
+        /** HTTP 429 */
+        THROTTLED,
+        /** Redirected to a login page */
+        LOGIN_WALL,
+        /** Served a captcha / security check instead of the page */
+        CAPTCHA,
+        /** Page loaded but no media could be extracted */
+        EXTRACTION_FAILED
+    }
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final MediaMetrics metrics;
+    private final int failureThreshold;
+    private final long baseOpenMillis;
+    private final long maxOpenMillis;
+    private final long probeTimeoutMillis;
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    public SiteHealth(MediaMetrics metrics,
+            @Value("${app.health.failure-threshold:3}") int failureThreshold,
+            @Value("${app.health.open-seconds:30}") long openSeconds,
+            @Value("${app.health.max-open-seconds:900}") long maxOpenSeconds,
+            @Value("${app.health.probe-timeout-seconds:180}") long probeTimeoutSeconds) {
+        this.metrics = metrics;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.baseOpenMillis = TimeUnit.SECONDS.toMillis(openSeconds);
+        this.maxOpenMillis = TimeUnit.SECONDS.toMillis(Math.max(openSeconds, maxOpenSeconds));
+        this.probeTimeoutMillis = TimeUnit.SECONDS.toMillis(probeTimeoutSeconds);
+    }
+
+    /**
+     * Admits a request for {@code site} through {@code strategy}, or throws if
+     * the circuit is open. Past the open period, the first caller becomes the
+     * half-open probe.
+     *
+     * @return the token to pass to {@link #release}: nonzero for the probe
+     */
+    public long acquire(String site, String strategy) {
+        Circuit circuit = circuit(site, strategy);
+        long waitMillis;
+        synchronized (circuit) {
+            long now = System.currentTimeMillis();
+            switch (circuit.state) {
+                case CLOSED:
+                    return 0;
+                case OPEN:
+                    if (now >= circuit.openUntil) {
+                        circuit.state = State.HALF_OPEN;
+                        transition(site, strategy, State.HALF_OPEN);
+                        return circuit.startProbe(now);
+                    }
+                    waitMillis = circuit.openUntil - now;
+                    break;
+                default:
+                    // One probe at a time; a probe that never reported back is replaced
+                    if (now - circuit.probeStartedAt >= probeTimeoutMillis) {
+                        return circuit.startProbe(now);
+                    }
+                    waitMillis = 1000;
+            }
+        }
+        long retryAfter = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(waitMillis));
+        throw new CircuitOpenException(site + " " + strategy + " is backing off after " + circuit.lastSignal
+                + "; retry in " + retryAfter + " s", retryAfter);
+    }
+
+    /** Whether {@link #acquire} would admit a request right now, without becoming the probe. */
+    public boolean isAvailable(String site, String strategy) {
+        Circuit circuit = circuit(site, strategy);
+        synchronized (circuit) {
+            return circuit.state == State.CLOSED
+                    || (circuit.state == State.OPEN && System.currentTimeMillis() >= circuit.openUntil);
+        }
+    }
+
+    /**
+     * Ends a request admitted by {@link #acquire} that neither succeeded nor
+     * failed against the site, with the token {@code acquire} returned. If it
+     * is the current probe and the circuit is still half-open, the next caller
+     * becomes the probe instead of waiting out
+     * {@code app.health.probe-timeout-seconds}. Otherwise (a request admitted
+     * while the circuit was closed, or a probe already replaced) this does
+     * nothing.
+     */
+    public void release(String site, String strategy, long probe) {
+        if (probe == 0) {
+            return;
+        }
+        Circuit circuit = circuit(site, strategy);
+        synchronized (circuit) {
+            if (circuit.state == State.HALF_OPEN && circuit.probe == probe) {
+                circuit.probeStartedAt = 0;
+            }
+        }
+    }
+
+    public void recordSuccess(String site, String strategy) {
+        Circuit circuit = circuit(site, strategy);
+        synchronized (circuit) {
+            circuit.consecutiveFailures = 0;
+            circuit.openMillis = 0;
+            if (circuit.state != State.CLOSED) {
+                circuit.state = State.CLOSED;
+                transition(site, strategy, State.CLOSED);
+                log.info("Circuit {}/{} closed", site, strategy);
+            }
+        }
+    }
+
+    public void recordFailure(String site, String strategy, Signal signal) {
+        recordFailure(site, strategy, signal, 0);
+    }
+
+    /** @param retryAfterSeconds the upstream's Retry-After, or 0 if none */
+    public void recordFailure(String site, String strategy, Signal signal, long retryAfterSeconds) {
+        Circuit circuit = circuit(site, strategy);
+        synchronized (circuit) {
+            circuit.lastSignal = signal;
+            circuit.consecutiveFailures++;
+            long now = System.currentTimeMillis();
+            if (circuit.state == State.OPEN) {
+                // Requests admitted before the circuit opened; only a longer Retry-After extends it
+                circuit.openUntil = Math.max(circuit.openUntil, now + TimeUnit.SECONDS.toMillis(retryAfterSeconds));
+                return;
+            }
+            boolean probeFailed = circuit.state == State.HALF_OPEN;
+            if (!probeFailed && signal == Signal.EXTRACTION_FAILED && circuit.consecutiveFailures < failureThreshold) {
+                return;
+            }
+            // Exponential backoff: each failed probe doubles the open period
+            circuit.openMillis = probeFailed && circuit.openMillis > 0
+                    ? Math.min(maxOpenMillis, circuit.openMillis * 2)
+                    : baseOpenMillis;
+            long openMillis = Math.max(circuit.openMillis, TimeUnit.SECONDS.toMillis(retryAfterSeconds));
+            circuit.openUntil = now + openMillis;
+            circuit.state = State.OPEN;
+            transition(site, strategy, State.OPEN);
+            log.warn("Circuit {}/{} open for {} s after {}", site, strategy,
+                    TimeUnit.MILLISECONDS.toSeconds(openMillis), signal);
+        }
+    }
+
+    /**
+     * LOGIN_WALL or CAPTCHA if a loaded page is a login redirect or a
+     * security check rather than the post, else null.
+     */
+    public static Signal classifyPage(String currentUrl, String title, String html) {
+        String url = currentUrl != null ? currentUrl.toLowerCase(Locale.ROOT) : "";
+        if (url.contains("/login")) {
+            return Signal.LOGIN_WALL;
+        }
+        String pageTitle = title != null ? title.toLowerCase(Locale.ROOT) : "";
+        if (url.contains("/challenge") || pageTitle.contains("security check") || pageTitle.contains("captcha")) {
+            return Signal.CAPTCHA;
+        }
+        // Element IDs of a rendered challenge, not the captcha SDK scripts every page loads
+        if (html != null && (html.contains("id=\"captcha_container\"")
+                || html.contains("id=\"captcha-verify-container") || html.contains("class=\"g-recaptcha"))) {
+            return Signal.CAPTCHA;
+        }
+        return null;
+    }
+
+    /** Retry-After in seconds (delta-seconds form only), or 0. */
+    public static long retryAfterSeconds(String header) {
+        if (header == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(header.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /** State, consecutive failures, last signal and remaining open time per circuit, for GET /api/circuits. */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new TreeMap<>();
+        long now = System.currentTimeMillis();
+        circuits.forEach((key, circuit) -> {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            synchronized (circuit) {
+                entry.put("state", circuit.state.name());
+                entry.put("consecutiveFailures", circuit.consecutiveFailures);
+                entry.put("lastSignal", circuit.lastSignal != null ? circuit.lastSignal.name() : null);
+                entry.put("openSecondsLeft",
+                        circuit.state == State.OPEN ? Math.max(0, (circuit.openUntil - now) / 1000) : 0);
+            }
+            result.put(key, entry);
+        });
+        return result;
+    }
+
+    State stateOf(String site, String strategy) {
+        Circuit circuit = circuit(site, strategy);
+        synchronized (circuit) {
+            return circuit.state;
+        }
+    }
+
+    private void transition(String site, String strategy, State state) {
+        metrics.circuitTransition(site, strategy, state.name().toLowerCase(Locale.ROOT));
+    }
+
+    private Circuit circuit(String site, String strategy) {
+        return circuits.computeIfAbsent(site + "/" + strategy, key -> new Circuit());
+    }
+
+    private static final class Circuit {
+        private State state = State.CLOSED;
+        private int consecutiveFailures;
+        private long openMillis;
+        private long openUntil;
+        private long probeStartedAt;
+        /** Token of the current or last probe; each probe gets the next one. */
+        private long probe;
+        private Signal lastSignal;
+
+        long startProbe(long now) {
+            probeStartedAt = now;
+            return ++probe;
+        }
+    }
+}
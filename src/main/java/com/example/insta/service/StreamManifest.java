@@ -0,0 +1,497 @@
+package com.example.insta.service;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses HLS playlists (.m3u8) and DASH manifests (.mpd) into the ordered
+ * list of requests that make up one video track and, when the audio is
+ * delivered separately, one audio track.
+ *
+ * The highest-bandwidth video variant/representation is chosen. Only VOD
+ * content is handled: live playlists, encrypted segments and multi-period
+ * DASH are rejected rather than downloaded incompletely.
+ */
+final class StreamManifest {
+
+    private static final Pattern HLS_ATTRIBUTE = Pattern.compile("([A-Z0-9-]+)=(\"[^\"]*\"|[^,]*)");
+    private static final Pattern XS_DURATION = Pattern
+            .compile("P(?:(\\d+)Y)?(?:(\\d+)M)?(?:(\\d+)D)?(?:T(?:(\\d+)H)?(?:(\\d+)M)?(?:([\\d.]+)S)?)?");
+    private static final Pattern DASH_TEMPLATE = Pattern
+            .compile("\\$(RepresentationID|Number|Time|Bandwidth)(%0(\\d+)d)?\\$");
+
+    /**
+     * One request: a whole URL, or {@code length} bytes from {@code offset}
+     * when {@code length >= 0}.
+     */
+    record Segment(String url, long offset, long length) {
+        static Segment whole(String url) {
+            return new Segment(url, 0, -1);
+        }
+    }
+
+    /**
+     * The segments of one track in playback order, initialization segment
+     * first. {@code fragmentedMp4} is false for MPEG-TS segments.
+     */
+    record Track(List<Segment> segments, boolean fragmentedMp4) {
+        /** Sum of the segment lengths, or -1 if any is unknown. */
+        long knownLength() {
+            long total = 0;
+            for (Segment segment : segments) {
+                if (segment.length() < 0) {
+                    return -1;
+                }
+                total += segment.length();
+            }
+            return total;
+        }
+    }
+
+    /** The chosen video track and the separate audio track, or null if the audio is in the video. */
+    record Selection(Track video, Track audio) {
+    }
+
+    /** Fetches a playlist referenced from a master playlist. */
+    @FunctionalInterface
+    interface TextFetcher {
+        String fetch(String url) throws IOException;
+    }
+
+    private StreamManifest() {
+    }
+
+    /** True for URLs whose path ends in .m3u8 or .mpd. */
+    static boolean isManifestUrl(String url) {
+        if (url == null) {
+            return false;
+        }
+        int end = url.length();
+        for (char c : new char[] { '?', '#' }) {
+            int at = url.indexOf(c);
+            if (at != -1 && at < end) {
+                end = at;
+            }
+        }
+        String path = url.substring(0, end).toLowerCase(Locale.ROOT);
+        return path.endsWith(".m3u8") || path.endsWith(".mpd");
+    }
+
+    /**
+     * Parses the manifest at {@code url}; {@code fetcher} loads the media
+     * playlists an HLS master playlist points to.
+     *
+     * @throws InvalidMediaException if {@code body} is neither HLS nor DASH
+     * @throws IOException           if the stream is live, encrypted or has no video
+     */
+    static Selection parse(String url, String body, TextFetcher fetcher) throws IOException {
+        String text = body.strip();
+        if (text.startsWith("\uFEFF")) {
+            text = text.substring(1);
+        }
+        if (text.startsWith("#EXTM3U")) {
+            return parseHls(url, text, fetcher);
+        }
+        if (text.startsWith("<") && text.contains("<MPD")) {
+            return parseDash(url, text);
+        }
+        throw new InvalidMediaException("Expected an HLS or DASH manifest at " + url);
+    }
+
+    // ---- HLS ----
+
+    private static Selection parseHls(String url, String text, TextFetcher fetcher) throws IOException {
+        if (!text.contains("#EXT-X-STREAM-INF")) {
+            return new Selection(parseHlsMedia(url, text), null);
+        }
+
+        // Master playlist: the highest BANDWIDTH variant, and its audio rendition if separate
+        String[] lines = text.split("\\R");
+        Map<String, String> best = null;
+        String bestUri = null;
+        Map<String, String> audioRenditions = new HashMap<>(); // GROUP-ID -> URI, DEFAULT=YES first
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].strip();
+            if (line.startsWith("#EXT-X-STREAM-INF:")) {
+                Map<String, String> attributes = hlsAttributes(line);
+                String uri = nextUri(lines, i);
+                if (uri != null && (best == null || bandwidth(attributes) > bandwidth(best))) {
+                    best = attributes;
+                    bestUri = uri;
+                }
+            } else if (line.startsWith("#EXT-X-MEDIA:")) {
+                Map<String, String> attributes = hlsAttributes(line);
+                if ("AUDIO".equals(attributes.get("TYPE")) && attributes.containsKey("URI")
+                        && (!audioRenditions.containsKey(attributes.get("GROUP-ID"))
+                                || "YES".equals(attributes.get("DEFAULT")))) {
+                    audioRenditions.put(attributes.get("GROUP-ID"), attributes.get("URI"));
+                }
+            }
+        }
+        if (bestUri == null) {
+            throw new InvalidMediaException("HLS master playlist without variants: " + url);
+        }
+        String variantUrl = resolve(url, bestUri);
+        Track video = parseHlsMedia(variantUrl, fetcher.fetch(variantUrl));
+        Track audio = null;
+        String audioUri = audioRenditions.get(best.get("AUDIO"));
+        if (audioUri != null) {
+            String audioUrl = resolve(url, audioUri);
+            audio = parseHlsMedia(audioUrl, fetcher.fetch(audioUrl));
+        }
+        return new Selection(video, audio);
+    }
+
+    private static Track parseHlsMedia(String url, String text) throws IOException {
+        if (!text.strip().startsWith("#EXTM3U")) {
+            throw new InvalidMediaException("Expected an HLS media playlist at " + url);
+        }
+        List<Segment> segments = new ArrayList<>();
+        boolean fragmentedMp4 = false;
+        boolean ended = false;
+        String pendingRange = null; // from #EXT-X-BYTERANGE, applies to the next URI
+        Map<String, Long> nextOffset = new HashMap<>(); // where an offset-less byte range continues
+        for (String raw : text.split("\\R")) {
+            String line = raw.strip();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.startsWith("#EXT-X-KEY:")) {
+                String method = hlsAttributes(line).get("METHOD");
+                if (method != null && !method.equals("NONE")) {
+                    throw new IOException("Encrypted HLS streams (" + method + ") are not supported");
+                }
+            } else if (line.startsWith("#EXT-X-MAP:")) {
+                Map<String, String> attributes = hlsAttributes(line);
+                String mapUrl = resolve(url, attributes.get("URI"));
+                String range = attributes.get("BYTERANGE");
+                segments.add(range != null ? rangedSegment(mapUrl, range, nextOffset) : Segment.whole(mapUrl));
+                fragmentedMp4 = true;
+            } else if (line.startsWith("#EXT-X-BYTERANGE:")) {
+                pendingRange = line.substring("#EXT-X-BYTERANGE:".length());
+            } else if (line.startsWith("#EXT-X-ENDLIST")) {
+                ended = true;
+            } else if (!line.startsWith("#")) {
+                String segmentUrl = resolve(url, line);
+                segments.add(pendingRange != null ? rangedSegment(segmentUrl, pendingRange, nextOffset)
+                        : Segment.whole(segmentUrl));
+                pendingRange = null;
+            }
+        }
+        if (!ended) {
+            throw new IOException("Live HLS streams are not supported (no #EXT-X-ENDLIST in " + url + ")");
+        }
+        if (segments.isEmpty()) {
+            throw new InvalidMediaException("HLS playlist without segments: " + url);
+        }
+        return new Track(segments, fragmentedMp4);
+    }
+
+    /** "length[@offset]"; without an offset the range follows the previous one of the same URL. */
+    private static Segment rangedSegment(String url, String range, Map<String, Long> nextOffset) {
+        int at = range.indexOf('@');
+        long length = Long.parseLong((at == -1 ? range : range.substring(0, at)).strip());
+        long offset = at == -1 ? nextOffset.getOrDefault(url, 0L) : Long.parseLong(range.substring(at + 1).strip());
+        nextOffset.put(url, offset + length);
+        return new Segment(url, offset, length);
+    }
+
+    private static Map<String, String> hlsAttributes(String line) {
+        Map<String, String> attributes = new HashMap<>();
+        Matcher m = HLS_ATTRIBUTE.matcher(line.substring(line.indexOf(':') + 1));
+        while (m.find()) {
+            String value = m.group(2);
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            attributes.put(m.group(1), value);
+        }
+        return attributes;
+    }
+
+    private static long bandwidth(Map<String, String> attributes) {
+        try {
+            return Long.parseLong(attributes.getOrDefault("BANDWIDTH", "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String nextUri(String[] lines, int from) {
+        for (int i = from + 1; i < lines.length; i++) {
+            String line = lines[i].strip();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    // ---- DASH ----
+
+    private static Selection parseDash(String url, String text) throws IOException {
+        Element mpd = parseXml(text).getDocumentElement();
+        if ("dynamic".equals(mpd.getAttribute("type"))) {
+            throw new IOException("Live DASH streams are not supported");
+        }
+        List<Element> periods = children(mpd, "Period");
+        if (periods.size() != 1) {
+            throw new IOException("DASH manifests with " + periods.size() + " periods are not supported");
+        }
+        Element period = periods.get(0);
+        String base = baseUrl(url, mpd);
+        base = baseUrl(base, period);
+        double seconds = seconds(period.getAttribute("duration"));
+        if (seconds <= 0) {
+            seconds = seconds(mpd.getAttribute("mediaPresentationDuration"));
+        }
+
+        Element[] bestVideo = null;
+        Element[] bestAudio = null;
+        for (Element set : children(period, "AdaptationSet")) {
+            if (!children(set, "ContentProtection").isEmpty()) {
+                continue;
+            }
+            for (Element representation : children(set, "Representation")) {
+                String type = contentType(set, representation);
+                Element[] candidate = { set, representation };
+                if (type.equals("video") && better(candidate, bestVideo)) {
+                    bestVideo = candidate;
+                } else if (type.equals("audio") && better(candidate, bestAudio)) {
+                    bestAudio = candidate;
+                }
+            }
+        }
+        if (bestVideo == null) {
+            throw new InvalidMediaException("DASH manifest without an unencrypted MP4 video representation");
+        }
+        Track video = dashTrack(base, bestVideo[0], bestVideo[1], seconds);
+        Track audio = bestAudio != null ? dashTrack(base, bestAudio[0], bestAudio[1], seconds) : null;
+        return new Selection(video, audio);
+    }
+
+    /** MP4 representations only (they are muxed with {@link Mp4Muxer}); higher bandwidth wins. */
+    private static boolean better(Element[] candidate, Element[] best) {
+        String mime = attribute(candidate[1], candidate[0], "mimeType");
+        if (!mime.isEmpty() && !mime.endsWith("/mp4")) {
+            return false;
+        }
+        return best == null
+                || number(candidate[1].getAttribute("bandwidth")) > number(best[1].getAttribute("bandwidth"));
+    }
+
+    private static String contentType(Element set, Element representation) {
+        String type = set.getAttribute("contentType");
+        if (type.isEmpty()) {
+            type = attribute(representation, set, "mimeType");
+            type = type.contains("/") ? type.substring(0, type.indexOf('/')) : "";
+        }
+        if (type.isEmpty()) {
+            String codecs = attribute(representation, set, "codecs");
+            if (codecs.startsWith("avc") || codecs.startsWith("hvc") || codecs.startsWith("hev")
+                    || codecs.startsWith("av01") || codecs.startsWith("vp09")) {
+                type = "video";
+            } else if (codecs.startsWith("mp4a") || codecs.startsWith("ac-3") || codecs.startsWith("ec-3")
+                    || codecs.startsWith("opus")) {
+                type = "audio";
+            }
+        }
+        return type;
+    }
+
+    private static Track dashTrack(String periodBase, Element set, Element representation, double periodSeconds)
+            throws IOException {
+        String base = baseUrl(baseUrl(periodBase, set), representation);
+        Element setTemplate = child(set, "SegmentTemplate");
+        Element template = child(representation, "SegmentTemplate");
+        if (template != null || setTemplate != null) {
+            return templateTrack(base, representation, template, setTemplate, periodSeconds);
+        }
+        Element list = child(representation, "SegmentList");
+        if (list == null) {
+            list = child(set, "SegmentList");
+        }
+        if (list != null) {
+            List<Segment> segments = new ArrayList<>();
+            Element init = child(list, "Initialization");
+            if (init != null) {
+                segments.add(dashSegment(base, init.getAttribute("sourceURL"), init.getAttribute("range")));
+            }
+            for (Element segmentUrl : children(list, "SegmentURL")) {
+                segments.add(dashSegment(base, segmentUrl.getAttribute("media"),
+                        segmentUrl.getAttribute("mediaRange")));
+            }
+            return new Track(segments, true);
+        }
+        // SegmentBase, or nothing: the representation is one file at its BaseURL
+        return new Track(List.of(Segment.whole(base)), true);
+    }
+
+    private static Track templateTrack(String base, Element representation, Element template, Element setTemplate,
+            double periodSeconds) throws IOException {
+        String media = attribute(template, setTemplate, "media");
+        String initialization = attribute(template, setTemplate, "initialization");
+        long timescale = Math.max(1, number(attribute(template, setTemplate, "timescale")));
+        String start = attribute(template, setTemplate, "startNumber");
+        long number = start.isEmpty() ? 1 : number(start);
+        if (media.isEmpty()) {
+            throw new InvalidMediaException("DASH SegmentTemplate without a media attribute");
+        }
+
+        List<Segment> segments = new ArrayList<>();
+        if (!initialization.isEmpty()) {
+            segments.add(Segment.whole(resolve(base, expand(initialization, representation, 0, 0))));
+        }
+        Element timeline = child(template, "SegmentTimeline");
+        if (timeline == null) {
+            timeline = child(setTemplate, "SegmentTimeline");
+        }
+        if (timeline != null) {
+            long time = 0;
+            long end = (long) Math.ceil(periodSeconds * timescale);
+            for (Element s : children(timeline, "S")) {
+                if (!s.getAttribute("t").isEmpty()) {
+                    time = number(s.getAttribute("t"));
+                }
+                long duration = number(s.getAttribute("d"));
+                long repeat = s.getAttribute("r").isEmpty() ? 0 : Long.parseLong(s.getAttribute("r"));
+                if (repeat < 0) {
+                    // Repeat until the end of the period
+                    repeat = duration > 0 && end > time ? (end - time + duration - 1) / duration - 1 : 0;
+                }
+                for (long r = 0; r <= repeat; r++) {
+                    segments.add(Segment.whole(resolve(base, expand(media, representation, number++, time))));
+                    time += duration;
+                }
+            }
+        } else {
+            long duration = number(attribute(template, setTemplate, "duration"));
+            if (duration <= 0 || periodSeconds <= 0) {
+                throw new InvalidMediaException("DASH SegmentTemplate without a timeline or a known duration");
+            }
+            long count = (long) Math.ceil(periodSeconds * timescale / duration);
+            for (long i = 0; i < count; i++) {
+                segments.add(Segment.whole(resolve(base, expand(media, representation, number + i, i * duration))));
+            }
+        }
+        return new Track(segments, true);
+    }
+
+    /** Fills in $RepresentationID$, $Number$ (optionally %0Nd), $Time$, $Bandwidth$ and $$. */
+    private static String expand(String template, Element representation, long number, long time) {
+        Matcher m = DASH_TEMPLATE.matcher(template.replace("$$", "\u0000"));
+        StringBuilder out = new StringBuilder();
+        while (m.find()) {
+            String value = switch (m.group(1)) {
+                case "RepresentationID" -> representation.getAttribute("id");
+                case "Number" -> Long.toString(number);
+                case "Time" -> Long.toString(time);
+                default -> representation.getAttribute("bandwidth");
+            };
+            if (m.group(3) != null && !m.group(1).equals("RepresentationID")) {
+                value = String.format("%0" + Integer.parseInt(m.group(3)) + "d", Long.parseLong(value));
+            }
+            m.appendReplacement(out, Matcher.quoteReplacement(value));
+        }
+        m.appendTail(out);
+        return out.toString().replace('\u0000', '$');
+    }
+
+    private static Segment dashSegment(String base, String url, String range) {
+        String resolved = url.isEmpty() ? base : resolve(base, url);
+        if (range.isEmpty()) {
+            return Segment.whole(resolved);
+        }
+        int dash = range.indexOf('-');
+        long first = Long.parseLong(range.substring(0, dash).strip());
+        long last = Long.parseLong(range.substring(dash + 1).strip());
+        return new Segment(resolved, first, last - first + 1);
+    }
+
+    private static Document parseXml(String text) throws InvalidMediaException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setExpandEntityReferences(false);
+            return factory.newDocumentBuilder().parse(new InputSource(new StringReader(text)));
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new InvalidMediaException("Malformed DASH manifest: " + e.getMessage());
+        }
+    }
+
+    private static String baseUrl(String parent, Element element) {
+        Element base = child(element, "BaseURL");
+        return base != null ? resolve(parent, base.getTextContent().strip()) : parent;
+    }
+
+    /** The attribute on {@code element}, else on {@code inherited} (e.g. Representation, then AdaptationSet). */
+    private static String attribute(Element element, Element inherited, String name) {
+        if (element != null && element.hasAttribute(name)) {
+            return element.getAttribute(name);
+        }
+        return inherited != null ? inherited.getAttribute(name) : "";
+    }
+
+    private static Element child(Element parent, String name) {
+        if (parent == null) {
+            return null;
+        }
+        List<Element> children = children(parent, name);
+        return children.isEmpty() ? null : children.get(0);
+    }
+
+    private static List<Element> children(Element parent, String name) {
+        List<Element> children = new ArrayList<>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element element && name.equals(element.getLocalName())) {
+                children.add(element);
+            }
+        }
+        return children;
+    }
+
+    private static long number(String value) {
+        try {
+            return value.isEmpty() ? 0 : Long.parseLong(value.strip());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /** xs:duration as used by DASH ("PT1M3.5S", "P0Y0M0DT0H0M10S"), in seconds; 0 if absent. */
+    private static double seconds(String value) {
+        Matcher m = XS_DURATION.matcher(value.strip());
+        if (!m.matches()) {
+            return 0;
+        }
+        double seconds = 0;
+        long[] unitSeconds = { 365 * 86400L, 30 * 86400L, 86400, 3600, 60 };
+        for (int group = 1; group <= 5; group++) {
+            if (m.group(group) != null) {
+                seconds += Long.parseLong(m.group(group)) * unitSeconds[group - 1];
+            }
+        }
+        return m.group(6) != null ? seconds + Double.parseDouble(m.group(6)) : seconds;
+    }
+
+    private static String resolve(String base, String reference) {
+        return URI.create(base).resolve(reference.replace(" ", "%20")).toString();
+    }
+}
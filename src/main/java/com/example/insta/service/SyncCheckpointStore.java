@@ -0,0 +1,180 @@
+package com.example.insta.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Per-account sync checkpoints, persisted as one JSON file
+ * ({@code app.sync.checkpoint-file}) so they survive restarts. The file is
+ * rewritten through a temp file and an atomic move, so a crash never leaves
+ * it half-written. A file that cannot be read anyway is moved aside at
+ * startup rather than keeping the application from starting.
+ */
+@Component
+@Slf4j
+public class SyncCheckpointStore {
+
+    /**
+     * How far an account has been synced: every post up to lastPost, and,
+     * after a sync that hit its post cap, the block of newer posts from
+     * syncedFrom to syncedTo. The posts between lastPost and syncedFrom are
+     * still to be fetched. lastPost is null if the oldest posts have never
+     * been reached.
+     */
+    public static class Checkpoint {
+        private String lastPostId;
+        private String lastPostUrl;
+        private String syncedFromId;
+        private String syncedFromUrl;
+        private String syncedToId;
+        private String syncedToUrl;
+        private long updatedAt;
+
+        public Checkpoint() {
+        }
+
+        public Checkpoint(String lastPostId, String lastPostUrl, long updatedAt) {
+            this.lastPostId = lastPostId;
+            this.lastPostUrl = lastPostUrl;
+            this.updatedAt = updatedAt;
+        }
+
+        public String getLastPostId() {
+            return lastPostId;
+        }
+
+        public void setLastPostId(String lastPostId) {
+            this.lastPostId = lastPostId;
+        }
+
+        public String getLastPostUrl() {
+            return lastPostUrl;
+        }
+
+        public void setLastPostUrl(String lastPostUrl) {
+            this.lastPostUrl = lastPostUrl;
+        }
+
+        public String getSyncedFromId() {
+            return syncedFromId;
+        }
+
+        public void setSyncedFromId(String syncedFromId) {
+            this.syncedFromId = syncedFromId;
+        }
+
+        public String getSyncedFromUrl() {
+            return syncedFromUrl;
+        }
+
+        public void setSyncedFromUrl(String syncedFromUrl) {
+            this.syncedFromUrl = syncedFromUrl;
+        }
+
+        public String getSyncedToId() {
+            return syncedToId;
+        }
+
+        public void setSyncedToId(String syncedToId) {
+            this.syncedToId = syncedToId;
+        }
+
+        public String getSyncedToUrl() {
+            return syncedToUrl;
+        }
+
+        public void setSyncedToUrl(String syncedToUrl) {
+            this.syncedToUrl = syncedToUrl;
+        }
+
+        public long getUpdatedAt() {
+            return updatedAt;
+        }
+
+        public void setUpdatedAt(long updatedAt) {
+            this.updatedAt = updatedAt;
+        }
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path file;
+    private final Map<String, Checkpoint> checkpoints;
+
+    public SyncCheckpointStore(@Value("${app.sync.checkpoint-file:sync-checkpoints.json}") String file) {
+        this.file = Paths.get(file);
+        this.checkpoints = load();
+    }
+
+    private Map<String, Checkpoint> load() {
+        if (!Files.exists(file)) {
+            return new TreeMap<>();
+        }
+        try {
+            Map<String, Checkpoint> loaded = objectMapper.readValue(file.toFile(),
+                    new TypeReference<TreeMap<String, Checkpoint>>() {
+                    });
+            if (loaded == null) {
+                throw new IOException("no checkpoint map in the file");
+            }
+            log.info("Loaded {} sync checkpoint(s) from {}", loaded.size(), file);
+            return loaded;
+        } catch (IOException e) {
+            // Every account then syncs as if for the first time, which re-downloads but never skips posts
+            Path aside = file.resolveSibling(file.getFileName() + ".corrupt-" + System.currentTimeMillis());
+            log.error("Unreadable sync checkpoint file {}: {}; moving it to {} and starting without checkpoints",
+                    file, e.getMessage(), aside);
+            try {
+                Files.move(file, aside);
+            } catch (IOException moveError) {
+                log.error("Could not move {} aside: {}", file, moveError.getMessage());
+            }
+            return new TreeMap<>();
+        }
+    }
+
+    public synchronized Optional<Checkpoint> get(String account) {
+        return Optional.ofNullable(checkpoints.get(account));
+    }
+
+    public synchronized Map<String, Checkpoint> getAll() {
+        return new TreeMap<>(checkpoints);
+    }
+
+    public synchronized void put(String account, Checkpoint checkpoint) throws IOException {
+        checkpoints.put(account, checkpoint);
+        save();
+    }
+
+    /** @return false if the account had no checkpoint */
+    public synchronized boolean remove(String account) throws IOException {
+        if (checkpoints.remove(account) == null) {
+            return false;
+        }
+        save();
+        return true;
+    }
+
+    private void save() throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), checkpoints);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -1,13 +1,9 @@
 package com.example.insta.service;
 
-import io.github.bonigarcia.wdm.WebDriverManager;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.openqa.selenium.Cookie;
-import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.chrome.ChromeDriver;
 import org.openqa.selenium.chrome.ChromeOptions;
 import org.springframework.stereotype.Service;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -15,82 +11,178 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.math.BigInteger;
 import java.time.Duration;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Service
 @Slf4j
 public class TikTokScraperService {
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Pattern VIDEO_LINK = Pattern.compile("/@([^/?#]+)/video/(\\d+)");
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String SITE = "tiktok";
+
+    private final ChromeDriverFactory chromeDriverFactory;
+    private final MediaMetrics metrics;
+    private final BrowserSessions browserSessions;
+    private final SiteHealth siteHealth;
+    private final HedgedScraper hedgedScraper;
+    private final BrowserEngine browserEngine;
+
+    public TikTokScraperService(ChromeDriverFactory chromeDriverFactory, MediaMetrics metrics,
+            BrowserSessions browserSessions, SiteHealth siteHealth, HedgedScraper hedgedScraper,
+            BrowserEngine browserEngine) {
+        this.chromeDriverFactory = chromeDriverFactory;
+        this.metrics = metrics;
+        this.browserSessions = browserSessions;
+        this.siteHealth = siteHealth;
+        this.hedgedScraper = hedgedScraper;
+        this.browserEngine = browserEngine;
+    }
 
     public static class ExtractionResult {
         public String html;
         public String cookies;
         public String userAgent;
+        /**
+         * The browser, still on the page (Selenium engine only); whoever
+         * receives the result must quit or hand it off.
+         */
+        public WebDriver driver;
+        /** Set when TikTok served a captcha or login page instead of the video. */
+        public SiteHealth.Signal blocked;
     }
 
-    private ExtractionResult getPageContentWithSelenium(String url) {
-        WebDriverManager.chromedriver().setup();
-        ChromeOptions options = new ChromeOptions();
+    private List<String> browserArguments() {
+        List<String> arguments = new ArrayList<>();
 
         // Environment Control for Hosting (Headless Mode)
         String headlessEnv = System.getenv("HEADLESS");
         if ("true".equalsIgnoreCase(headlessEnv)) {
-            options.addArguments("--headless=new");
+            arguments.add("--headless=new");
             log.info("Running TikTok Scraper in HEADLESS mode.");
         } else {
             // Default to headless new for scraping unless debugging is needed, checking
             // "HEADLESS" env var usually implies server.
-            options.addArguments("--headless=new");
+            arguments.add("--headless=new");
         }
 
-        options.addArguments("--disable-blink-features=AutomationControlled");
-        options.addArguments("--no-sandbox");
-        options.addArguments("--disable-dev-shm-usage");
-        options.addArguments(
+        arguments.add("--disable-blink-features=AutomationControlled");
+        arguments.add("--no-sandbox");
+        arguments.add("--disable-dev-shm-usage");
+        arguments.add(
                 "user-agent=Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/121.0.0.0 Safari/537.36");
+        return arguments;
+    }
 
-        WebDriver driver = new ChromeDriver(options);
+    private ChromeOptions browserOptions() {
+        ChromeOptions options = new ChromeOptions();
+        options.addArguments(browserArguments());
+        return options;
+    }
+
+    private ExtractionResult getPageContentWithSelenium(String url) {
+        // Same network log as the download step, which may take this browser over
+        BrowserPage page = browserEngine.open(SITE, browserArguments(), true);
         try {
-            driver.manage().timeouts().pageLoadTimeout(Duration.ofSeconds(45));
-            driver.get(url);
+            metrics.time(SITE, MediaMetrics.Stage.PAGE_LOAD, () -> page.navigate(url, Duration.ofSeconds(45)));
             Thread.sleep(5000);
 
             ExtractionResult result = new ExtractionResult();
-            result.html = driver.getPageSource();
+            result.html = page.html();
+            result.blocked = SiteHealth.classifyPage(page.currentUrl(), page.title(), result.html);
+            if (result.blocked != null) {
+                log.warn("TikTok served a {} page for {}", result.blocked, url);
+            }
 
-            Set<Cookie> seleniumCookies = driver.manage().getCookies();
-            result.cookies = seleniumCookies.stream()
-                    .map(c -> c.getName() + "=" + c.getValue())
-                    .collect(Collectors.joining("; "));
+            result.cookies = page.cookieHeader();
 
             // Extract the actual User-Agent from the browser
-            JavascriptExecutor js = (JavascriptExecutor) driver;
-            result.userAgent = (String) js.executeScript("return navigator.userAgent;");
+            result.userAgent = (String) page.evaluate("navigator.userAgent");
 
+            result.driver = page.detach();
             return result;
         } catch (Exception e) {
-            log.error("TikTok Selenium error: {}", e.getMessage());
+            log.error("TikTok {} error: {}", browserEngine.name(), e.getMessage());
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            if (!Thread.currentThread().isInterrupted()) {
+                siteHealth.recordFailure(SITE, "browser", SiteHealth.Signal.EXTRACTION_FAILED);
+            }
             return null;
         } finally {
-            if (driver != null)
-                driver.quit();
+            page.close();
         }
     }
 
+    /**
+     * Lists a profile's videos newest first by scrolling its grid, stopping at
+     * the first video {@code isOld} accepts (the sync checkpoint) or after
+     * {@code maxPosts}. Pinned videos at the top, and videos {@code isSynced}
+     * accepts, are skipped rather than treated as the stopping point.
+     *
+     * @return canonical video URLs (https://www.tiktok.com/@user/video/ID)
+     */
+    public List<String> listProfilePosts(String profileUrl, Predicate<String> isOld, Predicate<String> isSynced,
+            int maxPosts) throws IOException {
+        WebDriver driver = chromeDriverFactory.create(SITE, browserOptions());
+        try {
+            driver.manage().timeouts().pageLoadTimeout(Duration.ofSeconds(45));
+            metrics.time(SITE, MediaMetrics.Stage.PAGE_LOAD, () -> driver.get(profileUrl));
+            Thread.sleep(5000);
+            return ProfileFeedPager.collect(driver, "a[href*='/video/']", TikTokScraperService::canonicalVideoUrl,
+                    isOld, isSynced, ProfileFeedPager.PINNED_SLOTS, maxPosts);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while listing " + profileUrl, e);
+        } finally {
+            chromeDriverFactory.quit(driver);
+        }
+    }
+
+    /** https://www.tiktok.com/@user/video/ID for any video link, or null. */
+    public static String canonicalVideoUrl(String href) {
+        if (href == null) {
+            return null;
+        }
+        Matcher m = VIDEO_LINK.matcher(href);
+        return m.find() ? "https://www.tiktok.com/@" + m.group(1) + "/video/" + m.group(2) : null;
+    }
+
+    /** Numeric video ID of a video URL. IDs grow over time, so they order videos by publication. */
+    public static BigInteger videoIdOf(String url) {
+        if (url == null) {
+            return null;
+        }
+        Matcher m = VIDEO_LINK.matcher(url);
+        return m.find() ? new BigInteger(m.group(2)) : null;
+    }
+
     public String scrapeVideoUrl(String tiktokUrl) throws IOException {
-        ExtractionResult result = getPageContentWithSelenium(tiktokUrl);
+        long probe = siteHealth.acquire(SITE, "browser");
+        ExtractionResult result;
+        try {
+            result = getPageContentWithSelenium(tiktokUrl);
+        } finally {
+            siteHealth.release(SITE, "browser", probe);
+        }
         if (result == null || result.html == null)
             throw new IOException("Failed to load TikTok page.");
+        chromeDriverFactory.quit(result.driver);
 
         Document doc = Jsoup.parse(result.html);
 
         Element script = doc.getElementById("__UNIVERSAL_DATA_FOR_REHYDRATION__");
         if (script != null) {
             try {
-                JsonNode root = objectMapper.readTree(script.data());
+                JsonNode root = OBJECT_MAPPER.readTree(script.data());
                 JsonNode videoDetail = root.path("__DEFAULT_SCOPE__").path("webapp.video-detail");
                 if (videoDetail != null) {
                     JsonNode playAddr = videoDetail.path("itemInfo").path("itemStruct").path("video").path("playAddr");
@@ -102,27 +194,83 @@ public class TikTokScraperService {
             }
         }
 
-        for (Element s : doc.select("script")) {
-            String data = s.data();
-            if (data.contains("playAddr")) {
-                int start = data.indexOf("playAddr\":\"") + 11;
-                int end = data.indexOf("\"", start);
-                if (start > 10 && end > start) {
-                    return data.substring(start, end).replace("\\u002F", "/");
-                }
-            }
+        String playAddr = findPlayAddr(doc);
+        if (playAddr != null) {
+            return playAddr;
         }
 
         throw new IOException("Could not find video download link for TikTok.");
     }
 
+    /**
+     * Scrapes a video page over plain HTTP, hedged with (or falling back to)
+     * the browser when that is slow or finds nothing.
+     */
     public PexelsScraperService.ScrapedInfo getScrapedInfo(String tiktokUrl) throws IOException {
-        ExtractionResult result = getPageContentWithSelenium(tiktokUrl);
-        if (result == null || result.html == null)
-            throw new IOException("Failed to load TikTok page.");
+        return hedgedScraper.scrape(SITE, () -> scrapeWithHttp(tiktokUrl), () -> scrapeWithBrowser(tiktokUrl));
+    }
+
+    /**
+     * The video page's hydration data as served without a browser, or null
+     * if TikTok served a challenge or the data had no video. The cookies it
+     * set (tt_chain_token) go with the video URL, which the CDN checks.
+     */
+    private PexelsScraperService.ScrapedInfo scrapeWithHttp(String tiktokUrl) throws IOException {
+        HedgedScraper.Page page = hedgedScraper.fetchPage(SITE, tiktokUrl);
+        ExtractionResult result = new ExtractionResult();
+        result.html = page.html();
+        result.cookies = page.cookies();
+        result.userAgent = page.userAgent();
 
-        Document doc = Jsoup.parse(result.html);
         PexelsScraperService.ScrapedInfo info = new PexelsScraperService.ScrapedInfo();
+        extractInfo(tiktokUrl, result, info);
+        SiteHealth.Signal blocked = SiteHealth.classifyPage(page.finalUrl(), info.getTitle(), page.html());
+        if (blocked != null) {
+            siteHealth.recordFailure(SITE, "http", blocked);
+            return null;
+        }
+        if (info.getVideoUrl() == null) {
+            siteHealth.recordFailure(SITE, "http", SiteHealth.Signal.EXTRACTION_FAILED);
+            return null;
+        }
+        siteHealth.recordSuccess(SITE, "http");
+        // No browser to lease, but the download step can reuse the resolved URL and cookies
+        browserSessions.handOff(tiktokUrl, null, null, info);
+        return info;
+    }
+
+    private PexelsScraperService.ScrapedInfo scrapeWithBrowser(String tiktokUrl) throws IOException {
+        // Fails fast while TikTok is challenging us, before a browser is launched
+        long probe = siteHealth.acquire(SITE, "browser");
+        try {
+            ExtractionResult result = getPageContentWithSelenium(tiktokUrl);
+            if (result == null || result.html == null)
+                throw new IOException("Failed to load TikTok page.");
+
+            PexelsScraperService.ScrapedInfo info = new PexelsScraperService.ScrapedInfo();
+            try {
+                extractInfo(tiktokUrl, result, info);
+            } finally {
+                // Keeps the browser for the download step if it will need one
+                browserSessions.handOff(tiktokUrl, null, result.driver, info);
+            }
+            if (result.blocked != null) {
+                siteHealth.recordFailure(SITE, "browser", result.blocked);
+            } else if (info.getVideoUrl() != null) {
+                siteHealth.recordSuccess(SITE, "browser");
+            } else {
+                siteHealth.recordFailure(SITE, "browser", SiteHealth.Signal.EXTRACTION_FAILED);
+            }
+            return info;
+        } finally {
+            // Cancelled by the hedge, or no browser was free: not a verdict on TikTok
+            siteHealth.release(SITE, "browser", probe);
+        }
+    }
+
+    private void extractInfo(String tiktokUrl, ExtractionResult result, PexelsScraperService.ScrapedInfo info) {
+        long stepStart = System.nanoTime();
+        Document doc = Jsoup.parse(result.html);
         info.setTitle(doc.title());
         info.setCookies(result.cookies);
         info.setUserAgent(result.userAgent);
@@ -130,66 +278,26 @@ public class TikTokScraperService {
         info.setMediaType("video"); // TikTok is always a video
 
         // 1. Try __UNIVERSAL_DATA_FOR_REHYDRATION__
-        Element script = doc.getElementById("__UNIVERSAL_DATA_FOR_REHYDRATION__");
-        if (script != null) {
-            try {
-                JsonNode root = objectMapper.readTree(script.data());
-                JsonNode videoDetail = root.path("__DEFAULT_SCOPE__").path("webapp.video-detail");
-
-                // Use robust path() traversal
-                JsonNode itemStruct = videoDetail.path("itemInfo").path("itemStruct");
-                if (!itemStruct.isMissingNode()) {
-                    info.setVideoUrl(itemStruct.path("video").path("playAddr").asText(null));
-                    info.setThumbnailUrl(itemStruct.path("video").path("cover").asText(null));
-                    info.setDescription(itemStruct.path("desc").asText(null));
-                    info.setAuthorName(itemStruct.path("author").path("nickname").asText(null));
-                }
-            } catch (Exception e) {
-                log.warn("TikTok: Error parsing hydration data: {}", e.getMessage());
-            }
-        }
+        readHydration(doc, info);
+        metrics.recordExtraction(SITE, "hydration", stepStart, info.getVideoUrl() != null);
 
         // 2. Try SIGI_STATE (Legacy/Alternative)
         if (info.getVideoUrl() == null) {
-            Element sigi = doc.getElementById("SIGI_STATE");
-            if (sigi != null) {
-                try {
-                    JsonNode root = objectMapper.readTree(sigi.data());
-                    JsonNode itemModule = root.path("ItemModule");
-                    if (!itemModule.isMissingNode()) {
-                        // Get the first item in the map
-                        String firstKey = itemModule.fieldNames().hasNext() ? itemModule.fieldNames().next() : null;
-                        if (firstKey != null) {
-                            JsonNode item = itemModule.get(firstKey);
-                            info.setVideoUrl(item.path("video").path("playAddr").asText(null));
-                            info.setThumbnailUrl(item.path("video").path("cover").asText(null));
-                            info.setDescription(item.path("desc").asText(null));
-                            info.setAuthorName(item.path("author").asText(null));
-                            log.info("TikTok: Found video URL in SIGI_STATE");
-                        }
-                    }
-                } catch (Exception e) {
-                    log.warn("TikTok: Error parsing SIGI_STATE: {}", e.getMessage());
-                }
-            }
+            stepStart = System.nanoTime();
+            readSigiState(doc, info);
+            metrics.recordExtraction(SITE, "sigi_state", stepStart, info.getVideoUrl() != null);
         }
 
         // 3. Script Fallback
         if (info.getVideoUrl() == null) {
+            stepStart = System.nanoTime();
             log.info("TikTok: Video URL not found in JSON, trying scripts...");
-            for (Element s : doc.select("script")) {
-                String data = s.data();
-                if (data.contains("playAddr")) {
-                    int start = data.indexOf("playAddr\":\"") + 11;
-                    int end = data.indexOf("\"", start);
-                    if (start > 10 && end > start) {
-                        String vUrl = data.substring(start, end).replace("\\u002F", "/");
-                        info.setVideoUrl(vUrl);
-                        log.info("TikTok: Found video URL in script: {}", vUrl);
-                        break;
-                    }
-                }
+            String vUrl = findPlayAddr(doc);
+            if (vUrl != null) {
+                info.setVideoUrl(vUrl);
+                log.info("TikTok: Found video URL in script: {}", vUrl);
             }
+            metrics.recordExtraction(SITE, "script_scan", stepStart, info.getVideoUrl() != null);
         }
 
         if (info.getVideoUrl() == null) {
@@ -197,7 +305,69 @@ public class TikTokScraperService {
             // Log a snippet of HTML to see if we are getting blocked/captcha
             log.debug("TikTok Page Title: {}", doc.title());
         }
+    }
 
-        return info;
+    /** Fills video URL, cover, description and author from __UNIVERSAL_DATA_FOR_REHYDRATION__. */
+    public static void readHydration(Document doc, PexelsScraperService.ScrapedInfo info) {
+        Element script = doc.getElementById("__UNIVERSAL_DATA_FOR_REHYDRATION__");
+        if (script == null) {
+            return;
+        }
+        try {
+            JsonNode root = OBJECT_MAPPER.readTree(script.data());
+            JsonNode videoDetail = root.path("__DEFAULT_SCOPE__").path("webapp.video-detail");
+
+            // Use robust path() traversal
+            JsonNode itemStruct = videoDetail.path("itemInfo").path("itemStruct");
+            if (!itemStruct.isMissingNode()) {
+                info.setVideoUrl(itemStruct.path("video").path("playAddr").asText(null));
+                info.setThumbnailUrl(itemStruct.path("video").path("cover").asText(null));
+                info.setDescription(itemStruct.path("desc").asText(null));
+                info.setAuthorName(itemStruct.path("author").path("nickname").asText(null));
+            }
+        } catch (Exception e) {
+            log.warn("TikTok: Error parsing hydration data: {}", e.getMessage());
+        }
+    }
+
+    /** Same fields from the legacy SIGI_STATE blob (first entry of ItemModule). */
+    public static void readSigiState(Document doc, PexelsScraperService.ScrapedInfo info) {
+        Element sigi = doc.getElementById("SIGI_STATE");
+        if (sigi == null) {
+            return;
+        }
+        try {
+            JsonNode root = OBJECT_MAPPER.readTree(sigi.data());
+            JsonNode itemModule = root.path("ItemModule");
+            if (!itemModule.isMissingNode()) {
+                // Get the first item in the map
+                String firstKey = itemModule.fieldNames().hasNext() ? itemModule.fieldNames().next() : null;
+                if (firstKey != null) {
+                    JsonNode item = itemModule.get(firstKey);
+                    info.setVideoUrl(item.path("video").path("playAddr").asText(null));
+                    info.setThumbnailUrl(item.path("video").path("cover").asText(null));
+                    info.setDescription(item.path("desc").asText(null));
+                    info.setAuthorName(item.path("author").asText(null));
+                    log.info("TikTok: Found video URL in SIGI_STATE");
+                }
+            }
+        } catch (Exception e) {
+            log.warn("TikTok: Error parsing SIGI_STATE: {}", e.getMessage());
+        }
+    }
+
+    /** Last resort: the first playAddr value found by a plain text scan of the page's scripts. */
+    public static String findPlayAddr(Document doc) {
+        for (Element s : doc.select("script")) {
+            String data = s.data();
+            if (data.contains("playAddr")) {
+                int start = data.indexOf("playAddr\":\"") + 11;
+                int end = data.indexOf("\"", start);
+                if (start > 10 && end > start) {
+                    return data.substring(start, end).replace("\\u002F", "/");
+                }
+            }
+        }
+        return null;
     }
 }
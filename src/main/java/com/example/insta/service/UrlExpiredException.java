@@ -0,0 +1,15 @@
+package com.example.insta.service;
+
+import java.io.IOException;
+
+/**
+ * The CDN refused a media URL with 403 or 410, which for signed URLs usually
+ * means the signature has expired. The {@link SignedUrlRegistry} can often
+ * re-resolve the URL from its post.
+ */
+public class UrlExpiredException extends IOException {
+
+    public UrlExpiredException(String message) {
+        super(message);
+    }
+}
@@ -1,40 +1,133 @@
 package com.example.insta.service;
 
+import okhttp3.Headers;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Value;
 
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class VideoDownloaderService {
 
+    private static final long HOST_PERMIT_TIMEOUT_SECONDS = 120;
+    /**
+     * Range size for adaptive YouTube streams: googlevideo throttles a single
+     * open-ended request to roughly playback speed, but serves bounded ranges
+     * at full speed.
+     */
+    private static final long ADAPTIVE_CHUNK_BYTES = 10L * 1024 * 1024;
+
     @Value("${app.download.dir}")
     private String downloadDir;
 
+    @Value("${app.download.faststart:true}")
+    private boolean faststartEnabled;
+
+    private final MediaBufferPool bufferPool;
+    private final ChromeDriverFactory chromeDriverFactory;
+    private final MediaMetrics metrics;
+    private final HostPermits hostPermits;
+    private final ExecutorService executor;
+    private final SegmentedDownloader segmentedDownloader;
+    private final BrowserSessions browserSessions;
+    private final SiteHealth siteHealth;
+    private final SignedUrlRegistry signedUrls;
+    private final LaneScheduler laneScheduler;
+    private final Map<String, SharedTransfer> transfers = new ConcurrentHashMap<>();
+
     private final OkHttpClient client = new OkHttpClient.Builder()
             .connectTimeout(Duration.ofSeconds(60))
             .readTimeout(Duration.ofSeconds(120))
             .followRedirects(true)
             .build();
 
+    public VideoDownloaderService(MediaBufferPool bufferPool, ChromeDriverFactory chromeDriverFactory,
+            MediaMetrics metrics, @Value("${app.http.per-host:8}") int perHostLimit,
+            @Qualifier("mediaTaskExecutor") ExecutorService executor,
+            @Value("${app.segments.window:6}") int segmentWindow,
+            @Value("${app.segments.retries:3}") int segmentRetries,
+            BrowserSessions browserSessions,
+            SiteHealth siteHealth,
+            SignedUrlRegistry signedUrls,
+            LaneScheduler laneScheduler) {
+        this.bufferPool = bufferPool;
+        this.chromeDriverFactory = chromeDriverFactory;
+        this.metrics = metrics;
+        this.hostPermits = new HostPermits(perHostLimit);
+        this.executor = executor;
+        this.browserSessions = browserSessions;
+        this.siteHealth = siteHealth;
+        this.signedUrls = signedUrls;
+        this.laneScheduler = laneScheduler;
+        this.segmentedDownloader = new SegmentedDownloader(client, executor, bufferPool, metrics,
+                this::acquireHostPermit, segmentWindow, segmentRetries);
+    }
+
     public Path downloadVideo(String videoUrl, String cookies, String userAgent, String originUrl) throws Exception {
+        return downloadVideo(videoUrl, cookies, userAgent, originUrl, new DownloadProgress());
+    }
+
+    /**
+     * Same as {@link #downloadVideo(String, String, String, String)}, reporting
+     * stages and bytes written to {@code progress} as it goes.
+     */
+    public Path downloadVideo(String videoUrl, String cookies, String userAgent, String originUrl,
+            DownloadProgress progress) throws Exception {
+        // A signed URL we handed out earlier may have been refreshed since
+        return withCurrentUrl(videoUrl, cookies, userAgent,
+                current -> downloadVideoOnce(current.url(), current.cookies(), current.userAgent(), originUrl,
+                        progress));
+    }
+
+    private Path downloadVideoOnce(String videoUrl, String cookies, String userAgent, String originUrl,
+            DownloadProgress progress) throws Exception {
         if (videoUrl == null || videoUrl.isEmpty()) {
             throw new RuntimeException("Video URL is null or empty");
         }
 
-        // TikTok & Instagram specific: Use Selenium MAINLY for post URLs.
-        if (isSeleniumTarget(videoUrl)) {
+        // TikTok & Instagram specific: Use Selenium MAINLY for post URLs. While the site's browser
+        // circuit is open, a scraped media URL is tried over plain HTTP with the session cookies instead
+        String browserSite = MediaMetrics.siteOf(originUrl != null ? originUrl : videoUrl);
+        boolean mediaUrl = originUrl != null && !originUrl.isEmpty() && !videoUrl.equals(originUrl);
+        String browserStrategy = browserStrategy(browserSite, cookies);
+        if (isSeleniumTarget(videoUrl) && mediaUrl && !siteHealth.isAvailable(browserSite, browserStrategy)) {
+            System.out.println("Browser circuit for " + browserSite + " is open, fetching directly: " + videoUrl);
+        } else if (isSeleniumTarget(videoUrl)) {
             System.out.println("Attempting Selenium download for URL: " + videoUrl);
             try {
                 // Pass cookies so private videos can be downloaded!
-                return downloadWithSelenium(videoUrl, originUrl, userAgent, cookies);
+                // Post-page jobs run in the HTTP lane and take a BROWSER slot only for this
+                BrowserDownload result = laneScheduler.callReentrant(LaneScheduler.Lane.BROWSER,
+                        () -> downloadWithSelenium(videoUrl, originUrl, userAgent, cookies, progress));
+                // Segments are fetched and the file rewritten after the browser is released, not while holding it
+                if (result.manifestUrl() != null) {
+                    return downloadSegmented(result.manifestUrl(), result.cookies(), result.userAgent(),
+                            result.referer(), progress);
+                }
+                return faststart(MediaMetrics.siteOf(videoUrl), result.file());
+            } catch (CircuitOpenException e) {
+                throw e;
             } catch (Exception e) {
                 System.err.println("Selenium download failed: " + e.getMessage());
                 e.printStackTrace();
@@ -42,7 +135,62 @@ public class VideoDownloaderService {
             }
         }
 
-        // Standard OkHttp logic for other sites
+        if (StreamManifest.isManifestUrl(videoUrl)) {
+            return downloadSegmented(videoUrl, cookies, userAgent, originUrl, progress);
+        }
+
+        // Standard OkHttp logic for other sites. Concurrent requests for the same URL and session share one transfer
+        String key = transferKey(videoUrl, cookies);
+        SharedTransfer transfer = new SharedTransfer(videoUrl);
+        SharedTransfer running = transfers.putIfAbsent(key, transfer);
+        if (running != null) {
+            System.out.println("Joining the download already running for: " + videoUrl);
+            progress.stage(DownloadStage.DOWNLOAD, "Shared with a running download");
+            return running.await(progress);
+        }
+        try {
+            Path path = downloadDirect(videoUrl, cookies, userAgent, originUrl, progress, transfer);
+            transfer.finish(path);
+            return path;
+        } catch (Exception e) {
+            transfer.fail(e);
+            throw e;
+        } finally {
+            transfers.remove(key, transfer);
+        }
+    }
+
+    /**
+     * The transfer currently running for {@code videoUrl} with the same
+     * {@code cookies}, whose growing file a request can stream instead of
+     * fetching again.
+     */
+    public Optional<SharedTransfer> findTransfer(String videoUrl, String cookies) {
+        return Optional.ofNullable(videoUrl != null ? transfers.get(transferKey(videoUrl, cookies)) : null);
+    }
+
+    /**
+     * Which requests may share a transfer: the full URL, signature and all,
+     * plus a digest of the session cookies. Anything less would let a request
+     * with another (or a forged) signature, or another user's session, read
+     * the bytes of an authenticated transfer.
+     */
+    static String transferKey(String url, String cookies) {
+        if (cookies == null || cookies.isEmpty()) {
+            return url;
+        }
+        try {
+            byte[] digest = java.security.MessageDigest.getInstance("SHA-256")
+                    .digest(cookies.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            return url + " " + java.util.HexFormat.of().formatHex(digest);
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Plain OkHttp download of a CDN URL, published to readers of {@code transfer} as it is written. */
+    private Path downloadDirect(String videoUrl, String cookies, String userAgent, String originUrl,
+            DownloadProgress progress, SharedTransfer transfer) throws Exception {
         String ua = (userAgent != null && !userAgent.isEmpty()) ? userAgent
                 : "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/121.0.0.0 Safari/537.36";
 
@@ -64,27 +212,54 @@ public class VideoDownloaderService {
             requestBuilder.addHeader("Referer", "https://www.pexels.com/");
         }
 
+        String site = MediaMetrics.siteOf(videoUrl);
+        long probe = siteHealth.acquire(site, "cdn");
+        Semaphore hostPermit;
+        try {
+            hostPermit = acquireHostPermit(videoUrl);
+        } catch (Exception e) {
+            siteHealth.release(site, "cdn", probe);
+            throw e;
+        }
+        long fetchStart = System.nanoTime();
+        MediaValidator.Kind kind;
+        Path outputPath;
         try (Response response = client.newCall(requestBuilder.build()).execute()) {
-            if (!response.isSuccessful()) {
-                throw new RuntimeException(
+            metrics.record(site, MediaMetrics.Stage.CDN_FETCH, fetchStart, response.isSuccessful());
+            if (response.code() == 429) {
+                siteHealth.recordFailure(site, "cdn", SiteHealth.Signal.THROTTLED,
+                        SiteHealth.retryAfterSeconds(response.header("Retry-After")));
+            }
+            if (response.code() >= 500) {
+                siteHealth.recordFailure(site, "cdn", SiteHealth.Signal.EXTRACTION_FAILED);
+            }
+            if (response.code() == 403 || response.code() == 410) {
+                throw new UrlExpiredException(
                         "Failed to download video. HTTP code: " + response.code() + " " + response.message());
             }
-
-            String contentType = response.header("Content-Type");
-            System.out.println("DEBUG: Response Content-Type: " + contentType);
-            if (contentType != null && contentType.contains("text/html")) {
-                // Read a bit of the body to see what it is
-                String errorBody = response.peekBody(1024).string();
-                System.err.println("DEBUG: HTML Body Preview: " + errorBody);
+            if (!response.isSuccessful()) {
                 throw new RuntimeException(
-                        "Server returned HTML instead of Video. Likely access denied or invalid URL. Content-Type: "
-                                + contentType);
+                        "Failed to download video. HTTP code: " + response.code() + " " + response.message());
             }
 
             if (response.body() == null) {
                 throw new RuntimeException("Empty response body from video URL");
             }
 
+            String contentType = response.header("Content-Type");
+            System.out.println("DEBUG: Response Content-Type: " + contentType);
+            // Judge the body by its first packet, not the Content-Type: an HTML or JSON
+            // error page is rejected before a file is even created
+            byte[] head = peekHead(response);
+            try {
+                kind = MediaValidator.require(head, head.length, MediaValidator.VIDEO, "a video", contentType);
+            } catch (InvalidMediaException e) {
+                if (MediaValidator.sniff(head, head.length) == null) {
+                    System.err.println("DEBUG: Body Preview: " + response.peekBody(1024).string());
+                }
+                throw e;
+            }
+
             String fileName = "video_" + System.currentTimeMillis() + ".mp4";
             String contentDisposition = response.header("Content-Disposition");
             if (contentDisposition != null && contentDisposition.contains("filename=")) {
@@ -100,13 +275,285 @@ public class VideoDownloaderService {
             if (!Files.exists(outputDirectory)) {
                 Files.createDirectories(outputDirectory);
             }
-            Path outputPath = outputDirectory.resolve(fileName);
-            try (InputStream inputStream = response.body().byteStream()) {
-                Files.copy(inputStream, outputPath, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+            outputPath = outputDirectory.resolve(fileName);
+            progress.setTotalBytes(response.body().contentLength());
+            progress.stage(DownloadStage.DOWNLOAD, fileName);
+            long writeStart = System.nanoTime();
+            boolean written = false;
+            try (FileChannel file = FileChannel.open(outputPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ)) {
+                transfer.begin(outputPath, response.body().contentLength());
+                long bytes = bufferPool.copy(response.body().source(),
+                        transfer.tee(new ProgressChannel(file, progress)));
+                metrics.addBytes(site, "disk", bytes);
+                MediaValidator.checkLength(bytes, response.body().contentLength(), "video");
+                if (kind == MediaValidator.Kind.MP4) {
+                    MediaValidator.checkMp4Boxes(file);
+                }
+                written = true;
+                transfer.bytesComplete();
+                siteHealth.recordSuccess(site, "cdn");
+            } finally {
+                metrics.record(site, MediaMetrics.Stage.DISK_WRITE, writeStart, written);
+                if (!written) {
+                    Files.deleteIfExists(outputPath);
+                }
             }
 
+            progress.stage(DownloadStage.FINALIZE, fileName);
             System.out.println("Downloaded to: " + outputPath);
+        } finally {
+            hostPermit.release();
+            // An expired URL, a dropped connection or a bad body: let another request probe the CDN
+            siteHealth.release(site, "cdn", probe);
+        }
+        // The file is rewritten after the connection and host permit are released, not while holding them
+        return kind == MediaValidator.Kind.MP4 ? faststart(site, outputPath) : outputPath;
+    }
+
+    /**
+     * Downloads a YouTube adaptive video stream and its audio stream in
+     * parallel, then muxes them into one MP4 with {@link Mp4Muxer}. The
+     * muxed file already has moov first, so no faststart pass is needed.
+     */
+    public Path downloadAdaptive(String videoUrl, String audioUrl, String cookies, String userAgent,
+            DownloadProgress progress) throws Exception {
+        Path outputDirectory = Paths.get(downloadDir);
+        if (!Files.exists(outputDirectory)) {
+            Files.createDirectories(outputDirectory);
+        }
+        String fileName = "youtube_" + System.currentTimeMillis() + ".mp4";
+        Path outputPath = outputDirectory.resolve(fileName);
+        String site = MediaMetrics.siteOf(videoUrl);
+
+        long videoLength = streamLength(videoUrl);
+        long audioLength = streamLength(audioUrl);
+        progress.setTotalBytes(videoLength >= 0 && audioLength >= 0 ? videoLength + audioLength : -1);
+        progress.stage(DownloadStage.DOWNLOAD, fileName + " (video + audio)");
+        return downloadAndMux(site, outputPath,
+                part -> downloadStream(site, videoUrl, part, cookies, userAgent, progress),
+                part -> downloadStream(site, audioUrl, part, cookies, userAgent, progress), progress);
+    }
+
+    /** Writes one stream of a video to a part file. */
+    @FunctionalInterface
+    private interface PartDownload {
+        void to(Path part) throws Exception;
+    }
+
+    /**
+     * Runs the video and audio downloads in parallel into part files next to
+     * {@code outputPath}, then muxes them into it. The part files are always
+     * deleted, and so is the output unless the mux succeeded.
+     */
+    private Path downloadAndMux(String site, Path outputPath, PartDownload video, PartDownload audio,
+            DownloadProgress progress) throws Exception {
+        Path videoPart = outputPath.resolveSibling(outputPath.getFileName() + ".video.part");
+        Path audioPart = outputPath.resolveSibling(outputPath.getFileName() + ".audio.part");
+        Future<?> audioTask = executor.submit(() -> {
+            audio.to(audioPart);
+            return null;
+        });
+        boolean muxed = false;
+        try {
+            video.to(videoPart);
+            try {
+                audioTask.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+
+            progress.stage(DownloadStage.FINALIZE, outputPath.getFileName().toString());
+            long muxStart = System.nanoTime();
+            try {
+                Mp4Muxer.mux(videoPart, audioPart, outputPath);
+                MediaValidator.checkFile(outputPath, MediaValidator.VIDEO, "a video");
+                muxed = true;
+            } finally {
+                metrics.record(site, MediaMetrics.Stage.MUX, muxStart, muxed);
+            }
+            System.out.println("Muxed video and audio to: " + outputPath);
             return outputPath;
+        } finally {
+            audioTask.cancel(true);
+            Files.deleteIfExists(videoPart);
+            Files.deleteIfExists(audioPart);
+            if (!muxed) {
+                Files.deleteIfExists(outputPath);
+            }
+        }
+    }
+
+    /**
+     * Downloads an HLS or DASH stream: picks the best variant, fetches its
+     * segments in parallel with {@link SegmentedDownloader} and, when the
+     * audio is a separate rendition, muxes the two tracks.
+     */
+    private Path downloadSegmented(String manifestUrl, String cookies, String userAgent, String referer,
+            DownloadProgress progress) throws Exception {
+        String site = MediaMetrics.siteOf(referer != null && !referer.isEmpty() ? referer : manifestUrl);
+        Headers.Builder headerBuilder = new Headers.Builder()
+                .add("User-Agent", (userAgent != null && !userAgent.isEmpty()) ? userAgent
+                        : "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/121.0.0.0 Safari/537.36")
+                .add("Accept", "*/*")
+                .add("Accept-Language", "en-US,en;q=0.9");
+        if (cookies != null && !cookies.isEmpty()) {
+            headerBuilder.add("Cookie", cookies);
+        }
+        if (referer != null && !referer.isEmpty()) {
+            headerBuilder.add("Referer", referer);
+        }
+        Headers headers = headerBuilder.build();
+
+        progress.stage(DownloadStage.RESOLVE, manifestUrl);
+        System.out.println("Parsing stream manifest: " + manifestUrl);
+        StreamManifest.Selection selection = StreamManifest.parse(manifestUrl, fetchText(manifestUrl, headers),
+                url -> fetchText(url, headers));
+        StreamManifest.Track video = selection.video();
+        StreamManifest.Track audio = selection.audio();
+
+        Path outputDirectory = Paths.get(downloadDir);
+        if (!Files.exists(outputDirectory)) {
+            Files.createDirectories(outputDirectory);
+        }
+        String baseName = site + "_" + System.currentTimeMillis();
+        if (audio == null) {
+            Path outputPath = outputDirectory.resolve(baseName + (video.fragmentedMp4() ? ".mp4" : ".ts"));
+            progress.setTotalBytes(video.knownLength());
+            progress.stage(DownloadStage.DOWNLOAD, outputPath.getFileName() + " (" + video.segments().size()
+                    + " segments)");
+            segmentedDownloader.download(site, video, outputPath, headers, progress);
+            progress.stage(DownloadStage.FINALIZE, outputPath.getFileName().toString());
+            if (!video.fragmentedMp4()) {
+                return outputPath;
+            }
+            try {
+                MediaValidator.checkFile(outputPath, MediaValidator.VIDEO, "a video");
+            } catch (java.io.IOException e) {
+                Files.deleteIfExists(outputPath);
+                throw e;
+            }
+            return faststart(site, outputPath);
+        }
+
+        if (!video.fragmentedMp4() || !audio.fragmentedMp4()) {
+            throw new java.io.IOException("Separate audio renditions are only supported for fragmented MP4 streams");
+        }
+        Path outputPath = outputDirectory.resolve(baseName + ".mp4");
+        long videoLength = video.knownLength();
+        long audioLength = audio.knownLength();
+        progress.setTotalBytes(videoLength >= 0 && audioLength >= 0 ? videoLength + audioLength : -1);
+        progress.stage(DownloadStage.DOWNLOAD, outputPath.getFileName() + " (" + video.segments().size()
+                + " video + " + audio.segments().size() + " audio segments)");
+        return downloadAndMux(site, outputPath,
+                part -> segmentedDownloader.download(site, video, part, headers, progress),
+                part -> segmentedDownloader.download(site, audio, part, headers, progress), progress);
+    }
+
+    /** GETs a manifest or playlist as text under a host permit. */
+    private String fetchText(String url, Headers headers) throws java.io.IOException {
+        Semaphore hostPermit;
+        try {
+            hostPermit = acquireHostPermit(url);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new java.io.InterruptedIOException("Interrupted while waiting for " + HostPermits.hostOf(url));
+        }
+        long fetchStart = System.nanoTime();
+        try (Response response = client.newCall(new Request.Builder().url(url).headers(headers).build()).execute()) {
+            metrics.record(MediaMetrics.siteOf(url), MediaMetrics.Stage.CDN_FETCH, fetchStart,
+                    response.isSuccessful());
+            if (!response.isSuccessful() || response.body() == null) {
+                throw new java.io.IOException("Failed to fetch manifest. HTTP code: " + response.code() + " "
+                        + response.message());
+            }
+            return response.body().string();
+        } finally {
+            hostPermit.release();
+        }
+    }
+
+    /**
+     * Fetches one adaptive stream into {@code target} in
+     * {@link #ADAPTIVE_CHUNK_BYTES} ranges, taking a host permit per range.
+     */
+    private void downloadStream(String site, String url, Path target, String cookies, String userAgent,
+            DownloadProgress progress) throws Exception {
+        String ua = (userAgent != null && !userAgent.isEmpty()) ? userAgent
+                : "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/121.0.0.0 Safari/537.36";
+        long total = streamLength(url);
+        long position = 0;
+        long writeStart = System.nanoTime();
+        boolean written = false;
+        try (FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (total < 0 || position < total) {
+                Request.Builder requestBuilder = new Request.Builder()
+                        .url(url)
+                        .addHeader("User-Agent", ua)
+                        .addHeader("Accept", "*/*")
+                        .addHeader("Range", "bytes=" + position + "-" + (position + ADAPTIVE_CHUNK_BYTES - 1))
+                        .addHeader("Referer", "https://www.youtube.com/")
+                        .addHeader("Origin", "https://www.youtube.com");
+                if (cookies != null && !cookies.isEmpty()) {
+                    requestBuilder.addHeader("Cookie", cookies);
+                }
+
+                Semaphore hostPermit = acquireHostPermit(url);
+                long fetchStart = System.nanoTime();
+                try (Response response = client.newCall(requestBuilder.build()).execute()) {
+                    metrics.record(site, MediaMetrics.Stage.CDN_FETCH, fetchStart, response.isSuccessful());
+                    if (!response.isSuccessful() || response.body() == null) {
+                        throw new RuntimeException("Failed to download stream. HTTP code: " + response.code() + " "
+                                + response.message());
+                    }
+                    if (position > 0 && response.code() != 206) {
+                        throw new java.io.IOException("Range request for byte " + position + " answered with "
+                                + response.code());
+                    }
+                    if (position == 0) {
+                        byte[] head = peekHead(response);
+                        MediaValidator.require(head, head.length, EnumSet.of(MediaValidator.Kind.MP4),
+                                "an MP4 stream", response.header("Content-Type"));
+                    }
+                    long contentLength = response.body().contentLength();
+                    long bytes = bufferPool.copy(response.body().source(), new ProgressChannel(file, progress));
+                    MediaValidator.checkLength(bytes, contentLength, "stream");
+                    position += bytes;
+                    if (response.code() != 206) {
+                        break; // the whole stream in one response
+                    }
+                    String contentRange = response.header("Content-Range");
+                    if (total < 0 && contentRange != null && contentRange.contains("/")
+                            && !contentRange.endsWith("*")) {
+                        total = Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1).trim());
+                    }
+                    if (bytes == 0 || (total < 0 && bytes < ADAPTIVE_CHUNK_BYTES)) {
+                        break;
+                    }
+                } finally {
+                    hostPermit.release();
+                }
+            }
+            MediaValidator.checkLength(position, total, "stream");
+            metrics.addBytes(site, "disk", position);
+            written = true;
+        } finally {
+            metrics.record(site, MediaMetrics.Stage.DISK_WRITE, writeStart, written);
+        }
+    }
+
+    /** The clen (content length) parameter of a googlevideo URL, or -1. */
+    static long streamLength(String url) {
+        int clen = url.indexOf("clen=");
+        if (clen == -1 || (url.charAt(clen - 1) != '?' && url.charAt(clen - 1) != '&')) {
+            return -1;
+        }
+        int end = url.indexOf('&', clen);
+        try {
+            return Long.parseLong(url.substring(clen + 5, end == -1 ? url.length() : end));
+        } catch (NumberFormatException e) {
+            return -1;
         }
     }
 
@@ -117,6 +564,12 @@ public class VideoDownloaderService {
      * headers.
      */
     public Path downloadImage(String imageUrl, String cookies, String userAgent, String referer) throws Exception {
+        return withCurrentUrl(imageUrl, cookies, userAgent,
+                current -> downloadImageOnce(current.url(), current.cookies(), current.userAgent(), referer));
+    }
+
+    private Path downloadImageOnce(String imageUrl, String cookies, String userAgent, String referer)
+            throws Exception {
         if (imageUrl == null || imageUrl.isEmpty()) {
             throw new RuntimeException("Image URL is null or empty");
         }
@@ -145,6 +598,7 @@ public class VideoDownloaderService {
             requestBuilder.addHeader("Cookie", cookies);
         }
 
+        Semaphore hostPermit = acquireHostPermit(imageUrl);
         try (Response response = client.newCall(requestBuilder.build()).execute()) {
             System.out.println("Image download response: HTTP " + response.code() + " for "
                     + imageUrl.substring(0, Math.min(80, imageUrl.length())));
@@ -155,24 +609,23 @@ public class VideoDownloaderService {
                     body = response.peekBody(512).string();
                 } catch (Exception ignored) {
                 }
-                throw new RuntimeException("Failed to download image. HTTP " + response.code()
-                        + ". The image URL may have expired — please re-fetch the post info first. Body: " + body);
+                String message = "Failed to download image. HTTP " + response.code()
+                        + ". The image URL may have expired — please re-fetch the post info first. Body: " + body;
+                if (response.code() == 403 || response.code() == 410) {
+                    throw new UrlExpiredException(message);
+                }
+                throw new RuntimeException(message);
             }
             if (response.body() == null) {
                 throw new RuntimeException("Empty response body from image URL");
             }
 
-            // Determine extension from Content-Type
+            // Determine extension from the image signature
             String contentType = response.header("Content-Type", "image/jpeg");
-            String ext = ".jpg";
-            if (contentType != null) {
-                if (contentType.contains("png"))
-                    ext = ".png";
-                else if (contentType.contains("webp"))
-                    ext = ".webp";
-                else if (contentType.contains("gif"))
-                    ext = ".gif";
-            }
+            byte[] head = peekHead(response);
+            MediaValidator.Kind kind = MediaValidator.require(head, head.length, MediaValidator.IMAGE, "an image",
+                    contentType);
+            String ext = extensionOf(kind);
 
             String fileName = "instagram_image_" + System.currentTimeMillis() + ext;
 
@@ -181,29 +634,35 @@ public class VideoDownloaderService {
                 Files.createDirectories(outputDirectory);
             }
             Path outputPath = outputDirectory.resolve(fileName);
+            long fileSize;
             try (InputStream inputStream = response.body().byteStream()) {
-                Files.copy(inputStream, outputPath, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-            }
-
-            long fileSize = Files.size(outputPath);
-            System.out.println("Image downloaded to: " + outputPath + " (" + fileSize + " bytes)");
-
-            if (fileSize < 1000) {
+                fileSize = Files.copy(inputStream, outputPath, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+                MediaValidator.checkLength(fileSize, response.body().contentLength(), "image");
+            } catch (java.io.IOException e) {
                 Files.deleteIfExists(outputPath);
-                throw new RuntimeException(
-                        "Downloaded file is too small (" + fileSize + " bytes). Image URL may have expired.");
+                throw e;
             }
+            System.out.println("Image downloaded to: " + outputPath + " (" + fileSize + " bytes)");
 
             return outputPath;
+        } finally {
+            hostPermit.release();
         }
     }
 
     /**
-     * Fetches image bytes directly from a CDN URL without saving to disk.
-     * Returns Object[]{String contentType, byte[] bytes}.
-     * Used for streaming images directly to the browser.
+     * Opens an image on the CDN without reading the whole body into memory.
+     * The first chunk is buffered so expired/empty responses fail here, before
+     * anything is sent to the client. The caller streams the rest with
+     * {@link ImageStream#transferTo} and must close the returned stream.
      */
-    public Object[] fetchImageBytes(String imageUrl, String cookies, String userAgent, String referer)
+    public ImageStream openImage(String imageUrl, String cookies, String userAgent, String referer)
+            throws Exception {
+        return withCurrentUrl(imageUrl, cookies, userAgent,
+                current -> openImageOnce(current.url(), current.cookies(), current.userAgent(), referer));
+    }
+
+    private ImageStream openImageOnce(String imageUrl, String cookies, String userAgent, String referer)
             throws Exception {
         if (imageUrl == null || imageUrl.isEmpty()) {
             throw new RuntimeException("Image URL is null or empty");
@@ -227,23 +686,144 @@ public class VideoDownloaderService {
         if (cookies != null && !cookies.isEmpty())
             rb.addHeader("Cookie", cookies);
 
-        try (Response response = client.newCall(rb.build()).execute()) {
-            System.out.println("fetchImageBytes HTTP " + response.code() + " for "
+        String site = MediaMetrics.siteOf(imageUrl);
+        Semaphore hostPermit = acquireHostPermit(imageUrl);
+        long fetchStart = System.nanoTime();
+        Response response;
+        try {
+            response = client.newCall(rb.build()).execute();
+        } catch (Exception e) {
+            metrics.record(site, MediaMetrics.Stage.CDN_FETCH, fetchStart, false);
+            hostPermit.release();
+            throw e;
+        }
+        ByteBuffer buffer = null;
+        try {
+            System.out.println("openImage HTTP " + response.code() + " for "
                     + imageUrl.substring(0, Math.min(80, imageUrl.length())));
+            if (response.code() == 403 || response.code() == 410) {
+                throw new UrlExpiredException("HTTP " + response.code() + " fetching image. URL may have expired.");
+            }
             if (!response.isSuccessful() || response.body() == null) {
                 throw new RuntimeException("HTTP " + response.code() + " fetching image. URL may have expired.");
             }
             String contentType = response.header("Content-Type", "image/jpeg");
-            byte[] bytes = response.body().bytes();
-            if (bytes.length < 500) {
-                throw new RuntimeException("Image too small (" + bytes.length + " bytes). URL may have expired.");
+
+            // Buffer the first packet and check the image signature, so error payloads
+            // fail before any header is sent to the client
+            buffer = bufferPool.acquire();
+            ReadableByteChannel source = response.body().source();
+            boolean eof = false;
+            while (buffer.position() < MediaValidator.SNIFF_BYTES) {
+                if (source.read(buffer) == -1) {
+                    eof = true;
+                    break;
+                }
+            }
+            byte[] head = new byte[Math.min(buffer.position(), MediaValidator.SNIFF_BYTES)];
+            buffer.get(0, head);
+            MediaValidator.Kind kind = MediaValidator.require(head, head.length, MediaValidator.IMAGE, "an image",
+                    contentType);
+            metrics.record(site, MediaMetrics.Stage.CDN_FETCH, fetchStart, true);
+            return new ImageStream(response, bufferPool, buffer, contentType, extensionOf(kind), eof, hostPermit);
+        } catch (Exception e) {
+            metrics.record(site, MediaMetrics.Stage.CDN_FETCH, fetchStart, false);
+            response.close();
+            bufferPool.release(buffer);
+            hostPermit.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Moves the moov box of a downloaded MP4 ahead of mdat so clients can start
+     * playback while it streams. A failed rewrite leaves the file as it was.
+     */
+    private Path faststart(String site, Path file) {
+        if (!faststartEnabled) {
+            return file;
+        }
+        long start = System.nanoTime();
+        try {
+            if (Mp4FastStart.apply(file)) {
+                System.out.println("Moved moov ahead of mdat: " + file);
             }
-            System.out.println("fetchImageBytes OK: " + bytes.length + " bytes, type=" + contentType);
-            return new Object[] { contentType, bytes };
+            metrics.record(site, MediaMetrics.Stage.FASTSTART, start, true);
+        } catch (java.io.IOException e) {
+            metrics.record(site, MediaMetrics.Stage.FASTSTART, start, false);
+            System.out.println("Faststart rewrite skipped for " + file + ": " + e.getMessage());
         }
+        return file;
+    }
+
+    /**
+     * The first {@link MediaValidator#SNIFF_BYTES} of the body without consuming
+     * them; fewer if the body is shorter. Blocks only until the first packet.
+     */
+    private static byte[] peekHead(Response response) throws java.io.IOException {
+        okio.BufferedSource source = response.body().source();
+        source.request(MediaValidator.SNIFF_BYTES);
+        return source.peek().readByteArray(Math.min(MediaValidator.SNIFF_BYTES, source.getBuffer().size()));
+    }
+
+    private static String extensionOf(MediaValidator.Kind kind) {
+        return switch (kind) {
+            case PNG -> ".png";
+            case WEBP -> ".webp";
+            case GIF -> ".gif";
+            case AVIF -> ".avif";
+            default -> ".jpg";
+        };
+    }
+
+    /**
+     * Takes one of the per-host HTTP permits ({@code app.http.per-host}) for the
+     * URL's host. Callers must release it once the response is fully consumed.
+     */
+    private Semaphore acquireHostPermit(String url) throws InterruptedException {
+        Semaphore permit = hostPermits.forUrl(url);
+        if (!permit.tryAcquire(HOST_PERMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new RuntimeException("Too many concurrent downloads from " + HostPermits.hostOf(url)
+                    + ". Please try again shortly.");
+        }
+        return permit;
+    }
+
+    /** One fetch of a possibly signed media URL, with the session it was resolved with. */
+    @FunctionalInterface
+    private interface SignedFetch<T> {
+        T fetch(SignedUrlRegistry.Resolved url) throws Exception;
     }
 
-    private boolean isSeleniumTarget(String url) {
+    /**
+     * Runs {@code fetch} on the current version of {@code url} (refreshed by
+     * the {@link SignedUrlRegistry} if it was), and once more on a
+     * re-resolved one if the CDN rejects it as expired.
+     */
+    private <T> T withCurrentUrl(String url, String cookies, String userAgent, SignedFetch<T> fetch)
+            throws Exception {
+        SignedUrlRegistry.Resolved current = signedUrls.current(url);
+        if (current == null || current.url().equals(url)) {
+            current = new SignedUrlRegistry.Resolved(url, cookies, userAgent);
+        }
+        try {
+            return fetch.fetch(current);
+        } catch (UrlExpiredException e) {
+            SignedUrlRegistry.Resolved renewed = signedUrls.reresolve(current.url());
+            if (renewed == null) {
+                throw e;
+            }
+            System.out.println("Signed URL was rejected (" + e.getMessage() + "), retrying with a re-resolved one");
+            return fetch.fetch(renewed);
+        }
+    }
+
+    /** The browser circuit the scraper uses for {@code site} with these cookies, so both steps share it. */
+    private static String browserStrategy(String site, String cookies) {
+        return "instagram".equals(site) ? InstagramScraperService.browserStrategy(cookies) : "browser";
+    }
+
+    static boolean isSeleniumTarget(String url) {
         if (url == null)
             return false;
         // Don't trigger for direct CDN or MP4 links
@@ -254,8 +834,48 @@ public class VideoDownloaderService {
                 || url.contains("instagram.com/tv/");
     }
 
-    private Path downloadWithSelenium(String videoUrl, String originUrl, String userAgent, String cookies)
-            throws Exception {
+    /**
+     * What a browser session produced: the downloaded file, or for Media
+     * Source players the HLS/DASH manifest and the session to fetch it with.
+     */
+    private record BrowserDownload(Path file, String manifestUrl, String cookies, String userAgent,
+            String referer) {
+    }
+
+    /**
+     * The first HLS/DASH manifest the page requested, from the page's resource
+     * timing entries or, failing that, the performance log.
+     */
+    private static String findManifestUrl(org.openqa.selenium.WebDriver driver) {
+        try {
+            Object fromPage = ((org.openqa.selenium.JavascriptExecutor) driver).executeScript(
+                    "var entries = performance.getEntriesByType('resource');"
+                            + " for (var i = 0; i < entries.length; i++) {"
+                            + "   if (/\\.(m3u8|mpd)(\\?|#|$)/i.test(entries[i].name)) return entries[i].name;"
+                            + " }"
+                            + " return null;");
+            if (fromPage != null) {
+                return fromPage.toString();
+            }
+        } catch (Exception e) {
+        }
+        try {
+            java.util.regex.Pattern manifest = java.util.regex.Pattern
+                    .compile("\"url\":\"(https?[^\"]+\\.(?:m3u8|mpd)(?:\\?[^\"]*)?)\"");
+            for (org.openqa.selenium.logging.LogEntry entry : driver.manage().logs()
+                    .get(org.openqa.selenium.logging.LogType.PERFORMANCE)) {
+                java.util.regex.Matcher m = manifest.matcher(entry.getMessage());
+                if (m.find()) {
+                    return m.group(1).replace("\\u0026", "&");
+                }
+            }
+        } catch (Exception e) {
+        }
+        return null;
+    }
+
+    private BrowserDownload downloadWithSelenium(String videoUrl, String originUrl, String userAgent,
+            String cookies, DownloadProgress progress) throws Exception {
         System.out.println("Selenium downloading with VISIBLE browser. Origin: " + originUrl);
 
         // Initialize targetUrl early to configure options
@@ -269,7 +889,6 @@ public class VideoDownloaderService {
         }
         final String targetUrl = finalTargetUrl; // Effective final for safety
 
-        io.github.bonigarcia.wdm.WebDriverManager.chromedriver().setup();
         org.openqa.selenium.chrome.ChromeOptions options = new org.openqa.selenium.chrome.ChromeOptions();
 
         // Environment Control for Hosting (Headless Mode)
@@ -299,42 +918,48 @@ public class VideoDownloaderService {
         // if (targetUrl.contains("youtube.com") || targetUrl.contains("youtu.be")) {
         // ... }
 
-        org.openqa.selenium.WebDriver driver = new org.openqa.selenium.chrome.ChromeDriver(options);
+        String site = MediaMetrics.siteOf(targetUrl);
+        String strategy = browserStrategy(site, cookies);
+        // The scrape step may have left its browser on this very page
+        org.openqa.selenium.WebDriver leased = browserSessions.take(targetUrl);
+        long probe = leased == null ? siteHealth.acquire(site, strategy) : 0;
+        org.openqa.selenium.WebDriver driver;
         try {
-            System.out.println("Navigating to: " + targetUrl);
-            System.out.println(
-                    ">>> IMPORTANT: If a Captcha/Login appears, please solve it manually in the browser window! <<<");
-
-            // Inject cookies if provided
-            if (cookies != null && !cookies.isEmpty()) {
-                String domainStr = targetUrl.contains("instagram.com") ? "https://www.instagram.com/"
-                        : targetUrl.contains("tiktok.com") ? "https://www.tiktok.com/" : null;
-                if (domainStr != null) {
-                    driver.get(domainStr);
-                    Thread.sleep(2000);
-                    String cookieDomain = targetUrl.contains("instagram.com") ? ".instagram.com" : ".tiktok.com";
-                    for (String cookiePair : cookies.split(";")) {
-                        cookiePair = cookiePair.trim();
-                        int eq = cookiePair.indexOf('=');
-                        if (eq > 0) {
-                            String name = cookiePair.substring(0, eq).trim();
-                            String value = cookiePair.substring(eq + 1).trim();
-                            try {
-                                org.openqa.selenium.Cookie cookie = new org.openqa.selenium.Cookie.Builder(name, value)
-                                        .domain(cookieDomain).path("/").isSecure(true).build();
-                                driver.manage().addCookie(cookie);
-                            } catch (Exception ce) {
-                            }
-                        }
-                    }
+            driver = leased != null ? leased : chromeDriverFactory.create(site, options);
+        } catch (RuntimeException e) {
+            siteHealth.release(site, strategy, probe);
+            throw e;
+        }
+        try {
+            progress.stage(DownloadStage.RESOLVE, targetUrl);
+            if (leased != null) {
+                System.out.println("Reusing the scrape's browser, already on: " + targetUrl);
+            } else {
+                System.out.println("Navigating to: " + targetUrl);
+                System.out.println(
+                        ">>> IMPORTANT: If a Captcha/Login appears, please solve it manually in the browser window! <<<");
+
+                // Inject cookies if provided, straight into the cookie store before the first navigation
+                if (targetUrl.contains("instagram.com")) {
+                    BrowserCookies.install(driver, cookies, ".instagram.com", "https://www.instagram.com/");
+                } else if (targetUrl.contains("tiktok.com")) {
+                    BrowserCookies.install(driver, cookies, ".tiktok.com", "https://www.tiktok.com/");
                 }
-            }
 
-            driver.get(targetUrl);
+                metrics.time(site, MediaMetrics.Stage.PAGE_LOAD, () -> driver.get(targetUrl));
 
-            // Allow time for page load and potential captcha
-            Thread.sleep(5000);
+                // Allow time for page load and potential captcha
+                Thread.sleep(5000);
+            }
             System.out.println("Page Title: " + driver.getTitle());
+            SiteHealth.Signal blocked = SiteHealth.classifyPage(driver.getCurrentUrl(), driver.getTitle(), null);
+            if (blocked != null) {
+                siteHealth.recordFailure(site, strategy, blocked);
+                // Nobody can solve it in a headless browser, so don't wait out the extraction timeouts
+                if ("true".equalsIgnoreCase(headlessEnv)) {
+                    throw new RuntimeException(site + " served a " + blocked + " page instead of the post.");
+                }
+            }
 
             String currentVideoSrc = null;
             org.openqa.selenium.JavascriptExecutor js = (org.openqa.selenium.JavascriptExecutor) driver;
@@ -486,10 +1111,7 @@ public class VideoDownloaderService {
                     if (currentVideoSrc != null) {
                         break;
                     }
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e) {
-                    }
+                    Thread.sleep(1000);
                 }
 
                 // If we strictly enforce itag 18/22, we might fail to find anything for some
@@ -540,13 +1162,34 @@ public class VideoDownloaderService {
                 } catch (Exception e) {
                     System.out.println(
                             "Could not find video element with src. TIMEOUT (60s). Page Title: " + driver.getTitle());
+                    siteHealth.recordFailure(site, strategy, SiteHealth.Signal.EXTRACTION_FAILED);
                     throw new RuntimeException(
                             "Could not locate video element. If you saw a Captcha, it wasn't solved in time.");
                 }
             }
 
+            if (currentVideoSrc != null) {
+                siteHealth.recordSuccess(site, strategy);
+            }
+
             if (currentVideoSrc != null && currentVideoSrc.startsWith("blob:")) {
-                throw new RuntimeException("Detected 'blob:' URL. Failed to extract real MP4 link.");
+                // Media Source playback: the player fed the <video> from an HLS/DASH manifest, so fetch that
+                String manifestUrl = findManifestUrl(driver);
+                if (manifestUrl == null) {
+                    throw new RuntimeException("Detected 'blob:' URL and no HLS/DASH manifest was requested."
+                            + " Failed to extract real MP4 link.");
+                }
+                System.out.println("Found stream manifest behind blob: URL: " + manifestUrl);
+                StringBuilder sessionCookies = new StringBuilder();
+                for (org.openqa.selenium.Cookie cookie : driver.manage().getCookies()) {
+                    if (sessionCookies.length() > 0) {
+                        sessionCookies.append("; ");
+                    }
+                    sessionCookies.append(cookie.getName()).append('=').append(cookie.getValue());
+                }
+                Object browserUserAgent = js.executeScript("return navigator.userAgent");
+                return new BrowserDownload(null, manifestUrl, sessionCookies.toString(),
+                        browserUserAgent != null ? browserUserAgent.toString() : userAgent, targetUrl);
             }
 
             // --- CHANGED: CDP Download with HEADERS ---
@@ -585,18 +1228,20 @@ public class VideoDownloaderService {
             // 4. Trigger Download by Direct Navigation (in same tab to ensure headers
             // apply)
             System.out.println("Navigating to video URL to trigger download...");
+            progress.stage(DownloadStage.DOWNLOAD, currentVideoSrc);
             driver.get(currentVideoSrc);
 
             // 5. Monitor Download Directory
             System.out.println("Waiting for download to complete in: " + currentDownloadDir);
 
-            Path downloadedFile = waitForDownload(currentDownloadDir, 300); // 5 mins
+            Path downloadedFile = waitForDownload(currentDownloadDir, 300, progress); // 5 mins
 
             if (downloadedFile == null) {
                 throw new RuntimeException("Download timed out or failed to start.");
             }
 
             System.out.println("Browser Downloaded to: " + downloadedFile);
+            progress.stage(DownloadStage.FINALIZE, downloadedFile.getFileName().toString());
 
             try {
                 String namingPrefix = targetUrl.contains("instagram.com") ? "instagram_"
@@ -604,26 +1249,27 @@ public class VideoDownloaderService {
                 String newName = namingPrefix + System.currentTimeMillis() + ".mp4";
                 Path targetPath = Paths.get(currentDownloadDir, newName);
                 Files.move(downloadedFile, targetPath, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-                return targetPath;
+                return new BrowserDownload(targetPath, null, null, null, null);
             } catch (Exception e) {
                 System.out.println("Failed to rename file, returning original: " + e.getMessage());
-                return downloadedFile;
+                return new BrowserDownload(downloadedFile, null, null, null, null);
             }
 
         } finally {
-            if (driver != null) {
-                try {
-                    driver.quit();
-                } catch (Exception e) {
-                }
-            }
+            chromeDriverFactory.quit(driver);
+            siteHealth.release(site, strategy, probe);
         }
     }
 
     // Helper to monitor downloads
-    private Path waitForDownload(String dir, int timeoutSeconds) throws InterruptedException {
+    private Path waitForDownload(String dir, int timeoutSeconds, DownloadProgress progress)
+            throws InterruptedException, InvalidMediaException {
         Path dirPath = Paths.get(dir);
         long endTime = System.currentTimeMillis() + (timeoutSeconds * 1000);
+        // The directory is shared, so a finished file that fails validation is only
+        // treated as ours if we watched it being written under its .crdownload name
+        String partName = null;
+        InvalidMediaException lastRejection = null;
 
         while (System.currentTimeMillis() < endTime) {
             try {
@@ -649,21 +1295,46 @@ public class VideoDownloaderService {
                                                                                                              // in last
                                                                                                              // 60s
                         if (!fileName.endsWith(".crdownload") && !fileName.endsWith(".tmp")) {
-                            // Assuming this is it.
-                            // Check size to be safe
-                            if (Files.size(file) > 10000) { // > 10KB
+                            // Assuming this is it. Check it is a complete video rather than trusting its size
+                            try {
+                                MediaValidator.checkFile(file, MediaValidator.VIDEO, "a video");
+                                progress.setBytesTransferred(Files.size(file));
                                 return file;
+                            } catch (InvalidMediaException e) {
+                                if ((fileName + ".crdownload").equals(partName)) {
+                                    Files.deleteIfExists(file);
+                                    throw e;
+                                }
+                                lastRejection = e;
                             }
                         } else {
+                            // Chrome writes into the .crdownload file as it goes, so its size is our
+                            // byte counter
+                            long size = Files.size(file);
+                            progress.setBytesTransferred(size);
                             System.out.println("Downloading... (" + fileName + ")");
+                            // Abort on the first bytes if Chrome is saving an error page
+                            if (!fileName.equals(partName) && size >= MediaValidator.SNIFF_BYTES) {
+                                byte[] head = new byte[MediaValidator.SNIFF_BYTES];
+                                try (InputStream in = Files.newInputStream(file)) {
+                                    in.readNBytes(head, 0, head.length);
+                                }
+                                MediaValidator.require(head, head.length, MediaValidator.VIDEO, "a video", null);
+                                partName = fileName;
+                            }
                         }
                     }
                 }
                 Thread.sleep(2000);
+            } catch (InterruptedException | InvalidMediaException e) {
+                throw e;
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
+        if (lastRejection != null) {
+            throw lastRejection;
+        }
         return null;
     }
 }
@@ -1,8 +1,8 @@
 package com.example.insta.service;
 
-import io.github.bonigarcia.wdm.WebDriverManager;
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.chrome.ChromeDriver;
 import org.openqa.selenium.chrome.ChromeOptions;
 import org.openqa.selenium.logging.LogType;
 import org.openqa.selenium.logging.LoggingPreferences;
@@ -10,15 +10,86 @@ import org.openqa.selenium.logging.LogEntry;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Service
 public class YoutubeScraperService {
 
-    public String scrapeVideoUrl(String youtubeUrl) throws IOException {
-        WebDriverManager.chromedriver().setup();
+    private static final String SITE = "youtube";
+
+    /** Adaptive MP4 video itags, worst to best (H.264 ahead of AV1 at the same height). */
+    private static final List<Integer> ADAPTIVE_VIDEO_ITAGS = List.of(160, 133, 134, 135, 397, 136, 398, 298, 137,
+            399, 299, 264, 400, 266, 401);
+    /** Adaptive MP4 (AAC) audio itags, worst to best. */
+    private static final List<Integer> ADAPTIVE_AUDIO_ITAGS = List.of(139, 140, 141);
+    /** How long to keep scanning once an adaptive pair is found, for the player to step up quality. */
+    private static final long ADAPTIVE_SETTLE_MILLIS = 3000;
+
+    private static final Pattern ITAG = Pattern.compile("[?&]itag=(\\d+)");
+    private static final Pattern MIME = Pattern.compile("[?&]mime=([^&]+)");
+    private static final Set<String> SEGMENT_PARAMS = Set.of("range", "rn", "rbuf", "sq");
+
+    private final ChromeDriverFactory chromeDriverFactory;
+    private final MediaMetrics metrics;
+
+    public YoutubeScraperService(ChromeDriverFactory chromeDriverFactory, MediaMetrics metrics) {
+        this.chromeDriverFactory = chromeDriverFactory;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Streams the player fetched: either one muxed (audio+video) stream, or
+     * the best adaptive MP4 video stream plus an adaptive MP4 audio stream
+     * to be muxed after download.
+     */
+    public static class Streams {
+        private String videoUrl;
+        private String audioUrl;
+        private String cookies;
+        private String userAgent;
+
+        public String getVideoUrl() {
+            return videoUrl;
+        }
+
+        public void setVideoUrl(String videoUrl) {
+            this.videoUrl = videoUrl;
+        }
+
+        /** Separate audio stream, or null when the video URL already carries audio. */
+        public String getAudioUrl() {
+            return audioUrl;
+        }
+
+        public void setAudioUrl(String audioUrl) {
+            this.audioUrl = audioUrl;
+        }
+
+        public String getCookies() {
+            return cookies;
+        }
+
+        public void setCookies(String cookies) {
+            this.cookies = cookies;
+        }
+
+        public String getUserAgent() {
+            return userAgent;
+        }
+
+        public void setUserAgent(String userAgent) {
+            this.userAgent = userAgent;
+        }
+    }
+
+    public Streams scrapeStreams(String youtubeUrl) throws IOException {
         ChromeOptions options = new ChromeOptions();
 
         // Enable performance logging to capture network traffic
@@ -42,98 +113,166 @@ public class YoutubeScraperService {
         options.addArguments("--start-maximized");
         options.addArguments("--autoplay-policy=no-user-gesture-required"); // Try to force autoplay
 
-        WebDriver driver = new ChromeDriver(options);
+        WebDriver driver = chromeDriverFactory.create(SITE, options);
         try {
             System.out.println("Navigating to YouTube: " + youtubeUrl);
             driver.manage().timeouts().pageLoadTimeout(Duration.ofSeconds(60));
-            driver.get(youtubeUrl);
+            metrics.time(SITE, MediaMetrics.Stage.PAGE_LOAD, () -> driver.get(youtubeUrl));
+
+            // Ask the player for its top quality so the adaptive video stream it fetches is the best one
+            try {
+                ((JavascriptExecutor) driver).executeScript("var p = document.getElementById('movie_player');"
+                        + " if (p && p.setPlaybackQualityRange) { p.setPlaybackQualityRange('hd1080', 'hd1080'); }");
+            } catch (Exception ignored) {
+            }
 
             // Wait for video to start playing (vital for network requests to fire)
             Thread.sleep(5000);
 
-            // Scan logs for video stream
+            // Scan logs for video streams: a muxed itag ends the scan; otherwise keep the best
+            // adaptive MP4 video and audio seen, allowing the player a few seconds to ramp up quality
+            String muxedUrl = null;
             String videoUrl = null;
+            String audioUrl = null;
+            int videoRank = -1;
+            int audioRank = -1;
+            long scanStart = System.nanoTime();
             long startTime = System.currentTimeMillis();
             long timeout = 30000; // 30 seconds scanning
+            long pairFoundAt = 0;
 
             System.out.println("Scanning network logs for video stream...");
 
-            while (System.currentTimeMillis() - startTime < timeout) {
+            while (System.currentTimeMillis() - startTime < timeout && muxedUrl == null) {
                 List<LogEntry> logs = driver.manage().logs().get(LogType.PERFORMANCE).getAll();
                 for (LogEntry entry : logs) {
                     String message = entry.getMessage();
-                    // YouTube video streams usually come from googlevideo.com and contain
-                    // "videoplayback"
-                    if (message.contains("googlevideo.com") && message.contains("videoplayback")) {
-                        // Extract URL from the JSON log message
-                        // The log message is a JSON structure: { "message": { "method": "...",
-                        // "params": { "request": { "url": "..." } } } }
-                        // We will use a robust substring search for "url":"...googlevideo.com..."
-
-                        int urlIndex = message.indexOf("\"url\":\"");
-                        if (urlIndex != -1) {
-                            int start = urlIndex + 7;
-                            int end = message.indexOf("\"", start);
-                            if (end > start) {
-                                String candidateUrl = message.substring(start, end);
-
-                                // Basic validation: must be a real HTTP URL and contain videoplayback
-                                if (candidateUrl.startsWith("http") && candidateUrl.contains("videoplayback")) {
-                                    // Preference: Filter out audio-only if possible, but keep it as a fallback
-                                    // Audio streams often have "mime=audio" or "clen=" (content length) which video
-                                    // also has
-                                    // Let's accept the first valid one for now, as merging audio/video is complex
-                                    // without ffmpeg.
-                                    // We'll trust that the "videoplayback" request for the main player is usually
-                                    // the video.
-
-                                    System.out.println("Candidate URL found: " + candidateUrl);
-                                    videoUrl = candidateUrl;
-                                    break;
-                                }
-                            }
-                        }
+                    // YouTube video streams come from googlevideo.com and contain "videoplayback"
+                    if (!message.contains("googlevideo.com") || !message.contains("videoplayback")) {
+                        continue;
+                    }
+                    int urlIndex = message.indexOf("\"url\":\"");
+                    if (urlIndex == -1) {
+                        continue;
+                    }
+                    int start = urlIndex + 7;
+                    int end = message.indexOf("\"", start);
+                    if (end <= start) {
+                        continue;
+                    }
+                    String candidateUrl = message.substring(start, end);
+                    if (!candidateUrl.startsWith("http") || !candidateUrl.contains("videoplayback")) {
+                        continue;
+                    }
+                    int itag = itagOf(candidateUrl);
+                    String mime = mimeOf(candidateUrl);
+                    if (itag == 18 || itag == 22) {
+                        System.out.println("Found muxed stream (itag " + itag + "): " + candidateUrl);
+                        muxedUrl = fullStreamUrl(candidateUrl);
+                        break;
+                    } else if (mime.startsWith("video/mp4") && videoRank(itag) > videoRank) {
+                        System.out.println("Adaptive video candidate (itag " + itag + "): " + candidateUrl);
+                        videoRank = videoRank(itag);
+                        videoUrl = fullStreamUrl(candidateUrl);
+                    } else if (mime.startsWith("audio/mp4") && audioRank(itag) > audioRank) {
+                        System.out.println("Adaptive audio candidate (itag " + itag + "): " + candidateUrl);
+                        audioRank = audioRank(itag);
+                        audioUrl = fullStreamUrl(candidateUrl);
                     }
                 }
 
-                if (videoUrl != null) {
-                    System.out.println("Found YouTube Video Stream!");
-                    break;
+                if (videoUrl != null && audioUrl != null) {
+                    if (pairFoundAt == 0) {
+                        pairFoundAt = System.currentTimeMillis();
+                    } else if (System.currentTimeMillis() - pairFoundAt > ADAPTIVE_SETTLE_MILLIS) {
+                        break;
+                    }
+                }
+                if (muxedUrl == null) {
+                    Thread.sleep(1000);
                 }
-                Thread.sleep(1000);
             }
 
-            if (videoUrl == null) {
+            Streams streams = new Streams();
+            if (muxedUrl != null) {
+                streams.setVideoUrl(muxedUrl);
+            } else if (videoUrl != null) {
+                // Without an audio stream the download is silent, but still the best we have
+                streams.setVideoUrl(videoUrl);
+                streams.setAudioUrl(audioUrl);
+            }
+            metrics.recordExtraction(SITE, muxedUrl != null ? "network_log" : "network_log_adaptive", scanStart,
+                    streams.getVideoUrl() != null);
+            if (streams.getVideoUrl() == null) {
                 System.err.println("Timeout scanning network logs. Last Title: " + driver.getTitle());
                 throw new IOException("Could not find video stream. Please ensure the video started playing.");
             }
+            System.out.println("Found YouTube Video Stream!" + (streams.getAudioUrl() != null
+                    ? " (adaptive video + audio, muxed after download)"
+                    : ""));
 
-            return videoUrl;
+            StringBuilder cookies = new StringBuilder();
+            for (Cookie cookie : driver.manage().getCookies()) {
+                if (cookies.length() > 0) {
+                    cookies.append("; ");
+                }
+                cookies.append(cookie.getName()).append('=').append(cookie.getValue());
+            }
+            streams.setCookies(cookies.toString());
+            Object userAgent = ((JavascriptExecutor) driver).executeScript("return navigator.userAgent");
+            streams.setUserAgent(userAgent != null ? userAgent.toString() : null);
+            return streams;
 
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new IOException("Interrupted while scraping");
         } finally {
             if (driver != null) {
-                // Don't quit immediately if we found a URL, downloading might need the session?
-                // Actually, for this architecture, we return the URL and the Downloader (or
-                // Controller) handles the download.
-                // However, the Controller calls `scrapeVideoUrl` then returns it to the user?
-                // Wait, `VideoScraperController` -> `downloadVideo` -> calls
-                // `youtubeScraperService.scrapeVideoUrl`
-                // THEN it needs to download it.
-                // If `scrapeVideoUrl` returns a string, `VideoScraperController` needs to pass
-                // that to `VideoDownloaderService`.
-                // BUT `VideoDownloaderService` expects a URL to download using OkHttp (by
-                // default) or Selenium.
-                // YouTube streams usually require the same cookies/headers (or at least same
-                // IP) to download.
-                // So using OkHttp on a signed URL *might* work if the signature is in the URL.
-                driver.quit();
+                // The streams carry the session's cookies and user agent, so the download needs no browser
+                chromeDriverFactory.quit(driver);
             }
         }
     }
 
+    /** itag from a videoplayback URL, or -1. */
+    static int itagOf(String url) {
+        Matcher m = ITAG.matcher(url);
+        return m.find() ? Integer.parseInt(m.group(1)) : -1;
+    }
+
+    /** Decoded mime parameter of a videoplayback URL ("video/mp4", "audio/webm", ...), or "". */
+    static String mimeOf(String url) {
+        Matcher m = MIME.matcher(url);
+        return m.find() ? URLDecoder.decode(m.group(1), StandardCharsets.UTF_8) : "";
+    }
+
+    /**
+     * The player asks for adaptive streams piece by piece; dropping the range
+     * and request-counter parameters gives a URL for the whole stream.
+     */
+    static String fullStreamUrl(String url) {
+        int query = url.indexOf('?');
+        if (query == -1) {
+            return url;
+        }
+        StringBuilder kept = new StringBuilder(url.length()).append(url, 0, query + 1);
+        for (String param : url.substring(query + 1).split("&")) {
+            int eq = param.indexOf('=');
+            if (!param.isEmpty() && !SEGMENT_PARAMS.contains(eq == -1 ? param : param.substring(0, eq))) {
+                kept.append(kept.charAt(kept.length() - 1) == '?' ? "" : "&").append(param);
+            }
+        }
+        return kept.toString();
+    }
+
+    private static int videoRank(int itag) {
+        return ADAPTIVE_VIDEO_ITAGS.indexOf(itag);
+    }
+
+    private static int audioRank(int itag) {
+        return ADAPTIVE_AUDIO_ITAGS.indexOf(itag);
+    }
+
     public PexelsScraperService.ScrapedInfo getScrapedInfo(String youtubeUrl) {
         // Basic info since we are mainly focused on download
         PexelsScraperService.ScrapedInfo info = new PexelsScraperService.ScrapedInfo();
@@ -0,0 +1,139 @@
+package com.example.insta.benchmark;
+
+import com.example.insta.service.BrowserEngine;
+import com.example.insta.service.BrowserGovernor;
+import com.example.insta.service.BrowserPage;
+import com.example.insta.service.CdpBrowserEngine;
+import com.example.insta.service.ChromeDriverFactory;
+import com.example.insta.service.MediaMetrics;
+import com.example.insta.service.SeleniumBrowserEngine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The two browser engines on the Pexels page scrape against the local
+ * {@link StubSites} page: Selenium through chromedriver, and Chrome driven
+ * over the DevTools WebSocket.
+ *
+ * - coldScrape: launch, load, read HTML/cookies/user agent, quit; what one
+ * TikTok or Pexels scrape costs the browser side.
+ * - warmScrape: the same on an already running browser, which isolates the
+ * per-command overhead (the chromedriver HTTP hop) from the launch.
+ *
+ * Memory is the summed RSS of every process under this JVM (chromedriver
+ * plus the Chrome tree, or the Chrome tree alone) sampled with the page
+ * loaded, printed per engine at the end of the trial. Needs Chrome on the
+ * PATH; -p cdpBinary=/path/to/chrome-headless-shell measures the lighter
+ * headless shell for the DevTools engine.
+ *
+ * ./mvnw -Pbenchmark test-compile exec:exec -Djmh.args="BrowserEngineBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 20)
+@Fork(1)
+public class BrowserEngineBenchmark {
+
+    private static final List<String> ARGUMENTS =
+            List.of("--headless=new", "--no-sandbox", "--disable-dev-shm-usage", "--disable-extensions");
+    private static final Duration LOAD_TIMEOUT = Duration.ofSeconds(30);
+    private static final Path PROC = Path.of("/proc");
+
+    @Param({ "selenium", "cdp" })
+    public String engine;
+
+    /** Chrome binary for the cdp engine; empty picks the first Chrome on the PATH. */
+    @Param({ "" })
+    public String cdpBinary;
+
+    private StubSites sites;
+    private BrowserGovernor governor;
+    private BrowserEngine browserEngine;
+    private BrowserPage warmPage;
+    private final AtomicInteger post = new AtomicInteger();
+    private long rssSamples;
+    private long rssTotalBytes;
+    private long rssPeakBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        // The fixture's CDN links are never followed; only the page is loaded
+        sites = new StubSites("http://127.0.0.1:9");
+        MediaMetrics metrics = new MediaMetrics(new SimpleMeterRegistry());
+        governor = new BrowserGovernor(metrics, 2, 4096, 3600, 0, 1, 0, 3600);
+        ChromeDriverFactory factory = new ChromeDriverFactory(metrics, governor, 2, 60, "");
+        browserEngine = "cdp".equals(engine)
+                ? new CdpBrowserEngine(factory, cdpBinary)
+                : new SeleniumBrowserEngine(factory);
+        warmPage = browserEngine.open("pexels", ARGUMENTS, false);
+        String html = scrape(warmPage);
+        if (!html.contains("application/ld+json")) {
+            throw new IllegalStateException("Stub page did not load through " + engine);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        warmPage.close();
+        governor.shutdown();
+        sites.close();
+        if (rssSamples > 0) {
+            System.out.printf("%n%s: browser RSS with the page loaded: mean %d MB, peak %d MB (%d samples)%n",
+                    engine, rssTotalBytes / rssSamples / (1024 * 1024), rssPeakBytes / (1024 * 1024), rssSamples);
+        }
+    }
+
+    @Benchmark
+    public String coldScrape() {
+        try (BrowserPage page = browserEngine.open("pexels", ARGUMENTS, false)) {
+            String html = scrape(page);
+            sampleRss();
+            return html;
+        }
+    }
+
+    @Benchmark
+    public String warmScrape() {
+        return scrape(warmPage);
+    }
+
+    private String scrape(BrowserPage page) {
+        page.navigate(sites.pexelsVideoUrl(post.incrementAndGet()), LOAD_TIMEOUT);
+        String html = page.html();
+        page.title();
+        page.cookieHeader();
+        page.evaluate("navigator.userAgent");
+        return html;
+    }
+
+    private void sampleRss() {
+        long total = ProcessHandle.current().descendants().mapToLong(p -> rssBytes(p.pid())).sum();
+        rssSamples++;
+        rssTotalBytes += total;
+        rssPeakBytes = Math.max(rssPeakBytes, total);
+    }
+
+    /** VmRSS from /proc/PID/status, 0 if unavailable (e.g. not Linux). */
+    private static long rssBytes(long pid) {
+        try {
+            for (String line : Files.readAllLines(PROC.resolve(pid + "/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Process exited between listing and reading
+        }
+        return 0;
+    }
+}
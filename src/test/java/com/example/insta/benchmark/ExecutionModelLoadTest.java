@@ -0,0 +1,111 @@
+package com.example.insta.benchmark;
+
+import com.example.insta.config.ExecutorConfig;
+import com.example.insta.service.HostPermits;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test comparing the old execution model (a fixed pool of 200 platform
+ * threads, like Tomcat's default) with virtual threads plus explicit
+ * resource permits.
+ *
+ * Each simulated request does blocking "CDN" I/O under a per-host permit, and
+ * one in ten also holds a "Chrome" permit for a longer scrape. Reports
+ * throughput, peak thread count and peak heap for each model. Not a JUnit
+ * test; run it directly:
+ * ./mvnw test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.insta.benchmark.ExecutionModelLoadTest
+ * [-Dexec.args="5000"]
+ */
+public class ExecutionModelLoadTest {
+
+    private static final int TOMCAT_MAX_THREADS = 200;
+    private static final int BROWSER_PERMITS = 3;
+    private static final int HTTP_PER_HOST = 8;
+    private static final String[] HOSTS = { "scontent-a.cdninstagram.com", "scontent-b.cdninstagram.com",
+            "v16-webapp.tiktok.com", "rr1---sn.googlevideo.com", "videos.pexels.com" };
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+
+        System.out.printf("%-10s %10s %12s %12s %14s%n", "model", "requests", "req/s", "peakThreads", "peakHeapMB");
+        run("platform", Executors.newFixedThreadPool(TOMCAT_MAX_THREADS), requests);
+        run("virtual", new ExecutorConfig().mediaTaskExecutor(true), requests);
+    }
+
+    private static void run(String model, ExecutorService executor, int requests) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        threads.resetPeakThreadCount();
+
+        Semaphore browserPermits = new Semaphore(BROWSER_PERMITS, true);
+        HostPermits hostPermits = new HostPermits(HTTP_PER_HOST);
+        AtomicLong peakHeap = new AtomicLong();
+        AtomicBoolean sampling = new AtomicBoolean(true);
+        Thread sampler = Thread.ofPlatform().daemon().start(() -> {
+            while (sampling.get()) {
+                peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            final int n = i;
+            futures.add(executor.submit(() -> {
+                simulateRequest(n, browserPermits, hostPermits);
+                return null;
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        sampling.set(false);
+        sampler.join();
+        executor.shutdownNow();
+
+        double perSecond = requests / (elapsedNanos / 1e9);
+        System.out.printf("%-10s %10d %12.1f %12d %14d%n", model, requests, perSecond,
+                threads.getPeakThreadCount(), peakHeap.get() / (1024 * 1024));
+    }
+
+    private static void simulateRequest(int n, Semaphore browserPermits, HostPermits hostPermits)
+            throws InterruptedException {
+        if (n % 10 == 0) {
+            browserPermits.acquire();
+            try {
+                Thread.sleep(200); // page load + extraction
+            } finally {
+                browserPermits.release();
+            }
+        }
+        Semaphore host = hostPermits.forUrl("https://" + HOSTS[n % HOSTS.length] + "/media");
+        host.acquire();
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(20, 60)); // CDN round-trip + transfer
+        } finally {
+            host.release();
+        }
+        TimeUnit.MILLISECONDS.sleep(5); // response write
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.insta.benchmark;
+
+import com.example.insta.service.InstagramScraperService;
+import com.example.insta.service.PexelsScraperService;
+import com.example.insta.service.TikTokScraperService;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of the extraction code that runs on every scrape once the browser
+ * has handed over the page: Jsoup parsing of the full page source, the
+ * Instagram regex scans over the inline scripts, and the TikTok/Pexels
+ * Jackson tree parsing.
+ *
+ * The pages are fixtures under src/test/resources/fixtures that mirror the
+ * structure and size of the real pages (Instagram carousel post, TikTok video
+ * page with the current and the legacy state blob, Pexels video page).
+ * {@link #setup()} checks that each fixture still yields its media, so a
+ * benchmark never silently measures a miss.
+ *
+ * ./mvnw -Pbenchmark test-compile exec:exec -Djmh.args="ExtractionBenchmark -prof gc"
+ * gives throughput and gc.alloc.rate.norm (bytes allocated per extraction).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtractionBenchmark {
+
+    private String instagramHtml;
+    private String instagramScripts;
+    private String tiktokHtml;
+    private String tiktokSigiHtml;
+    private Document tiktokSigiDoc;
+    private String pexelsHtml;
+
+    @Setup
+    public void setup() {
+        instagramHtml = fixture("instagram-post.html");
+        tiktokHtml = fixture("tiktok-video.html");
+        tiktokSigiHtml = fixture("tiktok-video-sigi.html");
+        pexelsHtml = fixture("pexels-video.html");
+
+        // What the Instagram inline-script fallback gets back from the browser
+        StringBuilder combined = new StringBuilder();
+        for (Element script : Jsoup.parse(instagramHtml).select("script")) {
+            String text = script.data();
+            if (text.contains("display_url") || text.contains("video_url") || text.contains(".mp4")
+                    || text.contains("video_versions")) {
+                combined.append(text);
+            }
+        }
+        instagramScripts = combined.toString();
+        tiktokSigiDoc = Jsoup.parse(tiktokSigiHtml);
+
+        check("Instagram og:image", instagramOpenGraph().getThumbnailUrl());
+        check("Instagram display_url", InstagramScraperService.extractDisplayUrls(instagramScripts).size() == 9);
+        check("Instagram .mp4 scan", InstagramScraperService.findMp4Url(instagramScripts));
+        check("TikTok hydration", tiktokHydration().getVideoUrl());
+        check("TikTok SIGI_STATE", tiktokSigiState().getVideoUrl());
+        check("TikTok script scan", TikTokScraperService.findPlayAddr(tiktokSigiDoc));
+        check("Pexels JSON-LD", pexelsJsonLd().getVideoUrl());
+    }
+
+    @Benchmark
+    public Document instagramParseHtml() {
+        return Jsoup.parse(instagramHtml);
+    }
+
+    @Benchmark
+    public PexelsScraperService.ScrapedInfo instagramOpenGraph() {
+        PexelsScraperService.ScrapedInfo info = new PexelsScraperService.ScrapedInfo();
+        InstagramScraperService.readOpenGraph(Jsoup.parse(instagramHtml), info);
+        return info;
+    }
+
+    @Benchmark
+    public List<String> instagramDisplayUrls() {
+        return InstagramScraperService.extractDisplayUrls(instagramScripts);
+    }
+
+    /** A miss: carousel posts have no video_url key, so the whole blob is scanned. */
+    @Benchmark
+    public String instagramJsonStringValue() {
+        return InstagramScraperService.extractJsonStringValue(instagramScripts, "video_url");
+    }
+
+    @Benchmark
+    public String instagramMp4Scan() {
+        return InstagramScraperService.findMp4Url(instagramScripts);
+    }
+
+    @Benchmark
+    public PexelsScraperService.ScrapedInfo tiktokHydration() {
+        PexelsScraperService.ScrapedInfo info = new PexelsScraperService.ScrapedInfo();
+        TikTokScraperService.readHydration(Jsoup.parse(tiktokHtml), info);
+        return info;
+    }
+
+    @Benchmark
+    public PexelsScraperService.ScrapedInfo tiktokSigiState() {
+        PexelsScraperService.ScrapedInfo info = new PexelsScraperService.ScrapedInfo();
+        TikTokScraperService.readSigiState(Jsoup.parse(tiktokSigiHtml), info);
+        return info;
+    }
+
+    /** Script text scan on an already parsed page. */
+    @Benchmark
+    public String tiktokScriptScan() {
+        return TikTokScraperService.findPlayAddr(tiktokSigiDoc);
+    }
+
+    @Benchmark
+    public PexelsScraperService.ScrapedInfo pexelsJsonLd() {
+        PexelsScraperService.ScrapedInfo info = new PexelsScraperService.ScrapedInfo();
+        PexelsScraperService.readVideoObject(Jsoup.parse(pexelsHtml), info);
+        return info;
+    }
+
+    static String fixture(String name) {
+        try (InputStream in = ExtractionBenchmark.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing fixture " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void check(String what, Object result) {
+        if (result == null || Boolean.FALSE.equals(result)) {
+            throw new IllegalStateException(what + " found nothing in its fixture");
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.insta.benchmark;
+
+import com.example.insta.service.Mp4FastStart;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cost of the faststart post-processing stage on a moov-at-end MP4, next to
+ * a plain file copy of the same size as the floor. The rewrite should
+ * allocate little more than the moov box, whatever the file size
+ * (gc.alloc.rate.norm).
+ *
+ * The source is generated in {@link #setup()} with one 64 KB chunk per stco
+ * entry across two tracks (a 512 MB file has 8192 chunk offsets to relocate).
+ * Divide the file size by the time per operation for MB/s.
+ *
+ * ./mvnw -Pbenchmark test-compile exec:exec -Djmh.args="FastStartBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FastStartBenchmark {
+
+    private static final int CHUNK = 64 * 1024;
+
+    @Param({ "64", "512" })
+    public int fileMegabytes;
+
+    private Path dir;
+    private Path source;
+    private Path target;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("faststart-bench");
+        source = dir.resolve("moov-at-end.mp4");
+        target = dir.resolve("out.mp4");
+        writeMoovAtEnd(source, (long) fileMegabytes * 1024 * 1024);
+        if (!Mp4FastStart.rewrite(source, target)) {
+            throw new IllegalStateException("Generated file was not rewritten");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean faststartRewrite() throws IOException {
+        return Mp4FastStart.rewrite(source, target);
+    }
+
+    @Benchmark
+    public Path plainCopy() throws IOException {
+        return Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** ftyp, then an mdat of random chunks, then a moov indexing them with stco. */
+    private static void writeMoovAtEnd(Path file, long mediaBytes) throws IOException {
+        int chunks = (int) (mediaBytes / CHUNK);
+        ByteBuffer ftyp = ByteBuffer.allocate(24);
+        ftyp.putInt(24).put(ascii("ftypisom")).putInt(512).put(ascii("isommp41")).flip();
+        long mdatStart = ftyp.limit();
+
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(ftyp);
+            ByteBuffer header = ByteBuffer.allocate(8).putInt((int) (8 + (long) chunks * CHUNK)).put(ascii("mdat"));
+            out.write(header.flip());
+            byte[] chunk = new byte[CHUNK];
+            for (int i = 0; i < chunks; i++) {
+                ThreadLocalRandom.current().nextBytes(chunk);
+                out.write(ByteBuffer.wrap(chunk));
+            }
+
+            int perTrack = chunks / 2;
+            ByteBuffer moov = ByteBuffer.allocate(8 + 2 * (8 + 8 + 8 + 8 + 16 + 4 * perTrack));
+            moov.putInt(moov.capacity()).put(ascii("moov"));
+            for (int track = 0; track < 2; track++) {
+                int stco = 16 + 4 * perTrack;
+                moov.putInt(8 + 8 + 8 + 8 + stco).put(ascii("trak"));
+                moov.putInt(8 + 8 + 8 + stco).put(ascii("mdia"));
+                moov.putInt(8 + 8 + stco).put(ascii("minf"));
+                moov.putInt(8 + stco).put(ascii("stbl"));
+                moov.putInt(stco).put(ascii("stco")).putInt(0).putInt(perTrack);
+                for (int i = 0; i < perTrack; i++) {
+                    moov.putInt((int) (mdatStart + 8 + (long) (2 * i + track) * CHUNK));
+                }
+            }
+            out.write(moov.flip());
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
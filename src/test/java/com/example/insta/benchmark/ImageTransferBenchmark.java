@@ -0,0 +1,116 @@
+package com.example.insta.benchmark;
+
+import com.example.insta.service.MediaBufferPool;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the old "read the whole image into a byte[]" path with the pooled
+ * direct-buffer copy used by {@link MediaBufferPool}.
+ *
+ * Run with the GC profiler to see the allocation difference:
+ * ./mvnw -Pbenchmark test-compile exec:exec -Djmh.args="ImageTransferBenchmark -prof gc"
+ * and compare gc.alloc.rate.norm (bytes allocated per operation).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageTransferBenchmark {
+
+    @Param({ "262144", "4194304" })
+    public int imageSize;
+
+    private byte[] image;
+    private MediaBufferPool pool;
+
+    @Setup
+    public void setup() {
+        image = new byte[imageSize];
+        ThreadLocalRandom.current().nextBytes(image);
+        pool = new MediaBufferPool(65536, 16);
+    }
+
+    @Benchmark
+    public void materializeByteArray(Blackhole bh) throws IOException {
+        ReadableByteChannel in = new PayloadChannel(image);
+        // Equivalent of response.body().bytes(): one array sized to the whole body
+        ByteBuffer whole = ByteBuffer.allocate(image.length);
+        while (whole.hasRemaining() && in.read(whole) != -1) {
+            // keep reading until the array is full
+        }
+        whole.flip();
+        new DiscardChannel(bh).write(whole);
+    }
+
+    @Benchmark
+    public void pooledDirectBuffer(Blackhole bh) throws IOException {
+        bh.consume(pool.copy(new PayloadChannel(image), new DiscardChannel(bh)));
+    }
+
+    /** Serves the payload in socket-sized reads without allocating. */
+    static final class PayloadChannel implements ReadableByteChannel {
+        private final byte[] data;
+        private int position;
+
+        PayloadChannel(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (position >= data.length) {
+                return -1;
+            }
+            int n = Math.min(Math.min(dst.remaining(), 16384), data.length - position);
+            dst.put(data, position, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    static final class DiscardChannel implements WritableByteChannel {
+        private final Blackhole bh;
+
+        DiscardChannel(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            if (n > 0) {
+                bh.consume(src.get(src.limit() - 1));
+            }
+            src.position(src.limit());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
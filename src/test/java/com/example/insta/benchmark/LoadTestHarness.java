@@ -0,0 +1,265 @@
+package com.example.insta.benchmark;
+
+import com.example.insta.InstaApplication;
+import com.example.insta.service.ChromeDriverFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end load test that runs fully offline: starts {@link StubCdn} and
+ * {@link StubSites}, boots the application in this JVM pointed at them, and
+ * drives the real endpoints at a fixed concurrency (closed loop). Scrapes go
+ * through real headless Chrome, so Chrome and chromedriver must be installed
+ * (e.g. the chromium and chromium-driver packages) and HEADLESS=true set.
+ *
+ * Reports p50/p99/max latency and throughput per scenario, peak Chrome
+ * instances (as counted by ChromeDriverFactory) and Chrome OS processes, peak
+ * heap, and what the stub CDN served. Not a JUnit test; run it directly:
+ * HEADLESS=true ./mvnw test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.insta.benchmark.LoadTestHarness
+ * -Dexec.args="--requests=200 --concurrency=8 --chromedriver=/usr/bin/chromedriver"
+ *
+ * Options (defaults in brackets): --requests [200], --concurrency [8],
+ * --mix [image:4,instagram:1,tiktok:1,pexels:1], --browsers [3],
+ * --chromedriver [$CHROMEDRIVER_PATH], --image-kb [300], --video-kb [4096],
+ * --cdn-kbps (per connection, 0 = unthrottled) [0], --cdn-latency-ms [50],
+ * --cdn-failure-rate (503s) [0], --cdn-drop-rate (cut mid-body) [0].
+ */
+public class LoadTestHarness {
+
+    private enum Scenario {
+        IMAGE, INSTAGRAM, TIKTOK, PEXELS
+    }
+
+    private record Sample(Scenario scenario, long nanos, boolean ok, long bytes) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        int requests = Integer.parseInt(options.getOrDefault("requests", "200"));
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "8"));
+        int browsers = Integer.parseInt(options.getOrDefault("browsers", "3"));
+        String chromedriver = options.getOrDefault("chromedriver",
+                System.getenv().getOrDefault("CHROMEDRIVER_PATH", ""));
+        List<Scenario> mix = mix(options.getOrDefault("mix", "image:4,instagram:1,tiktok:1,pexels:1"));
+
+        if (!"true".equalsIgnoreCase(System.getenv("HEADLESS"))) {
+            System.err.println("Set HEADLESS=true: the Selenium download path opens a visible window otherwise");
+            System.exit(2);
+        }
+
+        StubCdn.Config cdnConfig = new StubCdn.Config();
+        cdnConfig.imageBytes = Integer.parseInt(options.getOrDefault("image-kb", "300")) * 1024;
+        cdnConfig.videoBytes = Integer.parseInt(options.getOrDefault("video-kb", "4096")) * 1024;
+        cdnConfig.bytesPerSecond = Long.parseLong(options.getOrDefault("cdn-kbps", "0")) * 1024;
+        cdnConfig.latencyMillis = Integer.parseInt(options.getOrDefault("cdn-latency-ms", "50"));
+        cdnConfig.failureRate = Double.parseDouble(options.getOrDefault("cdn-failure-rate", "0"));
+        cdnConfig.dropRate = Double.parseDouble(options.getOrDefault("cdn-drop-rate", "0"));
+
+        Path workDir = Files.createTempDirectory("insta-loadtest");
+        try (StubCdn cdn = new StubCdn(cdnConfig);
+                StubSites sites = new StubSites(cdn.baseUrl());
+                ConfigurableApplicationContext app = startApp(workDir, browsers, chromedriver)) {
+            String appUrl = "http://127.0.0.1:" + app.getEnvironment().getProperty("local.server.port");
+            ChromeDriverFactory driverFactory = app.getBean(ChromeDriverFactory.class);
+            HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            AtomicLong peakHeap = new AtomicLong();
+            AtomicInteger peakInstances = new AtomicInteger();
+            AtomicLong peakProcesses = new AtomicLong();
+            AtomicBoolean sampling = new AtomicBoolean(true);
+            Thread sampler = Thread.ofPlatform().daemon().start(() -> {
+                while (sampling.get()) {
+                    peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                    peakInstances.accumulateAndGet(driverFactory.getActiveCount(), Math::max);
+                    peakProcesses.accumulateAndGet(chromeProcesses(), Math::max);
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+
+            System.out.printf("Driving %d requests at concurrency %d against %s%n", requests, concurrency, appUrl);
+            List<Sample> samples = Collections.synchronizedList(new ArrayList<>(requests));
+            AtomicInteger next = new AtomicInteger();
+            long start = System.nanoTime();
+            List<Thread> workers = new ArrayList<>();
+            for (int w = 0; w < concurrency; w++) {
+                workers.add(Thread.ofVirtual().start(() -> {
+                    int n;
+                    while ((n = next.getAndIncrement()) < requests) {
+                        Scenario scenario = mix.get(n % mix.size());
+                        samples.add(send(client, scenario, request(appUrl, scenario, n, sites, cdn)));
+                    }
+                }));
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            sampling.set(false);
+            sampler.join();
+
+            report(samples, elapsedNanos);
+            System.out.printf("%npeak Chrome instances %d, peak Chrome processes %d, peak heap %d MB%n",
+                    peakInstances.get(), peakProcesses.get(), peakHeap.get() / (1024 * 1024));
+            System.out.printf("stub CDN: %d requests (%d ranged), %d MB served, %d 503s and %d drops injected; "
+                    + "%d pages served%n", cdn.requests.get(), cdn.rangeRequests.get(),
+                    cdn.bytesServed.get() / (1024 * 1024), cdn.injectedFailures.get(), cdn.injectedDrops.get(),
+                    sites.pagesServed.get());
+        } finally {
+            try (Stream<Path> files = Files.walk(workDir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private static ConfigurableApplicationContext startApp(Path workDir, int browsers, String chromedriver) {
+        return SpringApplication.run(InstaApplication.class,
+                "--server.port=0",
+                "--app.download.dir=" + workDir.resolve("downloads"),
+                "--app.sync.checkpoint-file=" + workDir.resolve("sync-checkpoints.json"),
+                "--app.browser.max-instances=" + browsers,
+                "--app.lanes.browser.concurrency=" + browsers,
+                "--app.browser.driver-path=" + chromedriver);
+    }
+
+    private static HttpRequest request(String appUrl, Scenario scenario, int n, StubSites sites, StubCdn cdn) {
+        String path;
+        String json;
+        switch (scenario) {
+            case IMAGE -> {
+                path = "/api/image/download";
+                json = "{\"imageUrl\":\"" + cdn.baseUrl() + "/scontent.cdninstagram.com/v/t51/" + n + "_n.jpg\"}";
+            }
+            case INSTAGRAM -> {
+                path = "/api/instagram/download";
+                json = "{\"postUrl\":\"" + sites.instagramPostUrl(n) + "\"}";
+            }
+            case TIKTOK -> {
+                path = "/api/video/download";
+                json = "{\"videoUrl\":\"" + sites.tiktokVideoUrl(n) + "\"}";
+            }
+            default -> {
+                path = "/api/video/download";
+                json = "{\"videoUrl\":\"" + sites.pexelsVideoUrl(n) + "\"}";
+            }
+        }
+        return HttpRequest.newBuilder(URI.create(appUrl + path))
+                .header("Content-Type", "application/json")
+                .timeout(Duration.ofMinutes(5))
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+
+    /** Sends one request and reads the whole body; latency runs until the last byte. */
+    private static Sample send(HttpClient client, Scenario scenario, HttpRequest request) {
+        long start = System.nanoTime();
+        try {
+            HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            long bytes;
+            try (InputStream body = response.body()) {
+                bytes = body.transferTo(OutputStream.nullOutputStream());
+            }
+            return new Sample(scenario, System.nanoTime() - start, response.statusCode() == 200, bytes);
+        } catch (IOException e) {
+            return new Sample(scenario, System.nanoTime() - start, false, 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Sample(scenario, System.nanoTime() - start, false, 0);
+        }
+    }
+
+    private static void report(List<Sample> samples, long elapsedNanos) {
+        Map<String, List<Sample>> groups = new LinkedHashMap<>();
+        for (Scenario scenario : Scenario.values()) {
+            List<Sample> group = samples.stream().filter(s -> s.scenario() == scenario).toList();
+            if (!group.isEmpty()) {
+                groups.put(scenario.name().toLowerCase(), group);
+            }
+        }
+        groups.put("total", samples);
+
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%n%-10s %8s %8s %10s %10s %10s %10s %10s%n", "scenario", "requests", "failed",
+                "p50 ms", "p99 ms", "max ms", "req/s", "MB/s");
+        groups.forEach((name, group) -> {
+            long[] millis = group.stream().mapToLong(s -> s.nanos() / 1_000_000).sorted().toArray();
+            long failed = group.stream().filter(s -> !s.ok()).count();
+            long bytes = group.stream().mapToLong(Sample::bytes).sum();
+            System.out.printf("%-10s %8d %8d %10d %10d %10d %10.1f %10.1f%n", name, group.size(), failed,
+                    percentile(millis, 50), percentile(millis, 99), millis[millis.length - 1],
+                    group.size() / seconds, bytes / seconds / (1024 * 1024));
+        });
+    }
+
+    /** Nearest-rank percentile of sorted values. */
+    private static long percentile(long[] sorted, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /** Chrome processes (browser, renderers, GPU, ...) started from this JVM through chromedriver. */
+    private static long chromeProcesses() {
+        return ProcessHandle.current().descendants()
+                .filter(p -> p.info().command()
+                        .map(c -> c.contains("chrom") && !c.contains("chromedriver"))
+                        .orElse(false))
+                .count();
+    }
+
+    /** "image:4,instagram:1" -> a list with each scenario repeated by its weight. */
+    private static List<Scenario> mix(String spec) {
+        List<Scenario> mix = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split(":");
+            Scenario scenario = Scenario.valueOf(kv[0].trim().toUpperCase());
+            int weight = kv.length > 1 ? Integer.parseInt(kv[1].trim()) : 1;
+            for (int i = 0; i < weight; i++) {
+                mix.add(scenario);
+            }
+        }
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("Empty --mix");
+        }
+        return mix;
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        return options;
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.insta.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for the Instagram/TikTok/Pexels CDNs.
+ *
+ * Any path ending in .jpg/.jpeg/.webp is served as a JPEG of
+ * {@code imageBytes}; anything else as an MP4 of {@code videoBytes}. Bodies
+ * start with real magic numbers (JPEG SOI, MP4 ftyp box) and the MP4 is a
+ * well-formed ftyp/moov/mdat box chain, so validation behaves as with the
+ * real CDN. Supports single Range requests (206), and
+ * can add first-byte latency, cap per-connection bandwidth, and inject 503s
+ * or connections dropped mid-body.
+ */
+final class StubCdn implements AutoCloseable {
+
+    static final class Config {
+        int imageBytes = 300 * 1024;
+        int videoBytes = 4 * 1024 * 1024;
+        /** Per-connection cap; 0 means unthrottled. */
+        long bytesPerSecond;
+        int latencyMillis = 50;
+        /** Share of requests answered with 503. */
+        double failureRate;
+        /** Share of requests whose connection is dropped halfway through the body. */
+        double dropRate;
+    }
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    private static final int CHUNK = 16 * 1024;
+
+    private final Config config;
+    private final byte[] image;
+    private final byte[] video;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong rangeRequests = new AtomicLong();
+    final AtomicLong bytesServed = new AtomicLong();
+    final AtomicLong injectedFailures = new AtomicLong();
+    final AtomicLong injectedDrops = new AtomicLong();
+
+    StubCdn(Config config) throws IOException {
+        this.config = config;
+        this.image = body(config.imageBytes, new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 0x10,
+                'J', 'F', 'I', 'F', 0 });
+        this.video = mp4(body(config.videoBytes, new byte[] { 0, 0, 0, 0x20, 'f', 't', 'y', 'p', 'i', 's', 'o', 'm',
+                0, 0, 2, 0, 'i', 's', 'o', 'm', 'i', 's', 'o', '2', 'a', 'v', 'c', '1', 'm', 'p', '4', '1' }));
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 512);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /** Base URL ending without a slash, e.g. http://127.0.0.1:41234. */
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            sleep(config.latencyMillis);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextDouble() < config.failureRate) {
+                injectedFailures.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            String path = exchange.getRequestURI().getPath().toLowerCase();
+            boolean isImage = path.endsWith(".jpg") || path.endsWith(".jpeg") || path.endsWith(".webp");
+            byte[] body = isImage ? image : video;
+            exchange.getResponseHeaders().set("Content-Type", isImage ? "image/jpeg" : "video/mp4");
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+            int from = 0;
+            int to = body.length - 1;
+            int status = 200;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null) {
+                Matcher m = RANGE.matcher(range);
+                if (m.matches() && !(m.group(1).isEmpty() && m.group(2).isEmpty())) {
+                    rangeRequests.incrementAndGet();
+                    if (m.group(1).isEmpty()) { // suffix range: last N bytes
+                        from = Math.max(0, body.length - Integer.parseInt(m.group(2)));
+                    } else {
+                        from = Integer.parseInt(m.group(1));
+                        if (!m.group(2).isEmpty()) {
+                            to = Math.min(to, Integer.parseInt(m.group(2)));
+                        }
+                    }
+                    if (from > to) {
+                        exchange.getResponseHeaders().set("Content-Range", "bytes */" + body.length);
+                        exchange.sendResponseHeaders(416, -1);
+                        return;
+                    }
+                    status = 206;
+                    exchange.getResponseHeaders().set("Content-Range",
+                            "bytes " + from + "-" + to + "/" + body.length);
+                }
+            }
+            int length = to - from + 1;
+            boolean drop = random.nextDouble() < config.dropRate;
+            if (drop) {
+                injectedDrops.incrementAndGet();
+            }
+            exchange.sendResponseHeaders(status, length);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                return;
+            }
+            write(exchange.getResponseBody(), body, from, drop ? length / 2 : length);
+        }
+    }
+
+    /** Writes in chunks, sleeping as needed to stay under the bandwidth cap. */
+    private void write(OutputStream out, byte[] body, int from, int length) throws IOException {
+        long start = System.nanoTime();
+        int sent = 0;
+        while (sent < length) {
+            int n = Math.min(CHUNK, length - sent);
+            out.write(body, from + sent, n);
+            sent += n;
+            bytesServed.addAndGet(n);
+            if (config.bytesPerSecond > 0) {
+                long dueNanos = sent * 1_000_000_000L / config.bytesPerSecond;
+                sleep((dueNanos - (System.nanoTime() - start)) / 1_000_000);
+            }
+        }
+        out.flush();
+    }
+
+    private static byte[] body(int size, byte[] magic) {
+        byte[] body = new byte[Math.max(size, 128)];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) (i * 31 + (i >>> 8));
+        }
+        System.arraycopy(magic, 0, body, 0, magic.length);
+        if (magic[0] == (byte) 0xFF) { // JPEG EOI
+            body[body.length - 2] = (byte) 0xFF;
+            body[body.length - 1] = (byte) 0xD9;
+        }
+        return body;
+    }
+
+    /** Lays a moov box and an mdat box running to the end over the filler after ftyp. */
+    private static byte[] mp4(byte[] body) {
+        ByteBuffer boxes = ByteBuffer.wrap(body);
+        boxes.position(32);
+        boxes.putInt(64).put("moov".getBytes(StandardCharsets.US_ASCII));
+        boxes.position(96);
+        boxes.putInt(body.length - 96).put("mdat".getBytes(StandardCharsets.US_ASCII));
+        return body;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
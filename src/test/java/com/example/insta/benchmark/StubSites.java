@@ -0,0 +1,103 @@
+package com.example.insta.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for instagram.com, tiktok.com and pexels.com post pages,
+ * serving the fixtures under src/test/resources/fixtures (same hydration,
+ * SIGI_STATE, JSON-LD and inline-script structure as the real pages).
+ *
+ * The scrapers pick a site by the domain appearing in the post URL, so a
+ * URL like {@code http://127.0.0.1:PORT/instagram.com/p/CODE/} goes through
+ * the real Instagram scraper. Every absolute https URL in a fixture, plain or
+ * JSON-escaped, is rewritten to the {@link StubCdn} (keeping the original
+ * host as the first path segment), so Chrome and OkHttp never leave the box.
+ */
+final class StubSites implements AutoCloseable {
+
+    /** https:// with the slashes plain, JSON-escaped (\/) or unicode-escaped (/). */
+    private static final Pattern ABSOLUTE_URL = Pattern
+            .compile("https:(/|\\\\/|\\\\u002F)\\1([A-Za-z0-9.-]+\\.[A-Za-z]{2,})");
+
+    private final byte[] instagramPost;
+    private final byte[] tiktokVideo;
+    private final byte[] pexelsVideo;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    final AtomicLong pagesServed = new AtomicLong();
+
+    StubSites(String cdnBaseUrl) throws IOException {
+        this.instagramPost = page("instagram-post.html", cdnBaseUrl);
+        this.tiktokVideo = page("tiktok-video.html", cdnBaseUrl);
+        this.pexelsVideo = page("pexels-video.html", cdnBaseUrl);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 512);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String instagramPostUrl(int n) {
+        return baseUrl() + "/instagram.com/p/C8qLk" + Integer.toString(n, 36) + "/";
+    }
+
+    String tiktokVideoUrl(int n) {
+        return baseUrl() + "/tiktok.com/@natgeo/video/73812345678901" + String.format("%05d", n);
+    }
+
+    String pexelsVideoUrl(int n) {
+        return baseUrl() + "/pexels.com/video/drone-footage-of-a-canyon-" + (3571264 + n) + "/";
+    }
+
+    private String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            byte[] page = path.startsWith("/instagram.com/p/") ? instagramPost
+                    : path.startsWith("/tiktok.com/") ? tiktokVideo
+                            : path.startsWith("/pexels.com/video/") ? pexelsVideo
+                                    : null;
+            if (page == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            pagesServed.incrementAndGet();
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+            exchange.sendResponseHeaders(200, page.length);
+            exchange.getResponseBody().write(page);
+        }
+    }
+
+    private static byte[] page(String fixture, String cdnBaseUrl) {
+        String cdnHostPort = cdnBaseUrl.substring("http://".length());
+        Matcher m = ABSOLUTE_URL.matcher(ExtractionBenchmark.fixture(fixture));
+        StringBuilder rewritten = new StringBuilder();
+        while (m.find()) {
+            String slash = m.group(1);
+            m.appendReplacement(rewritten, Matcher.quoteReplacement(
+                    "http:" + slash + slash + cdnHostPort + slash + m.group(2)));
+        }
+        m.appendTail(rewritten);
+        return rewritten.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.insta.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class AccountSyncAdvanceTests {
+
+    private static final Function<String, BigInteger> ID_OF =
+            url -> new BigInteger(url.substring(url.lastIndexOf('/') + 1));
+
+    private static String post(int id) {
+        return "https://www.tiktok.com/@a/video/" + id;
+    }
+
+    /** Posts from {@code newest} down to {@code oldest}, as the pager lists them. */
+    private static List<String> listed(int newest, int oldest) {
+        List<String> posts = new ArrayList<>();
+        for (int id = newest; id >= oldest; id--) {
+            posts.add(post(id));
+        }
+        return posts;
+    }
+
+    private static SyncCheckpointStore.Checkpoint advance(SyncCheckpointStore.Checkpoint previous,
+            List<String> listed, Set<String> failed, boolean truncated) {
+        Set<String> succeeded = new HashSet<>(listed);
+        succeeded.removeAll(failed);
+        return AccountSyncService.advance(previous, listed, succeeded, truncated, ID_OF, 0);
+    }
+
+    @Test
+    void cappedSyncsWorkDownToTheOldestPostsBeforeMovingTheCheckpoint() {
+        // First sync of a long profile, capped at 5
+        SyncCheckpointStore.Checkpoint first = advance(null, listed(100, 96), Set.of(), true);
+        assertNull(first.getLastPostId(), "the oldest posts were never reached");
+        assertEquals("96", first.getSyncedFromId());
+        assertEquals("100", first.getSyncedToId());
+
+        // The next one skips 96..100 and continues below them
+        SyncCheckpointStore.Checkpoint second = advance(first, listed(95, 91), Set.of(), true);
+        assertNull(second.getLastPostId());
+        assertEquals("91", second.getSyncedFromId());
+        assertEquals("100", second.getSyncedToId());
+
+        // Reaching the end of the grid closes the gap
+        SyncCheckpointStore.Checkpoint third = advance(second, listed(90, 88), Set.of(), false);
+        assertEquals("100", third.getLastPostId());
+        assertNull(third.getSyncedFromId());
+    }
+
+    @Test
+    void cappedSyncWithNewerPostsKeepsTheGapOpen() {
+        SyncCheckpointStore.Checkpoint previous = new SyncCheckpointStore.Checkpoint("50", post(50), 0);
+
+        // 10 posts since the checkpoint, only the newest 4 listed
+        SyncCheckpointStore.Checkpoint next = advance(previous, listed(60, 57), Set.of(), true);
+
+        assertEquals("50", next.getLastPostId(), "51..56 were never listed");
+        assertEquals("57", next.getSyncedFromId());
+        assertEquals("60", next.getSyncedToId());
+    }
+
+    @Test
+    void failuresAreListedAgain() {
+        SyncCheckpointStore.Checkpoint previous = new SyncCheckpointStore.Checkpoint("50", post(50), 0);
+
+        SyncCheckpointStore.Checkpoint next = advance(previous, listed(55, 51), Set.of(post(53)), false);
+        assertEquals("52", next.getLastPostId());
+        assertEquals("54", next.getSyncedFromId(), "53 stays between the checkpoint and the block");
+        assertEquals("55", next.getSyncedToId());
+
+        SyncCheckpointStore.Checkpoint newestFailed = advance(previous, listed(55, 51), Set.of(post(55)), false);
+        assertEquals("54", newestFailed.getLastPostId());
+        assertNull(newestFailed.getSyncedFromId(), "55 is newer than the checkpoint and listed again");
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.insta.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class BrowserGovernorTests {
+
+    // 50% of a core for 2 samples in a row; the scheduled sampler never fires during the test
+    private final BrowserGovernor governor = new BrowserGovernor(new MediaMetrics(new SimpleMeterRegistry()),
+            2, 4096, 3600, 50, 2, 0, 3600);
+    private Process process;
+
+    @AfterEach
+    void stop() {
+        if (process != null) {
+            process.destroyForcibly();
+        }
+        governor.shutdown();
+    }
+
+    @Test
+    void killsASessionThatStaysOverItsCpuBudget() throws Exception {
+        assumeTrue(Files.isDirectory(Path.of("/proc/self")), "needs /proc");
+        process = new ProcessBuilder("sh", "-c", "while :; do :; done").start();
+        governor.track(new ChromeDriverFactory.DevToolsBrowser(process, null, null), "tiktok");
+
+        governor.sample(); // baseline
+        Thread.sleep(300);
+        governor.sample(); // over once: a page load's burst
+        assertTrue(process.isAlive());
+        Thread.sleep(300);
+        governor.sample();
+
+        assertTrue(process.waitFor(5, TimeUnit.SECONDS), "the busy session was killed");
+        Map<?, ?> session = (Map<?, ?>) ((List<?>) governor.snapshot().get("sessions")).get(0);
+        assertEquals("cpu", session.get("killedFor"));
+    }
+}
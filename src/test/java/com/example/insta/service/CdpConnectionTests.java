@@ -0,0 +1,89 @@
+package com.example.insta.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CdpConnectionTests {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final BlockingQueue<JsonNode> sent = new LinkedBlockingQueue<>();
+    private final CdpConnection connection = new CdpConnection(text -> {
+        try {
+            return sent.add(OBJECT_MAPPER.readTree(text));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private JsonNode nextSent() throws InterruptedException {
+        JsonNode message = sent.poll(5, TimeUnit.SECONDS);
+        assertTrue(message != null, "a command was sent");
+        return message;
+    }
+
+    @Test
+    void answersAreMatchedToTheirCommandsById() throws Exception {
+        CompletableFuture<JsonNode> first = CompletableFuture.supplyAsync(
+                () -> connection.send("S1", "Runtime.evaluate", Map.of("expression", "1"), TIMEOUT));
+        JsonNode firstCommand = nextSent();
+        CompletableFuture<JsonNode> second = CompletableFuture.supplyAsync(
+                () -> connection.send(null, "Target.getTargets", Map.of(), TIMEOUT));
+        JsonNode secondCommand = nextSent();
+
+        assertEquals("S1", firstCommand.path("sessionId").asText());
+        assertFalse(secondCommand.has("sessionId"), "browser commands carry no session");
+        // Answered out of order
+        connection.onMessage("{\"id\":" + secondCommand.get("id") + ",\"result\":{\"targetInfos\":[]}}");
+        connection.onMessage("{\"id\":" + firstCommand.get("id") + ",\"result\":{\"result\":{\"value\":1}}}");
+
+        assertEquals(1, first.get(5, TimeUnit.SECONDS).path("result").path("value").asInt());
+        assertTrue(second.get(5, TimeUnit.SECONDS).path("targetInfos").isArray());
+    }
+
+    @Test
+    void errorsAndTimeoutsFailTheCommand() throws Exception {
+        CompletableFuture<JsonNode> failing = CompletableFuture.supplyAsync(
+                () -> connection.send("S1", "Page.navigate", Map.of("url", "x"), TIMEOUT));
+        JsonNode command = nextSent();
+        connection.onMessage("{\"id\":" + command.get("id") + ",\"error\":{\"code\":-32000,\"message\":\"bad url\"}}");
+        Exception error = assertThrows(Exception.class, () -> failing.get(5, TimeUnit.SECONDS));
+        assertTrue(error.getCause().getMessage().contains("bad url"));
+
+        IllegalStateException timeout = assertThrows(IllegalStateException.class,
+                () -> connection.send("S1", "Page.enable", Map.of(), Duration.ofMillis(50)));
+        assertInstanceOf(TimeoutException.class, timeout.getCause());
+        assertEquals("timeout", MediaMetrics.reasonOf(timeout));
+    }
+
+    @Test
+    void eventsCompleteWaitersOfTheSameSessionAndCloseFailsThem() throws Exception {
+        CompletableFuture<JsonNode> loaded = connection.nextEvent("S1", "Page.loadEventFired");
+        CompletableFuture<JsonNode> otherTab = connection.nextEvent("S2", "Page.loadEventFired");
+
+        connection.onMessage("{\"method\":\"Page.loadEventFired\",\"params\":{\"timestamp\":7},\"sessionId\":\"S1\"}");
+
+        assertEquals(7, loaded.get(5, TimeUnit.SECONDS).path("timestamp").asInt());
+        assertFalse(otherTab.isDone(), "another tab's event does not complete it");
+
+        connection.onClosed("Chrome exited");
+        assertTrue(otherTab.isCompletedExceptionally());
+        assertThrows(IllegalStateException.class, () -> connection.send(null, "Browser.close", Map.of(), TIMEOUT));
+    }
+}
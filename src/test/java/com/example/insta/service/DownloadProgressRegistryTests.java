@@ -0,0 +1,43 @@
+package com.example.insta.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DownloadProgressRegistryTests {
+
+    private final DownloadProgressRegistry registry = new DownloadProgressRegistry(2);
+
+    @AfterEach
+    void stop() {
+        registry.shutdown();
+    }
+
+    @Test
+    void onlyIssuedIdsCanBeFollowed() {
+        DownloadProgress issued = registry.issue();
+        assertSame(issued, registry.forDownload(issued.getId()));
+        assertSame(issued, registry.get(issued.getId()).orElseThrow());
+
+        DownloadProgress chosen = registry.forDownload("my-own-id");
+        assertNotEquals("my-own-id", chosen.getId());
+        assertTrue(registry.get("my-own-id").isEmpty());
+        assertSame(chosen, registry.get(chosen.getId()).orElseThrow());
+    }
+
+    @Test
+    void downloadsOverTheCapAreNotTracked() {
+        registry.issue();
+        registry.issue();
+        assertThrows(RejectedExecutionException.class, registry::issue);
+
+        DownloadProgress untracked = registry.forDownload(null);
+        assertTrue(registry.get(untracked.getId()).isEmpty());
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.insta.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HedgedScraperTests {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final MediaMetrics metrics = new MediaMetrics(new SimpleMeterRegistry());
+    /** Times the HTTP strategy; only the tests move it. */
+    private final AtomicLong clock = new AtomicLong();
+
+    @AfterEach
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    private HedgedScraper scraper(double extraLoad) {
+        return scraper(extraLoad, 100);
+    }
+
+    private HedgedScraper scraper(double extraLoad, long initialDelayMillis) {
+        SiteHealth health = new SiteHealth(metrics, 3, 30, 900, 180);
+        return new HedgedScraper(health, metrics, new LaneScheduler(4, 10, 4, 10, 2, 10, 10), executor, true,
+                extraLoad, initialDelayMillis, 10, 100, clock::get);
+    }
+
+    private static PexelsScraperService.ScrapedInfo video(String url) {
+        PexelsScraperService.ScrapedInfo info = new PexelsScraperService.ScrapedInfo();
+        info.setVideoUrl(url);
+        return info;
+    }
+
+    @Test
+    void fastHttpResultWinsWithoutStartingTheBrowser() throws Exception {
+        // A delay no scheduling hiccup reaches
+        HedgedScraper scraper = scraper(0.1, 60_000);
+        AtomicInteger browserStarts = new AtomicInteger();
+
+        PexelsScraperService.ScrapedInfo info = scraper.scrape("tiktok", () -> video("https://cdn/http.mp4"),
+                () -> {
+                    browserStarts.incrementAndGet();
+                    return video("https://cdn/browser.mp4");
+                });
+
+        assertEquals("https://cdn/http.mp4", info.getVideoUrl());
+        assertEquals(0, browserStarts.get());
+    }
+
+    @Test
+    void slowHttpIsHedgedAndTheLoserCancelled() throws Exception {
+        HedgedScraper scraper = scraper(1.0);
+        CountDownLatch httpCancelled = new CountDownLatch(1);
+
+        PexelsScraperService.ScrapedInfo info = scraper.scrape("tiktok", () -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                httpCancelled.countDown();
+                throw e;
+            }
+            return video("https://cdn/http.mp4");
+        }, () -> video("https://cdn/browser.mp4"));
+
+        assertEquals("https://cdn/browser.mp4", info.getVideoUrl());
+        assertTrue(httpCancelled.await(5, TimeUnit.SECONDS), "the HTTP scrape is interrupted");
+        assertEquals(1L, ((Map<?, ?>) scraper.snapshot().get("tiktok")).get("hedges"));
+    }
+
+    @Test
+    void cancelledHttpScrapesStillRaiseTheHedgeDelay() throws Exception {
+        HedgedScraper scraper = scraper(1.0);
+
+        // HTTP never answers; the browser wins after 300 ms of the test's clock every time
+        for (int i = 0; i < 10; i++) {
+            scraper.scrape("tiktok", () -> {
+                Thread.sleep(10_000);
+                return video("https://cdn/http.mp4");
+            }, () -> {
+                clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(300));
+                return video("https://cdn/browser.mp4");
+            });
+        }
+
+        assertEquals(300L, ((Map<?, ?>) scraper.snapshot().get("tiktok")).get("hedgeDelayMs"));
+    }
+
+    @Test
+    void emptyHttpResultFallsBackToTheBrowserAtOnce() throws Exception {
+        // Waiting for the hedge delay would time the test out
+        HedgedScraper scraper = scraper(0.0, 60_000);
+
+        PexelsScraperService.ScrapedInfo info = assertTimeoutPreemptively(Duration.ofSeconds(30),
+                () -> scraper.scrape("instagram", () -> null, () -> video("https://cdn/browser.mp4")));
+
+        assertEquals("https://cdn/browser.mp4", info.getVideoUrl());
+        assertEquals(0L, ((Map<?, ?>) scraper.snapshot().get("instagram")).get("hedges"));
+    }
+
+    @Test
+    void hedgesStayWithinTheExtraLoadBudget() throws Exception {
+        HedgedScraper scraper = scraper(0.25);
+        AtomicInteger browserStarts = new AtomicInteger();
+
+        for (int i = 0; i < 12; i++) {
+            scraper.scrape("tiktok", () -> {
+                Thread.sleep(150);
+                return video("https://cdn/http.mp4");
+            }, () -> {
+                browserStarts.incrementAndGet();
+                Thread.sleep(1_000);
+                return video("https://cdn/browser.mp4");
+            });
+        }
+
+        // 1 starting credit plus 0.25 per scrape: at most 4 hedges in 12 scrapes
+        assertTrue(browserStarts.get() >= 1 && browserStarts.get() <= 4,
+                "browser started " + browserStarts.get() + " times");
+    }
+}
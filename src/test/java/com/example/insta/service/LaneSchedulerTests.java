@@ -0,0 +1,37 @@
+package com.example.insta.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LaneSchedulerTests {
+
+    private final LaneScheduler laneScheduler = new LaneScheduler(4, 10, 4, 10, 2, 10, 10);
+
+    @Test
+    void onlyTheAcquiringThreadHoldsAnOpenPermit() throws Exception {
+        LaneScheduler.Permit permit = laneScheduler.acquire(LaneScheduler.Lane.DIRECT);
+        assertTrue(laneScheduler.holdsSlot(LaneScheduler.Lane.DIRECT));
+        assertFalse(laneScheduler.holdsSlot(LaneScheduler.Lane.BROWSER));
+        assertFalse(CompletableFuture.supplyAsync(() -> laneScheduler.holdsSlot(LaneScheduler.Lane.DIRECT)).get());
+
+        // Closed by the thread that finished the work, as a streamed response body does
+        CompletableFuture.runAsync(permit::close).get();
+        assertFalse(laneScheduler.holdsSlot(LaneScheduler.Lane.DIRECT));
+    }
+
+    @Test
+    void aDetachedPermitIsHeldByNoThread() throws Exception {
+        try (LaneScheduler.Permit permit = laneScheduler.acquire(LaneScheduler.Lane.DIRECT)) {
+            permit.detach();
+            assertFalse(laneScheduler.holdsSlot(LaneScheduler.Lane.DIRECT));
+            try (LaneScheduler.Permit nested = laneScheduler.acquire(LaneScheduler.Lane.DIRECT)) {
+                assertTrue(laneScheduler.holdsSlot(LaneScheduler.Lane.DIRECT));
+            }
+            assertFalse(laneScheduler.holdsSlot(LaneScheduler.Lane.DIRECT));
+        }
+    }
+}
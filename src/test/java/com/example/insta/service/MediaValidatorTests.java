@@ -0,0 +1,128 @@
+package com.example.insta.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MediaValidatorTests {
+
+    private static final byte[] JPEG = bytes(0xFF, 0xD8, 0xFF, 0xE0, 0x00, 0x10, 'J', 'F', 'I', 'F', 0x00, 0x01);
+    private static final byte[] PNG = bytes(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0x00, 0x00, 0x00, 0x0D);
+    private static final byte[] WEBP = bytes('R', 'I', 'F', 'F', 0x24, 0x00, 0x00, 0x00, 'W', 'E', 'B', 'P');
+    private static final byte[] HTML_ERROR = ("<!DOCTYPE html><html><head><title>403 Forbidden</title></head>"
+            + "<body>URL signature expired</body></html>").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] JSON_ERROR = "  {\"status\":\"fail\",\"message\":\"URL signature expired\"}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void sniffsEachSignature() throws IOException {
+        byte[] mp4 = fixtureBytes("faststart.mp4");
+        assertEquals(MediaValidator.Kind.MP4, MediaValidator.sniff(mp4, MediaValidator.SNIFF_BYTES));
+        assertEquals(MediaValidator.Kind.JPEG, MediaValidator.sniff(JPEG, JPEG.length));
+        assertEquals(MediaValidator.Kind.PNG, MediaValidator.sniff(PNG, PNG.length));
+        assertEquals(MediaValidator.Kind.WEBP, MediaValidator.sniff(WEBP, WEBP.length));
+        assertNull(MediaValidator.sniff(HTML_ERROR, MediaValidator.SNIFF_BYTES));
+        assertNull(MediaValidator.sniff(JSON_ERROR, MediaValidator.SNIFF_BYTES));
+        // Too short to tell
+        assertNull(MediaValidator.sniff(mp4, 8));
+    }
+
+    @Test
+    void requireRejectsErrorBodiesAndTheWrongKind() throws IOException {
+        byte[] mp4 = fixtureBytes("faststart.mp4");
+        assertEquals(MediaValidator.Kind.MP4,
+                MediaValidator.require(mp4, MediaValidator.SNIFF_BYTES, MediaValidator.VIDEO, "a video", null));
+        assertEquals(MediaValidator.Kind.PNG,
+                MediaValidator.require(PNG, PNG.length, MediaValidator.IMAGE, "an image", "image/png"));
+
+        InvalidMediaException html = assertThrows(InvalidMediaException.class, () -> MediaValidator.require(
+                HTML_ERROR, MediaValidator.SNIFF_BYTES, MediaValidator.VIDEO, "a video", "text/html"));
+        assertTrue(html.getMessage().contains("an HTML/XML page"), html.getMessage());
+        assertTrue(html.getMessage().contains("Content-Type text/html"), html.getMessage());
+
+        InvalidMediaException json = assertThrows(InvalidMediaException.class, () -> MediaValidator.require(
+                JSON_ERROR, MediaValidator.SNIFF_BYTES, MediaValidator.IMAGE, "an image", null));
+        assertTrue(json.getMessage().contains("a JSON body"), json.getMessage());
+
+        InvalidMediaException wrongKind = assertThrows(InvalidMediaException.class,
+                () -> MediaValidator.require(JPEG, JPEG.length, MediaValidator.VIDEO, "a video", "video/mp4"));
+        assertTrue(wrongKind.getMessage().contains("JPEG data"), wrongKind.getMessage());
+    }
+
+    @Test
+    void checkLengthOnlyFailsWhenTheLengthIsKnownAndDiffers() {
+        assertDoesNotThrow(() -> MediaValidator.checkLength(42_498, 42_498, "video"));
+        assertDoesNotThrow(() -> MediaValidator.checkLength(1_000, -1, "video"));
+        InvalidMediaException shortRead = assertThrows(InvalidMediaException.class,
+                () -> MediaValidator.checkLength(40_000, 42_498, "video"));
+        assertEquals("Truncated video: got 40000 of 42498 bytes", shortRead.getMessage());
+    }
+
+    @Test
+    void walksTheTopLevelBoxesOfAnMp4() throws IOException {
+        Path file = fixture("moov-at-end.mp4", Integer.MAX_VALUE);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<MediaValidator.Mp4Box> boxes = MediaValidator.checkMp4Boxes(channel);
+            assertEquals(List.of("ftyp", "free", "mdat", "moov"),
+                    boxes.stream().map(MediaValidator.Mp4Box::type).toList());
+            MediaValidator.Mp4Box last = boxes.get(boxes.size() - 1);
+            assertEquals(channel.size(), last.offset() + last.size());
+        }
+    }
+
+    @Test
+    void rejectsTruncatedMp4sAndErrorPagesSavedAsVideo() throws IOException {
+        Path truncated = fixture("moov-at-end.mp4", 40_000);
+        try (FileChannel channel = FileChannel.open(truncated, StandardOpenOption.READ)) {
+            InvalidMediaException e = assertThrows(InvalidMediaException.class,
+                    () -> MediaValidator.checkMp4Boxes(channel));
+            assertTrue(e.getMessage().startsWith("Truncated MP4"), e.getMessage());
+        }
+
+        Path page = dir.resolve("video.mp4");
+        Files.write(page, HTML_ERROR);
+        assertThrows(InvalidMediaException.class,
+                () -> MediaValidator.checkFile(page, MediaValidator.VIDEO, "a video"));
+    }
+
+    /** The first {@code length} bytes of a fixture, written to the temp dir. */
+    private Path fixture(String name, int length) throws IOException {
+        byte[] bytes = fixtureBytes(name);
+        Path file = dir.resolve(name);
+        Files.write(file, Arrays.copyOf(bytes, Math.min(length, bytes.length)));
+        return file;
+    }
+
+    private static byte[] fixtureBytes(String name) throws IOException {
+        try (InputStream in = MediaValidatorTests.class.getResourceAsStream("/fixtures/" + name)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
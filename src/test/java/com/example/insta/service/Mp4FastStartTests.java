@@ -0,0 +1,73 @@
+package com.example.insta.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * moov-at-end.mp4 is laid out ftyp, free, mdat (64-bit size header), moov,
+ * with one track indexed by stco and one by co64; every chunk starts with a
+ * marker. faststart.mp4 is the same movie laid out ftyp, free, moov, mdat
+ * with its offsets computed independently, i.e. the expected rewrite.
+ */
+class Mp4FastStartTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void movesMoovAheadOfMdatAndRelocatesChunkOffsets() throws IOException {
+        Path source = fixture("moov-at-end.mp4");
+        Path target = dir.resolve("out.mp4");
+
+        assertTrue(Mp4FastStart.rewrite(source, target));
+
+        assertArrayEquals(fixtureBytes("faststart.mp4"), Files.readAllBytes(target));
+        assertEquals(MediaValidator.Kind.MP4, MediaValidator.checkFile(target, MediaValidator.VIDEO, "a video"));
+    }
+
+    @Test
+    void leavesFaststartFileAlone() throws IOException {
+        Path file = fixture("faststart.mp4");
+
+        assertFalse(Mp4FastStart.apply(file));
+
+        assertArrayEquals(fixtureBytes("faststart.mp4"), Files.readAllBytes(file));
+        assertEquals(1, Files.list(dir).count());
+    }
+
+    @Test
+    void rejectsTruncatedFileWithoutTouchingIt() throws IOException {
+        byte[] truncated = Arrays.copyOf(fixtureBytes("moov-at-end.mp4"), 40_000);
+        Path file = dir.resolve("truncated.mp4");
+        Files.write(file, truncated);
+
+        assertThrows(InvalidMediaException.class, () -> Mp4FastStart.apply(file));
+
+        assertArrayEquals(truncated, Files.readAllBytes(file));
+        assertEquals(1, Files.list(dir).count());
+    }
+
+    private Path fixture(String name) throws IOException {
+        Path file = dir.resolve(name);
+        Files.write(file, fixtureBytes(name));
+        return file;
+    }
+
+    private static byte[] fixtureBytes(String name) throws IOException {
+        try (InputStream in = Mp4FastStartTests.class.getResourceAsStream("/fixtures/" + name)) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.insta.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The adaptive-*.mp4 fixtures are a video-only and an audio-only file, each
+ * both fragmented (DASH layout: moov with mvex, sidx, moof+mdat pairs) and
+ * regular (stco on the video, co64 and moov-at-end on the audio). Both
+ * inputs use track ID 1 and different movie timescales, and the audio has an
+ * edit list. Every sample starts with 'V' or 'A', its fragment index and its
+ * sample index, so the tests can follow the rewritten offsets back to the
+ * right bytes.
+ */
+class Mp4MuxerTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void interleavesFragmentsByDecodeTime() throws IOException {
+        Path out = dir.resolve("muxed.mp4");
+        Mp4Muxer.mux(fixture("adaptive-video-fragmented.mp4"), fixture("adaptive-audio-fragmented.mp4"), out);
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(out));
+
+        List<Box> top = children(file, 0, file.capacity());
+        assertEquals("ftyp", top.get(0).type);
+        assertEquals("moov", top.get(1).type);
+        assertMoov(file, top.get(1), true);
+        Box mvhd = find(file, top.get(1), "mvhd");
+        assertEquals(3, file.getInt(mvhd.offset + mvhd.size - 4)); // next_track_ID
+        Box audioTrak = children(file, top.get(1)).get(2);
+        assertEquals(8000, file.getInt(find(file, find(file, audioTrak, "edts"), "elst").content() + 8));
+
+        // Video fragments every 2 s, audio every 1.5 s; ties go to video
+        StringBuilder order = new StringBuilder();
+        int sequence = 0;
+        for (int i = 2; i < top.size(); i += 2) {
+            Box moof = top.get(i);
+            assertEquals("moof", moof.type);
+            assertEquals("mdat", top.get(i + 1).type);
+            assertEquals(++sequence, file.getInt(find(file, moof, "mfhd").content() + 4));
+            Box traf = find(file, moof, "traf");
+            int trackId = file.getInt(find(file, traf, "tfhd").content() + 4);
+            Box trun = find(file, traf, "trun");
+            int samples = file.getInt(trun.content() + 4);
+            int sample = moof.offset + file.getInt(trun.content() + 8);
+            char marker = trackId == 1 ? 'V' : 'A';
+            for (int s = 0; s < samples; s++) {
+                assertEquals(marker, (char) file.get(sample));
+                assertEquals(s, file.getShort(sample + 3));
+                sample += file.getInt(trun.content() + 12 + 4 * s);
+            }
+            order.append(marker).append(file.getShort(moof.offset + file.getInt(trun.content() + 8) + 1));
+        }
+        assertEquals("V0A0A1V1A2V2A3V3A4A5", order.toString());
+    }
+
+    @Test
+    void muxesRegularFilesWithRelocatedChunkOffsets() throws IOException {
+        Path out = dir.resolve("muxed.mp4");
+        Mp4Muxer.mux(fixture("adaptive-video.mp4"), fixture("adaptive-audio.mp4"), out);
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(out));
+
+        List<Box> top = children(file, 0, file.capacity());
+        assertEquals(List.of("ftyp", "moov", "mdat", "mdat"), top.stream().map(b -> b.type).toList());
+        Box moov = top.get(1);
+        assertMoov(file, moov, false);
+
+        List<Box> traks = children(file, moov).stream().filter(b -> b.type.equals("trak")).toList();
+        assertChunks(file, traks.get(0), "stco", 'V', 30);
+        assertChunks(file, traks.get(1), "co64", 'A', 40);
+
+        // The audio's 4 s (in its 44100 timescale) becomes 4000 in the video's 1000
+        Box mvhd = find(file, moov, "mvhd");
+        assertEquals(1000, file.getInt(mvhd.content() + 12));
+        assertEquals(4000, file.getInt(mvhd.content() + 16));
+        assertEquals(4000, file.getInt(find(file, traks.get(1), "tkhd").content() + 20));
+        Box elst = find(file, find(file, traks.get(1), "edts"), "elst");
+        assertEquals(4000, file.getInt(elst.content() + 8));
+        assertEquals(MediaValidator.Kind.MP4, MediaValidator.checkFile(out, MediaValidator.VIDEO, "a video"));
+    }
+
+    @Test
+    void rejectsMixedLayoutsAndMissingTracks() {
+        assertThrows(InvalidMediaException.class, () -> Mp4Muxer.mux(fixture("adaptive-video-fragmented.mp4"),
+                fixture("adaptive-audio.mp4"), dir.resolve("mixed.mp4")));
+        assertThrows(InvalidMediaException.class, () -> Mp4Muxer.mux(fixture("adaptive-audio.mp4"),
+                fixture("adaptive-video.mp4"), dir.resolve("swapped.mp4")));
+    }
+
+    /** Track IDs 1 (vide) and 2 (soun), plus trex for both in fragmented files. */
+    private static void assertMoov(ByteBuffer file, Box moov, boolean fragmented) throws IOException {
+        List<Box> traks = children(file, moov).stream().filter(b -> b.type.equals("trak")).toList();
+        assertEquals(2, traks.size());
+        String[] handlers = { "vide", "soun" };
+        for (int i = 0; i < 2; i++) {
+            assertEquals(i + 1, file.getInt(find(file, traks.get(i), "tkhd").content() + 12));
+            Box hdlr = find(file, find(file, traks.get(i), "mdia"), "hdlr");
+            assertEquals(handlers[i], type(file, hdlr.content() + 8));
+        }
+        if (fragmented) {
+            List<Box> trex = children(file, find(file, moov, "mvex"));
+            assertEquals(2, trex.size());
+            assertEquals(1, file.getInt(trex.get(0).content() + 4));
+            assertEquals(2, file.getInt(trex.get(1).content() + 4));
+        }
+    }
+
+    private static void assertChunks(ByteBuffer file, Box trak, String table, char marker, int count)
+            throws IOException {
+        Box stbl = find(file, find(file, find(file, trak, "mdia"), "minf"), "stbl");
+        Box offsets = find(file, stbl, table);
+        assertEquals(count, file.getInt(offsets.content() + 4));
+        for (int i = 0; i < count; i++) {
+            long offset = table.equals("co64") ? file.getLong(offsets.content() + 8 + 8 * i)
+                    : file.getInt(offsets.content() + 8 + 4 * i);
+            assertEquals(marker, (char) file.get((int) offset));
+            assertEquals(i, file.getShort((int) offset + 3));
+        }
+    }
+
+    private record Box(String type, int offset, int size, int header) {
+        int content() {
+            return offset + header;
+        }
+    }
+
+    private static List<Box> children(ByteBuffer file, Box parent) {
+        return children(file, parent.content(), parent.offset + parent.size);
+    }
+
+    private static List<Box> children(ByteBuffer file, int start, int end) {
+        List<Box> boxes = new ArrayList<>();
+        for (int position = start; position + 8 <= end;) {
+            int size = file.getInt(position);
+            int header = 8;
+            if (size == 1) {
+                size = (int) file.getLong(position + 8);
+                header = 16;
+            }
+            boxes.add(new Box(type(file, position + 4), position, size, header));
+            position += size;
+        }
+        return boxes;
+    }
+
+    private static Box find(ByteBuffer file, Box parent, String type) throws IOException {
+        return children(file, parent).stream().filter(b -> b.type.equals(type)).findFirst()
+                .orElseThrow(() -> new IOException("no " + type + " in " + parent.type));
+    }
+
+    private static String type(ByteBuffer file, int offset) {
+        return new String(file.array(), offset, 4, StandardCharsets.ISO_8859_1);
+    }
+
+    private Path fixture(String name) throws IOException {
+        Path file = dir.resolve(name);
+        if (!Files.exists(file)) {
+            try (InputStream in = Mp4MuxerTests.class.getResourceAsStream("/fixtures/" + name)) {
+                Files.copy(in, file);
+            }
+        }
+        return file;
+    }
+}
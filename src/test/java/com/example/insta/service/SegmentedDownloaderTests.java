@@ -0,0 +1,140 @@
+package com.example.insta.service;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Serves "/seg/N" as the text "[N]" from a local server. Segment 0 is slow,
+ * so the later ones finish first; paths in {@link #failures} answer 503 that
+ * many times before succeeding.
+ */
+class SegmentedDownloaderTests {
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private final Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @BeforeEach
+    void start() throws IOException {
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64);
+        server.setExecutor(executor);
+        server.createContext("/seg/", exchange -> {
+            try {
+                String path = exchange.getRequestURI().getPath();
+                String index = path.substring("/seg/".length());
+                boolean failed;
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    AtomicInteger failing = failures.get(path);
+                    failed = failing != null && failing.getAndDecrement() > 0;
+                    if (!failed && index.equals("0")) {
+                        Thread.sleep(300);
+                    }
+                } finally {
+                    // Counted until the response starts: the client may fetch its next segment once it has this one
+                    inFlight.decrementAndGet();
+                }
+                if (failed) {
+                    exchange.sendResponseHeaders(503, -1);
+                    return;
+                }
+                // Segment 0 must pass the MPEG-TS sync byte check
+                byte[] body = ((index.equals("0") ? "G" : "") + "[" + index + "]").getBytes(StandardCharsets.US_ASCII);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    void writesSegmentsInOrderWithinTheWindow() throws Exception {
+        failures.put("/seg/5", new AtomicInteger(2));
+        Path target = dir.resolve("out.ts");
+
+        long written = downloader(3, 2).download("other", track(12), target, Headers.of(), new DownloadProgress());
+
+        StringBuilder expected = new StringBuilder("G");
+        for (int i = 0; i < 12; i++) {
+            expected.append('[').append(i).append(']');
+        }
+        assertEquals(expected.toString(), Files.readString(target));
+        assertEquals(Files.size(target), written);
+        assertTrue(maxInFlight.get() <= 3, "at most 3 segments in flight, saw " + maxInFlight.get());
+        assertEquals(-1, failures.get("/seg/5").get());
+    }
+
+    @Test
+    void deletesTheFileWhenASegmentKeepsFailing() {
+        failures.put("/seg/4", new AtomicInteger(10));
+        Path target = dir.resolve("out.ts");
+
+        IOException e = assertThrows(IOException.class,
+                () -> downloader(4, 1).download("other", track(8), target, Headers.of(), new DownloadProgress()));
+
+        assertTrue(e.getMessage().contains("503"), e.getMessage());
+        assertFalse(Files.exists(target));
+    }
+
+    private SegmentedDownloader downloader(int window, int retries) {
+        return new SegmentedDownloader(new OkHttpClient(), executor, new MediaBufferPool(8192, 4),
+                new MediaMetrics(new SimpleMeterRegistry()), url -> {
+                    Semaphore permit = new Semaphore(1);
+                    permit.acquire();
+                    return permit;
+                }, window, retries);
+    }
+
+    private StreamManifest.Track track(int segments) {
+        List<StreamManifest.Segment> list = new ArrayList<>();
+        for (int i = 0; i < segments; i++) {
+            list.add(StreamManifest.Segment.whole("http://127.0.0.1:" + server.getAddress().getPort() + "/seg/" + i));
+        }
+        return new StreamManifest.Track(list, false);
+    }
+}
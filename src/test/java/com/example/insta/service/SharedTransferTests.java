@@ -0,0 +1,108 @@
+package com.example.insta.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SharedTransferTests {
+
+    @TempDir
+    Path dir;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void onlyTheSameSignedUrlAndSessionShareATransfer() {
+        String url = "https://scontent.cdninstagram.com/v/t50/video.mp4?_nc_sid=1&oe=6553F100&_nc_ohc=sig";
+        assertEquals(VideoDownloaderService.transferKey(url, "sessionid=a"),
+                VideoDownloaderService.transferKey(url, "sessionid=a"));
+        assertNotEquals(VideoDownloaderService.transferKey(url, "sessionid=a"),
+                VideoDownloaderService.transferKey(url.replace("sig", "forged"), "sessionid=a"));
+        assertNotEquals(VideoDownloaderService.transferKey(url, "sessionid=a"),
+                VideoDownloaderService.transferKey(url, "sessionid=b"));
+        assertNotEquals(VideoDownloaderService.transferKey(url, null),
+                VideoDownloaderService.transferKey(url, "sessionid=a"));
+        assertNotEquals(VideoDownloaderService.transferKey(url + "&bytestart=0&byteend=999", null),
+                VideoDownloaderService.transferKey(url + "&bytestart=1000&byteend=1999", null));
+    }
+
+    @Test
+    void readersStreamTheFileWhileItGrows() throws Exception {
+        SharedTransfer transfer = new SharedTransfer("https://cdn.example/v.mp4");
+        byte[] content = new byte[64 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        List<Future<byte[]>> readers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            readers.add(executor.submit(() -> {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                transfer.streamTo(Channels.newChannel(out));
+                return out.toByteArray();
+            }));
+        }
+        Path file = dir.resolve("v.mp4");
+        Future<Path> follower = executor.submit(() -> transfer.await(new DownloadProgress()));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            transfer.begin(file, content.length);
+            WritableByteChannel sink = transfer.tee(channel);
+            for (int offset = 0; offset < content.length; offset += 4096) {
+                sink.write(ByteBuffer.wrap(content, offset, 4096));
+                Thread.sleep(2);
+            }
+        }
+        transfer.bytesComplete();
+        transfer.finish(file);
+
+        for (Future<byte[]> reader : readers) {
+            assertArrayEquals(content, reader.get());
+        }
+        assertEquals(file, follower.get());
+        assertEquals("v.mp4", transfer.awaitFileName());
+    }
+
+    @Test
+    void upstreamFailureReachesReaders() throws Exception {
+        SharedTransfer transfer = new SharedTransfer("https://cdn.example/v.mp4");
+        Path file = dir.resolve("v.mp4");
+        Future<Long> reader = executor.submit(
+                () -> transfer.streamTo(Channels.newChannel(new ByteArrayOutputStream())));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            transfer.begin(file, 100);
+            transfer.tee(channel).write(ByteBuffer.wrap(new byte[10]));
+        }
+        transfer.fail(new IOException("connection reset"));
+
+        ExecutionException e = assertThrows(ExecutionException.class, reader::get);
+        assertInstanceOf(IOException.class, e.getCause());
+        assertThrows(IOException.class, () -> transfer.await(new DownloadProgress()));
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.insta.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SignedUrlRegistryTests {
+
+    private static final long FAR = 4102444800L; // 2100-01-01
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final LaneScheduler laneScheduler = new LaneScheduler(4, 10, 4, 10, 2, 10, 10);
+    private final SignedUrlRegistry registry = new SignedUrlRegistry(null, null, laneScheduler,
+            new MediaMetrics(new SimpleMeterRegistry()), executor, true, 600, 3600, 1);
+
+    @AfterEach
+    void stop() {
+        registry.shutdown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void parsesExpiryFromEachCdnsSignature() {
+        assertEquals(1_700_000_000_000L, SignedUrlRegistry.expiresAt(
+                "https://scontent.cdninstagram.com/v/t51/123_n.jpg?stp=dst&_nc_ht=x&oe=6553F100&_nc_sid=1"));
+        assertEquals(1_700_000_000_000L, SignedUrlRegistry.expiresAt(
+                "https://v16-webapp.tiktok.com/abc/video/tos/x/?a=1988&x-expires=1700000000&x-signature=s"));
+        assertEquals(1_700_000_000_000L, SignedUrlRegistry.expiresAt(
+                "https://rr1---sn-x.googlevideo.com/videoplayback?expire=1700000000&ei=abc&itag=137"));
+        assertEquals(1_700_000_000_000L, SignedUrlRegistry.expiresAt(
+                "https://rr1---sn-x.googlevideo.com/videoplayback/expire/1700000000/ei/abc"));
+        assertEquals(0, SignedUrlRegistry.expiresAt("https://images.pexels.com/videos/1/file.mp4?shoe=1"));
+        assertEquals(0, SignedUrlRegistry.expiresAt(null));
+    }
+
+    @Test
+    void oldUrlsResolveToTheLatestScrapeOfTheirPost() {
+        String post = "https://www.instagram.com/p/ABC/";
+        String oldVideo = "https://scontent.cdninstagram.com/v/video.mp4?oe=" + Long.toHexString(FAR);
+        registry.register(post, null, info(oldVideo, "c=1"));
+        assertEquals(oldVideo, registry.current(oldVideo).url());
+
+        String newVideo = "https://scontent.cdninstagram.com/v/video.mp4?oe=" + Long.toHexString(FAR + 1);
+        registry.register(post + "?igsh=x", null, info(newVideo, "c=2"));
+
+        SignedUrlRegistry.Resolved current = registry.current(oldVideo);
+        assertEquals(newVideo, current.url());
+        assertEquals("c=2", current.cookies());
+        assertNull(registry.current("https://scontent.cdninstagram.com/v/unknown.mp4"));
+    }
+
+    @Test
+    void imagesKeepTheirPositionAndUserCookieScrapesAreIgnored() {
+        String post = "https://www.instagram.com/p/CAROUSEL/";
+        PexelsScraperService.ScrapedInfo first = info(null, null);
+        first.setImageUrls(List.of("https://cdn/1.jpg?oe=1", "https://cdn/2.jpg?oe=1"));
+        registry.register(post, null, first);
+        PexelsScraperService.ScrapedInfo second = info(null, null);
+        second.setImageUrls(List.of("https://cdn/1.jpg?oe=2", "https://cdn/2.jpg?oe=2"));
+        registry.register(post, null, second);
+        assertEquals("https://cdn/2.jpg?oe=2", registry.current("https://cdn/2.jpg?oe=1").url());
+
+        registry.register("https://www.instagram.com/p/PRIVATE/", "sessionid=abc", info("https://cdn/p.mp4", null));
+        assertNull(registry.current("https://cdn/p.mp4"));
+    }
+
+    @Test
+    void failedReResolvesRunInTheHttpLaneAndBackOff() throws Exception {
+        // No scrapers are wired, so every re-scrape fails
+        String video = "https://v16-webapp.tiktok.com/v/video.mp4?x-expires=" + FAR;
+        registry.register("https://www.tiktok.com/@a/video/1", null, info(video, null));
+
+        try (LaneScheduler.Permit direct = laneScheduler.acquire(LaneScheduler.Lane.DIRECT)) {
+            assertNull(registry.reresolve(video));
+            assertFalse(laneScheduler.holdsSlot(LaneScheduler.Lane.BROWSER));
+            assertNull(registry.reresolve(video));
+        }
+        assertEquals(1L, registry.snapshot().get("failedRefreshes"), "the second call did not re-scrape");
+        Map<?, ?> http = (Map<?, ?>) laneScheduler.snapshot().get("HTTP");
+        assertEquals(1L, http.get("admitted"));
+    }
+
+    private static PexelsScraperService.ScrapedInfo info(String videoUrl, String cookies) {
+        PexelsScraperService.ScrapedInfo info = new PexelsScraperService.ScrapedInfo();
+        info.setVideoUrl(videoUrl);
+        info.setCookies(cookies);
+        return info;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.insta.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SiteHealthTests {
+
+    private static SiteHealth health(long openSeconds) {
+        return new SiteHealth(new MediaMetrics(new SimpleMeterRegistry()), 3, openSeconds, 900, 180);
+    }
+
+    @Test
+    void throttlingOpensTheCircuitAtOnceAndHonorsRetryAfter() {
+        SiteHealth health = health(30);
+        health.recordFailure("tiktok", "cdn", SiteHealth.Signal.THROTTLED, 120);
+
+        CircuitOpenException e = assertThrows(CircuitOpenException.class, () -> health.acquire("tiktok", "cdn"));
+        assertTrue(e.getRetryAfterSeconds() > 100, "Retry-After longer than the open period wins");
+        assertEquals(SiteHealth.State.OPEN, health.stateOf("tiktok", "cdn"));
+        // Other strategies and sites are unaffected
+        assertDoesNotThrow(() -> health.acquire("tiktok", "browser"));
+        assertDoesNotThrow(() -> health.acquire("instagram", "cdn"));
+    }
+
+    @Test
+    void extractionFailuresOpenTheCircuitAfterTheThreshold() {
+        SiteHealth health = health(30);
+        health.recordFailure("instagram", "browser", SiteHealth.Signal.EXTRACTION_FAILED);
+        health.recordFailure("instagram", "browser", SiteHealth.Signal.EXTRACTION_FAILED);
+        health.recordSuccess("instagram", "browser");
+        health.recordFailure("instagram", "browser", SiteHealth.Signal.EXTRACTION_FAILED);
+        health.recordFailure("instagram", "browser", SiteHealth.Signal.EXTRACTION_FAILED);
+        assertTrue(health.isAvailable("instagram", "browser"), "a success resets the count");
+
+        health.recordFailure("instagram", "browser", SiteHealth.Signal.EXTRACTION_FAILED);
+        assertEquals(SiteHealth.State.OPEN, health.stateOf("instagram", "browser"));
+        assertThrows(CircuitOpenException.class, () -> health.acquire("instagram", "browser"));
+    }
+
+    @Test
+    void halfOpenLetsOneProbeThrough() {
+        SiteHealth health = health(0);
+        health.recordFailure("instagram", "browser", SiteHealth.Signal.LOGIN_WALL);
+
+        health.acquire("instagram", "browser");
+        assertEquals(SiteHealth.State.HALF_OPEN, health.stateOf("instagram", "browser"));
+        assertThrows(CircuitOpenException.class, () -> health.acquire("instagram", "browser"));
+
+        health.recordFailure("instagram", "browser", SiteHealth.Signal.CAPTCHA);
+        assertEquals(SiteHealth.State.OPEN, health.stateOf("instagram", "browser"));
+
+        health.acquire("instagram", "browser");
+        health.recordSuccess("instagram", "browser");
+        assertEquals(SiteHealth.State.CLOSED, health.stateOf("instagram", "browser"));
+        assertDoesNotThrow(() -> health.acquire("instagram", "browser"));
+    }
+
+    @Test
+    void aProbeWithoutAVerdictLetsTheNextOneThrough() {
+        SiteHealth health = health(0);
+        health.recordFailure("tiktok", "browser", SiteHealth.Signal.CAPTCHA);
+
+        long probe = health.acquire("tiktok", "browser");
+        assertTrue(probe != 0);
+        assertThrows(CircuitOpenException.class, () -> health.acquire("tiktok", "browser"));
+
+        // e.g. the hedged scrape cancelled it
+        health.release("tiktok", "browser", probe);
+        long next = assertDoesNotThrow(() -> health.acquire("tiktok", "browser"));
+        assertEquals(SiteHealth.State.HALF_OPEN, health.stateOf("tiktok", "browser"));
+
+        health.recordSuccess("tiktok", "browser");
+        health.release("tiktok", "browser", next);
+        assertEquals(SiteHealth.State.CLOSED, health.stateOf("tiktok", "browser"));
+    }
+
+    @Test
+    void onlyTheCurrentProbeCanLetTheNextOneThrough() {
+        SiteHealth health = health(0);
+        long admittedWhileClosed = health.acquire("instagram", "cdn");
+        assertEquals(0, admittedWhileClosed);
+        health.recordFailure("instagram", "cdn", SiteHealth.Signal.THROTTLED);
+        long probe = health.acquire("instagram", "cdn");
+
+        // A request from before the circuit opened ends without a verdict while the probe is running
+        health.release("instagram", "cdn", admittedWhileClosed);
+        assertThrows(CircuitOpenException.class, () -> health.acquire("instagram", "cdn"));
+
+        // Once the probe failed and a new one started, the old token no longer frees the slot either
+        health.recordFailure("instagram", "cdn", SiteHealth.Signal.THROTTLED);
+        long replacement = health.acquire("instagram", "cdn");
+        health.release("instagram", "cdn", probe);
+        assertThrows(CircuitOpenException.class, () -> health.acquire("instagram", "cdn"));
+        health.release("instagram", "cdn", replacement);
+        assertDoesNotThrow(() -> health.acquire("instagram", "cdn"));
+    }
+
+    @Test
+    void classifiesLoginWallsAndCaptchas() {
+        assertEquals(SiteHealth.Signal.LOGIN_WALL,
+                SiteHealth.classifyPage("https://www.instagram.com/accounts/login/?next=/p/abc/", "Login", ""));
+        assertEquals(SiteHealth.Signal.CAPTCHA,
+                SiteHealth.classifyPage("https://www.instagram.com/challenge/", "Instagram", ""));
+        assertEquals(SiteHealth.Signal.CAPTCHA, SiteHealth.classifyPage("https://www.tiktok.com/@u/video/1",
+                "TikTok", "<div id=\"captcha-verify-container-main-page\"></div>"));
+        assertNull(SiteHealth.classifyPage("https://www.tiktok.com/@u/video/1", "Video | TikTok",
+                "<script src=\"https://sf16.tiktokcdn.com/captcha/sdk.js\"></script>"));
+        assertEquals(120, SiteHealth.retryAfterSeconds(" 120 "));
+        assertEquals(0, SiteHealth.retryAfterSeconds("Wed, 21 Oct 2026 07:28:00 GMT"));
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.insta.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamManifestTests {
+
+    private static final String MASTER = """
+            #EXTM3U
+            #EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID="aac",NAME="en",URI="audio/en.m3u8"
+            #EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID="aac",NAME="main",DEFAULT=YES,URI="audio/main.m3u8"
+            #EXT-X-STREAM-INF:BANDWIDTH=800000,RESOLUTION=640x360,CODECS="avc1.4d401e,mp4a.40.2",AUDIO="aac"
+            360p/index.m3u8
+            #EXT-X-STREAM-INF:BANDWIDTH=2400000,RESOLUTION=1280x720,CODECS="avc1.4d401f,mp4a.40.2",AUDIO="aac"
+            720p/index.m3u8
+            """;
+
+    private static final String VIDEO_720P = """
+            #EXTM3U
+            #EXT-X-VERSION:7
+            #EXT-X-TARGETDURATION:4
+            #EXT-X-MAP:URI="init.mp4"
+            #EXTINF:4.0,
+            seg-1.m4s
+            #EXTINF:4.0,
+            seg-2.m4s?token=abc
+            #EXT-X-ENDLIST
+            """;
+
+    private static final String AUDIO_MAIN = """
+            #EXTM3U
+            #EXT-X-MAP:URI="main.mp4",BYTERANGE="700@0"
+            #EXTINF:4.0,
+            #EXT-X-BYTERANGE:1000@700
+            main.mp4
+            #EXTINF:4.0,
+            #EXT-X-BYTERANGE:1200
+            main.mp4
+            #EXT-X-ENDLIST
+            """;
+
+    @Test
+    void picksHighestBandwidthVariantAndDefaultAudioRendition() throws IOException {
+        Map<String, String> playlists = Map.of(
+                "https://cdn.example/v/720p/index.m3u8", VIDEO_720P,
+                "https://cdn.example/v/audio/main.m3u8", AUDIO_MAIN);
+        StreamManifest.Selection selection = StreamManifest.parse("https://cdn.example/v/master.m3u8", MASTER,
+                url -> {
+                    if (!playlists.containsKey(url)) {
+                        throw new IOException("unexpected fetch " + url);
+                    }
+                    return playlists.get(url);
+                });
+
+        assertTrue(selection.video().fragmentedMp4());
+        assertEquals(List.of(
+                StreamManifest.Segment.whole("https://cdn.example/v/720p/init.mp4"),
+                StreamManifest.Segment.whole("https://cdn.example/v/720p/seg-1.m4s"),
+                StreamManifest.Segment.whole("https://cdn.example/v/720p/seg-2.m4s?token=abc")),
+                selection.video().segments());
+        assertEquals(-1, selection.video().knownLength());
+
+        String audio = "https://cdn.example/v/audio/main.mp4";
+        assertEquals(List.of(
+                new StreamManifest.Segment(audio, 0, 700),
+                new StreamManifest.Segment(audio, 700, 1000),
+                new StreamManifest.Segment(audio, 1700, 1200)),
+                selection.audio().segments());
+        assertEquals(2900, selection.audio().knownLength());
+    }
+
+    @Test
+    void mediaPlaylistWithoutMapIsTransportStream() throws IOException {
+        String playlist = """
+                #EXTM3U
+                #EXT-X-KEY:METHOD=NONE
+                #EXTINF:6.0,
+                https://other.example/a.ts
+                #EXTINF:6.0,
+                b.ts
+                #EXT-X-ENDLIST
+                """;
+        StreamManifest.Selection selection = StreamManifest.parse("https://cdn.example/hls/index.m3u8", playlist,
+                url -> {
+                    throw new IOException("media playlists need no fetch");
+                });
+
+        assertFalse(selection.video().fragmentedMp4());
+        assertNull(selection.audio());
+        assertEquals(List.of(StreamManifest.Segment.whole("https://other.example/a.ts"),
+                StreamManifest.Segment.whole("https://cdn.example/hls/b.ts")), selection.video().segments());
+    }
+
+    @Test
+    void rejectsLiveAndEncryptedPlaylists() {
+        String live = "#EXTM3U\n#EXTINF:6.0,\na.ts\n";
+        String encrypted = "#EXTM3U\n#EXT-X-KEY:METHOD=AES-128,URI=\"key\"\n#EXTINF:6.0,\na.ts\n#EXT-X-ENDLIST\n";
+        assertThrows(IOException.class, () -> StreamManifest.parse("https://cdn.example/live.m3u8", live, null));
+        assertThrows(IOException.class, () -> StreamManifest.parse("https://cdn.example/enc.m3u8", encrypted, null));
+        assertThrows(InvalidMediaException.class,
+                () -> StreamManifest.parse("https://cdn.example/x.m3u8", "<html>denied</html>", null));
+    }
+
+    @Test
+    void expandsDashSegmentTemplateWithTimeline() throws IOException {
+        String mpd = """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <MPD xmlns="urn:mpeg:dash:schema:mpd:2011" type="static" mediaPresentationDuration="PT10S">
+                  <BaseURL>https://cdn.example/dash/</BaseURL>
+                  <Period>
+                    <AdaptationSet contentType="video" mimeType="video/mp4">
+                      <SegmentTemplate timescale="1000" initialization="$RepresentationID$/init.mp4"
+                          media="$RepresentationID$/$Number%03d$-$Time$.m4s" startNumber="5">
+                        <SegmentTimeline>
+                          <S t="0" d="4000" r="1"/>
+                          <S d="2000"/>
+                        </SegmentTimeline>
+                      </SegmentTemplate>
+                      <Representation id="v480" bandwidth="900000"/>
+                      <Representation id="v1080" bandwidth="4500000"/>
+                    </AdaptationSet>
+                    <AdaptationSet mimeType="video/webm">
+                      <Representation id="vp9" bandwidth="9000000"><BaseURL>vp9.webm</BaseURL></Representation>
+                    </AdaptationSet>
+                    <AdaptationSet mimeType="audio/mp4">
+                      <SegmentTemplate timescale="48000" duration="192000" initialization="a/init.mp4"
+                          media="a/$Number$.m4s"/>
+                      <Representation id="aac" bandwidth="128000" codecs="mp4a.40.2"/>
+                    </AdaptationSet>
+                  </Period>
+                </MPD>
+                """;
+        StreamManifest.Selection selection = StreamManifest.parse("https://origin.example/v.mpd", mpd, null);
+
+        String base = "https://cdn.example/dash/";
+        assertEquals(List.of(
+                StreamManifest.Segment.whole(base + "v1080/init.mp4"),
+                StreamManifest.Segment.whole(base + "v1080/005-0.m4s"),
+                StreamManifest.Segment.whole(base + "v1080/006-4000.m4s"),
+                StreamManifest.Segment.whole(base + "v1080/007-8000.m4s")),
+                selection.video().segments());
+        // 10 s in 4 s segments: 3 media segments after the init segment
+        assertEquals(List.of(
+                StreamManifest.Segment.whole(base + "a/init.mp4"),
+                StreamManifest.Segment.whole(base + "a/1.m4s"),
+                StreamManifest.Segment.whole(base + "a/2.m4s"),
+                StreamManifest.Segment.whole(base + "a/3.m4s")),
+                selection.audio().segments());
+    }
+
+    @Test
+    void readsDashSegmentListByteRanges() throws IOException {
+        String mpd = """
+                <MPD xmlns="urn:mpeg:dash:schema:mpd:2011" mediaPresentationDuration="PT0H0M8.0S">
+                  <Period>
+                    <AdaptationSet>
+                      <Representation id="1" bandwidth="1000" mimeType="video/mp4" codecs="avc1.64001f">
+                        <BaseURL>video.mp4</BaseURL>
+                        <SegmentList>
+                          <Initialization range="0-799"/>
+                          <SegmentURL mediaRange="800-1799"/>
+                          <SegmentURL mediaRange="1800-2299"/>
+                        </SegmentList>
+                      </Representation>
+                    </AdaptationSet>
+                  </Period>
+                </MPD>
+                """;
+        StreamManifest.Selection selection = StreamManifest.parse("https://cdn.example/p/manifest.mpd", mpd, null);
+
+        String file = "https://cdn.example/p/video.mp4";
+        assertEquals(List.of(new StreamManifest.Segment(file, 0, 800), new StreamManifest.Segment(file, 800, 1000),
+                new StreamManifest.Segment(file, 1800, 500)), selection.video().segments());
+        assertNull(selection.audio());
+        assertEquals(2300, selection.video().knownLength());
+    }
+
+    @Test
+    void recognizesManifestUrls() {
+        assertTrue(StreamManifest.isManifestUrl("https://cdn.example/a/master.m3u8?sig=1"));
+        assertTrue(StreamManifest.isManifestUrl("https://cdn.example/a/stream.MPD"));
+        assertFalse(StreamManifest.isManifestUrl("https://cdn.example/a/video.mp4?list=x.m3u8"));
+    }
+}
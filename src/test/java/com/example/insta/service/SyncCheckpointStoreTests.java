@@ -0,0 +1,50 @@
+package com.example.insta.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyncCheckpointStoreTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void checkpointsSurviveARestart() throws IOException {
+        Path file = dir.resolve("sync-checkpoints.json");
+        new SyncCheckpointStore(file.toString())
+                .put("tiktok:a", new SyncCheckpointStore.Checkpoint("100", "https://www.tiktok.com/@a/video/100", 1));
+
+        SyncCheckpointStore restarted = new SyncCheckpointStore(file.toString());
+
+        assertEquals("100", restarted.get("tiktok:a").orElseThrow().getLastPostId());
+    }
+
+    @Test
+    void corruptFileIsMovedAsideAndTheStoreStartsEmpty() throws IOException {
+        Path file = dir.resolve("sync-checkpoints.json");
+        Files.writeString(file, "{\"tiktok:a\": {\"lastPostId\": \"100\", ");
+
+        SyncCheckpointStore store = new SyncCheckpointStore(file.toString());
+
+        assertTrue(store.getAll().isEmpty());
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.toList();
+        }
+        assertEquals(1, files.size());
+        assertTrue(files.get(0).getFileName().toString().startsWith("sync-checkpoints.json.corrupt-"));
+
+        // The next save starts a fresh file
+        store.put("tiktok:b", new SyncCheckpointStore.Checkpoint("7", "https://www.tiktok.com/@b/video/7", 1));
+        assertTrue(Files.exists(file));
+    }
+}